@@ -178,7 +178,10 @@ public void queryStatusChanged(
             if (status != QUERY_CANCELED)
             {
                 status = QUERY_COMPLETED;
-                if(callHistoryQuery == null)
+                if(callHistoryQuery == null
+                    || (callHistoryQuery instanceof CallHistoryQueryImpl
+                        && ((CallHistoryQueryImpl) callHistoryQuery)
+                            .isCompleted()))
                     fireQueryStatusEvent(status);
             }
         }
@@ -0,0 +1,790 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Index of the call history records by the addresses of the peers of the
+ * calls. Every record is found under the normalized primary and secondary
+ * addresses of its peers, under their user parts and, for the addresses
+ * which are phone numbers, under their digits, so "+1 (555) 0100" and
+ * "sip:15550100@example.org" are the same peer.
+ * <p>
+ * The records are kept in memory and in a file which is appended to when a
+ * call is added or updated, a record read later replacing the one with the
+ * same time read before it. The file also tells the time of the newest
+ * record it contains, so the index can be checked against the history when
+ * it is loaded and built again when they differ.
+ * <p>
+ * Instances are thread safe.
+ */
+class CallHistoryPeerIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(CallHistoryPeerIndex.class);
+
+    /**
+     * The encoding of the index file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The file containing the indexed records or <tt>null</tt> if the index
+     * is only kept in memory.
+     */
+    private final File file;
+
+    /**
+     * The URI schemes removed from the addresses when they are normalized.
+     */
+    private static final String[] SCHEMES
+        = new String[] { "sip:", "sips:", "tel:", "xmpp:" };
+
+    /**
+     * The name of the field containing the addresses of the peers.
+     */
+    private final String peerIDsField;
+
+    /**
+     * The name of the field containing the secondary addresses of the peers.
+     */
+    private final String peerSecondaryIDsField;
+
+    /**
+     * The records by peer key, in the order they were added.
+     */
+    private final Map<String, List<HistoryRecord>> recordsByPeer
+        = new HashMap<String, List<HistoryRecord>>();
+
+    /**
+     * All indexed records in the order they were added.
+     */
+    private final List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+
+    /**
+     * Whether the records have been loaded.
+     */
+    private volatile boolean loaded = false;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param file the file containing the indexed records or <tt>null</tt>
+     * to only keep them in memory
+     * @param peerIDsField the name of the field containing the addresses of
+     * the peers
+     * @param peerSecondaryIDsField the name of the field containing the
+     * secondary addresses of the peers
+     */
+    CallHistoryPeerIndex(File file,
+                         String peerIDsField,
+                         String peerSecondaryIDsField)
+    {
+        this.file = file;
+        this.peerIDsField = peerIDsField;
+        this.peerSecondaryIDsField = peerSecondaryIDsField;
+    }
+
+    /**
+     * Returns whether the records have been loaded and the index can be
+     * queried.
+     *
+     * @return <tt>true</tt> if the index can be queried
+     */
+    boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Loads the records from the index file or, if it is missing or does not
+     * contain the newest record of the history, from the history.
+     *
+     * @param reader the reader of the call history
+     */
+    synchronized void load(HistoryReader reader)
+    {
+        if (loaded)
+            return;
+
+        QueryResultSet<HistoryRecord> newest = reader.findLast(1);
+
+        if (!loadFile(newest.hasNext() ? newest.next() : null))
+            build(reader.findLast(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Loads the records from the index file if it contains the same newest
+     * record as the history.
+     *
+     * @param newestRecord the newest record of the history or <tt>null</tt>
+     * if it is empty
+     * @return <tt>true</tt> if the index is loaded, <tt>false</tt> if it must
+     * be built
+     */
+    private boolean loadFile(HistoryRecord newestRecord)
+    {
+        if (file == null || !file.exists())
+            return false;
+
+        // the records updated after being added are read again
+        Map<Date, HistoryRecord> stored
+            = new LinkedHashMap<Date, HistoryRecord>();
+        int lineCount = 0;
+        try
+        {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), ENCODING));
+            try
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    if (line.length() != 0)
+                    {
+                        HistoryRecord record = parse(line);
+
+                        stored.put(record.getTimestamp(), record);
+                        lineCount++;
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to read the call history index " + file, e);
+            return false;
+        }
+
+        HistoryRecord newestStored = null;
+        for (HistoryRecord record : stored.values())
+            newestStored = record;
+
+        if (newestRecord == null
+                ? newestStored != null
+                : (newestStored == null
+                    || !newestRecord.getTimestamp().equals(
+                            newestStored.getTimestamp())))
+        {
+            if (logger.isInfoEnabled())
+                logger.info("The call history index is out of date");
+            return false;
+        }
+
+        for (HistoryRecord record : stored.values())
+            addToMemory(record);
+        loaded = true;
+
+        // drop the lines of the records which have been updated
+        if (lineCount > records.size())
+            store();
+        return true;
+    }
+
+    /**
+     * Builds the index from all the records of the history and writes it to
+     * the index file.
+     *
+     * @param historyRecords the records of the history in any order
+     */
+    private void build(Iterator<HistoryRecord> historyRecords)
+    {
+        if (logger.isInfoEnabled())
+            logger.info("Building the call history index");
+
+        clearMemory();
+
+        List<HistoryRecord> sorted = new ArrayList<HistoryRecord>();
+        while (historyRecords.hasNext())
+            sorted.add(historyRecords.next());
+        Collections.sort(sorted, new Comparator<HistoryRecord>()
+        {
+            public int compare(HistoryRecord r1, HistoryRecord r2)
+            {
+                return r1.getTimestamp().compareTo(r2.getTimestamp());
+            }
+        });
+
+        for (HistoryRecord record : sorted)
+            addToMemory(record);
+        loaded = true;
+
+        store();
+    }
+
+    /**
+     * Adds a record just written to the history. The record is dropped if
+     * the index is not loaded, as it will be read from the history when the
+     * index is loaded.
+     *
+     * @param record the record written to the history
+     */
+    synchronized void add(HistoryRecord record)
+    {
+        if (!loaded)
+            return;
+
+        // the record may have been read from the history while loading
+        Date timestamp = record.getTimestamp();
+        for (int i = records.size() - 1; i >= 0; i--)
+        {
+            Date recordTimestamp = records.get(i).getTimestamp();
+
+            if (recordTimestamp.equals(timestamp))
+                return;
+            if (recordTimestamp.before(timestamp))
+                break;
+        }
+
+        addToMemory(record);
+        append(record);
+    }
+
+    /**
+     * Replaces a record of which a field has been updated in the history.
+     * Only the peers of the two records are updated and the new record is
+     * appended to the index file.
+     *
+     * @param oldRecord the indexed record
+     * @param newRecord the record with the updated field
+     */
+    synchronized void replace(HistoryRecord oldRecord, HistoryRecord newRecord)
+    {
+        int index = indexOf(records, oldRecord);
+        if (index == -1)
+            return;
+
+        records.set(index, newRecord);
+
+        Set<String> newKeys = getKeys(newRecord);
+        for (String key : getKeys(oldRecord))
+        {
+            List<HistoryRecord> peerRecords = recordsByPeer.get(key);
+            int peerIndex = indexOf(peerRecords, oldRecord);
+            if (peerIndex == -1)
+                continue;
+
+            if (newKeys.remove(key))
+                peerRecords.set(peerIndex, newRecord);
+            else
+            {
+                peerRecords.remove(peerIndex);
+                if (peerRecords.isEmpty())
+                    recordsByPeer.remove(key);
+            }
+        }
+
+        // the peers the record did not have, keeping their records in the
+        // order of their times
+        Date timestamp = newRecord.getTimestamp();
+        for (String key : newKeys)
+        {
+            List<HistoryRecord> peerRecords = recordsByPeer.get(key);
+            if (peerRecords == null)
+            {
+                peerRecords = new ArrayList<HistoryRecord>(1);
+                recordsByPeer.put(key, peerRecords);
+            }
+
+            int peerIndex = peerRecords.size();
+            while (peerIndex > 0
+                    && peerRecords.get(peerIndex - 1).getTimestamp().after(
+                            timestamp))
+                peerIndex--;
+            peerRecords.add(peerIndex, newRecord);
+        }
+
+        append(newRecord);
+    }
+
+    /**
+     * Drops all records and deletes the index file, when the history is
+     * erased.
+     */
+    synchronized void clear()
+    {
+        clearMemory();
+        loaded = true;
+
+        if (file != null && file.exists() && !file.delete())
+            logger.error("Failed to remove " + file);
+    }
+
+    /**
+     * Returns the newest records with a peer matching <tt>address</tt>. A
+     * peer matches if <tt>address</tt> is its primary or secondary address,
+     * the user part of one of them or its phone number, once they are
+     * normalized.
+     *
+     * @param address the address to search for
+     * @param recordCount the maximum number of records to return
+     * @return the matching records, the newest first
+     * @see #normalize(String)
+     */
+    synchronized List<HistoryRecord> findByPeer(String address,
+                                                int recordCount)
+    {
+        String key = normalize(address);
+        String number = getNumberKey(key);
+
+        Set<HistoryRecord> found = new HashSet<HistoryRecord>();
+        if (key.length() != 0)
+        {
+            List<HistoryRecord> peerRecords = recordsByPeer.get(key);
+            if (peerRecords != null)
+                found.addAll(peerRecords);
+        }
+        if (number != null)
+        {
+            List<HistoryRecord> peerRecords = recordsByPeer.get(number);
+            if (peerRecords != null)
+                found.addAll(peerRecords);
+        }
+
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>(found);
+        Collections.sort(result, new Comparator<HistoryRecord>()
+        {
+            public int compare(HistoryRecord r1, HistoryRecord r2)
+            {
+                return r2.getTimestamp().compareTo(r1.getTimestamp());
+            }
+        });
+
+        if (result.size() > recordCount)
+            result = new ArrayList<HistoryRecord>(
+                result.subList(0, Math.max(recordCount, 0)));
+        return result;
+    }
+
+    /**
+     * Returns the records with a peer having the specified primary address.
+     *
+     * @param peerAddress the primary address of the peer
+     * @return the records, the oldest first
+     */
+    synchronized List<HistoryRecord> getRecords(String peerAddress)
+    {
+        List<HistoryRecord> peerRecords
+            = recordsByPeer.get(normalize(peerAddress));
+
+        if (peerRecords == null)
+            return new ArrayList<HistoryRecord>();
+        return new ArrayList<HistoryRecord>(peerRecords);
+    }
+
+    /**
+     * Adds a record to the in memory index.
+     *
+     * @param record the record to add
+     */
+    private void addToMemory(HistoryRecord record)
+    {
+        records.add(record);
+
+        for (String key : getKeys(record))
+        {
+            List<HistoryRecord> peerRecords = recordsByPeer.get(key);
+            if (peerRecords == null)
+            {
+                peerRecords = new ArrayList<HistoryRecord>(1);
+                recordsByPeer.put(key, peerRecords);
+            }
+            peerRecords.add(record);
+        }
+    }
+
+    /**
+     * Returns the keys of the peers of a record.
+     *
+     * @param record the record
+     * @return the keys of the primary and secondary addresses of the peers
+     */
+    private Set<String> getKeys(HistoryRecord record)
+    {
+        Set<String> keys = new HashSet<String>();
+        addKeys(keys, getField(record, peerIDsField));
+        addKeys(keys, getField(record, peerSecondaryIDsField));
+        return keys;
+    }
+
+    /**
+     * Drops all records from memory.
+     */
+    private void clearMemory()
+    {
+        records.clear();
+        recordsByPeer.clear();
+        loaded = false;
+    }
+
+    /**
+     * Appends a record to the index file.
+     *
+     * @param record the record added or updated
+     */
+    private void append(HistoryRecord record)
+    {
+        if (file == null)
+            return;
+
+        try
+        {
+            Writer out = new OutputStreamWriter(
+                new FileOutputStream(file, true), ENCODING);
+            try
+            {
+                out.write(format(record));
+                out.write('\n');
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write the call history index " + file, e);
+        }
+    }
+
+    /**
+     * Writes all records to the index file.
+     */
+    private void store()
+    {
+        if (file == null)
+            return;
+
+        try
+        {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create directory: " + dir);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), ENCODING));
+            try
+            {
+                for (HistoryRecord record : records)
+                {
+                    out.write(format(record));
+                    out.write('\n');
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write the call history index " + file, e);
+
+            // an incomplete index must not be trusted when loaded
+            if (file.exists() && !file.delete())
+                logger.error("Failed to remove " + file);
+        }
+    }
+
+    /**
+     * Adds the keys of the peers in a field containing their addresses.
+     *
+     * @param keys the set receiving the keys
+     * @param addresses the value of the field or <tt>null</tt>
+     */
+    private static void addKeys(Set<String> keys, String addresses)
+    {
+        if (addresses == null)
+            return;
+
+        for (String address : CallHistoryServiceImpl.getCSVs(addresses))
+        {
+            String key = normalize(address);
+            if (key.length() == 0)
+                continue;
+
+            keys.add(key);
+
+            int at = key.indexOf('@');
+            if (at > 0)
+                keys.add(key.substring(0, at));
+
+            String number = getNumberKey(key);
+            if (number != null)
+                keys.add(number);
+        }
+    }
+
+    /**
+     * Normalizes an address of a peer or a searched address: lower case,
+     * without the angle brackets around it, its URI scheme, its URI
+     * parameters and headers and its jabber resource.
+     *
+     * @param address the address
+     * @return the normalized <tt>address</tt>
+     */
+    static String normalize(String address)
+    {
+        String key = address.trim().toLowerCase();
+
+        int ix = key.indexOf('<');
+        if (ix != -1)
+        {
+            int end = key.indexOf('>', ix);
+            if (end != -1)
+                key = key.substring(ix + 1, end).trim();
+        }
+
+        for (String scheme : SCHEMES)
+        {
+            if (key.startsWith(scheme))
+            {
+                key = key.substring(scheme.length());
+                break;
+            }
+        }
+
+        ix = key.indexOf(';');
+        if (ix != -1)
+            key = key.substring(0, ix);
+        ix = key.indexOf('?');
+        if (ix != -1)
+            key = key.substring(0, ix);
+
+        int at = key.indexOf('@');
+        if (at != -1)
+        {
+            ix = key.indexOf('/', at);
+            if (ix != -1)
+                key = key.substring(0, ix);
+        }
+        return key.trim();
+    }
+
+    /**
+     * Returns the digits of an address which is a phone number, the user part
+     * of a SIP URI being considered.
+     *
+     * @param address the address in lower case
+     * @return the digits of the number or <tt>null</tt> if <tt>address</tt>
+     * is not a phone number
+     */
+    static String getNumberKey(String address)
+    {
+        String user = address;
+
+        if (user.startsWith("sip:") || user.startsWith("tel:"))
+            user = user.substring(4);
+        else if (user.startsWith("sips:"))
+            user = user.substring(5);
+
+        int ix = user.indexOf('@');
+        if (ix != -1)
+            user = user.substring(0, ix);
+
+        StringBuilder digits = new StringBuilder(user.length());
+        for (int i = 0; i < user.length(); i++)
+        {
+            char c = user.charAt(i);
+
+            if (c >= '0' && c <= '9')
+                digits.append(c);
+            else if ("+-.()/ ".indexOf(c) == -1)
+                return null;
+        }
+
+        return (digits.length() == 0) ? null : digits.toString();
+    }
+
+    /**
+     * Returns the value of a field of a record.
+     *
+     * @param record the record
+     * @param name the name of the field
+     * @return the value or <tt>null</tt> if the record has no such field
+     */
+    private static String getField(HistoryRecord record, String name)
+    {
+        String[] names = record.getPropertyNames();
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(name))
+                return record.getPropertyValues()[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of a record in a list, comparing identities.
+     *
+     * @param list the list or <tt>null</tt>
+     * @param record the record
+     * @return the index or -1
+     */
+    private static int indexOf(List<HistoryRecord> list, HistoryRecord record)
+    {
+        if (list == null)
+            return -1;
+        for (int i = list.size() - 1; i >= 0; i--)
+        {
+            if (list.get(i) == record)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Formats a record as a line of the index file: its timestamp followed
+     * by its fields, separated by tabs.
+     *
+     * @param record the record
+     * @return the line, without a line terminator
+     */
+    static String format(HistoryRecord record)
+    {
+        StringBuilder line = new StringBuilder();
+        line.append(record.getTimestamp().getTime());
+
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+        for (int i = 0; i < names.length; i++)
+        {
+            line.append('\t');
+            escape(line, names[i]);
+            line.append('\t');
+            escape(line, values[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Parses a line of the index file.
+     *
+     * @param line the line, without its terminator
+     * @return the record
+     * @throws IllegalArgumentException if the line is not a record
+     */
+    static HistoryRecord parse(String line)
+    {
+        String[] tokens = line.split("\t", -1);
+        if (tokens.length % 2 != 1)
+            throw new IllegalArgumentException("Bad index line: " + line);
+
+        int count = tokens.length / 2;
+        String[] names = new String[count];
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            names[i] = unescape(tokens[2 * i + 1]);
+            values[i] = unescape(tokens[2 * i + 2]);
+        }
+
+        return new HistoryRecord(
+            names, values, new Date(Long.parseLong(tokens[0])));
+    }
+
+    /**
+     * Appends a value escaping the backslashes, tabs and line breaks.
+     *
+     * @param out the builder receiving the escaped value
+     * @param value the value or <tt>null</tt>
+     */
+    private static void escape(StringBuilder out, String value)
+    {
+        if (value == null)
+        {
+            out.append("\\0");
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            default:
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Reverts {@link #escape(StringBuilder, String)}.
+     *
+     * @param value the escaped value
+     * @return the value or <tt>null</tt>
+     */
+    private static String unescape(String value)
+    {
+        if (value.equals("\\0"))
+            return null;
+        if (value.indexOf('\\') == -1)
+            return value;
+
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length())
+            {
+                c = value.charAt(++i);
+                switch (c)
+                {
+                case 't':
+                    c = '\t';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                default:
+                    break;
+                }
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+}
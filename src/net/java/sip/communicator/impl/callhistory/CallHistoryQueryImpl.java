@@ -39,6 +39,12 @@
 
     private final HistoryQuery historyQuery;
 
+    /**
+     * The query string of a query which results were found without a
+     * <tt>HistoryQuery</tt>.
+     */
+    private final String queryString;
+
     /**
      * Creates an instance of <tt>CallHistoryQueryImpl</tt> by specifying the
      * underlying <tt>HistoryQuery</tt>.
@@ -47,6 +53,7 @@
     public CallHistoryQueryImpl(HistoryQuery query)
     {
         this.historyQuery = query;
+        this.queryString = null;
 
         historyQuery.addHistoryRecordsListener(new HistoryQueryListener()
         {
@@ -79,12 +86,38 @@ public void queryStatusChanged(HistoryQueryStatusEvent event)
         }
     }
 
+    /**
+     * Creates an instance of <tt>CallHistoryQueryImpl</tt> which results are
+     * already known, such as those found in the index of the calls by peer.
+     * The query is completed when created.
+     * @param queryString the query string this query was created for
+     * @param callRecords the results of this query
+     */
+    CallHistoryQueryImpl(String queryString, Collection<CallRecord> callRecords)
+    {
+        this.historyQuery = null;
+        this.queryString = queryString;
+
+        this.callRecords.addAll(callRecords);
+    }
+
+    /**
+     * Indicates whether all the results of this query are already known and
+     * no status change will be fired.
+     * @return <tt>true</tt> if this query is completed
+     */
+    boolean isCompleted()
+    {
+        return historyQuery == null;
+    }
+
     /**
      * Cancels this query.
      */
     public void cancel()
     {
-        historyQuery.cancel();
+        if (historyQuery != null)
+            historyQuery.cancel();
     }
 
     /**
@@ -170,6 +203,8 @@ private void fireQueryStatusEvent(int newStatus)
      */
     public String getQueryString()
     {
-        return historyQuery.getQueryString();
+        return (historyQuery == null)
+            ? queryString
+            : historyQuery.getQueryString();
     }
 }
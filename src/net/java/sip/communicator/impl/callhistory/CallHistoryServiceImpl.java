@@ -32,6 +32,7 @@
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 /**
@@ -89,6 +90,24 @@
     private List<CallHistoryPeerRecordListener> callHistoryRecordlisteners
         = new LinkedList<CallHistoryPeerRecordListener>();
 
+    /**
+     * The name of the file of the index of the calls by peer, in the cache
+     * directory.
+     */
+    private static final String PEER_INDEX_FILE_NAME
+        = "callhistory" + File.separator + "peers.idx";
+
+    /**
+     * The index of the calls by peer answering <tt>findByPeer</tt>, created
+     * when the service is started.
+     */
+    private CallHistoryPeerIndex peerIndex = null;
+
+    /**
+     * Whether the index of the calls by peer is being loaded.
+     */
+    private boolean peerIndexLoading = false;
+
     /**
      * Returns the underlying history service.
      * @return the underlying history service
@@ -313,6 +332,16 @@ public CallHistoryQuery findByPeer(String address, int recordCount)
     {
         CallHistoryQueryImpl callQuery = null;
 
+        if (isPeerIndexLoaded())
+        {
+            List<CallRecord> callRecords = new ArrayList<CallRecord>();
+            for (HistoryRecord hr : peerIndex.findByPeer(address, recordCount))
+                callRecords.add(convertHistoryRecordToCallRecord(hr));
+
+            return new CallHistoryQueryImpl(address, callRecords);
+        }
+
+        // search the history until the index is loaded
         try
         {
             // the default ones
@@ -333,6 +362,57 @@ public CallHistoryQuery findByPeer(String address, int recordCount)
         return callQuery;
     }
 
+    /**
+     * Returns whether the index of the calls by peer can be queried, starting
+     * to load it in the background if it is not.
+     *
+     * @return <tt>true</tt> if the index of the calls by peer is loaded
+     */
+    private boolean isPeerIndexLoaded()
+    {
+        final CallHistoryPeerIndex peerIndex = this.peerIndex;
+
+        if (peerIndex == null)
+            return false;
+        if (peerIndex.isLoaded())
+            return true;
+
+        synchronized (this)
+        {
+            if (peerIndexLoading)
+                return false;
+            peerIndexLoading = true;
+        }
+
+        Thread loader = new Thread("CallHistoryPeerIndexLoader")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    peerIndex.load(getHistory(null, null).getReader());
+                }
+                catch (Throwable t)
+                {
+                    logger.error("Failed to load the call history index", t);
+                }
+                finally
+                {
+                    synchronized (CallHistoryServiceImpl.this)
+                    {
+                        peerIndexLoading = false;
+                    }
+                }
+            }
+        };
+
+        // the loading must not keep the application from exiting
+        loader.setDaemon(true);
+        loader.start();
+        return false;
+    }
+
     /**
      * Returns the history by specified local and remote contact
      * if one of them is null the default is used
@@ -516,7 +596,7 @@ else if (logger.isInfoEnabled())
      * @param str String
      * @return LinkedList
      */
-    private static List<String> getCSVs(String str)
+    static List<String> getCSVs(String str)
     {
         List<String> result = new LinkedList<String>();
 
@@ -613,6 +693,24 @@ public void start(BundleContext bc)
 
         this.bundleContext = bc;
 
+        File peerIndexFile = null;
+        FileAccessService fileAccessService
+            = ServiceUtils.getService(bc, FileAccessService.class);
+        if (fileAccessService != null)
+        {
+            try
+            {
+                peerIndexFile = fileAccessService.getPrivatePersistentFile(
+                    PEER_INDEX_FILE_NAME, FileCategory.CACHE);
+            }
+            catch (Exception e)
+            {
+                logger.warn("The call history index will not be stored", e);
+            }
+        }
+        peerIndex = new CallHistoryPeerIndex(
+            peerIndexFile, STRUCTURE_NAMES[4], STRUCTURE_NAMES[10]);
+
         // start listening for newly register or removed protocol providers
         bc.addServiceListener(this);
 
@@ -724,7 +822,7 @@ private void writeCall( CallRecordImpl callRecord,
 
             }
 
-            historyWriter.addRecord(new String[] {
+            String[] values = new String[] {
                     callRecord.getSourceCall().getProtocolProvider()
                         .getAccountID().getAccountUniqueID(),
                     sdf.format(callRecord.getStartTime()),
@@ -736,9 +834,17 @@ private void writeCall( CallRecordImpl callRecord,
                     callPeerStates.toString(),
                     String.valueOf(callRecord.getEndReason()),
                     callPeerNames.toString(),
-                    callPeerSecondaryIDs.toString()},
-                    new Date());    // this date is when the history
-                                    // record is written
+                    callPeerSecondaryIDs.toString()};
+            // this date is when the history record is written
+            Date timestamp = new Date();
+
+            historyWriter.addRecord(values, timestamp);
+
+            if (peerIndex != null)
+            {
+                peerIndex.add(
+                    new HistoryRecord(STRUCTURE_NAMES, values, timestamp));
+            }
         }
         catch (IOException e)
         {
@@ -795,6 +901,9 @@ public void eraseLocallyStoredHistory()
         HistoryID historyId = HistoryID.createFromRawID(
                     new String[] {  "callhistory" });
         historyService.purgeLocallyStoredHistory(historyId);
+
+        if (peerIndex != null)
+            peerIndex.clear();
     }
 
     /**
@@ -1257,6 +1366,87 @@ public Map<String, String> getUpdateChanges()
             logger.warn("Failed to update the record.");
         }
 
+        updatePeerIndexSecondaryAddress(date, peerAddress, address);
+    }
+
+    /**
+     * Sets the secondary address of a peer in the matching records of the
+     * index of the calls by peer, so that they are also found by this
+     * address.
+     * @param date the start date of the peer in the records to update.
+     * @param peerAddress the address of the peer.
+     * @param address the value of the secondary address.
+     */
+    private void updatePeerIndexSecondaryAddress(Date date,
+                                                 String peerAddress,
+                                                 String address)
+    {
+        if (peerIndex == null || !peerIndex.isLoaded())
+            return;
+
+        SimpleDateFormat sdf = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+        for (HistoryRecord record : peerIndex.getRecords(peerAddress))
+        {
+            String[] propertyNames = record.getPropertyNames();
+            String[] propertyValues = record.getPropertyValues().clone();
+            int peerIDIndex = -1;
+            int dateIndex = -1;
+            int peerSecondaryIDIndex = -1;
+
+            for (int i = 0; i < propertyNames.length; i++)
+            {
+                if (propertyNames[i].equals(STRUCTURE_NAMES[4]))
+                    peerIDIndex = i;
+                else if (propertyNames[i].equals(STRUCTURE_NAMES[5]))
+                    dateIndex = i;
+                else if (propertyNames[i].equals(STRUCTURE_NAMES[10]))
+                    peerSecondaryIDIndex = i;
+            }
+            if (peerIDIndex == -1 || dateIndex == -1
+                    || peerSecondaryIDIndex == -1)
+                continue;
+
+            List<String> peerIDs = getCSVs(propertyValues[peerIDIndex]);
+            List<String> dates = getCSVs(propertyValues[dateIndex]);
+            int i = peerIDs.indexOf(peerAddress);
+            if (i == -1 || i >= dates.size())
+                continue;
+
+            try
+            {
+                if (!sdf.parse(dates.get(i)).equals(date))
+                    continue;
+            }
+            catch (ParseException e)
+            {
+                continue;
+            }
+
+            // empty secondary addresses are kept so that they stay at the
+            // index of their peer
+            String secondaryIDsValue = propertyValues[peerSecondaryIDIndex];
+            List<String> secondaryIDs = new ArrayList<String>(
+                Arrays.asList(((secondaryIDsValue == null)
+                        ? "" : secondaryIDsValue)
+                    .split(String.valueOf(DELIM), -1)));
+            while (secondaryIDs.size() < peerIDs.size())
+                secondaryIDs.add("");
+            secondaryIDs.set(i, address);
+
+            StringBuilder newSecondaryIDs = new StringBuilder();
+            for (String secondaryID : secondaryIDs)
+            {
+                if (newSecondaryIDs.length() > 0)
+                    newSecondaryIDs.append(DELIM);
+                newSecondaryIDs.append(secondaryID);
+            }
+            propertyValues[peerSecondaryIDIndex] = newSecondaryIDs.toString();
+
+            peerIndex.replace(
+                record,
+                new HistoryRecord(
+                    propertyNames, propertyValues, record.getTimestamp()));
+        }
     }
 
     /**
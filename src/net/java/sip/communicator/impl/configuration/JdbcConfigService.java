@@ -22,6 +22,7 @@
 import java.sql.*;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
@@ -47,6 +48,15 @@
     private final Logger logger
         = Logger.getLogger(JdbcConfigService.class);
 
+    /**
+     * Name of the system property with the time in milliseconds the database
+     * may wait before making the committed changes durable. The default of
+     * zero syncs the database file on every commit, larger values trade the
+     * last changes in case of a crash for fewer disk syncs.
+     */
+    public static final String PNAME_WRITE_DELAY_MILLIS
+        = "net.java.sip.communicator.impl.configuration.WRITE_DELAY_MILLIS";
+
     /**
      * Name of the file containing default properties.
      */
@@ -91,14 +101,26 @@
     private SetMultimap<String, PropertyChangeListener> listeners
         = HashMultimap.create();
 
+    /**
+     * The properties stored in the database. Loaded when the service is
+     * created and updated by every write, so reads never go to the database.
+     */
+    private final Map<String, String> storedProperties
+        = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Index of the names in {@link #storedProperties} for the prefix and
+     * suffix queries.
+     */
+    private final PropertyNameIndex storedPropertyNames
+        = new PropertyNameIndex();
+
     /**
      * Connection to the JDBC database.
      */
     private Connection connection;
 
     // SQL statements for queries against the database
-    private PreparedStatement selectExact;
-    private PreparedStatement selectLike;
     private PreparedStatement selectAll;
     private PreparedStatement insertOrUpdate;
     private PreparedStatement delete;
@@ -134,6 +156,7 @@ public JdbcConfigService(FileAccessService fas) throws Exception
         // open the connection
         Class.forName("org.hsqldb.jdbc.JDBCDriver");
         checkConnection();
+        loadStoredProperties();
 
         // then do the actual migration
         if (migrate)
@@ -141,14 +164,13 @@ public JdbcConfigService(FileAccessService fas) throws Exception
             Properties p = new Properties();
             p.load(new FileInputStream(oldProps));
 
-            this.connection.setAutoCommit(false);
+            Map<String, Object> props = new LinkedHashMap<String, Object>();
             for (Map.Entry<Object, Object> e : p.entrySet())
             {
-                this.setProperty(e.getKey().toString(), e.getValue(), false);
+                props.put(e.getKey().toString(), e.getValue());
             }
 
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
+            this.setProperties(props);
         }
 
         // and finally load the (mandatory) system properties
@@ -195,21 +217,30 @@ private void checkConnection() throws SQLException
             throw new SQLException(e);
         }
 
+        int writeDelay = Integer.getInteger(PNAME_WRITE_DELAY_MILLIS, 0);
+        String durability;
+        if (writeDelay > 0)
+        {
+            durability = "hsqldb.write_delay=true;"
+                + "hsqldb.write_delay_millis=" + writeDelay;
+        }
+        else
+        {
+            durability = "hsqldb.write_delay=false;"
+                + "hsqldb.write_delay_millis=0";
+        }
+
         this.connection = DriverManager.getConnection(
             "jdbc:hsqldb:file:"
             + filename
-            + ";shutdown=true;hsqldb.write_delay=false;"
-            + "hsqldb.write_delay_millis=0");
+            + ";shutdown=true;"
+            + durability);
         Statement st = this.connection.createStatement();
         st.executeUpdate(
             "CREATE TABLE IF NOT EXISTS Props ("
             + "k LONGVARCHAR UNIQUE, v LONGVARCHAR"
             + ")");
 
-        this.selectExact = this.connection.prepareStatement(
-            "SELECT v FROM Props WHERE k=?");
-        this.selectLike = this.connection.prepareStatement(
-            "SELECT k, v FROM Props WHERE k LIKE ?");
         this.selectAll = this.connection.prepareStatement(
             "SELECT k, v FROM Props");
         this.insertOrUpdate = this.connection.prepareStatement(
@@ -221,6 +252,43 @@ private void checkConnection() throws SQLException
             "DELETE FROM Props WHERE k=?");
     }
 
+    /**
+     * Replaces the content of {@link #storedProperties} with the properties
+     * currently in the database.
+     *
+     * @throws SQLException
+     */
+    private void loadStoredProperties() throws SQLException
+    {
+        Map<String, String> props = new HashMap<String, String>();
+        ResultSet q = this.selectAll.executeQuery();
+        try
+        {
+            while (q.next())
+            {
+                String key = q.getString(1);
+                String value = q.getString(2);
+                if (key != null && value != null)
+                {
+                    props.put(key, value);
+                }
+            }
+        }
+        finally
+        {
+            q.close();
+        }
+
+        this.storedProperties.keySet().retainAll(props.keySet());
+        this.storedProperties.putAll(props);
+
+        this.storedPropertyNames.clear();
+        for (String key : props.keySet())
+        {
+            this.storedPropertyNames.add(key);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -264,62 +332,160 @@ public synchronized void setProperty(String propertyName, Object property,
         }
         else
         {
+            this.writeProperties(
+                Collections.singletonMap(propertyName, property));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.jitsi.service.configuration.ConfigurationService#setProperties(java
+     * .util.Map)
+     */
+    @Override
+    public synchronized void setProperties(Map<String, Object> properties)
+    {
+        Map<String, Object> stored
+            = new LinkedHashMap<String, Object>(properties.size());
+        for (Map.Entry<String, Object> e : properties.entrySet())
+        {
+            if (System.getProperty(e.getKey()) != null)
+            {
+                this.setProperty(e.getKey(), e.getValue(), true);
+            }
+            else
+            {
+                stored.put(e.getKey(), e.getValue());
+            }
+        }
+
+        this.writeProperties(stored);
+    }
+
+    /**
+     * Stores or deletes properties in the database in a single transaction.
+     * All vetoable change listeners are asked before anything is written and
+     * the change listeners are notified once the transaction is committed.
+     *
+     * @param properties the new values of the properties, <tt>null</tt> to
+     * remove a property
+     */
+    private void writeProperties(Map<String, Object> properties)
+    {
+        List<PropertyChangeEvent> changes
+            = new ArrayList<PropertyChangeEvent>(properties.size());
+        for (Map.Entry<String, Object> e : properties.entrySet())
+        {
+            String propertyName = e.getKey();
             if (immutableDefaultProperties.containsKey(propertyName))
             {
-                return;
+                continue;
+            }
+
+            Object oldValue = this.getProperty(propertyName);
+            this.fireVetoableChange(propertyName, oldValue, e.getValue());
+            changes.add(new PropertyChangeEvent(
+                this, propertyName, oldValue, e.getValue()));
+        }
+
+        if (changes.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            this.checkConnection();
+            boolean inTransaction = changes.size() > 1;
+            if (inTransaction)
+            {
+                this.connection.setAutoCommit(false);
             }
 
             try
             {
-                this.checkConnection();
-                Object oldValue = this.getProperty(propertyName);
-                this.fireVetoableChange(propertyName, oldValue, property);
-                if (property == null)
+                int deletes = 0;
+                int updates = 0;
+                for (PropertyChangeEvent change : changes)
                 {
-                    this.delete.setString(1, propertyName);
-                    this.delete.execute();
+                    if (change.getNewValue() == null)
+                    {
+                        this.delete.setString(1, change.getPropertyName());
+                        this.delete.addBatch();
+                        deletes++;
+                    }
+                    else
+                    {
+                        this.insertOrUpdate.setString(
+                            1, change.getPropertyName());
+                        this.insertOrUpdate.setString(
+                            2, change.getNewValue().toString());
+                        this.insertOrUpdate.addBatch();
+                        updates++;
+                    }
                 }
-                else
+
+                if (deletes > 0)
+                {
+                    this.delete.executeBatch();
+                }
+
+                if (updates > 0)
                 {
-                    this.insertOrUpdate.setString(1, propertyName);
-                    this.insertOrUpdate.setString(2, property.toString());
-                    this.insertOrUpdate.execute();
+                    this.insertOrUpdate.executeBatch();
                 }
 
-                this.fireChange(propertyName, oldValue, property);
+                if (inTransaction)
+                {
+                    this.connection.commit();
+                }
             }
             catch (SQLException e)
             {
-                throw new RuntimeException(e);
+                this.delete.clearBatch();
+                this.insertOrUpdate.clearBatch();
+                if (inTransaction)
+                {
+                    this.connection.rollback();
+                }
+
+                throw e;
+            }
+            finally
+            {
+                if (inTransaction)
+                {
+                    this.connection.setAutoCommit(true);
+                }
             }
         }
-    }
+        catch (SQLException e)
+        {
+            logger.error(e);
+            throw new RuntimeException(e);
+        }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see
-     * org.jitsi.service.configuration.ConfigurationService#setProperties(java
-     * .util.Map)
-     */
-    @Override
-    public synchronized void setProperties(Map<String, Object> properties)
-    {
-        try
+        for (PropertyChangeEvent change : changes)
         {
-            checkConnection();
-            this.connection.setAutoCommit(false);
-            for (Map.Entry<String, Object> e : properties.entrySet())
+            String propertyName = change.getPropertyName();
+            if (change.getNewValue() == null)
             {
-                this.setProperty(e.getKey(), e.getValue(), false);
+                this.storedProperties.remove(propertyName);
+                this.storedPropertyNames.remove(propertyName);
+            }
+            else
+            {
+                this.storedProperties.put(
+                    propertyName, change.getNewValue().toString());
+                this.storedPropertyNames.add(propertyName);
             }
-
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
         }
-        catch (SQLException e1)
+
+        for (PropertyChangeEvent change : changes)
         {
-            throw new RuntimeException(e1);
+            this.fireChange(change);
         }
     }
 
@@ -331,7 +497,7 @@ public synchronized void setProperties(Map<String, Object> properties)
      * .lang.String)
      */
     @Override
-    public synchronized Object getProperty(String propertyName)
+    public Object getProperty(String propertyName)
     {
         Object value = immutableDefaultProperties.get(propertyName);
         if (value != null)
@@ -339,22 +505,7 @@ public synchronized Object getProperty(String propertyName)
             return value;
         }
 
-        try
-        {
-            this.checkConnection();
-            this.selectExact.setString(1, propertyName);
-            ResultSet q = this.selectExact.executeQuery();
-            if (q.next())
-            {
-                value = q.getString(1);
-            }
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
-        }
-
+        value = storedProperties.get(propertyName);
         if (value != null)
         {
             return value;
@@ -380,12 +531,14 @@ public synchronized Object getProperty(String propertyName)
     public synchronized void removeProperty(String propertyName)
     {
         //remove all properties
+        Map<String, Object> removed = new LinkedHashMap<String, Object>();
         for (String child : this.getPropertyNamesByPrefix(propertyName, false))
         {
-            this.setProperty(child, null, false);
+            removed.put(child, null);
         }
 
-        this.setProperty(propertyName, null, false);
+        removed.put(propertyName, null);
+        this.setProperties(removed);
     }
 
     /*
@@ -401,21 +554,7 @@ public List<String> getAllPropertyNames()
         List<String> data = new ArrayList<String>(
             immutableDefaultProperties.keySet());
         data.addAll(defaultProperties.keySet());
-        try
-        {
-            this.checkConnection();
-            ResultSet q = this.selectAll.executeQuery();
-            while (q.next())
-            {
-                data.add(q.getString(1));
-            }
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
-        }
-
+        data.addAll(storedProperties.keySet());
         return data;
     }
 
@@ -430,46 +569,7 @@ public List<String> getAllPropertyNames()
     public List<String> getPropertyNamesByPrefix(String prefix,
         boolean exactPrefixMatch)
     {
-        try
-        {
-            List<String> resultSet = new ArrayList<String>(50);
-            this.checkConnection();
-            this.selectLike.setString(1, prefix + "%");
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
-
-                if(exactPrefixMatch)
-                {
-                    int ix = key.lastIndexOf('.');
-                    if(ix == -1)
-                    {
-                        continue;
-                    }
-
-                    String keyPrefix = key.substring(0, ix);
-
-                    if(prefix.equals(keyPrefix))
-                    {
-                        resultSet.add(key);
-                    }
-                }
-                else
-                {
-                    if(key.startsWith(prefix))
-                    {
-                        resultSet.add(key);
-                    }
-                }
-            }
-
-            return resultSet;
-        }
-        catch (SQLException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return storedPropertyNames.getNamesByPrefix(prefix, exactPrefixMatch);
     }
 
     /*
@@ -482,26 +582,7 @@ public List<String> getPropertyNamesByPrefix(String prefix,
     @Override
     public List<String> getPropertyNamesBySuffix(String suffix)
     {
-        try
-        {
-            List<String> resultKeySet = new ArrayList<String>(20);
-            this.checkConnection();
-            this.selectLike.setString(1, "%" + suffix);
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
-                int ix = key.lastIndexOf('.');
-                if (ix != -1 && suffix.equals(key.substring(ix + 1)))
-                    resultKeySet.add(key);
-            }
-
-            return resultKeySet;
-        }
-        catch (SQLException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return storedPropertyNames.getNamesBySuffix(suffix);
     }
 
     /*
@@ -806,6 +887,8 @@ public void purgeStoredConfiguration()
             this.checkConnection();
             Statement st = this.connection.createStatement();
             st.executeUpdate("TRUNCATE TABLE Props");
+            this.storedProperties.clear();
+            this.storedPropertyNames.clear();
         }
         catch (SQLException e)
         {
@@ -962,20 +1045,11 @@ private void fireVetoableChange(String propertyName,
     /**
      * Notify all listeners that a property has changed.
      * 
-     * @param propertyName The property that has just changed.
-     * @param oldValue The previous value of the property (can be <tt>null</tt>)
-     * @param newValue The new value of the property (can be <tt>null</tt>)
+     * @param evt The change of the property.
      */
-    private void fireChange(String propertyName,
-        Object oldValue, Object newValue)
+    private void fireChange(PropertyChangeEvent evt)
     {
-        PropertyChangeEvent evt = new PropertyChangeEvent(
-            this,
-            propertyName,
-            oldValue,
-            newValue);
-
-        for (PropertyChangeListener l : listeners.get(propertyName))
+        for (PropertyChangeListener l : listeners.get(evt.getPropertyName()))
         {
             l.propertyChange(evt);
         }
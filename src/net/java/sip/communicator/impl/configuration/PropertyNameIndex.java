@@ -0,0 +1,266 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.util.*;
+
+/**
+ * Index of property names answering the prefix and suffix queries of the
+ * <tt>ConfigurationService</tt>. The names are kept in a tree in which every
+ * node is a segment of the names, the text between two dots, so a query
+ * only visits the names under the given prefix. The names are also grouped
+ * by their last segment for the suffix queries.
+ * <p>
+ * Instances are thread safe.
+ */
+class PropertyNameIndex
+{
+    /**
+     * The node of the empty name, parent of the first segments.
+     */
+    private final Node root = new Node(null);
+
+    /**
+     * The names grouped by the segment after their last dot. Names without a
+     * dot are not in there.
+     */
+    private final Map<String, Set<String>> byLastSegment
+        = new HashMap<String, Set<String>>();
+
+    /**
+     * Adds a property name to the index.
+     *
+     * @param name the name to add
+     */
+    synchronized void add(String name)
+    {
+        Node node = root;
+        for (String segment : split(name))
+        {
+            Node child = node.children.get(segment);
+            if (child == null)
+            {
+                child = new Node(node);
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+
+        if (node.name != null)
+            return;
+
+        node.name = name;
+
+        int ix = name.lastIndexOf('.');
+        if (ix != -1)
+        {
+            String last = name.substring(ix + 1);
+            Set<String> names = byLastSegment.get(last);
+            if (names == null)
+            {
+                names = new TreeSet<String>();
+                byLastSegment.put(last, names);
+            }
+            names.add(name);
+        }
+    }
+
+    /**
+     * Removes a property name from the index.
+     *
+     * @param name the name to remove
+     */
+    synchronized void remove(String name)
+    {
+        String[] segments = split(name);
+        Node node = find(segments, segments.length);
+        if (node == null || node.name == null)
+            return;
+
+        node.name = null;
+
+        // drop the nodes left without names under them
+        for (int i = segments.length - 1;
+             i >= 0 && node.name == null && node.children.isEmpty();
+             i--)
+        {
+            node = node.parent;
+            node.children.remove(segments[i]);
+        }
+
+        int ix = name.lastIndexOf('.');
+        if (ix != -1)
+        {
+            String last = name.substring(ix + 1);
+            Set<String> names = byLastSegment.get(last);
+            if (names != null)
+            {
+                names.remove(name);
+                if (names.isEmpty())
+                    byLastSegment.remove(last);
+            }
+        }
+    }
+
+    /**
+     * Removes all names from the index.
+     */
+    synchronized void clear()
+    {
+        root.children.clear();
+        byLastSegment.clear();
+    }
+
+    /**
+     * Returns the names starting with <tt>prefix</tt>.
+     *
+     * @param prefix the start of the names
+     * @param exactPrefixMatch if <tt>true</tt> only the names which are
+     * <tt>prefix</tt> followed by a dot and a last segment are returned
+     * @return the matching names
+     */
+    synchronized List<String> getNamesByPrefix(String prefix,
+                                               boolean exactPrefixMatch)
+    {
+        List<String> result = new ArrayList<String>();
+        String[] segments = split(prefix);
+
+        if (exactPrefixMatch)
+        {
+            Node node = find(segments, segments.length);
+            if (node != null)
+            {
+                for (Node child : node.children.values())
+                {
+                    if (child.name != null)
+                        result.add(child.name);
+                }
+            }
+        }
+        else
+        {
+            // the last segment of the prefix may be only the start of the
+            // segment of the names
+            String last = segments[segments.length - 1];
+            Node node = find(segments, segments.length - 1);
+            if (node != null)
+            {
+                for (Map.Entry<String, Node> e
+                        : node.children.tailMap(last).entrySet())
+                {
+                    if (!e.getKey().startsWith(last))
+                        break;
+                    e.getValue().collect(result);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the names which segment after the last dot is <tt>suffix</tt>.
+     *
+     * @param suffix the last segment of the names
+     * @return the matching names
+     */
+    synchronized List<String> getNamesBySuffix(String suffix)
+    {
+        Set<String> names = byLastSegment.get(suffix);
+        if (names == null)
+            return new ArrayList<String>();
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * Returns the node of the name made of the first <tt>count</tt>
+     * segments.
+     *
+     * @param segments the segments of the name
+     * @param count the number of segments to use
+     * @return the node or <tt>null</tt> if no name starts with them
+     */
+    private Node find(String[] segments, int count)
+    {
+        Node node = root;
+        for (int i = 0; i < count && node != null; i++)
+            node = node.children.get(segments[i]);
+        return node;
+    }
+
+    /**
+     * Splits a name at its dots, keeping the empty segments.
+     *
+     * @param name the name to split
+     * @return the segments of the name
+     */
+    private static String[] split(String name)
+    {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int ix;
+        while ((ix = name.indexOf('.', start)) != -1)
+        {
+            segments.add(name.substring(start, ix));
+            start = ix + 1;
+        }
+        segments.add(name.substring(start));
+
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * A segment of the property names.
+     */
+    private static class Node
+    {
+        /**
+         * The node of the previous segment.
+         */
+        final Node parent;
+
+        /**
+         * The nodes of the next segments, sorted by segment.
+         */
+        final TreeMap<String, Node> children = new TreeMap<String, Node>();
+
+        /**
+         * The property name ending with this segment or <tt>null</tt> if
+         * there is none.
+         */
+        String name;
+
+        Node(Node parent)
+        {
+            this.parent = parent;
+        }
+
+        /**
+         * Adds the names of this node and of all the nodes under it.
+         *
+         * @param result the list receiving the names
+         */
+        void collect(List<String> result)
+        {
+            if (name != null)
+                result.add(name);
+            for (Node child : children.values())
+                child.collect(result);
+        }
+    }
+}
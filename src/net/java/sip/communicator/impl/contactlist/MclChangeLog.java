@@ -0,0 +1,224 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.InputSource;
+
+/**
+ * The file where the changes made to the meta contact list since the last
+ * time the whole list was written are appended. Every change is an XML
+ * element written on a line of its own, so adding a change never rewrites
+ * what is already in the file, and a line cut by a crash only loses that
+ * change.
+ */
+class MclChangeLog
+{
+    /**
+     * Our logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MclChangeLog.class);
+
+    /**
+     * The encoding of the file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The file containing the changes.
+     */
+    private final File file;
+
+    /**
+     * Serializes the changes, used under its own lock.
+     */
+    private final Transformer transformer;
+
+    /**
+     * The number of changes in the file.
+     */
+    private int entryCount = 0;
+
+    /**
+     * Creates the change log stored in <tt>file</tt>.
+     *
+     * @param file the file containing the changes
+     * @throws IOException if the changes cannot be serialized
+     */
+    MclChangeLog(File file)
+        throws IOException
+    {
+        this.file = file;
+
+        try
+        {
+            transformer = TransformerFactory.newInstance().newTransformer();
+        }
+        catch (TransformerException e)
+        {
+            throw new IOException(e);
+        }
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, ENCODING);
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+    }
+
+    /**
+     * Serializes a change to the line that is appended to the file.
+     *
+     * @param entry the element describing the change
+     * @return the line of the change, without a line terminator
+     * @throws IOException if the change cannot be serialized
+     */
+    String toLine(Element entry)
+        throws IOException
+    {
+        StringWriter writer = new StringWriter();
+
+        synchronized (transformer)
+        {
+            try
+            {
+                transformer.transform(
+                    new DOMSource(entry), new StreamResult(writer));
+            }
+            catch (TransformerException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        // line breaks may only be in text and attribute values where they
+        // can be written as character references
+        return writer.toString().replace("\r", "&#13;").replace("\n", "&#10;");
+    }
+
+    /**
+     * Appends changes at the end of the file.
+     *
+     * @param lines the lines of the changes as returned by
+     * {@link #toLine(Element)}
+     * @throws IOException if writing fails
+     */
+    void append(Collection<String> lines)
+        throws IOException
+    {
+        if (lines.isEmpty())
+            return;
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file, true), ENCODING));
+        try
+        {
+            for (String line : lines)
+            {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        entryCount += lines.size();
+    }
+
+    /**
+     * Reads the changes in the file, stopping at the first one which cannot
+     * be parsed.
+     *
+     * @param builder the builder used to parse the changes
+     * @return the elements of the changes in the order they were made
+     * @throws IOException if reading fails
+     */
+    List<Element> read(DocumentBuilder builder)
+        throws IOException
+    {
+        List<Element> entries = new ArrayList<Element>();
+        if (!file.exists())
+            return entries;
+
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), ENCODING));
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.length() == 0)
+                    continue;
+
+                try
+                {
+                    entries.add(builder.parse(
+                        new InputSource(new StringReader(line)))
+                            .getDocumentElement());
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Ignoring the contact list changes after "
+                        + entries.size() + " changes in " + file, e);
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        entryCount = entries.size();
+        return entries;
+    }
+
+    /**
+     * Returns the number of changes in the file.
+     *
+     * @return the number of changes in the file
+     */
+    int getEntryCount()
+    {
+        return entryCount;
+    }
+
+    /**
+     * Removes all changes, once the whole contact list is written.
+     */
+    void clear()
+    {
+        if (file.exists() && !file.delete())
+            logger.error("Failed to remove " + file);
+
+        entryCount = 0;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Index of the meta contact and meta contact group nodes of the contact list
+ * document by UID, so the storage manager finds the node of a contact
+ * without walking the whole document.
+ * <p>
+ * Every node is added when it is created or loaded and stays in the index
+ * until it is replaced by a node with the same UID or the index is cleared.
+ * A node found in the index is only returned if it is still in the
+ * document.
+ * <p>
+ * Instances are thread safe.
+ */
+class MclNodeIndex
+{
+    /**
+     * The name of the meta contact nodes.
+     */
+    private final String metaContactNodeName;
+
+    /**
+     * The name of the meta contact group nodes.
+     */
+    private final String groupNodeName;
+
+    /**
+     * The name of the attribute containing the UID of the nodes.
+     */
+    private final String uidAttrName;
+
+    /**
+     * The meta contact nodes by UID.
+     */
+    private final Map<String, Element> metaContactNodes
+        = new HashMap<String, Element>();
+
+    /**
+     * The meta contact group nodes by UID.
+     */
+    private final Map<String, Element> groupNodes
+        = new HashMap<String, Element>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param metaContactNodeName the name of the meta contact nodes
+     * @param groupNodeName the name of the meta contact group nodes
+     * @param uidAttrName the name of the attribute containing the UID of the
+     * nodes
+     */
+    MclNodeIndex(String metaContactNodeName,
+                 String groupNodeName,
+                 String uidAttrName)
+    {
+        this.metaContactNodeName = metaContactNodeName;
+        this.groupNodeName = groupNodeName;
+        this.uidAttrName = uidAttrName;
+    }
+
+    /**
+     * Removes all nodes from the index, when a new document is used.
+     */
+    synchronized void clear()
+    {
+        metaContactNodes.clear();
+        groupNodes.clear();
+    }
+
+    /**
+     * Adds a node to the index if it is a meta contact or a meta contact
+     * group node. Its children are not added.
+     *
+     * @param node the node to add
+     */
+    synchronized void add(Element node)
+    {
+        String name = node.getNodeName();
+
+        if (metaContactNodeName.equals(name))
+            metaContactNodes.put(node.getAttribute(uidAttrName), node);
+        else if (groupNodeName.equals(name))
+            groupNodes.put(node.getAttribute(uidAttrName), node);
+    }
+
+    /**
+     * Adds a node and all meta contact and meta contact group nodes under it
+     * to the index.
+     *
+     * @param node the root of the nodes to add
+     */
+    synchronized void addTree(Element node)
+    {
+        add(node);
+
+        // meta contacts do not contain other indexed nodes
+        if (metaContactNodeName.equals(node.getNodeName()))
+            return;
+
+        for (Node child = node.getFirstChild();
+             child != null;
+             child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+                addTree((Element) child);
+        }
+    }
+
+    /**
+     * Returns the meta contact node with the specified UID in
+     * <tt>document</tt>.
+     *
+     * @param document the contact list document
+     * @param uid the UID of the meta contact
+     * @return the node or <tt>null</tt> if it is not in the document
+     */
+    synchronized Element findMetaContactNode(Document document, String uid)
+    {
+        return find(metaContactNodes, document, uid);
+    }
+
+    /**
+     * Returns the meta contact group node with the specified UID in
+     * <tt>document</tt>.
+     *
+     * @param document the contact list document
+     * @param uid the UID of the meta contact group
+     * @return the node or <tt>null</tt> if it is not in the document
+     */
+    synchronized Element findGroupNode(Document document, String uid)
+    {
+        return find(groupNodes, document, uid);
+    }
+
+    /**
+     * Returns the node with the specified UID if it is still in
+     * <tt>document</tt>.
+     *
+     * @param nodes the index to look into
+     * @param document the contact list document
+     * @param uid the UID of the node
+     * @return the node or <tt>null</tt>
+     */
+    private Element find(Map<String, Element> nodes,
+                         Document document,
+                         String uid)
+    {
+        Element node = nodes.get(uid);
+        if (node == null)
+            return null;
+
+        // the node may have been removed, alone or with one of its parents
+        Node parent = node.getParentNode();
+        while (parent != null && parent != document)
+            parent = parent.getParentNode();
+
+        // removed nodes stay in the index as they may be added again, as
+        // when a meta contact is moved to another group
+        if (parent == null || !uid.equals(node.getAttribute(uidAttrName)))
+            return null;
+
+        return node;
+    }
+}
@@ -75,6 +75,64 @@
      */
     private boolean multiTenantMode = false;
 
+    /**
+     * The property to disable the change log. When enabled (the default) the
+     * changes to the contact list are appended to a log next to the contact
+     * list file and the whole file is only written from time to time,
+     * otherwise the whole file is written after every change.
+     */
+    private static final String CHANGE_LOG_ENABLED_PROP =
+        "net.java.sip.communicator.impl.contactlist.CHANGE_LOG_ENABLED";
+
+    /**
+     * The property with the number of changes in the change log after which
+     * the whole contact list file is written and the log emptied.
+     */
+    private static final String CHANGE_LOG_MAX_ENTRIES_PROP =
+        "net.java.sip.communicator.impl.contactlist.CHANGE_LOG_MAX_ENTRIES";
+
+    /**
+     * The default number of changes kept in the change log.
+     */
+    private static final int DEFAULT_CHANGE_LOG_MAX_ENTRIES = 1000;
+
+    /**
+     * The extension of the change log file, added to the name of the contact
+     * list file.
+     */
+    private static final String CHANGE_LOG_FILE_EXTENSION = ".log";
+
+    /**
+     * The changes appended to the contact list file since it was last
+     * written, <tt>null</tt> if the change log is disabled.
+     */
+    private MclChangeLog changeLog = null;
+
+    /**
+     * The change log file, which is read on start and cleared whenever the
+     * whole contact list is written, even if the change log is disabled.
+     */
+    private MclChangeLog storedChanges = null;
+
+    /**
+     * The number of changes after which the whole contact list is written.
+     */
+    private int changeLogMaxEntries = DEFAULT_CHANGE_LOG_MAX_ENTRIES;
+
+    /**
+     * The lines of the changes waiting to be appended to the change log, in
+     * the order they were made. The changes of a meta contact share a key so
+     * only the last one is kept. Guarded by <tt>contactListRWLock</tt>.
+     */
+    private final Map<String, String> pendingChanges
+        = new LinkedHashMap<String, String>();
+
+    /**
+     * Used to give unique keys to the pending changes which are not replaced
+     * by later ones.
+     */
+    private long changeSequence = 0;
+
     /**
      * Indicates whether the storage manager has been properly started or in
      * other words that it has successfully found and read the xml contact list
@@ -111,6 +169,13 @@
      */
     private Document contactListDocument = null;
 
+    /**
+     * The meta contact and group nodes of <tt>contactListDocument</tt> by
+     * UID.
+     */
+    private final MclNodeIndex nodeIndex = new MclNodeIndex(
+        META_CONTACT_NODE_NAME, GROUP_NODE_NAME, UID_ATTR_NAME);
+
     /**
      * A reference to the file containing the locally stored meta contact list.
      */
@@ -251,6 +316,38 @@
      */
     private static final Object contactListRWLock = new Object();
 
+    /**
+     * The name of the change log element replacing or adding a meta contact.
+     */
+    private static final String PUT_CONTACT_CHANGE_NAME = "put-contact";
+
+    /**
+     * The name of the change log element removing a meta contact.
+     */
+    private static final String REMOVE_CONTACT_CHANGE_NAME = "remove-contact";
+
+    /**
+     * The name of the change log element replacing or adding a meta contact
+     * group.
+     */
+    private static final String PUT_GROUP_CHANGE_NAME = "put-group";
+
+    /**
+     * The name of the change log element removing a meta contact group.
+     */
+    private static final String REMOVE_GROUP_CHANGE_NAME = "remove-group";
+
+    /**
+     * The name of the change log element renaming a meta contact group.
+     */
+    private static final String RENAME_GROUP_CHANGE_NAME = "rename-group";
+
+    /**
+     * The name of the change log attribute with the UID of the group where
+     * the node of the change goes.
+     */
+    private static final String PARENT_UID_ATTR_NAME = "parent-uid";
+
     /**
      * Determines whether the storage manager has been properly started or in
      * other words that it has successfully found and read the xml contact list
@@ -338,6 +435,16 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
         multiTenantMode = configurationService.getBoolean(
             MULTI_TENANT_MODE_PROP, multiTenantMode);
 
+        File changeLogFile = new File(contactlistFile.getParentFile(),
+            contactlistFile.getName() + CHANGE_LOG_FILE_EXTENSION);
+        storedChanges = new MclChangeLog(changeLogFile);
+        if (configurationService.getBoolean(CHANGE_LOG_ENABLED_PROP, true))
+        {
+            changeLog = storedChanges;
+            changeLogMaxEntries = configurationService.getInt(
+                CHANGE_LOG_MAX_ENTRIES_PROP, DEFAULT_CHANGE_LOG_MAX_ENTRIES);
+        }
+
         // create the failsafe transaction and restore the file if needed
         try
         {
@@ -365,6 +472,9 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
                 contactListDocument = builder.newDocument();
                 initVirginDocument(mclServImpl, contactListDocument);
 
+                // a change log left without its contact list is stale
+                storedChanges.clear();
+
                 // write the contact list so that it is there for the parser
                 storeContactList0();
             }
@@ -373,12 +483,21 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
                 try
                 {
                     contactListDocument = builder.parse(contactlistFile);
+                    nodeIndex.clear();
+                    nodeIndex.addTree(contactListDocument.getDocumentElement());
+
+                    // apply the changes made after the file was written
+                    if (applyChanges(storedChanges.read(builder)) > 0)
+                        isModified = true;
                 }
                 catch (Throwable ex)
                 {
                     logger.error("Error parsing configuration file", ex);
                     logger.error("Creating replacement file");
 
+                    // the changes in the log were made to the broken file
+                    storedChanges.clear();
+
                     // re-create and re-init the new document
                     contactlistFile.delete();
                     contactlistFile.createNewFile();
@@ -481,10 +600,21 @@ public void run()
                         while (isStarted())
                         {
                             contactListRWLock.wait(5000);
-                            if (isModified)
+                            if (isModified
+                                || (changeLog != null
+                                    && changeLog.getEntryCount()
+                                        + pendingChanges.size()
+                                        > changeLogMaxEntries))
                             {
                                 storeContactList0();
                                 isModified = false;
+
+                                // the file now has all changes
+                                discardChanges();
+                            }
+                            else if (!pendingChanges.isEmpty())
+                            {
+                                appendPendingChanges();
                             }
                         }
                     }
@@ -505,30 +635,273 @@ public void run()
     }
 
     /**
-     * Stops the storage manager and performs a final write
+     * Appends the pending changes to the change log. Called with
+     * <tt>contactListRWLock</tt> held.
+     *
+     * @throws IOException in case writing fails.
      */
-    public void storeContactListAndStopStorageManager()
+    private void appendPendingChanges() throws IOException
+    {
+        if (changeLog == null || pendingChanges.isEmpty())
+            return;
+
+        changeLog.append(pendingChanges.values());
+        pendingChanges.clear();
+    }
+
+    /**
+     * Records a change of the contact list. With the change log enabled, the
+     * change is appended to the log by the storage thread, otherwise the
+     * whole contact list is stored.
+     *
+     * @param key the key of the change, a later change with the same key
+     * replaces it if it is still waiting to be appended, or <tt>null</tt>
+     * @param change the element describing the change
+     * @throws IOException if the change cannot be serialized
+     */
+    private void storeChange(String key, Element change) throws IOException
     {
+        if (changeLog == null)
+        {
+            scheduleContactListStorage();
+            return;
+        }
+
+        String line = changeLog.toLine(change);
+
         synchronized (contactListRWLock)
         {
             if (!isStarted())
                 return;
 
-            started = false;
+            if (key == null)
+            {
+                key = "change-" + (changeSequence++);
+            }
+            else
+            {
+                // keep the order of the last change
+                pendingChanges.remove(key);
+            }
 
-            // make sure everyone gets released after we finish.
+            pendingChanges.put(key, line);
             contactListRWLock.notifyAll();
+        }
+    }
 
-            // write the contact list ourselves before we go out..
+    /**
+     * Records the current state of a meta contact node.
+     *
+     * @param metaContactNode the node of the meta contact that changed
+     * @throws IOException if the change cannot be stored
+     */
+    private void storeMetaContactChange(Element metaContactNode)
+        throws IOException
+    {
+        if (changeLog == null)
+        {
+            scheduleContactListStorage();
+            return;
+        }
+
+        // the meta contact node is in the child contacts node of its group
+        Element groupNode
+            = (Element) metaContactNode.getParentNode().getParentNode();
+        Element change
+            = contactListDocument.createElement(PUT_CONTACT_CHANGE_NAME);
+
+        change.setAttribute(PARENT_UID_ATTR_NAME,
+            groupNode.getAttribute(GROUP_UID_ATTR_NAME));
+        change.appendChild(metaContactNode.cloneNode(true));
+
+        storeChange(metaContactNode.getAttribute(UID_ATTR_NAME), change);
+    }
+
+    /**
+     * Records the current state of a meta contact group node, including its
+     * subgroups and child contacts.
+     *
+     * @param groupNode the node of the group that changed
+     * @throws IOException if the change cannot be stored
+     */
+    private void storeGroupChange(Element groupNode)
+        throws IOException
+    {
+        if (changeLog == null)
+        {
+            scheduleContactListStorage();
+            return;
+        }
+
+        Element change
+            = contactListDocument.createElement(PUT_GROUP_CHANGE_NAME);
+
+        // the root group has no parent group
+        Node parent = groupNode.getParentNode().getParentNode();
+        if (parent instanceof Element
+            && GROUP_NODE_NAME.equals(parent.getNodeName()))
+        {
+            change.setAttribute(PARENT_UID_ATTR_NAME,
+                ((Element) parent).getAttribute(GROUP_UID_ATTR_NAME));
+        }
+        change.appendChild(groupNode.cloneNode(true));
+
+        storeChange(null, change);
+    }
+
+    /**
+     * Records the removal of a meta contact or a meta contact group.
+     *
+     * @param changeName the name of the change element
+     * @param uid the UID of the removed meta contact or group
+     * @throws IOException if the change cannot be stored
+     */
+    private void storeRemoval(String changeName, String uid)
+        throws IOException
+    {
+        if (changeLog == null)
+        {
+            scheduleContactListStorage();
+            return;
+        }
+
+        Element change = contactListDocument.createElement(changeName);
+        change.setAttribute(UID_ATTR_NAME, uid);
+
+        storeChange(
+            REMOVE_CONTACT_CHANGE_NAME.equals(changeName) ? uid : null,
+            change);
+    }
+
+    /**
+     * Applies changes read from the change log to the contact list document.
+     * The changes replace nodes with their state at the time of the change,
+     * so applying changes which are already in the document does nothing.
+     *
+     * @param changes the changes in the order they were made
+     * @return the number of changes applied
+     */
+    private int applyChanges(List<Element> changes)
+    {
+        int applied = 0;
+
+        for (Element change : changes)
+        {
+            String name = change.getNodeName();
+            String uid = change.getAttribute(UID_ATTR_NAME);
+            Element node = XMLUtils.findChild(change, META_CONTACT_NODE_NAME);
+
+            if (node == null)
+                node = XMLUtils.findChild(change, GROUP_NODE_NAME);
+            if (node != null)
+                uid = node.getAttribute(UID_ATTR_NAME);
+
+            Element existing;
+            if (PUT_CONTACT_CHANGE_NAME.equals(name)
+                || REMOVE_CONTACT_CHANGE_NAME.equals(name))
+            {
+                existing = findMetaContactNode(uid);
+            }
+            else
+            {
+                existing = findMetaContactGroupNode(uid);
+            }
+
+            if (RENAME_GROUP_CHANGE_NAME.equals(name))
+            {
+                if (existing != null)
+                {
+                    existing.setAttribute(GROUP_NAME_ATTR_NAME,
+                        change.getAttribute(GROUP_NAME_ATTR_NAME));
+                    applied++;
+                }
+                continue;
+            }
+
+            if (existing != null)
+                existing.getParentNode().removeChild(existing);
+
+            if (node == null)
+            {
+                applied++;
+                continue;
+            }
+
+            Element parent;
+            String parentUID = change.getAttribute(PARENT_UID_ATTR_NAME);
+            if (parentUID.length() == 0)
+            {
+                parent = contactListDocument.getDocumentElement();
+            }
+            else
+            {
+                parent = findMetaContactGroupNode(parentUID);
+                if (parent != null)
+                {
+                    parent = XMLUtils.findChild(parent,
+                        PUT_CONTACT_CHANGE_NAME.equals(name)
+                            ? CHILD_CONTACTS_NODE_NAME
+                            : SUBGROUPS_NODE_NAME);
+                }
+            }
+
+            if (parent == null)
+            {
+                logger.warn("Ignoring change " + name + " of " + uid
+                    + ", its group " + parentUID + " is not found.");
+                continue;
+            }
+
+            Element imported
+                = (Element) contactListDocument.importNode(node, true);
+            parent.appendChild(imported);
+            nodeIndex.addTree(imported);
+            applied++;
+        }
+
+        return applied;
+    }
+
+    /**
+     * Stops the storage manager and performs a final write
+     */
+    public void storeContactListAndStopStorageManager()
+    {
+        synchronized (contactListRWLock)
+        {
+            if (!isStarted())
+                return;
+
+            // write the contact list ourselves before we go out, while we
+            // are still started or nothing is written
             try
             {
                 storeContactList0();
+                isModified = false;
+
+                // the file now has all changes
+                discardChanges();
             }
             catch (IOException ex)
             {
                 logger
                     .debug("Failed to store contact list before stopping", ex);
+
+                // keep what we can in the change log
+                try
+                {
+                    appendPendingChanges();
+                }
+                catch (IOException e)
+                {
+                    logger.debug("Failed to append contact list changes", e);
+                }
             }
+
+            started = false;
+
+            // make sure everyone gets released after we finish.
+            contactListRWLock.notifyAll();
         }
     }
 
@@ -589,6 +962,8 @@ private void updatePersistentDataForMetaContact(MetaContact metaContact)
     private void initVirginDocument(MetaContactListServiceImpl mclServImpl,
         Document contactListDoc)
     {
+        nodeIndex.clear();
+
         Element root = contactListDoc.createElement(DOCUMENT_ROOT_NAME);
 
         contactListDoc.appendChild(root);
@@ -644,6 +1019,7 @@ void extractContactsForAccount(String accountID) throws XMLException
 
                 // write the contact list so that it is there for the parser
                 storeContactList0();
+                discardChanges();
             }
             else
             {
@@ -1197,6 +1573,7 @@ private Element createMetaContactNode(MetaContact metaContact)
                 metaContactElement.appendChild(contactElement);
         }
 
+        nodeIndex.add(metaContactElement);
         return metaContactElement;
     }
 
@@ -1268,6 +1645,7 @@ private Element createMetaContactGroupNode(MetaContactGroup metaGroup)
             childContactsElement.appendChild(metaContactEl);
         }
 
+        nodeIndex.add(metaGroupElement);
         return metaGroupElement;
     }
 
@@ -1310,7 +1688,7 @@ public void metaContactAdded(MetaContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(metaContactElement);
         }
         catch (IOException ex)
         {
@@ -1364,7 +1742,7 @@ public void metaContactGroupAdded(MetaContactGroupEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeGroupChange(newGroupElement);
         }
         catch (IOException ex)
         {
@@ -1403,7 +1781,8 @@ public void metaContactGroupRemoved(MetaContactGroupEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeRemoval(REMOVE_GROUP_CHANGE_NAME,
+                evt.getSourceMetaContactGroup().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1462,7 +1841,7 @@ public void metaContactMoved(MetaContactMovedEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(metaContactNode);
         }
         catch (IOException ex)
         {
@@ -1548,7 +1927,8 @@ public void metaContactRemoved(MetaContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeRemoval(REMOVE_CONTACT_CHANGE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1603,7 +1983,7 @@ public void metaContactRenamed(MetaContactRenamedEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(metaContactNode);
         }
         catch (IOException ex)
         {
@@ -1643,7 +2023,7 @@ public void protoContactModified(ProtoContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(metaContactNode);
         }
         catch (IOException ex)
         {
@@ -1789,7 +2169,7 @@ else if (oldValue != null && newValue != null)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(metaContactNode);
         }
         catch (IOException ex)
         {
@@ -1831,7 +2211,7 @@ public void protoContactRemoved(ProtoContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(oldMcNode);
         }
         catch (IOException ex)
         {
@@ -1899,7 +2279,7 @@ public void metaContactGroupModified(MetaContactGroupEvent evt)
 
             try
             {
-                scheduleContactListStorage();
+                storeGroupChange(newGroupElement);
             }
             catch (IOException ex)
             {
@@ -1913,11 +2293,26 @@ public void metaContactGroupModified(MetaContactGroupEvent evt)
                     "Writing CL failed after adding contact " + mcGroup,
                     ex);
             }
-            break;
+            return;
         case MetaContactGroupEvent.META_CONTACT_GROUP_RENAMED:
             mcGroupNode
                 .setAttribute(GROUP_NAME_ATTR_NAME, mcGroup.getGroupName());
-            break;
+
+            Element change
+                = contactListDocument.createElement(RENAME_GROUP_CHANGE_NAME);
+            change.setAttribute(UID_ATTR_NAME, mcGroup.getMetaUID());
+            change.setAttribute(GROUP_NAME_ATTR_NAME, mcGroup.getGroupName());
+
+            try
+            {
+                storeChange(null, change);
+            }
+            catch (IOException ex)
+            {
+                logger.error(
+                    "Writing CL failed after renaming group " + mcGroup, ex);
+            }
+            return;
         }
 
         try
@@ -1971,7 +2366,7 @@ public void protoContactAdded(ProtoContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(mcNode);
         }
         catch (IOException ex)
         {
@@ -2029,7 +2424,8 @@ public void protoContactMoved(ProtoContactEvent evt)
 
         try
         {
-            scheduleContactListStorage();
+            storeMetaContactChange(oldMcNode);
+            storeMetaContactChange(newMcNode);
         }
         catch (IOException ex)
         {
@@ -2055,10 +2451,8 @@ public void protoContactMoved(ProtoContactEvent evt)
      */
     private Element findMetaContactNode(String metaContactUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
-
-        return XMLUtils.locateElement(root, META_CONTACT_NODE_NAME,
-            UID_ATTR_NAME, metaContactUID);
+        return nodeIndex.findMetaContactNode(
+            contactListDocument, metaContactUID);
     }
 
     /**
@@ -2073,10 +2467,8 @@ private Element findMetaContactNode(String metaContactUID)
      */
     private Element findMetaContactGroupNode(String metaContactGroupUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
-
-        return XMLUtils.locateElement(root, GROUP_NODE_NAME, UID_ATTR_NAME,
-            metaContactGroupUID);
+        return nodeIndex.findGroupNode(
+            contactListDocument, metaContactGroupUID);
     }
 
     /**
@@ -2085,6 +2477,21 @@ private Element findMetaContactGroupNode(String metaContactGroupUID)
     void removeContactListFile()
     {
         this.contactlistFile.delete();
+        discardChanges();
+    }
+
+    /**
+     * Forgets the changes to the contact list which are not yet written and
+     * empties the change log.
+     */
+    private void discardChanges()
+    {
+        synchronized (contactListRWLock)
+        {
+            pendingChanges.clear();
+            if (storedChanges != null)
+                storedChanges.clear();
+        }
     }
 
     /**
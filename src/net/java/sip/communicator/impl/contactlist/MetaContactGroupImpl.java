@@ -48,10 +48,11 @@
                                         = new TreeSet<MetaContactGroupImpl>();
 
     /**
-     * A list containing all child contacts.
+     * A list containing all child contacts, kept sorted so that a contact
+     * changing its position is moved without sorting the whole group again.
      */
-    private final Set<MetaContactImpl> childContacts
-                                            = new TreeSet<MetaContactImpl>();
+    private final List<MetaContactImpl> childContacts
+                                            = new ArrayList<MetaContactImpl>();
 
     /**
      * A list of the contact groups encapsulated by this MetaContactGroup
@@ -69,12 +70,13 @@
     private String groupName = null;
 
     /**
-     * We use this copy for returning iterators and searching over the list
-     * in order to avoid creating it upon each query. The copy is updated upon
-     * each modification
+     * We use this copy for returning iterators over the list in order to
+     * avoid creating it upon each query. The copy is dropped upon each
+     * modification and created again when it is next needed, so a burst of
+     * modifications only creates it once.
      */
-    private List<MetaContact> childContactsOrderedCopy
-                                            = new LinkedList<MetaContact>();
+    private volatile List<MetaContact> childContactsOrderedCopy
+                                            = new ArrayList<MetaContact>();
 
     /**
      * We use this copy for returning iterators and searching over the list
@@ -191,7 +193,10 @@ public boolean canContainSubgroups()
      */
     public int countChildContacts()
     {
-        return childContacts.size();
+        synchronized (childContacts)
+        {
+            return childContacts.size();
+        }
     }
 
     /**
@@ -265,7 +270,32 @@ public int countSubgroups()
      */
     public Iterator<MetaContact> getChildContacts()
     {
-        return childContactsOrderedCopy.iterator();
+        return getChildContactsOrderedCopy().iterator();
+    }
+
+    /**
+     * Returns the copy of the child contacts, creating it if they have been
+     * modified since it was last created.
+     *
+     * @return a copy of the child contacts in their order
+     */
+    private List<MetaContact> getChildContactsOrderedCopy()
+    {
+        List<MetaContact> orderedCopy = childContactsOrderedCopy;
+
+        if (orderedCopy == null)
+        {
+            synchronized (childContacts)
+            {
+                orderedCopy = childContactsOrderedCopy;
+                if (orderedCopy == null)
+                {
+                    orderedCopy = new ArrayList<MetaContact>(childContacts);
+                    childContactsOrderedCopy = orderedCopy;
+                }
+            }
+        }
+        return orderedCopy;
     }
 
     /**
@@ -303,22 +333,38 @@ public MetaContact getMetaContact(String metaContactID)
      */
     public int indexOf(MetaContact metaContact)
     {
-        int i = 0;
-
-        Iterator<MetaContact> childrenIter = getChildContacts();
+        if (!(metaContact instanceof MetaContactImpl))
+            return -1;
 
-        while (childrenIter.hasNext())
+        synchronized (childContacts)
         {
-            MetaContact current = childrenIter.next();
+            return indexOfChildContact((MetaContactImpl) metaContact);
+        }
+    }
 
-            if (current == metaContact)
-            {
+    /**
+     * Returns the index of <tt>metaContact</tt> in the sorted child contacts.
+     * Must be called while holding the lock of <tt>childContacts</tt>.
+     *
+     * @param metaContact the <tt>MetaContact</tt> whose index we're looking
+     * for.
+     * @return the index of <tt>metaContact</tt> or -1 if it is not a child of
+     * this group.
+     */
+    private int indexOfChildContact(MetaContactImpl metaContact)
+    {
+        int index = Collections.binarySearch(childContacts, metaContact);
+
+        if (index >= 0 && childContacts.get(index) == metaContact)
+            return index;
+
+        // the contact may have changed without being moved, in which case
+        // it is no longer where the search expects it
+        for (int i = 0; i < childContacts.size(); i++)
+        {
+            if (childContacts.get(i) == metaContact)
                 return i;
-            }
-            i++;
         }
-
-        //if we got here then metaContact is not in this list
         return -1;
     }
 
@@ -440,10 +486,11 @@ public MetaContactGroup findMetaContactGroupByMetaUID(String metaUID)
             MetaContactGroupImpl mGroup
                 = (MetaContactGroupImpl) groupsIter.next();
 
-            if (metaUID.equals(mGroup.getMetaUID()))
-                return mGroup;
-            else
-                mGroup.findMetaContactByMetaUID(metaUID);
+            MetaContactGroup mSubgroup
+                = mGroup.findMetaContactGroupByMetaUID(metaUID);
+
+            if (mSubgroup != null)
+                return mSubgroup;
         }
 
         return null;
@@ -696,7 +743,10 @@ public MetaContactGroupImpl findMetaContactGroupByContactGroup(
     public MetaContact getMetaContact(int index) throws
         IndexOutOfBoundsException
     {
-        return this.childContactsOrderedCopy.get(index);
+        synchronized (childContacts)
+        {
+            return this.childContacts.get(index);
+        }
     }
 
     /**
@@ -710,6 +760,10 @@ void addMetaContact(MetaContactImpl metaContact)
         metaContact.setParentGroup(this);
 
         lightAddMetaContact(metaContact);
+
+        MetaContactListIndex index = getIndex();
+        if (index != null)
+            index.metaContactAdded(metaContact);
     }
 
     /**
@@ -726,11 +780,17 @@ int lightAddMetaContact(MetaContactImpl metaContact)
     {
         synchronized(childContacts)
         {
-            this.childContacts.add(metaContact);
-            //no need to synch it's not a disaster if s.o. else reads the old copy.
-            childContactsOrderedCopy
-                = new LinkedList<MetaContact>(childContacts);
-            return childContactsOrderedCopy.indexOf(metaContact);
+            int index = Collections.binarySearch(childContacts, metaContact);
+
+            // contacts comparing as equal have the same UID, keep the one we
+            // already have like a set would
+            if (index >= 0)
+                return index;
+
+            index = -(index + 1);
+            this.childContacts.add(index, metaContact);
+            childContactsOrderedCopy = null;
+            return index;
         }
     }
 
@@ -739,9 +799,8 @@ int lightAddMetaContact(MetaContactImpl metaContact)
       * contacts without unsetting its parent contact and without any
       * synchronization. This method is meant for use _PRIMARILY_ by the
       * <tt>MetaContact</tt> itself upon change in its encapsulated protocol
-      * specific contacts. The method would also regenerate the ordered copy
-      * used for generating iterators and performing search operations over
-      * the group.
+      * specific contacts. The method would also drop the ordered copy used
+      * for generating iterators over the group.
       *
       * @param metaContact the <tt>MetaContact</tt> to remove from the local
       * vector.
@@ -750,10 +809,13 @@ void lightRemoveMetaContact(MetaContactImpl metaContact)
     {
         synchronized(childContacts)
         {
-            this.childContacts.remove(metaContact);
-            //no need to synch it's not a disaster if s.o. else reads the old copy.
-            childContactsOrderedCopy
-                            = new LinkedList<MetaContact>(childContacts);
+            int index = indexOfChildContact(metaContact);
+
+            if (index >= 0)
+            {
+                this.childContacts.remove(index);
+                childContactsOrderedCopy = null;
+            }
         }
     }
 
@@ -767,6 +829,10 @@ void removeMetaContact(MetaContactImpl metaContact)
     {
         metaContact.unsetParentGroup(this);
         lightRemoveMetaContact(metaContact);
+
+        MetaContactListIndex index = getIndex();
+        if (index != null)
+            index.metaContactRemoved(metaContact);
     }
 
     /**
@@ -838,9 +904,12 @@ public MetaContactGroup getMetaContactSubgroupByUID(String grpUID)
      */
     public boolean contains(MetaContact contact)
     {
+        if (!(contact instanceof MetaContactImpl))
+            return false;
+
         synchronized (childContacts)
         {
-            return this.childContacts.contains(contact);
+            return indexOfChildContact((MetaContactImpl) contact) >= 0;
         }
     }
 
@@ -977,6 +1046,10 @@ void addSubgroup(MetaContactGroup subgroup)
 
         this.subgroupsOrderedCopy =
             new LinkedList<MetaContactGroup>(subgroups);
+
+        MetaContactListIndex index = getIndex();
+        if (index != null)
+            index.groupAdded((MetaContactGroupImpl)subgroup);
     }
 
     /**
@@ -994,6 +1067,10 @@ MetaContactGroupImpl removeSubgroup(int index)
 
         subgroupsOrderedCopy = new LinkedList<MetaContactGroup>(subgroups);
 
+        MetaContactListIndex mclIndex = getIndex();
+        if (mclIndex != null)
+            mclIndex.groupRemoved(subgroup);
+
         return subgroup;
     }
 
@@ -1026,6 +1103,16 @@ final MetaContactListServiceImpl getMclServiceImpl()
         return mclServiceImpl;
     }
 
+    /**
+     * Returns the indexes of the contact list this group belongs to.
+     * @return the indexes of the contact list or <tt>null</tt> if this group
+     * was created without a <tt>MetaContactListService</tt>
+     */
+    final MetaContactListIndex getIndex()
+    {
+        return (mclServiceImpl == null) ? null : mclServiceImpl.index;
+    }
+
     /**
      * Implements {@link MetaContactGroup#getData(Object)}.
      * @return the data value corresponding to the given key
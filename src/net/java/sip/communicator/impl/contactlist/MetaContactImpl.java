@@ -74,10 +74,11 @@
     private Contact defaultContact = null;
 
     /**
-     * A locally cached copy of an avatar that we should return for lazy calls
-     * to the getAvatarMethod() in order to speed up display.
+     * The locally stored avatar that we should return for lazy calls to the
+     * getAvatarMethod() in order to speed up display. Only its handle is kept
+     * so that the contacts do not each hold a copy of the image.
      */
-    private byte[] cachedAvatar = null;
+    private AvatarStore.Avatar cachedAvatar = null;
 
     /**
      * A flag that tells us whether or not we have already tried to restore
@@ -618,10 +619,12 @@ public byte[] getAvatar(boolean isLazy)
         //if we get here then the caller is probably not willing to perform
         //network operations and opted for a lazy retrieve (... or the
         //queryAvatar method returned null because we are calling it too often)
-        if((cachedAvatar != null) && (cachedAvatar.length > 0))
+        if(cachedAvatar != null)
         {
             //we already have a cached avatar, so let's return it
-            return cachedAvatar;
+            result = cachedAvatar.getBytes();
+            if (result != null)
+                return result;
         }
 
         //no cached avatar. let's try the file system for previously stored
@@ -636,13 +639,13 @@ public byte[] getAvatar(boolean isLazy)
         {
             Contact protoContact = iter.next();
 
-            cachedAvatar = AvatarCacheUtils.getCachedAvatar(protoContact);
-            /*
-             * Caching a zero-length avatar happens but such an avatar isn't
-             * very useful.
-             */
-            if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-                return cachedAvatar;
+            cachedAvatar = AvatarCacheUtils.getStoredAvatar(protoContact);
+            if (cachedAvatar != null)
+            {
+                result = cachedAvatar.getBytes();
+                if (result != null)
+                    return result;
+            }
         }
 
         return null;
@@ -712,8 +715,14 @@ void addProtoContact(Contact contact)
             }
 
             if (parentGroup != null)
+            {
                 parentGroup.lightAddMetaContact(this);
 
+                MetaContactListIndex index = parentGroup.getIndex();
+                if (index != null)
+                    index.contactAdded(contact, this);
+            }
+
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
 
@@ -807,6 +816,8 @@ void removeProtoContact(Contact contact)
             if (parentGroup != null)
                 parentGroup.lightAddMetaContact(this);
 
+            contactRemoved(contact);
+
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
 
@@ -845,6 +856,7 @@ boolean removeContactsForProvider(ProtocolProviderService provider)
             if (contact.getProtocolProvider() == provider)
             {
                 contactsIter.remove();
+                contactRemoved(contact);
                 modified = true;
             }
         }
@@ -878,6 +890,7 @@ boolean removeContactsForGroup(ContactGroup protoGroup)
             if (contact.getParentContactGroup() == protoGroup)
             {
                 contactsIter.remove();
+                contactRemoved(contact);
                 modified = true;
             }
         }
@@ -892,6 +905,24 @@ boolean removeContactsForGroup(ContactGroup protoGroup)
     }
 
 
+    /**
+     * Removes a protocol contact removed from this meta contact from the
+     * indexes of the contact list.
+     *
+     * @param contact the protocol contact which was removed
+     */
+    private void contactRemoved(Contact contact)
+    {
+        MetaContactGroupImpl parentGroup = getParentGroup();
+
+        if (parentGroup != null)
+        {
+            MetaContactListIndex index = parentGroup.getIndex();
+            if (index != null)
+                index.contactRemoved(contact, this);
+        }
+    }
+
     /**
      * Sets <tt>parentGroup</tt> as a parent of this meta contact. Do not
      * call this method with a null argument even if a group is removing
@@ -1091,10 +1122,9 @@ public List<String> getDetails(String name)
     public void cacheAvatar( Contact protoContact,
                              byte[] avatarBytes)
     {
-        this.cachedAvatar = avatarBytes;
+        this.cachedAvatar
+            = AvatarCacheUtils.cacheAvatar(protoContact, avatarBytes);
         this.avatarFileCacheAlreadyQueried = true;
-
-        AvatarCacheUtils.cacheAvatar(protoContact, avatarBytes);
     }
 
     /**
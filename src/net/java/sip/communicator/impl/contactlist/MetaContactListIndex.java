@@ -0,0 +1,429 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Indexes of the meta contacts and meta contact groups of a meta contact
+ * list by UID and of the meta contacts by the address and account of their
+ * protocol contacts, so they are found without going through the whole list.
+ * <p>
+ * The groups report the meta contacts and subgroups added to them and the
+ * meta contacts report the protocol contacts added to them. An entry may
+ * outlive what it points to, as when a meta contact is changed while it is
+ * not in a group, so a meta contact or group found in the indexes is only
+ * returned if it is still part of the list.
+ * <p>
+ * Protocol contacts may match addresses which differ from their own, as a
+ * jabber contact matches its address in another case or its local part.
+ * Such a lookup falls back to an index of the addresses in lower case and
+ * without a resource, and then to an index of their local parts. A lookup
+ * missing all of them finds no meta contact; the list is never scanned.
+ * <p>
+ * Instances are thread safe.
+ */
+class MetaContactListIndex
+{
+    /**
+     * The root group of the list.
+     */
+    private final MetaContactGroupImpl rootGroup;
+
+    /**
+     * The meta contacts by UID.
+     */
+    private final ConcurrentMap<String, MetaContactImpl> metaContacts
+        = new ConcurrentHashMap<String, MetaContactImpl>();
+
+    /**
+     * The meta contact groups by UID.
+     */
+    private final ConcurrentMap<String, MetaContactGroupImpl> groups
+        = new ConcurrentHashMap<String, MetaContactGroupImpl>();
+
+    /**
+     * The meta contacts by account unique ID and then by address of the
+     * protocol contacts they contain.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, MetaContactImpl>>
+        contacts
+            = new ConcurrentHashMap<String,
+                                    ConcurrentMap<String, MetaContactImpl>>();
+
+    /**
+     * The meta contacts by account unique ID and then by normalized address
+     * of the protocol contacts they contain.
+     *
+     * @see #normalize(String)
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, MetaContactImpl>>
+        normalizedContacts
+            = new ConcurrentHashMap<String,
+                                    ConcurrentMap<String, MetaContactImpl>>();
+
+    /**
+     * The meta contacts by account unique ID and then by local part of the
+     * normalized address of the protocol contacts they contain.
+     *
+     * @see #getLocalPart(String)
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, MetaContactImpl>>
+        localPartContacts
+            = new ConcurrentHashMap<String,
+                                    ConcurrentMap<String, MetaContactImpl>>();
+
+    /**
+     * Creates the indexes of the list with root <tt>rootGroup</tt>.
+     *
+     * @param rootGroup the root group of the list
+     */
+    MetaContactListIndex(MetaContactGroupImpl rootGroup)
+    {
+        this.rootGroup = rootGroup;
+        groups.put(rootGroup.getMetaUID(), rootGroup);
+    }
+
+    /**
+     * Adds a group, its subgroups and the meta contacts in all of them.
+     *
+     * @param group the group added to the list
+     */
+    void groupAdded(MetaContactGroupImpl group)
+    {
+        groups.put(group.getMetaUID(), group);
+
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+        while (childContacts.hasNext())
+            metaContactAdded((MetaContactImpl) childContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            groupAdded((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Removes a group, its subgroups and the meta contacts in all of them.
+     *
+     * @param group the group removed from the list
+     */
+    void groupRemoved(MetaContactGroupImpl group)
+    {
+        groups.remove(group.getMetaUID(), group);
+
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+        while (childContacts.hasNext())
+            metaContactRemoved((MetaContactImpl) childContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            groupRemoved((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Adds a meta contact and its protocol contacts.
+     *
+     * @param metaContact the meta contact added to a group
+     */
+    void metaContactAdded(MetaContactImpl metaContact)
+    {
+        metaContacts.put(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> protoContacts = metaContact.getContacts();
+        while (protoContacts.hasNext())
+            contactAdded(protoContacts.next(), metaContact);
+    }
+
+    /**
+     * Removes a meta contact and its protocol contacts.
+     *
+     * @param metaContact the meta contact removed from its group
+     */
+    void metaContactRemoved(MetaContactImpl metaContact)
+    {
+        metaContacts.remove(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> protoContacts = metaContact.getContacts();
+        while (protoContacts.hasNext())
+            contactRemoved(protoContacts.next(), metaContact);
+    }
+
+    /**
+     * Adds a protocol contact of a meta contact.
+     *
+     * @param contact the protocol contact
+     * @param metaContact the meta contact containing it
+     */
+    void contactAdded(Contact contact, MetaContactImpl metaContact)
+    {
+        String accountID = getAccountID(contact);
+        String address = contact.getAddress();
+        String normalized = normalize(address);
+
+        getAccountContacts(contacts, accountID).put(address, metaContact);
+        getAccountContacts(normalizedContacts, accountID)
+            .put(normalized, metaContact);
+        getAccountContacts(localPartContacts, accountID)
+            .put(getLocalPart(normalized), metaContact);
+    }
+
+    /**
+     * Returns the meta contacts of an account in an index, adding them if
+     * the index has none.
+     *
+     * @param index the index
+     * @param accountID the unique ID of the account
+     * @return the meta contacts of the account in <tt>index</tt>
+     */
+    private static ConcurrentMap<String, MetaContactImpl> getAccountContacts(
+        ConcurrentMap<String, ConcurrentMap<String, MetaContactImpl>> index,
+        String accountID)
+    {
+        ConcurrentMap<String, MetaContactImpl> accountContacts
+            = index.get(accountID);
+
+        if (accountContacts == null)
+        {
+            ConcurrentMap<String, MetaContactImpl> newAccountContacts
+                = new ConcurrentHashMap<String, MetaContactImpl>();
+
+            accountContacts = index.putIfAbsent(accountID, newAccountContacts);
+            if (accountContacts == null)
+                accountContacts = newAccountContacts;
+        }
+        return accountContacts;
+    }
+
+    /**
+     * Removes a protocol contact of a meta contact, unless it is now indexed
+     * for another meta contact.
+     *
+     * @param contact the protocol contact
+     * @param metaContact the meta contact it was removed from
+     */
+    void contactRemoved(Contact contact, MetaContactImpl metaContact)
+    {
+        String accountID = getAccountID(contact);
+        String address = contact.getAddress();
+        String normalized = normalize(address);
+        ConcurrentMap<String, MetaContactImpl> accountContacts
+            = contacts.get(accountID);
+
+        if (accountContacts != null)
+            accountContacts.remove(address, metaContact);
+
+        accountContacts = normalizedContacts.get(accountID);
+        if (accountContacts != null)
+            accountContacts.remove(normalized, metaContact);
+
+        accountContacts = localPartContacts.get(accountID);
+        if (accountContacts != null)
+            accountContacts.remove(getLocalPart(normalized), metaContact);
+    }
+
+    /**
+     * Returns the meta contact with the specified UID.
+     *
+     * @param metaUID the UID of the meta contact
+     * @return the meta contact or <tt>null</tt> if it is not in the list
+     */
+    MetaContactImpl findMetaContactByMetaUID(String metaUID)
+    {
+        MetaContactImpl metaContact = metaContacts.get(metaUID);
+
+        return isInList(metaContact) ? metaContact : null;
+    }
+
+    /**
+     * Returns the group with the specified UID.
+     *
+     * @param metaUID the UID of the group
+     * @return the group or <tt>null</tt> if it is not in the list
+     */
+    MetaContactGroupImpl findMetaContactGroupByMetaUID(String metaUID)
+    {
+        MetaContactGroupImpl group = groups.get(metaUID);
+
+        return isInList(group) ? group : null;
+    }
+
+    /**
+     * Returns the meta contact containing a protocol contact which matches
+     * the address and has the provider of <tt>contact</tt>. Only the
+     * indexes are looked up, so a protocol contact matching an address
+     * which is neither its own, the normalized one nor its local part is
+     * not found.
+     *
+     * @param contact the protocol contact
+     * @return the meta contact or <tt>null</tt> if it is not in the list
+     */
+    MetaContactImpl findMetaContactByContact(Contact contact)
+    {
+        String accountID = getAccountID(contact);
+        String address = contact.getAddress();
+        ProtocolProviderService provider = contact.getProtocolProvider();
+
+        MetaContactImpl metaContact = get(contacts, accountID, address);
+
+        if (!contains(metaContact, address, provider))
+        {
+            String normalized = normalize(address);
+
+            metaContact = get(normalizedContacts, accountID, normalized);
+            if (!contains(metaContact, address, provider)
+                && !contains(metaContact, normalized, provider))
+            {
+                metaContact
+                    = get(localPartContacts, accountID,
+                          getLocalPart(normalized));
+                if (!contains(metaContact, address, provider)
+                    && !contains(metaContact, normalized, provider))
+                    return null;
+            }
+        }
+
+        return isInList(metaContact) ? metaContact : null;
+    }
+
+    /**
+     * Determines whether a meta contact contains a protocol contact of a
+     * provider matching an address.
+     *
+     * @param metaContact the meta contact or <tt>null</tt>
+     * @param address the address
+     * @param provider the provider of the protocol contact
+     * @return <tt>true</tt> if <tt>metaContact</tt> contains such a protocol
+     * contact
+     */
+    private static boolean contains(MetaContactImpl metaContact,
+        String address, ProtocolProviderService provider)
+    {
+        return metaContact != null
+            && metaContact.getContact(address, provider) != null;
+    }
+
+    /**
+     * Returns the meta contact containing a protocol contact with the
+     * specified address from the specified account.
+     *
+     * @param address the address of the protocol contact
+     * @param accountID the unique ID of the account of the protocol contact
+     * @return the meta contact or <tt>null</tt> if it is not in the list
+     */
+    MetaContactImpl findMetaContactByContact(String address, String accountID)
+    {
+        MetaContactImpl metaContact = get(contacts, accountID, address);
+
+        if (metaContact == null
+            || metaContact.getContact(address, accountID) == null)
+            return null;
+
+        return isInList(metaContact) ? metaContact : null;
+    }
+
+    /**
+     * Returns the meta contact indexed for a protocol contact.
+     *
+     * @param index the index to look in
+     * @param accountID the unique ID of the account of the protocol contact
+     * @param address the address of the protocol contact, as it is keyed in
+     * <tt>index</tt>
+     * @return the meta contact or <tt>null</tt>
+     */
+    private static MetaContactImpl get(
+        Map<String, ConcurrentMap<String, MetaContactImpl>> index,
+        String accountID,
+        String address)
+    {
+        Map<String, MetaContactImpl> accountContacts = index.get(accountID);
+
+        return (accountContacts == null) ? null : accountContacts.get(address);
+    }
+
+    /**
+     * Normalizes the address of a protocol contact: lower case and without
+     * a resource, so that it is the same for the addresses of a jabber
+     * contact.
+     *
+     * @param address the address of a protocol contact
+     * @return the normalized <tt>address</tt>
+     */
+    static String normalize(String address)
+    {
+        int slash = address.indexOf('/');
+
+        if (slash >= 0)
+            address = address.substring(0, slash);
+        return address.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the local part of a normalized address, the part before its
+     * domain, or the whole address if it has no domain.
+     *
+     * @param normalized a normalized address
+     * @return the local part of <tt>normalized</tt>
+     */
+    static String getLocalPart(String normalized)
+    {
+        int at = normalized.indexOf('@');
+
+        return (at >= 0) ? normalized.substring(0, at) : normalized;
+    }
+
+    /**
+     * Determines whether a meta contact is in a group of the list.
+     *
+     * @param metaContact the meta contact or <tt>null</tt>
+     * @return <tt>true</tt> if <tt>metaContact</tt> is in the list
+     */
+    private boolean isInList(MetaContactImpl metaContact)
+    {
+        return metaContact != null && isInList(metaContact.getParentGroup());
+    }
+
+    /**
+     * Determines whether a group is the root group or one of its subgroups.
+     *
+     * @param group the group or <tt>null</tt>
+     * @return <tt>true</tt> if <tt>group</tt> is in the list
+     */
+    private boolean isInList(MetaContactGroup group)
+    {
+        while (group != null && group != rootGroup)
+            group = group.getParentMetaContactGroup();
+
+        return group != null;
+    }
+
+    /**
+     * Returns the unique ID of the account of a protocol contact.
+     *
+     * @param contact the protocol contact
+     * @return the unique ID of its account
+     */
+    private static String getAccountID(Contact contact)
+    {
+        return contact.getProtocolProvider().getAccountID()
+            .getAccountUniqueID();
+    }
+}
@@ -25,6 +25,7 @@
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.service.configuration.*;
 import org.jitsi.util.xml.*;
 import org.osgi.framework.*;
 
@@ -66,6 +67,12 @@
      */
     final MetaContactGroupImpl rootMetaGroup;
 
+    /**
+     * The indexes of the contacts and groups under <tt>rootMetaGroup</tt>,
+     * answering the find methods.
+     */
+    final MetaContactListIndex index;
+
     /**
      * The event handler that will be handling our subscription events.
      */
@@ -125,6 +132,25 @@
      */
     private final MclStorageManager storageManager = new MclStorageManager();
 
+    /**
+     * The property with the number of milliseconds during which presence
+     * changes are collected before the contacts are reordered.
+     */
+    private static final String PRESENCE_UPDATE_WINDOW_PROP
+        = "net.java.sip.communicator.impl.contactlist"
+            + ".PRESENCE_UPDATE_WINDOW_MILLIS";
+
+    /**
+     * The default number of milliseconds during which presence changes are
+     * collected before the contacts are reordered.
+     */
+    private static final int DEFAULT_PRESENCE_UPDATE_WINDOW = 100;
+
+    /**
+     * Collects the presence changes of our contacts and reorders the groups.
+     */
+    private volatile PresenceUpdateBatcher presenceUpdateBatcher = null;
+
     /**
      * Creates an instance of this class.
      */
@@ -134,6 +160,7 @@ public MetaContactListServiceImpl()
             = new MetaContactGroupImpl(
                     this, ContactlistActivator.getResources().getI18NString(
                         "service.gui.CONTACTS"), "RootMetaContactGroup");
+        index = new MetaContactListIndex(rootMetaGroup);
     }
 
     /**
@@ -165,6 +192,18 @@ public void start(BundleContext bc)
             logger.debug("Starting the meta contact list implementation.");
         this.bundleContext = bc;
 
+        ConfigurationService configurationService
+            = ServiceUtils.getService(bc, ConfigurationService.class);
+        int presenceUpdateWindow = DEFAULT_PRESENCE_UPDATE_WINDOW;
+
+        if (configurationService != null)
+        {
+            presenceUpdateWindow = configurationService.getInt(
+                PRESENCE_UPDATE_WINDOW_PROP, DEFAULT_PRESENCE_UPDATE_WINDOW);
+        }
+        presenceUpdateBatcher
+            = new PresenceUpdateBatcher(this, presenceUpdateWindow);
+
         //initialize the meta contact list from what has been stored locally.
         try
         {
@@ -245,6 +284,7 @@ public void stop(BundleContext bc)
             }
         }
         currentlyInstalledProviders.clear();
+        presenceUpdateBatcher.stop();
         storageManager.stop();
     }
 
@@ -1644,7 +1684,7 @@ private void locallyRemoveAllContactsForProvider(
      */
     public MetaContact findMetaContactByContact(Contact contact)
     {
-        return rootMetaGroup.findMetaContactByContact(contact);
+        return index.findMetaContactByContact(contact);
     }
 
     /**
@@ -1667,8 +1707,7 @@ public MetaContact findMetaContactByContact(Contact contact)
     public MetaContact findMetaContactByContact(String contactAddress,
                                                 String accountID)
     {
-        return rootMetaGroup.findMetaContactByContact(contactAddress
-                                                      , accountID);
+        return index.findMetaContactByContact(contactAddress, accountID);
     }
 
     /**
@@ -1681,8 +1720,7 @@ public MetaContact findMetaContactByContact(String contactAddress,
      */
     public MetaContact findMetaContactByMetaUID(String metaContactID)
     {
-
-        return rootMetaGroup.findMetaContactByMetaUID(metaContactID);
+        return index.findMetaContactByMetaUID(metaContactID);
     }
 
     /**
@@ -1696,7 +1734,7 @@ public MetaContact findMetaContactByMetaUID(String metaContactID)
      */
     public MetaContactGroup findMetaContactGroupByMetaUID(String metaGroupID)
     {
-        return rootMetaGroup.findMetaContactGroupByMetaUID(metaGroupID);
+        return index.findMetaContactGroupByMetaUID(metaGroupID);
     }
 
     /**
@@ -3144,7 +3182,7 @@ else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_MODIFIED))
 
     /**
      * Upon each status notification this method finds the corresponding meta
-     * contact and updates the ordering in its parent group.
+     * contact and schedules the update of the ordering in its parent group.
      * <p>
      * @param evt the ContactPresenceStatusChangeEvent describing the status
      * change.
@@ -3159,19 +3197,10 @@ public void contactPresenceStatusChanged(
         if(metaContactImpl == null)
             return;
 
-        int oldContactIndex = metaContactImpl.getParentGroup()
-            .indexOf(metaContactImpl);
-
-        int newContactIndex = metaContactImpl.reevalContact();
-
-        if(oldContactIndex != newContactIndex)
-        {
-            fireMetaContactGroupEvent(
-                findParentMetaContactGroup(metaContactImpl)
-                , evt.getSourceProvider()
-                , null
-                , MetaContactGroupEvent.CHILD_CONTACTS_REORDERED);
-        }
+        //the contact is reordered along with the other contacts changing
+        //their status at about the same time
+        presenceUpdateBatcher.presenceChanged(
+            metaContactImpl, evt.getSourceProvider());
     }
 
 
@@ -3363,7 +3392,7 @@ MetaContactImpl loadStoredMetaContact(
      *            one of the METACONTACT_GROUP_XXX static fields indicating the
      *            nature of the event.
      */
-    private synchronized void fireMetaContactGroupEvent( MetaContactGroup source,
+    synchronized void fireMetaContactGroupEvent( MetaContactGroup source,
                                             ProtocolProviderService provider,
                                             ContactGroup sourceProtoGroup,
                                             int eventID)
@@ -0,0 +1,213 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.contactlist.event.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Collects the meta contacts whose protocol contacts changed their presence
+ * status and moves them to their new position in their groups once a short
+ * window has passed. A single <tt>CHILD_CONTACTS_REORDERED</tt> event is
+ * then fired for every group which order changed, instead of one for every
+ * presence change, as the presence of a whole contact list arriving at login
+ * would otherwise flood the listeners with events.
+ */
+class PresenceUpdateBatcher
+{
+    /**
+     * Our logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(PresenceUpdateBatcher.class);
+
+    /**
+     * The meta contact list firing the events.
+     */
+    private final MetaContactListServiceImpl mclServiceImpl;
+
+    /**
+     * The number of milliseconds the changes are collected for before they
+     * are applied. The changes are applied right away if it is not positive.
+     */
+    private final long windowMillis;
+
+    /**
+     * The meta contacts which presence changed since the changes were last
+     * applied, with the provider of their last change.
+     */
+    private Map<MetaContactImpl, ProtocolProviderService> pendingChanges
+        = new LinkedHashMap<MetaContactImpl, ProtocolProviderService>();
+
+    /**
+     * The timer applying the changes, created when first needed.
+     */
+    private Timer timer = null;
+
+    /**
+     * Whether the changes are scheduled to be applied.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * Creates a batcher of the presence changes of the contacts of a meta
+     * contact list.
+     *
+     * @param mclServiceImpl the meta contact list firing the events
+     * @param windowMillis the number of milliseconds the changes are
+     * collected for
+     */
+    PresenceUpdateBatcher(MetaContactListServiceImpl mclServiceImpl,
+                          long windowMillis)
+    {
+        this.mclServiceImpl = mclServiceImpl;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Records that a protocol contact of a meta contact has changed its
+     * presence status.
+     *
+     * @param metaContact the meta contact of the protocol contact
+     * @param provider the provider of the protocol contact
+     */
+    void presenceChanged(MetaContactImpl metaContact,
+                         ProtocolProviderService provider)
+    {
+        if (windowMillis <= 0)
+        {
+            applyChanges(
+                Collections.singletonMap(metaContact, provider));
+            return;
+        }
+
+        synchronized (this)
+        {
+            pendingChanges.put(metaContact, provider);
+
+            if (flushScheduled)
+                return;
+
+            if (timer == null)
+                timer = new Timer("MetaContactList presence updates", true);
+
+            timer.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, windowMillis);
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * Applies the changes collected so far.
+     */
+    void flush()
+    {
+        Map<MetaContactImpl, ProtocolProviderService> changes;
+
+        synchronized (this)
+        {
+            changes = pendingChanges;
+            pendingChanges
+                = new LinkedHashMap<MetaContactImpl, ProtocolProviderService>();
+            flushScheduled = false;
+        }
+
+        try
+        {
+            applyChanges(changes);
+        }
+        catch (Throwable t)
+        {
+            logger.error("Failed to apply presence changes", t);
+        }
+    }
+
+    /**
+     * Drops the pending changes and stops the timer.
+     */
+    synchronized void stop()
+    {
+        if (timer != null)
+        {
+            timer.cancel();
+            timer = null;
+        }
+        pendingChanges.clear();
+        flushScheduled = false;
+    }
+
+    /**
+     * Moves the meta contacts to their new position in their groups and
+     * fires an event for every group which order changed.
+     *
+     * @param changes the changed meta contacts with the provider of their
+     * last change
+     */
+    private void applyChanges(
+            Map<MetaContactImpl, ProtocolProviderService> changes)
+    {
+        // the groups which order changed with the provider of the changes or
+        // null if they came from several providers
+        Map<MetaContactGroupImpl, ProtocolProviderService> reorderedGroups
+            = new LinkedHashMap<MetaContactGroupImpl,
+                                ProtocolProviderService>();
+
+        for (Map.Entry<MetaContactImpl, ProtocolProviderService> change
+                : changes.entrySet())
+        {
+            MetaContactImpl metaContact = change.getKey();
+            MetaContactGroupImpl parentGroup = metaContact.getParentGroup();
+
+            // removed from the list in the meantime
+            if (parentGroup == null)
+                continue;
+
+            int oldContactIndex = parentGroup.indexOf(metaContact);
+            int newContactIndex = metaContact.reevalContact();
+
+            if (oldContactIndex == newContactIndex)
+                continue;
+
+            ProtocolProviderService provider = change.getValue();
+
+            if (!reorderedGroups.containsKey(parentGroup))
+                reorderedGroups.put(parentGroup, provider);
+            else if (reorderedGroups.get(parentGroup) != provider)
+                reorderedGroups.put(parentGroup, null);
+        }
+
+        for (Map.Entry<MetaContactGroupImpl, ProtocolProviderService> group
+                : reorderedGroups.entrySet())
+        {
+            mclServiceImpl.fireMetaContactGroupEvent(
+                group.getKey(),
+                group.getValue(),
+                null,
+                MetaContactGroupEvent.CHILD_CONTACTS_REORDERED);
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Sends DNS queries over a single non-blocking UDP channel and receives the
+ * responses of all of them on a single thread, which waits on a
+ * <tt>Selector</tt>. Every pending query gets an ID of its own, so the
+ * queries sent to different servers at the same time are told apart by
+ * their responses. The thread also runs the tasks scheduled by the users of
+ * the channel, such as retransmissions and timeouts.
+ * <p>
+ * The handlers of the responses and the scheduled tasks run on the thread
+ * of the channel and must not block.
+ */
+class AsyncDnsChannel
+    implements Runnable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AsyncDnsChannel</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AsyncDnsChannel.class);
+
+    /**
+     * The size of the buffer receiving the responses, the largest UDP
+     * datagram.
+     */
+    private static final int MAX_RESPONSE_SIZE = 65535;
+
+    /**
+     * Handles the responses received for a query.
+     */
+    interface ResponseHandler
+    {
+        /**
+         * Called on the thread of the channel when a response to the query
+         * is received from one of the servers it was sent to.
+         *
+         * @param response the response, with the ID of the original query
+         * @param server the server which sent the response
+         */
+        void responseReceived(Message response, InetSocketAddress server);
+    }
+
+    /**
+     * A query waiting for responses.
+     */
+    private static class PendingQuery
+    {
+        /**
+         * The query as given to the channel.
+         */
+        final Message query;
+
+        /**
+         * The query with the ID given by the channel, in wire format.
+         */
+        final byte[] wire;
+
+        /**
+         * Handles the responses.
+         */
+        final ResponseHandler handler;
+
+        /**
+         * The servers the query was sent to, the only ones which responses
+         * are accepted.
+         */
+        final Set<InetSocketAddress> servers
+            = new HashSet<InetSocketAddress>();
+
+        PendingQuery(Message query, byte[] wire, ResponseHandler handler)
+        {
+            this.query = query;
+            this.wire = wire;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * A task to run on the thread of the channel at a given time.
+     */
+    private static class ScheduledTask
+        implements Comparable<ScheduledTask>
+    {
+        final long time;
+
+        final long sequence;
+
+        final Runnable task;
+
+        ScheduledTask(long time, long sequence, Runnable task)
+        {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public int compareTo(ScheduledTask o)
+        {
+            if (time != o.time)
+                return (time < o.time) ? -1 : 1;
+            return (sequence < o.sequence) ? -1
+                : ((sequence == o.sequence) ? 0 : 1);
+        }
+    }
+
+    /**
+     * The channel the queries are sent and the responses received on.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The selector waiting for the responses.
+     */
+    private final Selector selector;
+
+    /**
+     * The thread receiving the responses and running the scheduled tasks.
+     */
+    private final Thread thread;
+
+    /**
+     * The queries waiting for responses by their ID.
+     */
+    private final Map<Integer, PendingQuery> pendingQueries
+        = new HashMap<Integer, PendingQuery>();
+
+    /**
+     * The tasks to run, the next one first.
+     */
+    private final PriorityQueue<ScheduledTask> scheduledTasks
+        = new PriorityQueue<ScheduledTask>();
+
+    /**
+     * The number of tasks scheduled so far, orders the tasks scheduled for
+     * the same time.
+     */
+    private long taskSequence = 0;
+
+    /**
+     * Picks the IDs of the queries, so that they can't be guessed to spoof
+     * responses.
+     */
+    private final Random random = new SecureRandom();
+
+    /**
+     * Whether the channel has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a channel on an ephemeral port and starts its thread.
+     *
+     * @throws IOException if the channel can't be opened
+     */
+    AsyncDnsChannel()
+        throws IOException
+    {
+        channel = DatagramChannel.open();
+        try
+        {
+            channel.configureBlocking(false);
+            channel.socket().bind(null);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        thread = new Thread(this, "AsyncDnsChannel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a query to be sent, giving it an ID which is unique among
+     * the pending queries.
+     *
+     * @param query the query
+     * @param handler handles the responses to the query
+     * @return the ID of the query on this channel
+     */
+    int register(Message query, ResponseHandler handler)
+    {
+        Message q = (Message) query.clone();
+
+        synchronized (pendingQueries)
+        {
+            int id;
+            do
+            {
+                id = random.nextInt(0x10000);
+            }
+            while (pendingQueries.containsKey(id));
+
+            q.getHeader().setID(id);
+            pendingQueries.put(
+                id, new PendingQuery(query, q.toWire(), handler));
+            return id;
+        }
+    }
+
+    /**
+     * Forgets a query, the responses which may still arrive are ignored.
+     *
+     * @param id the ID of the query
+     */
+    void unregister(int id)
+    {
+        synchronized (pendingQueries)
+        {
+            pendingQueries.remove(id);
+        }
+    }
+
+    /**
+     * Sends a registered query to a server.
+     *
+     * @param id the ID of the query
+     * @param server the server
+     * @throws IOException if the query can't be sent
+     */
+    void send(int id, InetSocketAddress server)
+        throws IOException
+    {
+        byte[] wire;
+
+        synchronized (pendingQueries)
+        {
+            PendingQuery pending = pendingQueries.get(id);
+            if (pending == null)
+                return;
+
+            pending.servers.add(server);
+            wire = pending.wire;
+        }
+
+        channel.send(ByteBuffer.wrap(wire), server);
+    }
+
+    /**
+     * Runs a task on the thread of the channel after a delay.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds
+     */
+    void schedule(Runnable task, long delay)
+    {
+        synchronized (scheduledTasks)
+        {
+            scheduledTasks.add(new ScheduledTask(
+                System.currentTimeMillis() + delay, taskSequence++, task));
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the channel and stops its thread. The pending queries get no
+     * more responses.
+     */
+    void close()
+    {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Receives the responses and runs the scheduled tasks until the channel
+     * is closed.
+     */
+    public void run()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_RESPONSE_SIZE);
+
+        try
+        {
+            while (!closed)
+            {
+                long timeout = 0;
+                synchronized (scheduledTasks)
+                {
+                    ScheduledTask next = scheduledTasks.peek();
+                    if (next != null)
+                    {
+                        timeout = Math.max(
+                            next.time - System.currentTimeMillis(), 1);
+                    }
+                }
+
+                try
+                {
+                    selector.select(timeout);
+                    selector.selectedKeys().clear();
+                    receive(buffer);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Failed to receive DNS responses", e);
+                }
+
+                runScheduledTasks();
+            }
+        }
+        finally
+        {
+            try
+            {
+                selector.close();
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Failed to close the DNS channel", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the datagrams received and hands the responses to the handlers
+     * of their queries.
+     *
+     * @param buffer the buffer receiving the datagrams
+     * @throws IOException if reading from the channel fails
+     */
+    private void receive(ByteBuffer buffer)
+        throws IOException
+    {
+        SocketAddress from;
+
+        buffer.clear();
+        while ((from = channel.receive(buffer)) != null)
+        {
+            buffer.flip();
+            byte[] wire = new byte[buffer.remaining()];
+            buffer.get(wire);
+            buffer.clear();
+
+            Message response;
+            try
+            {
+                response = new Message(wire);
+            }
+            catch (IOException e)
+            {
+                logger.debug("Ignoring an invalid DNS response from " + from);
+                continue;
+            }
+
+            PendingQuery pending;
+            synchronized (pendingQueries)
+            {
+                pending = pendingQueries.get(response.getHeader().getID());
+                if (pending != null && !pending.servers.contains(from))
+                    pending = null;
+            }
+            if (pending == null || !isResponseTo(response, pending.query))
+            {
+                logger.debug("Ignoring an unexpected DNS response from "
+                    + from);
+                continue;
+            }
+
+            response.getHeader().setID(pending.query.getHeader().getID());
+            try
+            {
+                pending.handler.responseReceived(
+                    response, (InetSocketAddress) from);
+            }
+            catch (Throwable t)
+            {
+                logger.error("Failed to handle a DNS response", t);
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks which time has come.
+     */
+    private void runScheduledTasks()
+    {
+        long now = System.currentTimeMillis();
+
+        while (true)
+        {
+            ScheduledTask next;
+            synchronized (scheduledTasks)
+            {
+                next = scheduledTasks.peek();
+                if (next == null || next.time > now)
+                    return;
+                scheduledTasks.poll();
+            }
+
+            try
+            {
+                next.task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Failed to run a DNS task", t);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a response answers a query, comparing their
+     * questions.
+     *
+     * @param response the response
+     * @param query the query
+     * @return <tt>true</tt> if <tt>response</tt> answers <tt>query</tt>
+     */
+    private static boolean isResponseTo(Message response, Message query)
+    {
+        Record question = query.getQuestion();
+        Record answered = response.getQuestion();
+
+        if (question == null || answered == null)
+            return question == answered;
+
+        return question.getName().equals(answered.getName())
+            && question.getType() == answered.getType()
+            && question.getDClass() == answered.getDClass();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.dns.*;
+import net.java.sip.communicator.util.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Answers the queries from a {@link DnsCache} and sends the others to
+ * another resolver, caching its responses.
+ * <p>
+ * An expired response is still returned, and a query is sent in the
+ * background to refresh it. The responses which are used are refreshed
+ * shortly before they expire, so that the lookups of the servers of the
+ * accounts, made again and again, are answered from the cache.
+ */
+class CachingResolver
+    implements CustomResolver
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>CachingResolver</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(CachingResolver.class);
+
+    /**
+     * The number of milliseconds between two looks for the responses to
+     * refresh.
+     */
+    private static final long PREFETCH_INTERVAL = 10 * 1000L;
+
+    /**
+     * The resolver the queries which are not answered from the cache are
+     * sent to.
+     */
+    private final Resolver resolver;
+
+    /**
+     * The cache.
+     */
+    private final DnsCache cache;
+
+    /**
+     * Refreshes the responses, writes the cache and delivers the cached
+     * responses of the asynchronous queries.
+     */
+    private final Timer timer = new Timer("DnsCache", true);
+
+    /**
+     * Creates a resolver answering from a cache.
+     *
+     * @param resolver the resolver the other queries are sent to
+     * @param cache the cache
+     */
+    CachingResolver(Resolver resolver, DnsCache cache)
+    {
+        this.resolver = resolver;
+        this.cache = cache;
+
+        timer.schedule(
+            new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    prefetch();
+                }
+            },
+            PREFETCH_INTERVAL,
+            PREFETCH_INTERVAL);
+    }
+
+    /**
+     * Returns the response to a query from the cache or from the resolver.
+     *
+     * @param query the query
+     * @return the response
+     * @throws IOException if the resolver fails
+     */
+    public Message send(Message query)
+        throws IOException
+    {
+        String key = DnsCache.getKey(query);
+        if (key == null)
+            return resolver.send(query);
+
+        Message cached = getCachedResponse(key, query);
+        if (cached != null)
+            return cached;
+
+        Message response = resolver.send(query);
+        cache.put(key, query, response, System.currentTimeMillis());
+        return response;
+    }
+
+    /**
+     * Returns the response to a query from the cache or from the resolver,
+     * without waiting for it.
+     *
+     * @param query the query
+     * @param listener the object the response is given to
+     * @return an identifier, which is also a parameter in the callback
+     */
+    public Object sendAsync(final Message query,
+                            final ResolverListener listener)
+    {
+        final String key = DnsCache.getKey(query);
+        if (key == null)
+            return resolver.sendAsync(query, listener);
+
+        final Message cached = getCachedResponse(key, query);
+        if (cached != null)
+        {
+            final Object id = new Object();
+
+            timer.schedule(
+                new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        listener.receiveMessage(id, cached);
+                    }
+                },
+                0);
+            return id;
+        }
+
+        return resolver.sendAsync(query, new ResolverListener()
+        {
+            public void receiveMessage(Object id, Message response)
+            {
+                cache.put(key, query, response, System.currentTimeMillis());
+                listener.receiveMessage(id, response);
+            }
+
+            public void handleException(Object id, Exception e)
+            {
+                listener.handleException(id, e);
+            }
+        });
+    }
+
+    /**
+     * Returns the cached response to a query and starts refreshing it if it
+     * has expired.
+     *
+     * @param key the question of the query
+     * @param query the query
+     * @return the response or <tt>null</tt> if there is none
+     */
+    private Message getCachedResponse(String key, Message query)
+    {
+        long now = System.currentTimeMillis();
+        DnsCache.Entry entry = cache.get(key, now);
+        if (entry == null)
+            return null;
+
+        Message response;
+        try
+        {
+            response = entry.getResponse(query.getHeader().getID(), now);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Ignoring an invalid cached DNS response for " + key);
+            return null;
+        }
+
+        if (entry.isExpired(now))
+            refresh(key, query);
+        return response;
+    }
+
+    /**
+     * Sends a query in the background to refresh its cached response,
+     * unless it is being refreshed already.
+     *
+     * @param key the question of the query
+     * @param query the query
+     */
+    private void refresh(final String key, final Message query)
+    {
+        if (!cache.startRefresh(key))
+            return;
+
+        if (logger.isDebugEnabled())
+            logger.debug("Refreshing cached DNS response for " + key);
+
+        try
+        {
+            resolver.sendAsync(query, new ResolverListener()
+            {
+                public void receiveMessage(Object id, Message response)
+                {
+                    cache.put(key, query, response, System.currentTimeMillis());
+                }
+
+                public void handleException(Object id, Exception e)
+                {
+                    logger.info("Failed to refresh DNS response for " + key
+                        + ": " + e);
+                    cache.refreshFailed(key);
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            logger.info("Failed to refresh DNS response for " + key, e);
+            cache.refreshFailed(key);
+        }
+    }
+
+    /**
+     * Refreshes the responses which were used and are about to expire, and
+     * writes the cache.
+     */
+    private void prefetch()
+    {
+        long now = System.currentTimeMillis();
+
+        for (DnsCache.Entry entry
+                : cache.getEntriesToPrefetch(now, 2 * PREFETCH_INTERVAL))
+        {
+            try
+            {
+                refresh(entry.key, entry.getQuery());
+            }
+            catch (IOException e)
+            {
+                logger.warn("Ignoring an invalid cached DNS query for "
+                    + entry.key);
+            }
+        }
+
+        cache.storeIfDirty(now);
+    }
+
+    /**
+     * Forgets the cached responses, which may not be valid on the new
+     * network, and resets the resolver.
+     */
+    public void reset()
+    {
+        cache.clear();
+        if (resolver instanceof CustomResolver)
+            ((CustomResolver) resolver).reset();
+    }
+
+    public void setPort(int port)
+    {
+        resolver.setPort(port);
+    }
+
+    public void setTCP(boolean flag)
+    {
+        resolver.setTCP(flag);
+    }
+
+    public void setIgnoreTruncation(boolean flag)
+    {
+        resolver.setIgnoreTruncation(flag);
+    }
+
+    public void setEDNS(int level)
+    {
+        resolver.setEDNS(level);
+    }
+
+    @SuppressWarnings("rawtypes") // that's the way it is in dnsjava
+    public void setEDNS(int level, int payloadSize, int flags, List options)
+    {
+        resolver.setEDNS(level, payloadSize, flags, options);
+    }
+
+    public void setTSIGKey(TSIG key)
+    {
+        resolver.setTSIGKey(key);
+    }
+
+    public void setTimeout(int secs, int msecs)
+    {
+        resolver.setTimeout(secs, msecs);
+    }
+
+    public void setTimeout(int secs)
+    {
+        resolver.setTimeout(secs);
+    }
+}
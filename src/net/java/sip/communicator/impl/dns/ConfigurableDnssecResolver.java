@@ -75,13 +75,33 @@
 
     private ExtendedResolver headResolver;
 
+    /**
+     * The resolver answering from the DNS cache before asking the head
+     * resolver, <tt>null</tt> if the cache is disabled.
+     */
+    private CachingResolver cachingResolver;
+
     /**
      * Creates a new instance of this class. Tries to use the system's
      * default forwarders.
      */
     public ConfigurableDnssecResolver(ExtendedResolver headResolver)
     {
-        super(headResolver);
+        this(headResolver, createCachingResolver(headResolver));
+    }
+
+    /**
+     * Creates a new instance of this class validating the responses of the
+     * DNS cache.
+     *
+     * @param headResolver the resolver asking the forwarders
+     * @param cachingResolver the resolver answering from the DNS cache or
+     * <tt>null</tt> if the cache is disabled
+     */
+    private ConfigurableDnssecResolver(ExtendedResolver headResolver,
+                                       CachingResolver cachingResolver)
+    {
+        super((cachingResolver == null) ? headResolver : cachingResolver);
 
         List<String> propNames
             = config.getPropertyNamesByPrefix("org.jitsi.dnssec", false);
@@ -106,6 +126,9 @@ public ConfigurableDnssecResolver(ExtendedResolver headResolver)
 
         this.headResolver = headResolver;
         reset();
+        // set after the first reset so that the cache from the previous run
+        // is kept, later resets mean that the network changed
+        this.cachingResolver = cachingResolver;
         Lookup.setDefaultResolver(this);
 
         DnsUtilActivator.getNotificationService().
@@ -396,11 +419,30 @@ private String createPropNameUnsigned(String fqdn, String type)
     }
 
     /**
-     * Reloads the configuration of forwarders and trust anchors.
+     * Creates the resolver answering from the DNS cache before asking the
+     * head resolver.
+     *
+     * @param headResolver the resolver asking the forwarders
+     * @return the resolver or <tt>null</tt> if the cache is disabled
+     */
+    private static CachingResolver createCachingResolver(
+            ExtendedResolver headResolver)
+    {
+        DnsCache cache = DnsUtilActivator.getDnsCache();
+
+        return (cache == null) ? null : new CachingResolver(headResolver, cache);
+    }
+
+    /**
+     * Reloads the configuration of forwarders and trust anchors, and
+     * forgets the cached responses.
      */
     @Override
     public void reset()
     {
+        if (cachingResolver != null)
+            cachingResolver.reset();
+
         String forwarders = DnsUtilActivator.getConfigurationService()
             .getString(DnsUtilActivator.PNAME_DNSSEC_NAMESERVERS);
         if(StringUtils.isNotBlank(forwarders))
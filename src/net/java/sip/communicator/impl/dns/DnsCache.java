@@ -0,0 +1,623 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Keeps the responses of the DNS servers, by question, in memory and in a
+ * file, so that they survive restarts.
+ * <p>
+ * A response expires after the smallest TTL of its records, or of the SOA
+ * record of a negative response. It is kept for some time after that, so
+ * that it can be returned while it is being refreshed. Responses are kept
+ * as they were received, with the DNSSEC signatures they may have, which
+ * are checked by the validating resolver every time they are used. A
+ * response is never returned after one of its signatures has expired, and
+ * failures, which include the answers which failed validation, are not
+ * kept.
+ */
+class DnsCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>DnsCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(DnsCache.class);
+
+    /**
+     * The name of the file keeping the responses.
+     */
+    static final String FILE_NAME = "dnscache.dat";
+
+    /**
+     * The version of the format of the file.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * The maximum number of responses kept.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The maximum number of milliseconds a response is kept before it
+     * expires, whatever its TTL.
+     */
+    private static final long MAX_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The number of milliseconds a negative response is kept when it has
+     * no SOA record, and the maximum for all negative responses.
+     */
+    private static final long MAX_NEGATIVE_TTL = 15 * 60 * 1000L;
+
+    /**
+     * The number of milliseconds an expired response may still be returned
+     * while it is refreshed.
+     */
+    static final long STALE_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The number of milliseconds between two writes of the file.
+     */
+    private static final long STORE_INTERVAL = 60 * 1000L;
+
+    /**
+     * A response kept in the cache.
+     */
+    static class Entry
+    {
+        /**
+         * The question of the response, as returned by {@link #getKey}.
+         */
+        final String key;
+
+        /**
+         * The query the response was received for, in wire format.
+         */
+        private final byte[] query;
+
+        /**
+         * The response in wire format.
+         */
+        private final byte[] response;
+
+        /**
+         * The time the response expires at.
+         */
+        final long expires;
+
+        /**
+         * The time the first of the signatures of the response expires at.
+         */
+        final long signatureExpires;
+
+        /**
+         * The number of times the response was returned.
+         */
+        int hits;
+
+        /**
+         * Whether the response is being refreshed.
+         */
+        boolean refreshing = false;
+
+        Entry(String key,
+              byte[] query,
+              byte[] response,
+              long expires,
+              long signatureExpires,
+              int hits)
+        {
+            this.key = key;
+            this.query = query;
+            this.response = response;
+            this.expires = expires;
+            this.signatureExpires = signatureExpires;
+            this.hits = hits;
+        }
+
+        /**
+         * Determines whether the response has expired and must be
+         * refreshed.
+         *
+         * @param now the current time
+         * @return <tt>true</tt> if the response has expired
+         */
+        boolean isExpired(long now)
+        {
+            return now >= expires;
+        }
+
+        /**
+         * Returns the query the response was received for.
+         *
+         * @return the query
+         * @throws IOException if the query can't be parsed
+         */
+        Message getQuery()
+            throws IOException
+        {
+            return new Message(query);
+        }
+
+        /**
+         * Returns a copy of the response with the TTLs of its records
+         * lowered to the time the response has left, or 0 if it has expired,
+         * so that the caches of the resolvers keep it no longer than we do.
+         *
+         * @param id the ID of the query the response is returned for
+         * @param now the current time
+         * @return the response
+         * @throws IOException if the response can't be parsed
+         */
+        Message getResponse(int id, long now)
+            throws IOException
+        {
+            Message message = new Message(response);
+
+            message.getHeader().setID(id);
+
+            long left = Math.max(0, (expires - now) / 1000);
+
+            for (int section = Section.ANSWER;
+                    section <= Section.ADDITIONAL;
+                    section++)
+            {
+                org.xbill.DNS.Record[] records
+                    = message.getSectionArray(section);
+                boolean aged = false;
+
+                for (org.xbill.DNS.Record r : records)
+                {
+                    if (r.getType() != Type.OPT && r.getTTL() > left)
+                    {
+                        aged = true;
+                        break;
+                    }
+                }
+                if (!aged)
+                    continue;
+
+                message.removeAllRecords(section);
+                for (org.xbill.DNS.Record r : records)
+                {
+                    // the TTL of an OPT record holds its flags
+                    if (r.getType() != Type.OPT && r.getTTL() > left)
+                    {
+                        r = org.xbill.DNS.Record.newRecord(
+                            r.getName(), r.getType(), r.getDClass(), left,
+                            r.rdataToWireCanonical());
+                    }
+                    message.addRecord(r, section);
+                }
+            }
+            return message;
+        }
+    }
+
+    /**
+     * The file keeping the responses, <tt>null</tt> if they are kept in
+     * memory only.
+     */
+    private final File file;
+
+    /**
+     * The responses by question, the least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, DnsCache.Entry> e)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * Whether the responses were loaded from the file.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Whether the responses changed since they were written to the file.
+     */
+    private boolean dirty = false;
+
+    /**
+     * The time the file was last written.
+     */
+    private long lastStore = 0;
+
+    /**
+     * Creates a cache keeping the responses in a file. Nothing is read
+     * before the cache is used.
+     *
+     * @param file the file, <tt>null</tt> to keep the responses in memory
+     * only
+     */
+    DnsCache(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Returns the key of the responses to a query: its question and the
+     * flags asking for DNSSEC records.
+     *
+     * @param query the query
+     * @return the key or <tt>null</tt> if the responses to <tt>query</tt>
+     * can't be cached
+     */
+    static String getKey(Message query)
+    {
+        Record question = query.getQuestion();
+
+        if (question == null
+            || query.getHeader().getOpcode() != Opcode.QUERY
+            || query.getTSIG() != null)
+        {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder()
+            .append(question.getName().toString().toLowerCase())
+            .append(' ').append(question.getType())
+            .append(' ').append(question.getDClass());
+
+        OPTRecord opt = query.getOPT();
+        if (opt != null && (opt.getFlags() & ExtendedFlags.DO) != 0)
+            key.append(" do");
+        if (query.getHeader().getFlag(Flags.CD))
+            key.append(" cd");
+        return key.toString();
+    }
+
+    /**
+     * Returns the number of milliseconds a response can be cached for.
+     *
+     * @param response the response
+     * @param now the current time
+     * @return the number of milliseconds or <tt>-1</tt> if the response
+     * must not be cached
+     */
+    static long getTimeToLive(Message response, long now)
+    {
+        int rcode = response.getRcode();
+
+        if (response.getHeader().getFlag(Flags.TC)
+            || (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN))
+        {
+            return -1;
+        }
+
+        long ttl = MAX_TTL;
+        boolean soa = false;
+        for (int section : new int[] { Section.ANSWER, Section.AUTHORITY })
+        {
+            for (Record r : response.getSectionArray(section))
+            {
+                ttl = Math.min(ttl, r.getTTL() * 1000L);
+                if (r instanceof SOARecord)
+                {
+                    soa = true;
+                    ttl = Math.min(ttl,
+                        ((SOARecord) r).getMinimum() * 1000L);
+                }
+            }
+        }
+
+        if (response.getSectionArray(Section.ANSWER).length == 0)
+        {
+            ttl = Math.min(ttl, MAX_NEGATIVE_TTL);
+            if (!soa && rcode == Rcode.NOERROR && response
+                    .getSectionArray(Section.AUTHORITY).length != 0)
+            {
+                // a referral
+                return -1;
+            }
+        }
+
+        ttl = Math.min(ttl, getSignatureExpires(response) - now);
+        return (ttl > 0) ? ttl : -1;
+    }
+
+    /**
+     * Returns the time the first of the signatures of a response expires at.
+     *
+     * @param response the response
+     * @return the time or <tt>Long.MAX_VALUE</tt> if the response has no
+     * signatures
+     */
+    private static long getSignatureExpires(Message response)
+    {
+        long expires = Long.MAX_VALUE;
+
+        for (int section : new int[] { Section.ANSWER, Section.AUTHORITY })
+        {
+            for (Record r : response.getSectionArray(section))
+            {
+                if (r instanceof RRSIGRecord)
+                {
+                    expires = Math.min(expires,
+                        ((RRSIGRecord) r).getExpire().getTime());
+                }
+            }
+        }
+        return expires;
+    }
+
+    /**
+     * Returns the response to a question, expired or not.
+     *
+     * @param key the question, as returned by {@link #getKey(Message)}
+     * @param now the current time
+     * @return the response or <tt>null</tt> if there is none which may be
+     * returned
+     */
+    synchronized Entry get(String key, long now)
+    {
+        load();
+
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        if (now >= entry.expires + STALE_TTL
+            || now >= entry.signatureExpires)
+        {
+            entries.remove(key);
+            dirty = true;
+            return null;
+        }
+
+        entry.hits++;
+        return entry;
+    }
+
+    /**
+     * Keeps a response if it can be cached.
+     *
+     * @param key the question, as returned by {@link #getKey(Message)}
+     * @param query the query
+     * @param response the response
+     * @param now the current time
+     */
+    synchronized void put(String key, Message query, Message response, long now)
+    {
+        load();
+
+        Entry old = entries.get(key);
+        long ttl = getTimeToLive(response, now);
+        if (ttl < 0)
+        {
+            if (old != null)
+                old.refreshing = false;
+            return;
+        }
+
+        entries.put(key,
+            new Entry(key, query.toWire(), response.toWire(),
+                now + ttl, getSignatureExpires(response),
+                (old == null) ? 0 : old.hits / 2));
+        dirty = true;
+    }
+
+    /**
+     * Marks a response as being refreshed.
+     *
+     * @param key the question
+     * @return <tt>false</tt> if there is no response to the question or it
+     * is already being refreshed
+     */
+    synchronized boolean startRefresh(String key)
+    {
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.refreshing)
+            return false;
+
+        entry.refreshing = true;
+        return true;
+    }
+
+    /**
+     * Marks a response as no longer being refreshed, after its refresh
+     * failed.
+     *
+     * @param key the question
+     */
+    synchronized void refreshFailed(String key)
+    {
+        Entry entry = entries.get(key);
+
+        if (entry != null)
+            entry.refreshing = false;
+    }
+
+    /**
+     * Returns the responses which were used and are about to expire, or
+     * have expired, so that they are refreshed before they are asked for
+     * again.
+     *
+     * @param now the current time
+     * @param window the number of milliseconds before their expiry the
+     * responses are refreshed
+     * @return the responses to refresh
+     */
+    synchronized List<Entry> getEntriesToPrefetch(long now, long window)
+    {
+        load();
+
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries.values())
+        {
+            if (entry.hits > 0
+                && !entry.refreshing
+                && now >= entry.expires - window
+                && now < entry.signatureExpires)
+            {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all the responses, when the network changed.
+     */
+    synchronized void clear()
+    {
+        loaded = true;
+        entries.clear();
+        dirty = true;
+        store();
+    }
+
+    /**
+     * Writes the responses to the file if they changed and it was not
+     * written recently.
+     *
+     * @param now the current time
+     */
+    synchronized void storeIfDirty(long now)
+    {
+        if (dirty && now - lastStore >= STORE_INTERVAL)
+            store();
+    }
+
+    /**
+     * Writes the responses to the file if they changed.
+     */
+    synchronized void flush()
+    {
+        if (dirty)
+            store();
+    }
+
+    /**
+     * Reads the responses from the file.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        if (file == null || !file.exists())
+            return;
+
+        long now = System.currentTimeMillis();
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (in.readInt() != FILE_VERSION)
+                    return;
+
+                for (int count = in.readInt(); count > 0; count--)
+                {
+                    String key = in.readUTF();
+                    long expires = in.readLong();
+                    long signatureExpires = in.readLong();
+                    int hits = in.readInt();
+                    byte[] query = new byte[in.readInt()];
+                    in.readFully(query);
+                    byte[] response = new byte[in.readInt()];
+                    in.readFully(response);
+
+                    if (now < expires + STALE_TTL && now < signatureExpires)
+                    {
+                        entries.put(key, new Entry(key, query, response,
+                            expires, signatureExpires, hits));
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read " + file, e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the responses to the file.
+     */
+    private void store()
+    {
+        dirty = false;
+        lastStore = System.currentTimeMillis();
+        if (file == null)
+            return;
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try
+            {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                for (Entry entry : entries.values())
+                {
+                    out.writeUTF(entry.key);
+                    out.writeLong(entry.expires);
+                    out.writeLong(entry.signatureExpires);
+                    out.writeInt(entry.hits);
+                    out.writeInt(entry.query.length);
+                    out.write(entry.query);
+                    out.writeInt(entry.response.length);
+                    out.write(entry.response);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(file))
+            {
+                file.delete();
+                if (!tmpFile.renameTo(file))
+                    throw new IOException("Failed to rename " + tmpFile);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write " + file, e);
+        }
+    }
+}
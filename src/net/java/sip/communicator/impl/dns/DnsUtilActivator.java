@@ -29,11 +29,13 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.service.resources.*;
 import org.jitsi.utils.*;
 import org.osgi.framework.*;
 import org.xbill.DNS.*;
 
+import java.io.*;
 import java.net.*;
 
 /**
@@ -58,11 +60,30 @@
     public static final String PNAME_DNSSEC_NAMESERVERS
         = "net.java.sip.communicator.util.dns.DNSSEC_NAMESERVERS";
 
+    /**
+     * The name of the property that enables or disables the cache of DNS
+     * responses kept across restarts.
+     */
+    public static final String PNAME_DNS_CACHE_ENABLED
+        = "net.java.sip.communicator.util.dns.CACHE_ENABLED";
+
+    /**
+     * The default of the property that enables or disables the cache of DNS
+     * responses kept across restarts.
+     */
+    public static final boolean PDEFAULT_DNS_CACHE_ENABLED = true;
+
     private static ConfigurationService configurationService;
     private static NotificationService notificationService;
     private static ResourceManagementService resourceService;
+    private static FileAccessService fileAccessService;
     private static BundleContext bundleContext;
 
+    /**
+     * The cache of DNS responses, created by the first resolver using it.
+     */
+    private static DnsCache dnsCache;
+
     /**
      * The address of the backup resolver we would use by default.
      */
@@ -297,7 +318,7 @@ private static void logDNSServers()
     }
 
     /**
-     * Doesn't do anything.
+     * Writes the DNS cache.
      *
      * @param context The execution context of the bundle being stopped.
      * @throws Exception If this method throws an exception, the bundle is
@@ -308,6 +329,39 @@ private static void logDNSServers()
     public void stop(BundleContext context)
         throws Exception
     {
+        synchronized (DnsUtilActivator.class)
+        {
+            if (dnsCache != null)
+                dnsCache.flush();
+        }
+    }
+
+    /**
+     * Returns the cache of DNS responses, which is kept in a file across
+     * restarts.
+     *
+     * @return the cache or <tt>null</tt> if it is disabled
+     */
+    static synchronized DnsCache getDnsCache()
+    {
+        if (dnsCache == null
+            && getConfigurationService().getBoolean(
+                PNAME_DNS_CACHE_ENABLED, PDEFAULT_DNS_CACHE_ENABLED))
+        {
+            File file = null;
+            try
+            {
+                file = getFileAccessService().getPrivatePersistentFile(
+                    DnsCache.FILE_NAME, FileCategory.CACHE);
+            }
+            catch (Exception e)
+            {
+                logger.error("Failed to get the DNS cache file, DNS responses"
+                    + " will be cached in memory only", e);
+            }
+            dnsCache = new DnsCache(file);
+        }
+        return dnsCache;
     }
 
     /**
@@ -345,6 +399,23 @@ public static NotificationService getNotificationService()
         return notificationService;
     }
 
+    /**
+     * Returns the <tt>FileAccessService</tt> obtained from the bundle context.
+     *
+     * @return the <tt>FileAccessService</tt> obtained from the bundle context
+     */
+    public static FileAccessService getFileAccessService()
+    {
+        if (fileAccessService == null)
+        {
+            fileAccessService
+                = ServiceUtils.getService(
+                        bundleContext,
+                        FileAccessService.class);
+        }
+        return fileAccessService;
+    }
+
     /**
      * Returns the service giving access to all application resources.
      *
@@ -44,6 +44,13 @@
  * <p>
  * We exit redundant mode after receiving <tt>DNS_REDEMPTION</tt> consecutive
  * timely and correct responses from our primary resolver.
+ * <p>
+ * The queries to all the servers are sent over a single UDP channel and
+ * their responses are received by a single thread, so neither
+ * {@link #sendAsync(Message, ResolverListener)} nor the queries waiting for
+ * a slow server hold a thread. Only the queries sent over TCP, because of a
+ * truncated response or because TCP or TSIG were asked for, run on a small
+ * pool.
  *
  * @author Emil Ivov
  */
@@ -90,24 +97,115 @@
     private final static Object redemptionLock = new Object();
 
     /**
-     * The default resolver that we use if everything works properly.
+     * The number of milliseconds after which a query which got no response
+     * is sent again over UDP, to the next primary server and to the backup
+     * servers if they were queried.
+     */
+    private static final long RETRANSMIT_INTERVAL = 2000;
+
+    /**
+     * The number of milliseconds to wait for a response by default.
+     */
+    private static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * The maximum number of threads running the blocking TCP queries and
+     * delivering the responses of the asynchronous queries.
+     */
+    private static final int MAX_POOL_THREADS = 4;
+
+    /**
+     * The default resolver, used only when the UDP channel could not be
+     * opened.
      */
     private Resolver defaultResolver;
 
     /**
-     * An extended resolver that would be encapsulating all backup resolvers.
+     * The channel the queries are sent over to the default and the backup
+     * servers, <tt>null</tt> if it could not be opened.
+     */
+    private AsyncDnsChannel channel;
+
+    /**
+     * The default servers.
+     */
+    private volatile InetSocketAddress[] primaryServers
+        = new InetSocketAddress[0];
+
+    /**
+     * The servers used if the default ones don't seem to be doing that well.
+     */
+    private volatile InetSocketAddress[] backupServers
+        = new InetSocketAddress[0];
+
+    /**
+     * The port of the default servers.
+     */
+    private volatile int port = SimpleResolver.DEFAULT_PORT;
+
+    /**
+     * Whether the queries are sent over TCP.
+     */
+    private volatile boolean useTCP = false;
+
+    /**
+     * Whether truncated UDP responses are returned instead of sending the
+     * query again over TCP.
+     */
+    private volatile boolean ignoreTruncation = false;
+
+    /**
+     * The EDNS record added to the queries, <tt>null</tt> for no EDNS.
+     */
+    private volatile OPTRecord queryOPT = null;
+
+    /**
+     * The key the queries are signed with, <tt>null</tt> if they are not
+     * signed.
+     */
+    private volatile TSIG tsig = null;
+
+    /**
+     * The number of milliseconds to wait for a response.
+     */
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * The resolver used by <tt>Lookup</tt>: this one or, if the DNS cache
+     * is enabled, the one answering from the cache before asking this one.
      */
-    private ExtendedResolver backupResolver;
+    private final Resolver lookupResolver;
 
-    /** Thread pool that processes the backup queries. */
-    private ExecutorService backupQueriesPool;
+    /**
+     * Thread pool that runs the blocking TCP queries and delivers the
+     * responses of the asynchronous queries to their listeners.
+     */
+    private final ThreadPoolExecutor queriesPool;
 
     /**
      * Creates a new instance of this class.
      */
     ParallelResolverImpl()
     {
-        backupQueriesPool = Executors.newCachedThreadPool();
+        queriesPool = new ThreadPoolExecutor(
+            MAX_POOL_THREADS, MAX_POOL_THREADS,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ParallelResolver");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        queriesPool.allowCoreThreadTimeOut(true);
+
+        DnsCache cache = DnsUtilActivator.getDnsCache();
+        lookupResolver
+            = (cache == null) ? this : new CachingResolver(this, cache);
+
         DnsUtilActivator.getConfigurationService()
             .addPropertyChangeListener(this);
         initProperties();
@@ -179,25 +277,7 @@ private void initProperties()
      */
     private void setBackupServers(InetSocketAddress[] backupServers)
     {
-        try
-        {
-            backupResolver = new ExtendedResolver(new SimpleResolver[0]);
-            for(InetSocketAddress backupServer : backupServers)
-            {
-                SimpleResolver sr = new SimpleResolver();
-
-                sr.setAddress(backupServer);
-                backupResolver.addResolver(sr);
-            }
-        }
-        catch (UnknownHostException e)
-        {
-            // this shouldn't be thrown since we don't do any DNS querying in
-            // here. this is why we take an InetSocketAddress as a param.
-            throw new IllegalStateException(
-                    "The impossible just happened: we could not initialize our"
-                        + " backup DNS resolver.");
-        }
+        this.backupServers = backupServers.clone();
     }
 
     /**
@@ -211,66 +291,22 @@ private void setBackupServers(InetSocketAddress[] backupServers)
     public Message send(Message query)
         throws IOException
     {
-        ParallelResolution resolution = new ParallelResolution(query);
-        resolution.sendFirstQuery();
+        AsyncDnsChannel channel = this.channel;
 
-        //if we are not in redundant mode we should wait a bit and see how this
-        //goes. if we get a reply we could return bravely.
-        if(!redundantMode)
-        {
-            if(resolution.waitForResponse(currentDnsPatience))
-            {
-                //we are done.
-                return resolution.returnResponseOrThrowUp();
-            }
-            else
-            {
-                synchronized(redemptionLock)
-                {
-                    redundantMode = true;
-                    redemptionStatus = currentDnsRedemption;
-                    logger.info("Primary DNS seems laggy: "
-                        + "no response for " + query.getQuestion().getName()
-                        + "/" + Type.string(query.getQuestion().getType())
-                        + " after " + currentDnsPatience + "ms. "
-                        + "Enabling redundant mode.");
-                }
-            }
-        }
+        if (channel == null)
+            return defaultResolver.send(query);
 
-        //we are definitely in redundant mode now
-        resolution.sendBackupQueries();
-        resolution.waitForResponse(0);
-
-        //check if it is time to end redundant mode.
-        synchronized(redemptionLock)
-        {
-            if(!resolution.primaryResolverRespondedFirst)
-            {
-                //primary DNS is still feeling shaky. we reinit redemption
-                //status in case we were about to cut the server some slack
-                redemptionStatus = currentDnsRedemption;
-            }
-            else
-            {
-                //primary server replied first. we let him redeem some dignity
-                redemptionStatus --;
-
-                //yup, it's now time to end DNS redundant mode;
-                if(redemptionStatus <= 0)
-                {
-                    redundantMode = false;
-                    logger.info("Primary DNS seems back in biz. "
-                                    + "Disabling redundant mode.");
-                }
-            }
-        }
+        ParallelResolution resolution
+            = new ParallelResolution(channel, query, null);
+        resolution.start();
 
         return resolution.returnResponseOrThrowUp();
     }
 
     /**
-     * Supposed to asynchronously send messages but not currently implemented.
+     * Asynchronously sends a message, to the default servers and to the
+     * backup ones just like {@link #send(Message)} does. The listener is
+     * called on a thread of a pool.
      *
      * @param query The query to send
      * @param listener The object containing the callbacks.
@@ -278,7 +314,16 @@ public Message send(Message query)
      */
     public Object sendAsync(final Message query, final ResolverListener listener)
     {
-        throw new UnsupportedOperationException("Not implemented");
+        AsyncDnsChannel channel = this.channel;
+
+        if (channel == null)
+            return defaultResolver.sendAsync(query, listener);
+
+        ParallelResolution resolution
+            = new ParallelResolution(channel, query, listener);
+        resolution.start();
+
+        return resolution;
     }
 
     /**
@@ -288,6 +333,14 @@ public Object sendAsync(final Message query, final ResolverListener listener)
      */
     public void setPort(int port)
     {
+        this.port = port;
+
+        InetSocketAddress[] servers = primaryServers;
+        InetSocketAddress[] newServers = new InetSocketAddress[servers.length];
+        for (int i = 0; i < servers.length; i++)
+            newServers[i] = new InetSocketAddress(servers[i].getAddress(), port);
+        primaryServers = newServers;
+
         defaultResolver.setPort(port);
     }
 
@@ -299,6 +352,7 @@ public void setPort(int port)
      */
     public void setTCP(boolean flag)
     {
+        useTCP = flag;
         defaultResolver.setTCP(flag);
     }
 
@@ -311,6 +365,7 @@ public void setTCP(boolean flag)
      */
     public void setIgnoreTruncation(boolean flag)
     {
+        ignoreTruncation = flag;
         defaultResolver.setIgnoreTruncation(flag);
     }
 
@@ -323,7 +378,7 @@ public void setIgnoreTruncation(boolean flag)
      */
     public void setEDNS(int level)
     {
-        defaultResolver.setEDNS(level);
+        setEDNS(level, 0, 0, null);
     }
 
     /**
@@ -343,6 +398,17 @@ public void setEDNS(int level)
     @SuppressWarnings("rawtypes") // that's the way it is in dnsjava
     public void setEDNS(int level, int payloadSize, int flags, List options)
     {
+        if (level != 0 && level != -1)
+        {
+            throw new IllegalArgumentException(
+                "invalid EDNS level - must be 0 or -1");
+        }
+
+        queryOPT = (level == -1)
+            ? null
+            : new OPTRecord(
+                    (payloadSize == 0) ? 1280 : payloadSize,
+                    0, level, flags, options);
         defaultResolver.setEDNS(level, payloadSize, flags, options);
     }
 
@@ -352,6 +418,7 @@ public void setEDNS(int level, int payloadSize, int flags, List options)
      */
     public void setTSIGKey(TSIG key)
     {
+        tsig = key;
         defaultResolver.setTSIGKey(key);
     }
 
@@ -363,6 +430,7 @@ public void setTSIGKey(TSIG key)
      */
     public void setTimeout(int secs, int msecs)
     {
+        timeout = secs * 1000L + msecs;
         defaultResolver.setTimeout(secs, msecs);
     }
 
@@ -373,7 +441,7 @@ public void setTimeout(int secs, int msecs)
      */
     public void setTimeout(int secs)
     {
-        defaultResolver.setTimeout(secs);
+        setTimeout(secs, 0);
     }
 
     /**
@@ -387,7 +455,7 @@ public final void reset()
         // populate with new servers after refreshing configuration
         try
         {
-            Lookup.setDefaultResolver(this);
+            Lookup.setDefaultResolver(lookupResolver);
             ExtendedResolver temp = new ExtendedResolver();
             temp.setTimeout(10);
             defaultResolver = temp;
@@ -397,6 +465,111 @@ public final void reset()
             // should never happen
             throw new RuntimeException("Failed to initialize resolver");
         }
+
+        port = SimpleResolver.DEFAULT_PORT;
+        useTCP = false;
+        ignoreTruncation = false;
+        queryOPT = null;
+        tsig = null;
+        timeout = DEFAULT_TIMEOUT;
+        primaryServers = getConfiguredServers();
+
+        synchronized (this)
+        {
+            if (channel == null)
+            {
+                try
+                {
+                    channel = new AsyncDnsChannel();
+                }
+                catch (IOException e)
+                {
+                    logger.error("Failed to open the DNS channel, queries"
+                        + " will block on the default resolver", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the DNS servers of the system, as found by dnsjava.
+     *
+     * @return the addresses of the DNS servers of the system
+     */
+    private InetSocketAddress[] getConfiguredServers()
+    {
+        String[] servers = ResolverConfig.getCurrentConfig().servers();
+        if (servers == null)
+            servers = new String[] { "localhost" };
+
+        List<InetSocketAddress> addresses
+            = new ArrayList<InetSocketAddress>(servers.length);
+        for (String server : servers)
+        {
+            try
+            {
+                addresses.add(new InetSocketAddress(
+                    InetAddress.getByName(server), port));
+            }
+            catch (UnknownHostException e)
+            {
+                logger.warn("Ignoring invalid DNS server " + server);
+            }
+        }
+        return addresses.toArray(new InetSocketAddress[addresses.size()]);
+    }
+
+    /**
+     * Enters redundant mode, in which the queries are sent to the backup
+     * servers as well.
+     *
+     * @param query the query which could not be answered in time
+     */
+    private static void enterRedundantMode(Message query)
+    {
+        synchronized(redemptionLock)
+        {
+            redundantMode = true;
+            redemptionStatus = currentDnsRedemption;
+            logger.info("Primary DNS seems laggy: "
+                + "no response for " + query.getQuestion().getName()
+                + "/" + Type.string(query.getQuestion().getType())
+                + " after " + currentDnsPatience + "ms. "
+                + "Enabling redundant mode.");
+        }
+    }
+
+    /**
+     * Checks if it is time to end redundant mode after a query was sent to
+     * the backup servers.
+     *
+     * @param primaryResolverRespondedFirst whether the primary servers
+     * answered the query first
+     */
+    private static void updateRedemption(boolean primaryResolverRespondedFirst)
+    {
+        synchronized(redemptionLock)
+        {
+            if(!primaryResolverRespondedFirst)
+            {
+                //primary DNS is still feeling shaky. we reinit redemption
+                //status in case we were about to cut the server some slack
+                redemptionStatus = currentDnsRedemption;
+            }
+            else
+            {
+                //primary server replied first. we let him redeem some dignity
+                redemptionStatus --;
+
+                //yup, it's now time to end DNS redundant mode;
+                if(redemptionStatus <= 0 && redundantMode)
+                {
+                    redundantMode = false;
+                    logger.info("Primary DNS seems back in biz. "
+                                    + "Disabling redundant mode.");
+                }
+            }
+        }
     }
 
     /**
@@ -456,21 +629,66 @@ private boolean isResponseSatisfactory(Message response)
 
     /**
      * The class that listens for responses to any of the queries we send to
-     * our default and backup servers and returns as soon as we get one or until
-     * our default resolver fails.
+     * our default and backup servers and completes as soon as we get one or
+     * until our default resolver fails.
+     * <p>
+     * The queries are sent over UDP on the channel of the resolver and the
+     * timers run on its thread, so no thread waits for a resolution unless
+     * the response is asked for with {@link #returnResponseOrThrowUp()}.
+     * Only the queries over TCP block a thread of the pool.
      */
-    private class ParallelResolution implements Runnable
+    private class ParallelResolution
+        implements AsyncDnsChannel.ResponseHandler
     {
+        /**
+         * The channel the query is sent over.
+         */
+        private final AsyncDnsChannel channel;
+
         /**
          * The query that we have sent to the default and backup DNS servers.
          */
         private final Message query;
 
+        /**
+         * The listener of an asynchronous query, <tt>null</tt> for a
+         * synchronous one.
+         */
+        private final ResolverListener listener;
+
+        /**
+         * The default servers, when the query was started.
+         */
+        private final InetSocketAddress[] primaryServers
+            = ParallelResolverImpl.this.primaryServers;
+
+        /**
+         * The backup servers, when the query was started.
+         */
+        private final InetSocketAddress[] backupServers
+            = ParallelResolverImpl.this.backupServers;
+
+        /**
+         * Whether the query is sent over TCP, on the pool of the resolver.
+         */
+        private final boolean tcp = useTCP || (tsig != null);
+
+        /**
+         * The ID of the query on the channel.
+         */
+        private int id;
+
         /**
          * The field where we would store the first incoming response to our
          * query.
          */
-        private volatile Message response;
+        private Message response;
+
+        /**
+         * The response of a default server which was not considered
+         * satisfactory, returned if no other response comes.
+         */
+        private Message unsatisfactoryResponse;
 
         /**
          * The field where we would store the first error we receive from a DNS
@@ -481,163 +699,471 @@ private class ParallelResolution implements Runnable
         /**
          * Indicates whether we are still waiting for an answer from someone
          */
-        private volatile boolean done = false;
+        private boolean done = false;
 
         /**
          * Indicates that a response was received from the primary resolver.
          */
-        private volatile boolean primaryResolverRespondedFirst = true;
+        private boolean primaryResolverRespondedFirst = true;
+
+        /**
+         * Whether the query has been sent to the backup servers.
+         */
+        private boolean backupQueriesSent = false;
+
+        /**
+         * The index of the default server the query is sent to next.
+         */
+        private int nextPrimaryServer = 0;
+
+        /**
+         * The number of times the query could not be sent to or answered by
+         * the default servers and the backup servers.
+         */
+        private int primaryFailures = 0, backupFailures = 0;
+
+        /**
+         * The time at which the resolution times out.
+         */
+        private long deadline;
 
         /**
          * Creates a {@link ParallelResolution} for the specified <tt>query</tt>
          *
+         * @param channel the channel the query is sent over
          * @param query the DNS query that we'd like to send to our primary
          * and backup resolvers.
+         * @param listener the listener of an asynchronous query or
+         * <tt>null</tt>
          */
-        public ParallelResolution(final Message query)
+        public ParallelResolution(AsyncDnsChannel channel,
+                                  Message query,
+                                  ResolverListener listener)
         {
+            this.channel = channel;
             this.query = query;
+            this.listener = listener;
         }
 
         /**
-         * Starts this collector which would cause it to send its query to the
-         * default resolver.
+         * Sends the query to the default servers and, in redundant mode, to
+         * the backup ones, and schedules entering redundant mode if the
+         * default servers are too slow.
          */
-        public void sendFirstQuery()
+        public synchronized void start()
         {
-            ParallelResolverImpl.this.backupQueriesPool.execute(this);
-        }
+            Message q = query;
+            OPTRecord opt = queryOPT;
+            if (opt != null && query.getOPT() == null)
+            {
+                q = (Message) query.clone();
+                q.addRecord(opt, Section.ADDITIONAL);
+            }
 
-        /**
-         * Sends this collector's query to the default resolver.
-         */
-        @Override
-        public void run()
-        {
-            Message localResponse = null;
+            id = channel.register(q, this);
+            deadline = System.currentTimeMillis() + timeout;
 
-            try
+            if (primaryServers.length > 0)
+                sendToNextPrimaryServer();
+
+            //if we are not in redundant mode we should wait a bit and see how
+            //this goes. if we get a reply we could return bravely.
+            if (redundantMode || primaryServers.length == 0)
             {
-                localResponse = defaultResolver.send(query);
+                sendBackupQueries();
             }
-            catch (SocketTimeoutException exc)
+            else
             {
-                logger.info("Default DNS resolver timed out.");
-                exception = exc;
+                channel.schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            lostPatience();
+                        }
+                    },
+                    currentDnsPatience);
             }
-            catch (Throwable exc)
+
+            if (!tcp)
             {
-                logger.info("Default DNS resolver failed", exc);
-                exception = exc;
+                channel.schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            retransmit();
+                        }
+                    },
+                    RETRANSMIT_INTERVAL);
             }
+            channel.schedule(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        timedOut();
+                    }
+                },
+                timeout);
+        }
 
-            //if the backup resolvers had already replied we ignore the
-            //reply of the primary one whatever it was.
-            if(done)
+        /**
+         * Enters redundant mode if no satisfactory response was received
+         * from the default servers in time.
+         */
+        private synchronized void lostPatience()
+        {
+            if (done || backupQueriesSent)
                 return;
 
-            synchronized(this)
-            {
-                //if there was a response we're only done if it is satisfactory
-                if(    localResponse != null
-                    && isResponseSatisfactory(localResponse))
+            enterRedundantMode(query);
+            sendBackupQueries();
+        }
+
+        /**
+         * Sends the query again to the next default server and to the backup
+         * servers if they were queried.
+         */
+        private synchronized void retransmit()
+        {
+            if (done)
+                return;
+
+            if (primaryServers.length > 0)
+                sendToNextPrimaryServer();
+            if (backupQueriesSent)
+                sendToBackupServers();
+
+            channel.schedule(
+                new Runnable()
                 {
-                    response = localResponse;
-                    done = true;
-                }
+                    public void run()
+                    {
+                        retransmit();
+                    }
+                },
+                RETRANSMIT_INTERVAL);
+        }
+
+        /**
+         * Ends the resolution when no response came in time.
+         */
+        private synchronized void timedOut()
+        {
+            if (done)
+                return;
 
-                notify();
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0)
+            {
+                channel.schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            timedOut();
+                        }
+                    },
+                    remaining);
+                return;
             }
+
+            logger.info("DNS query for " + query.getQuestion().getName()
+                + "/" + Type.string(query.getQuestion().getType())
+                + " timed out.");
+            complete(unsatisfactoryResponse,
+                new SocketTimeoutException("DNS query timed out"),
+                false);
         }
 
         /**
-         * Asynchronously sends this collector's query to all backup resolvers.
+         * Sends the query to the default servers in turn.
          */
-        public void sendBackupQueries()
+        private void sendToNextPrimaryServer()
         {
-            //yes. a second thread in the thread ... it's ugly but it works
-            //and i do want to keep code simple to read ... this whole parallel
-            //resolving is complicated enough as it is.
-            backupQueriesPool.execute(new Runnable(){
-                @Override
+            InetSocketAddress server
+                = primaryServers[nextPrimaryServer % primaryServers.length];
+
+            nextPrimaryServer++;
+            sendTo(server, true);
+        }
+
+        /**
+         * Sends this collector's query to all backup servers.
+         */
+        private void sendBackupQueries()
+        {
+            if (backupQueriesSent)
+                return;
+            backupQueriesSent = true;
+
+            logger.info("Sending query for "
+                + query.getQuestion().getName() + "/"
+                + Type.string(query.getQuestion().getType())
+                + " to backup resolvers");
+
+            deadline = Math.max(
+                deadline, System.currentTimeMillis() + timeout);
+            sendToBackupServers();
+            checkFailures();
+        }
+
+        /**
+         * Sends the query to every backup server.
+         */
+        private void sendToBackupServers()
+        {
+            for (InetSocketAddress server : backupServers)
+                sendTo(server, false);
+        }
+
+        /**
+         * Sends the query to a server, over the channel or over TCP on the
+         * pool.
+         *
+         * @param server the server
+         * @param primary whether the server is a default one
+         */
+        private void sendTo(InetSocketAddress server, boolean primary)
+        {
+            if (tcp)
+            {
+                sendOverTCP(server, primary);
+                return;
+            }
+
+            try
+            {
+                channel.send(id, server);
+            }
+            catch (IOException e)
+            {
+                logger.info("Failed to send DNS query to " + server, e);
+                failed(e, primary);
+            }
+        }
+
+        /**
+         * Sends the query to a server over TCP on a thread of the pool.
+         *
+         * @param server the server
+         * @param primary whether the server is a default one
+         */
+        private void sendOverTCP(
+                final InetSocketAddress server,
+                final boolean primary)
+        {
+            final SimpleResolver resolver;
+            try
+            {
+                resolver = new SimpleResolver();
+            }
+            catch (UnknownHostException e)
+            {
+                failed(e, primary);
+                return;
+            }
+            resolver.setAddress(server);
+            resolver.setTCP(true);
+            resolver.setTSIGKey(tsig);
+            resolver.setTimeout((int) (timeout / 1000), (int) (timeout % 1000));
+            if (queryOPT != null)
+            {
+                resolver.setEDNS(0, queryOPT.getPayloadSize(),
+                    queryOPT.getFlags(), null);
+            }
+
+            queriesPool.execute(new Runnable()
+            {
                 public void run()
                 {
-                    if (done)
-                    {
-                        return;
-                    }
-
-                    Message localResponse = null;
+                    Message localResponse;
                     try
                     {
-                        logger.info("Sending query for "
-                            + query.getQuestion().getName() + "/"
-                            + Type.string(query.getQuestion().getType())
-                            + " to backup resolvers");
-                        localResponse = backupResolver.send(query);
+                        localResponse = resolver.send(query);
                     }
                     catch (Throwable exc)
                     {
-                        logger.info(
-                                "Exception occurred during backup DNS resolving "
-                                    + exc);
-
-                        //keep this so that we can rethrow it
-                        exception = exc;
-                    }
-                    //if the default resolver has already replied we
-                    //ignore the reply of the backup ones.
-                    if(done)
-                    {
+                        logger.info("DNS query to " + server + " failed: "
+                            + exc);
+                        failed(exc, primary);
                         return;
                     }
-
-                    synchronized(ParallelResolution.this)
-                    {
-                        //contrary to responses from the  primary resolver,
-                        //in this case we don't care whether the response is
-                        //satisfying: if it isn't, there's nothing we can do
-                        if (response == null)
-                        {
-                            response = localResponse;
-                            primaryResolverRespondedFirst = false;
-                        }
-
-                        done = true;
-                        ParallelResolution.this.notify();
-                    }
+                    received(localResponse, primary);
                 }
             });
         }
 
         /**
-         * Waits for a response or an error to occur during <tt>waitFor</tt>
-         * milliseconds.If neither happens, we return false.
-         *
-         * @param waitFor the number of milliseconds to wait for a response or
-         * an error or <tt>0</tt> if we'd like to wait until either of these
-         * happen.
+         * Handles a response received on the channel.
          *
-         * @return <tt>true</tt> if we returned because we received a response
-         * from a resolver or errors from everywhere, and <tt>false</tt> that
-         * didn't happen.
+         * @param response the response
+         * @param server the server which sent it
          */
-        public boolean waitForResponse(long waitFor)
+        public void responseReceived(Message response,
+                                     InetSocketAddress server)
         {
-            synchronized(this)
+            boolean primary = Arrays.asList(primaryServers).contains(server);
+
+            if (!ignoreTruncation && response.getHeader().getFlag(Flags.TC))
             {
-                if(done)
-                    return done;
-                try
+                synchronized (this)
                 {
-                    wait(waitFor);
+                    if (done)
+                        return;
                 }
-                catch (InterruptedException e)
+                sendOverTCP(server, primary);
+                return;
+            }
+
+            received(response, primary);
+        }
+
+        /**
+         * Handles a response from a server.
+         *
+         * @param localResponse the response
+         * @param primary whether the server is a default one
+         */
+        private synchronized void received(Message localResponse,
+                                           boolean primary)
+        {
+            if (done)
+                return;
+
+            if (!primary)
+            {
+                //contrary to responses from the  primary resolver,
+                //in this case we don't care whether the response is
+                //satisfying: if it isn't, there's nothing we can do
+                complete(localResponse, null, false);
+            }
+            //if there was a response we're only done if it is satisfactory
+            else if (isResponseSatisfactory(localResponse)
+                || backupServers.length == 0)
+            {
+                complete(localResponse, null, true);
+            }
+            else
+            {
+                unsatisfactoryResponse = localResponse;
+                if (!backupQueriesSent)
                 {
-                    //we don't care
+                    if (!redundantMode)
+                        enterRedundantMode(query);
+                    sendBackupQueries();
                 }
+            }
+        }
 
-                return done;
+        /**
+         * Handles a query which could not be sent or answered.
+         *
+         * @param exc the error
+         * @param primary whether the server is a default one
+         */
+        private synchronized void failed(Throwable exc, boolean primary)
+        {
+            if (done)
+                return;
+
+            //keep this so that we can rethrow it
+            exception = exc;
+            if (primary)
+                primaryFailures++;
+            else
+                backupFailures++;
+
+            if (primary && !backupQueriesSent)
+            {
+                if (!redundantMode)
+                    enterRedundantMode(query);
+                sendBackupQueries();
+            }
+            else
+            {
+                checkFailures();
+            }
+        }
+
+        /**
+         * Ends the resolution if all the servers failed.
+         */
+        private void checkFailures()
+        {
+            if (!done
+                && backupQueriesSent
+                && primaryFailures >= primaryServers.length
+                && backupFailures >= backupServers.length)
+            {
+                complete(unsatisfactoryResponse, exception, false);
+            }
+        }
+
+        /**
+         * Ends the resolution with a response or an error, and wakes up the
+         * threads waiting for it and the listener.
+         *
+         * @param localResponse the response or <tt>null</tt>
+         * @param exc the error if there is no response
+         * @param primaryResponded whether the default servers answered first
+         */
+        private void complete(Message localResponse,
+                              Throwable exc,
+                              boolean primaryResponded)
+        {
+            done = true;
+            response = localResponse;
+            if (exc != null)
+                exception = exc;
+            primaryResolverRespondedFirst = primaryResponded;
+            channel.unregister(id);
+
+            //check if it is time to end redundant mode.
+            if (backupQueriesSent)
+                updateRedemption(primaryResolverRespondedFirst);
+
+            notifyAll();
+
+            if (listener != null)
+            {
+                queriesPool.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        notifyListener();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Calls the listener with the response or the error.
+         */
+        private void notifyListener()
+        {
+            Message localResponse;
+            Throwable exc;
+
+            synchronized (this)
+            {
+                localResponse = response;
+                exc = exception;
+            }
+
+            if (localResponse != null)
+            {
+                listener.receiveMessage(this, localResponse);
+            }
+            else if (exc instanceof Exception)
+            {
+                listener.handleException(this, (Exception) exc);
+            }
+            else
+            {
+                listener.handleException(this,
+                    new IllegalStateException("DNS query failed", exc));
             }
         }
 
@@ -655,11 +1181,24 @@ public boolean waitForResponse(long waitFor)
          * @throws IllegalArgumentException if something unexpected happened
          * during resolution or if there was no response.
          */
-        public Message returnResponseOrThrowUp()
+        public synchronized Message returnResponseOrThrowUp()
             throws IOException, RuntimeException, IllegalArgumentException
         {
-            if(!done)
-                waitForResponse(0);
+            boolean interrupted = false;
+
+            while (!done)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
 
             if(response != null)
             {
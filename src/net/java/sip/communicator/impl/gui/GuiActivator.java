@@ -22,6 +22,7 @@
 import javax.swing.*;
 
 import net.java.sip.communicator.impl.gui.main.account.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
 import net.java.sip.communicator.impl.gui.main.contactlist.*;
 import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.service.browserlauncher.*;
@@ -242,6 +243,7 @@ public void stop(BundleContext bContext) throws Exception
             .removePropertyChangeListener(uiService);
 
         bContext.removeServiceListener(uiService);
+        ReplacementSources.stop();
         alertUIService.dispose();
     }
 
@@ -610,6 +612,8 @@ public static Map<String, ReplacementService> getReplacementSources()
                     bundleContext,
                     ReplacementService.class);
 
+        // forget the services which were unregistered
+        replacementSourcesMap.clear();
         if (!serRefs.isEmpty())
         {
             for (ServiceReference<ReplacementService> serRef : serRefs)
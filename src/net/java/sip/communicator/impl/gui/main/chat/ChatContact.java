@@ -19,7 +19,7 @@
 
 import javax.swing.*;
 
-import net.java.sip.communicator.plugin.desktoputil.*;
+import net.java.sip.communicator.impl.gui.utils.*;
 
 /**
  * The <tt>ChatContact</tt> is a wrapping class for the <tt>Contact</tt> and
@@ -42,18 +42,6 @@
      */
     public static final int AVATAR_ICON_WIDTH = 25;
 
-    /**
-     * The avatar image corresponding to the source contact in the form of an
-     * <code>ImageIcon</code>.
-     */
-    private ImageIcon avatar;
-
-    /**
-     * The avatar image corresponding to the source contact in the form of an
-     * array of bytes.
-     */
-    private byte[] avatarBytes;
-
     /**
      * The descriptor being adapted by this instance.
      */
@@ -112,21 +100,23 @@ public boolean equals(Object obj)
      */
     public ImageIcon getAvatar()
     {
-        byte[] avatarBytes = getAvatarBytes();
-
-        if (this.avatarBytes != avatarBytes)
-        {
-            this.avatarBytes = avatarBytes;
-            this.avatar = null;
-        }
-        if ((this.avatar == null)
-                && (this.avatarBytes != null) && (this.avatarBytes.length > 0))
-            this.avatar
-                    = ImageUtils.getScaledRoundedIcon(
-                            this.avatarBytes,
-                            AVATAR_ICON_WIDTH,
-                            AVATAR_ICON_HEIGHT);
-        return this.avatar;
+        return AvatarCache.getInstance().getScaledRoundedIcon(
+            getAvatarBytes(), AVATAR_ICON_WIDTH, AVATAR_ICON_HEIGHT);
+    }
+
+    /**
+     * Returns the avatar image corresponding to the source contact, or a
+     * transparent placeholder if it is being loaded in the background. Only
+     * the components registered with the <tt>AvatarCache</tt> are repainted
+     * when it is ready.
+     *
+     * @return the avatar image corresponding to the source contact, a
+     * placeholder or null
+     */
+    public ImageIcon getAvatarLater()
+    {
+        return AvatarCache.getInstance().getScaledRoundedIconLater(
+            getAvatarBytes(), AVATAR_ICON_WIDTH, AVATAR_ICON_HEIGHT);
     }
 
     /**
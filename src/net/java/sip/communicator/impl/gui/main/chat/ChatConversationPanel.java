@@ -24,6 +24,7 @@
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.*;
 
@@ -53,7 +54,6 @@
 
 import org.apache.commons.lang3.*;
 import org.jitsi.service.configuration.*;
-import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 /**
@@ -110,6 +110,14 @@
     private static final Pattern DIV_PATTERN =
             Pattern.compile("(<div[^>]*>)(.*)(</div>)", Pattern.DOTALL);
 
+    /**
+     * The length the document is reduced to once it exceeds
+     * {@link Chat#CHAT_BUFFER_SIZE}, so that the first messages are removed
+     * at once rather than one for each new message.
+     */
+    private static final int CHAT_BUFFER_TRIMMED_SIZE
+        = Chat.CHAT_BUFFER_SIZE * 3 / 4;
+
     /**
      * A regular expression for searching all pieces of plain text within a blob
      * of HTML text. <i>This expression assumes that the plain text part is
@@ -241,6 +249,36 @@
 
     private boolean isSimpleTheme = true;
 
+    /**
+     * Whether the document ends with the last message of the conversation.
+     * It does not once its last messages are removed to make room for older
+     * ones, see {@link #insertOlderMessages(List)}.
+     */
+    private boolean isConversationEndShown = true;
+
+    /**
+     * Whether the processed messages are older than the ones in the
+     * document, between {@link #startOlderMessages()} and
+     * {@link #insertOlderMessages(List)}.
+     */
+    private boolean isProcessingOlderMessages = false;
+
+    /**
+     * The last message UID kept while older messages are processed.
+     */
+    private String savedLastMessageUID;
+
+    /**
+     * The last message timestamp kept while older messages are processed.
+     */
+    private Date savedLastMessageTimestamp;
+
+    /**
+     * The last incoming message timestamp kept while older messages are
+     * processed.
+     */
+    private Date savedLastIncomingMsgTimestamp;
+
     private ShowPreviewDialog showPreview
         = new ShowPreviewDialog(ChatConversationPanel.this);
 
@@ -468,11 +506,8 @@ public void setBounds(int x, int y, int width, int height)
      */
     public String getMessageContents(String messageUID)
     {
-        Element root = document.getDefaultRootElement();
-        Element e = document.getElement(
-            root,
-            Attribute.ID,
-            ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID);
+        Element e
+            = getElementFromEnd(ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID);
         if (e == null)
         {
             logger.warn("Could not find message with ID " + messageUID);
@@ -514,8 +549,9 @@ public String processMessage(   ChatMessage chatMessage,
                                     String contactAddress)
     {
         // If this is a consecutive message don't go through the initiation
-        // and just append it.
-        if (isConsecutiveMessage(chatMessage))
+        // and just append it. The older messages are inserted before the
+        // others, so they are never appended.
+        if (!isProcessingOlderMessages && isConsecutiveMessage(chatMessage))
         {
             appendConsecutiveMessage(chatMessage, keyword);
             return null;
@@ -726,7 +762,7 @@ public void run()
             return;
         }
 
-        Element lastMsgElement = document.getElement(
+        Element lastMsgElement = getElementFromEnd(
             ChatHtmlUtils.MESSAGE_TEXT_ID + previousMessageUID);
 
         String contactAddress
@@ -806,11 +842,8 @@ public void run()
             lastMessageUID = chatMessage.getMessageUID();
         }
 
-        Element root = document.getDefaultRootElement();
         Element correctedMsgElement
-            = document.getElement(root,
-                                  Attribute.ID,
-                                  ChatHtmlUtils.MESSAGE_TEXT_ID + correctedUID);
+            = getElementFromEnd(ChatHtmlUtils.MESSAGE_TEXT_ID + correctedUID);
 
         if (correctedMsgElement == null)
         {
@@ -955,21 +988,28 @@ private void finishMessageAdd(final String message)
         if (!isHistory)
             ensureDocumentSize();
 
-        /*
-         * Replacements will be processed only if it is enabled in the
-         * property.
-         */
+        if (isReplacementEnabled())
+        {
+            processReplacement(ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID,
+                                message);
+        }
+    }
+
+    /**
+     * Replacements will be processed only if it is enabled in the property.
+     *
+     * @return <tt>true</tt> if the messages are to go through the
+     * replacements
+     */
+    private boolean isReplacementEnabled()
+    {
         ConfigurationService cfg = GuiActivator.getConfigurationService();
 
-        if (cfg.getBoolean(ReplacementProperty.REPLACEMENT_ENABLE, true)
+        return cfg.getBoolean(ReplacementProperty.REPLACEMENT_ENABLE, true)
                 ||cfg.getBoolean(ReplacementProperty.REPLACEMENT_PROPOSAL, true)
                 || cfg.getBoolean(
                         ReplacementProperty.getPropertyName("SMILEY"),
-                        true))
-        {
-            processReplacement(ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID,
-                                message);
-        }
+                        true);
     }
 
     /**
@@ -982,28 +1022,234 @@ private void finishMessageAdd(final String message)
     */
     void processReplacement(final String messageID, final String chatString)
     {
-        new ReplacementWorker(messageID, chatString).start();
+        new ReplacementWorker(messageID, chatString, true).start();
+    }
+
+    /**
+     * Starts processing messages which are older than the ones in the
+     * document. They are not appended to the previous message and do not
+     * change the last message, until they are inserted with
+     * {@link #insertOlderMessages(List)}.
+     */
+    public void startOlderMessages()
+    {
+        if (isProcessingOlderMessages)
+            return;
+
+        isProcessingOlderMessages = true;
+        savedLastMessageUID = lastMessageUID;
+        savedLastMessageTimestamp = lastMessageTimestamp;
+        savedLastIncomingMsgTimestamp = lastIncomingMsgTimestamp;
+    }
+
+    /**
+     * Inserts messages processed since {@link #startOlderMessages()} before
+     * the messages in the document, keeping the messages in the viewport in
+     * place. The last messages are removed if the document exceeds
+     * {@link Chat#CHAT_BUFFER_SIZE}, so that it only holds a window of the
+     * conversation.
+     *
+     * @param messages the processed messages, from the oldest one
+     */
+    public void insertOlderMessages(List<String> messages)
+    {
+        if (isProcessingOlderMessages)
+        {
+            isProcessingOlderMessages = false;
+            lastMessageUID = savedLastMessageUID;
+            lastMessageTimestamp = savedLastMessageTimestamp;
+            lastIncomingMsgTimestamp = savedLastIncomingMsgTimestamp;
+        }
+
+        StringBuilder olderMessages = new StringBuilder();
+
+        for (String message : messages)
+            olderMessages.append(message);
+        if (olderMessages.length() == 0)
+            return;
+
+        Element body = getBody();
+        int elementCount = body.getElementCount();
+        List<String> messageUIDs = new ArrayList<String>();
+
+        synchronized (scrollToBottomRunnable)
+        {
+            int height = chatTextPane.getPreferredSize().height;
+
+            try
+            {
+                document.insertAfterStart(body, olderMessages.toString());
+            }
+            catch (BadLocationException e)
+            {
+                logger.error("Insert in the HTMLDocument failed.", e);
+                return;
+            }
+            catch (IOException e)
+            {
+                logger.error("Insert in the HTMLDocument failed.", e);
+                return;
+            }
+
+            moveViewBy(chatTextPane.getPreferredSize().height - height);
+
+            for (int i = 0; i < body.getElementCount() - elementCount; i++)
+                getMessageUIDs(body.getElement(i), messageUIDs);
+
+            ensureDocumentSizeAtEnd();
+        }
+
+        if (isReplacementEnabled())
+        {
+            String chatString = olderMessages.toString();
+
+            for (String messageUID : messageUIDs)
+            {
+                String message = getElementContent(messageUID, chatString);
+
+                if (message != null)
+                {
+                    new ReplacementWorker(
+                            ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID,
+                            message,
+                            false)
+                        .start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the document ends with the last message of the
+     * conversation, which is not the case once older messages took the place
+     * of the last ones.
+     *
+     * @return <tt>true</tt> if the last message of the conversation is
+     * shown
+     */
+    public boolean isConversationEndShown()
+    {
+        return isConversationEndShown;
+    }
+
+    /**
+     * Sets whether the document ends with the last message of the
+     * conversation, once the messages after the ones it ends with are
+     * appended again.
+     *
+     * @param isConversationEndShown <tt>true</tt> if the last message of the
+     * conversation is shown
+     */
+    public void setConversationEndShown(boolean isConversationEndShown)
+    {
+        this.isConversationEndShown = isConversationEndShown;
+    }
+
+    /**
+     * Indicates whether the message with the given UID is in the document.
+     *
+     * @param messageUID the UID of the message
+     * @return <tt>true</tt> if the message is shown
+     */
+    public boolean containsMessage(String messageUID)
+    {
+        return
+            getElementFromEnd(ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID)
+                != null;
+    }
+
+    /**
+     * Returns the body element of the document.
+     *
+     * @return the body element of the document
+     */
+    private Element getBody()
+    {
+        Element root = document.getDefaultRootElement();
+
+        return root.getElement(root.getElementCount() - 1);
+    }
+
+    /**
+     * Scrolls the viewport by the height of the messages which were inserted
+     * above it, so that it keeps showing the same messages.
+     *
+     * @param height the height of the messages inserted above the viewport
+     */
+    private void moveViewBy(int height)
+    {
+        if (height == 0)
+            return;
+
+        // lay the text pane out with its new height before moving the view
+        validate();
+
+        Point viewPosition = getViewport().getViewPosition();
+
+        viewPosition.y = Math.max(0, viewPosition.y + height);
+        getViewport().setViewPosition(viewPosition);
+    }
+
+    /**
+     * Adds the UIDs of the messages in an element and its child elements.
+     *
+     * @param element the element
+     * @param messageUIDs the list the UIDs are added to
+     */
+    private void getMessageUIDs(Element element, List<String> messageUIDs)
+    {
+        Object id = element.getAttributes().getAttribute(Attribute.ID);
+
+        if (id != null)
+        {
+            String messageID = id.toString();
+
+            if (messageID.startsWith(ChatHtmlUtils.MESSAGE_TEXT_ID)
+                    && messageID.length()
+                        > ChatHtmlUtils.MESSAGE_TEXT_ID.length())
+            {
+                messageUIDs.add(
+                    messageID.substring(
+                            ChatHtmlUtils.MESSAGE_TEXT_ID.length()));
+            }
+        }
+
+        for (int i = 0; i < element.getElementCount(); i++)
+            getMessageUIDs(element.getElement(i), messageUIDs);
     }
 
     /**
      * Ensures that the document won't become too big. When the document reaches
-     * a certain size the first message in the page is removed.
+     * a certain size the first messages in the page are removed, until it is
+     * back to {@link #CHAT_BUFFER_TRIMMED_SIZE}.
      */
     private void ensureDocumentSize()
     {
-        if (document.getLength() > Chat.CHAT_BUFFER_SIZE)
-        {
-            String[] ids = new String[]
-                                      {ChatHtmlUtils.MESSAGE_TEXT_ID,
-                                       "statusMessage",
-                                       "systemMessage",
-                                       "actionMessage"};
+        if (document.getLength() <= Chat.CHAT_BUFFER_SIZE)
+            return;
 
+        String[] ids = new String[]
+                                  {ChatHtmlUtils.MESSAGE_TEXT_ID,
+                                   "statusMessage",
+                                   "systemMessage",
+                                   "actionMessage"};
+
+        int length;
+
+        while ((length = document.getLength()) > CHAT_BUFFER_TRIMMED_SIZE)
+        {
             Element firstMsgElement = findElement(Attribute.ID, ids);
 
+            if (firstMsgElement == null)
+                break;
+
             int startIndex = firstMsgElement.getStartOffset();
             int endIndex = firstMsgElement.getEndOffset();
 
+            // Keep the last message, see deleteAllMessagesWithoutHeader().
+            if (endIndex - startIndex >= document.getLength())
+                break;
+
             try
             {
                 // Remove the message.
@@ -1012,6 +1258,7 @@ private void ensureDocumentSize()
             catch (BadLocationException e)
             {
                 logger.error("Error removing messages from chat: ", e);
+                break;
             }
 
             if(firstMsgElement.getName().equals("table"))
@@ -1020,9 +1267,75 @@ private void ensureDocumentSize()
                 // delete all messages without header
                 deleteAllMessagesWithoutHeader();
             }
+
+            if (document.getLength() >= length)
+                break;
         }
     }
 
+    /**
+     * Ensures that the document won't become too big once older messages are
+     * inserted before the others. When the document reaches a certain size
+     * the last messages in the page are removed, until it is back to
+     * {@link #CHAT_BUFFER_TRIMMED_SIZE}, and the last message left is the
+     * one the next messages are appended to.
+     */
+    private void ensureDocumentSizeAtEnd()
+    {
+        if (document.getLength() <= Chat.CHAT_BUFFER_SIZE)
+            return;
+
+        Element body = getBody();
+        int firstRemoved = -1;
+
+        // Keep the first message, whatever its size.
+        for (int i = body.getElementCount() - 1; i > 0; i--)
+        {
+            Element element = body.getElement(i);
+
+            if (element.getStartOffset() < CHAT_BUFFER_TRIMMED_SIZE)
+                break;
+            if (isMessageStart(element))
+                firstRemoved = i;
+        }
+
+        if (firstRemoved < 0)
+            return;
+
+        for (int i = body.getElementCount() - 1; i >= firstRemoved; i--)
+            document.removeElement(body.getElement(i));
+
+        isConversationEndShown = false;
+
+        List<String> messageUIDs = new ArrayList<String>();
+
+        getMessageUIDs(body, messageUIDs);
+        lastMessageUID
+            = messageUIDs.isEmpty()
+                ? null
+                : messageUIDs.get(messageUIDs.size() - 1);
+        lastMessageTimestamp = getPageLastMsgTimestamp();
+    }
+
+    /**
+     * Indicates whether a child element of the body starts a message, rather
+     * than being a consecutive message of the previous one.
+     *
+     * @param element the child element of the body
+     * @return <tt>true</tt> if <tt>element</tt> starts a message
+     */
+    private boolean isMessageStart(Element element)
+    {
+        // the messages of the advanced theme are tables
+        if(element.getName().equals("table"))
+            return true;
+
+        Object id = element.getAttributes().getAttribute(Attribute.ID);
+
+        return id != null
+            && !id.toString().startsWith(ChatHtmlUtils.MESSAGE_TEXT_ID);
+    }
+
     /**
      * Deletes all messages "div"s that are missing their header the table tag.
      * The method calls itself recursively.
@@ -1351,6 +1664,7 @@ public void clear()
         Constants.loadSimpleStyle(
             document.getStyleSheet(), chatTextPane.getFont());
         this.isSimpleTheme = ConfigurationUtils.isChatSimpleThemeEnabled();
+        this.isConversationEndShown = true;
     }
 
     /**
@@ -1450,7 +1764,7 @@ public Date getPageLastMsgTimestamp()
         if (lastMessageUID != null)
         {
             Element lastMsgElement
-                = document.getElement(
+                = getElementFromEnd(
                         ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID);
 
             if (lastMsgElement != null)
@@ -1612,20 +1926,16 @@ public String processMeCommand(ChatMessage chatMessage)
                 + " " + message.substring(4))
                 + endHeaderTag;
 
-        Map<String, ReplacementService> listSources =
-            GuiActivator.getReplacementSources();
-        for (ReplacementService source : listSources.values())
+        for (ReplacementSources.Source source
+                : ReplacementSources.getSources())
         {
-            boolean isSmiley = source instanceof SmiliesReplacementService;
+            boolean isSmiley
+                = source.service instanceof SmiliesReplacementService;
             if (!isSmiley)
             {
                 continue;
             }
-            String sourcePattern = source.getPattern();
-            Pattern p =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
-            Matcher m = p.matcher(chatString);
+            Matcher m = source.pattern.matcher(chatString);
             chatString =
                 m.replaceAll(ChatHtmlUtils.HTML_CONTENT_TYPE
                     .equalsIgnoreCase(contentType) ? "$0" : StringEscapeUtils
@@ -1647,22 +1957,11 @@ private static String getContactAvatar(
                                     ProtocolProviderService protocolProvider,
                                     String contactAddress)
     {
-        String avatarPath
-            = AvatarCacheUtils.getCachedAvatarPath( protocolProvider,
+        File avatarFile
+            = AvatarCacheUtils.getCachedAvatarFile( protocolProvider,
                                                     contactAddress);
 
-        File avatarFile;
-        try
-        {
-            avatarFile = GuiActivator.getFileAccessService()
-                .getPrivatePersistentFile(avatarPath, FileCategory.CACHE);
-        }
-        catch (Exception e)
-        {
-            return null;
-        }
-
-        if(avatarFile.exists() && avatarFile.length() > 0)
+        if(avatarFile != null)
             return "file:" + avatarFile.getAbsolutePath();
         else
             return GuiActivator.getResources().getImageURL(
@@ -1681,21 +1980,10 @@ private static String getContactAvatar(
     private static String getContactAvatar(
                                     ProtocolProviderService protocolProvider)
     {
-        String avatarPath
-            = AvatarCacheUtils.getCachedAvatarPath(protocolProvider);
+        File avatarFile
+            = AvatarCacheUtils.getCachedAvatarFile(protocolProvider);
 
-        File avatarFile;
-        try
-        {
-            avatarFile = GuiActivator.getFileAccessService()
-                .getPrivatePersistentFile(avatarPath, FileCategory.CACHE);
-        }
-        catch (Exception e)
-        {
-            return null;
-        }
-
-        if(avatarFile.exists() && avatarFile.length() > 0)
+        if(avatarFile != null)
             return "file:" + avatarFile.getAbsolutePath();
         else
             return GuiActivator.getResources().getImageURL(
@@ -1714,7 +2002,7 @@ private boolean isConsecutiveMessage(ChatMessage chatMessage)
         if (lastMessageUID == null)
             return false;
 
-        Element lastMsgElement = document.getElement(
+        Element lastMsgElement = getElementFromEnd(
             ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID);
 
         if (lastMsgElement == null)
@@ -1797,6 +2085,46 @@ private Element findElement(HTML.Attribute attribute,
                                 matchStrings);
     }
 
+    /**
+     * Returns the element with the given id. Unlike
+     * <tt>HTMLDocument.getElement(String)</tt>, the document is searched from
+     * its end, where the messages are appended, so that finding one of the
+     * last messages does not depend on the length of the conversation.
+     *
+     * @param id the id of the element
+     * @return the last element with <tt>id</tt> or <tt>null</tt> if there is
+     * none
+     */
+    private Element getElementFromEnd(String id)
+    {
+        return findLastElement(document.getDefaultRootElement(), id);
+    }
+
+    /**
+     * Finds the last element with the given id among <tt>element</tt> and its
+     * child elements.
+     *
+     * @param element the element to search in
+     * @param id the id to search for
+     * @return the last element with <tt>id</tt> or <tt>null</tt> if there is
+     * none
+     */
+    private Element findLastElement(Element element, String id)
+    {
+        if (id.equals(element.getAttributes().getAttribute(Attribute.ID)))
+            return element;
+
+        for (int i = element.getElementCount() - 1; i >= 0; i--)
+        {
+            Element resultElement = findLastElement(element.getElement(i), id);
+
+            if (resultElement != null)
+                return resultElement;
+        }
+
+        return null;
+    }
+
     /**
      * Finds the first element with <tt>name</tt>.
      * @param name the name to search for.
@@ -2054,17 +2382,27 @@ public void debug()
          */
         private final boolean isProposalEnabled;
 
+        /**
+         * Whether the message was appended, so that the conversation is
+         * scrolled to its bottom once it is replaced. The older messages are
+         * inserted above the viewport instead, which is kept in place.
+         */
+        private final boolean isAppended;
+
         /**
          * Constructs worker.
          *
          * @param messageID the messageID element.
          * @param chatString the messages.
+         * @param isAppended whether the message was appended
          */
         private ReplacementWorker(final String messageID,
-            final String chatString)
+            final String chatString,
+            final boolean isAppended)
         {
             this.messageID = messageID;
             this.chatString = chatString;
+            this.isAppended = isAppended;
 
             ConfigurationService cfg = GuiActivator.getConfigurationService();
             isEnabled = cfg.getBoolean(
@@ -2101,12 +2439,34 @@ public void finished()
                     messageID, newMessage);
                 synchronized (scrollToBottomRunnable)
                 {
-                    scrollToBottomIsPending = true;
-
                     try
                     {
-                        Element elem = document.getElement(messageID);
-                        document.setOuterHTML(elem, newMessage);
+                        Element elem = getElementFromEnd(messageID);
+
+                        if (isAppended)
+                        {
+                            scrollToBottomIsPending = true;
+                            document.setOuterHTML(elem, newMessage);
+                        }
+                        else if (elem != null)
+                        {
+                            Rectangle bounds
+                                = chatTextPane.modelToView(
+                                        elem.getStartOffset());
+                            boolean isAboveView
+                                = (bounds != null)
+                                    && (bounds.y
+                                        < getViewport().getViewPosition().y);
+                            int height = chatTextPane.getPreferredSize().height;
+
+                            document.setOuterHTML(elem, newMessage);
+                            if (isAboveView)
+                            {
+                                moveViewBy(
+                                    chatTextPane.getPreferredSize().height
+                                        - height);
+                            }
+                        }
                     }
                     catch (BadLocationException ex)
                     {
@@ -2135,11 +2495,11 @@ public Object construct() throws Exception
             }
 
             StringBuilder msgBuff;
-            for (Map.Entry<String, ReplacementService> entry : GuiActivator
-                .getReplacementSources().entrySet())
+            for (ReplacementSources.Source source
+                    : ReplacementSources.getSources())
             {
                 msgBuff = new StringBuilder();
-                processReplacementService(entry.getValue(), msgStore, msgBuff);
+                processReplacementService(source, msgStore, msgBuff);
                 msgStore = msgBuff.toString();
             }
 
@@ -2149,17 +2509,16 @@ public Object construct() throws Exception
         /**
          * Process message for a ReplacementService.
          *
-         * @param service the service.
+         * @param source the service and its compiled pattern.
          * @param msg the message.
          * @param buff current accumulated buffer.
          */
-        private void processReplacementService(final ReplacementService service,
+        private void processReplacementService(
+            final ReplacementSources.Source source,
             final String msg, final StringBuilder buff)
         {
-            String sourcePattern = service.getPattern();
-            Pattern pattern =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
+            ReplacementService service = source.service;
+            Pattern pattern = source.pattern;
 
             int startPos = 0;
 
@@ -157,6 +157,12 @@
 
     private boolean isHistoryLoaded;
 
+    /**
+     * Whether a page of history is being loaded in the conversation panel
+     * because it was scrolled to one of its ends.
+     */
+    private boolean isHistoryPageLoading = false;
+
     /**
      * Stores all active  file transfer requests and effective transfers with
      * the identifier of the transfer.
@@ -206,6 +212,8 @@ public ChatPanel(ChatContainer chatContainer)
         this.conversationPanel.setPreferredSize(new Dimension(400, 200));
         this.conversationPanel.getChatTextPane()
             .setTransferHandler(new ChatTransferHandler(this));
+        this.conversationPanel.getVerticalScrollBar().addAdjustmentListener(
+            new HistoryPagingListener());
 
         this.conversationPanelContainer.add(
             conversationPanel, BorderLayout.CENTER);
@@ -817,118 +825,162 @@ private void processHistory( Collection<Object> historyList,
     {
         Iterator<Object> iterator = historyList.iterator();
 
-        String messageType;
-
         while (iterator.hasNext())
         {
             Object o = iterator.next();
             String historyString = "";
 
-            if(o instanceof MessageDeliveredEvent)
+            if (o instanceof FileRecord)
+            {
+                FileRecord fileRecord = (FileRecord) o;
+
+                if (!fileRecord.getID().equals(escapedMessageID))
+                {
+                    FileHistoryConversationComponent component
+                        = new FileHistoryConversationComponent(fileRecord);
+
+                    conversationPanel.addComponent(component);
+                }
+            }
+            else
             {
-                MessageDeliveredEvent evt
-                    = (MessageDeliveredEvent)o;
+                historyString = processHistoryEvent(o, escapedMessageID);
+            }
+
+            if (historyString != null)
+                conversationPanel.appendMessageToEnd(
+                    historyString, ChatHtmlUtils.HTML_CONTENT_TYPE);
+        }
+
+        fireChatHistoryChange();
+    }
+
+    /**
+     * Inserts history messages older than the ones in the conversation panel
+     * before them. The file transfers are only shown by the pages of the
+     * history, since the conversation components can only be added at the
+     * end of the conversation.
+     *
+     * @param historyList The collection of messages coming from history.
+     */
+    private void processOlderHistory(Collection<Object> historyList)
+    {
+        List<String> historyStrings = new ArrayList<String>();
+
+        conversationPanel.startOlderMessages();
+        for (Object o : historyList)
+        {
+            String historyString = processHistoryEvent(o, null);
+
+            if (historyString != null && historyString.length() > 0)
+                historyStrings.add(historyString);
+        }
+        conversationPanel.insertOlderMessages(historyStrings);
+
+        fireChatHistoryChange();
+    }
+
+    /**
+     * Processes a message coming from history.
+     *
+     * @param o the message coming from history
+     * @param escapedMessageID The incoming message needed to be ignored if
+     * contained in history.
+     * @return a string containing the processed message, or an empty string
+     * if <tt>o</tt> is not a message or is ignored
+     */
+    private String processHistoryEvent(Object o, String escapedMessageID)
+    {
+        String messageType;
+
+        if(o instanceof MessageDeliveredEvent)
+        {
+            MessageDeliveredEvent evt
+                = (MessageDeliveredEvent)o;
+
+            ProtocolProviderService protocolProvider = evt
+                .getDestinationContact().getProtocolProvider();
+
+            if (isGreyHistoryStyleDisabled(protocolProvider))
+                messageType = Chat.OUTGOING_MESSAGE;
+            else
+                messageType = Chat.HISTORY_OUTGOING_MESSAGE;
+
+            return processHistoryMessage(
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountAddress(protocolProvider),
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountDisplayName(protocolProvider),
+                        evt.getTimestamp(),
+                        messageType,
+                        evt.getSourceMessage().getContent(),
+                        evt.getSourceMessage().getContentType(),
+                        evt.getSourceMessage().getMessageUID());
+        }
+        else if(o instanceof MessageReceivedEvent)
+        {
+            MessageReceivedEvent evt = (MessageReceivedEvent)o;
 
-                ProtocolProviderService protocolProvider = evt
-                    .getDestinationContact().getProtocolProvider();
+            ProtocolProviderService protocolProvider
+                = evt.getSourceContact().getProtocolProvider();
 
+            if(!evt.getSourceMessage().getMessageUID()
+                    .equals(escapedMessageID))
+            {
                 if (isGreyHistoryStyleDisabled(protocolProvider))
-                    messageType = Chat.OUTGOING_MESSAGE;
+                    messageType = Chat.INCOMING_MESSAGE;
                 else
-                    messageType = Chat.HISTORY_OUTGOING_MESSAGE;
+                    messageType = Chat.HISTORY_INCOMING_MESSAGE;
 
-                historyString = processHistoryMessage(
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountAddress(protocolProvider),
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountDisplayName(protocolProvider),
+                return processHistoryMessage(
+                            evt.getSourceContact().getAddress(),
+                            evt.getSourceContact().getDisplayName(),
                             evt.getTimestamp(),
                             messageType,
                             evt.getSourceMessage().getContent(),
                             evt.getSourceMessage().getContentType(),
                             evt.getSourceMessage().getMessageUID());
             }
-            else if(o instanceof MessageReceivedEvent)
-            {
-                MessageReceivedEvent evt = (MessageReceivedEvent)o;
-
-                ProtocolProviderService protocolProvider
-                    = evt.getSourceContact().getProtocolProvider();
-
-                if(!evt.getSourceMessage().getMessageUID()
-                        .equals(escapedMessageID))
-                {
-                    if (isGreyHistoryStyleDisabled(protocolProvider))
-                        messageType = Chat.INCOMING_MESSAGE;
-                    else
-                        messageType = Chat.HISTORY_INCOMING_MESSAGE;
-
-                    historyString = processHistoryMessage(
-                                evt.getSourceContact().getAddress(),
-                                evt.getSourceContact().getDisplayName(),
-                                evt.getTimestamp(),
-                                messageType,
-                                evt.getSourceMessage().getContent(),
-                                evt.getSourceMessage().getContentType(),
-                                evt.getSourceMessage().getMessageUID());
-                }
-            }
-            else if(o instanceof ChatRoomMessageDeliveredEvent)
-            {
-                ChatRoomMessageDeliveredEvent evt
-                    = (ChatRoomMessageDeliveredEvent)o;
+        }
+        else if(o instanceof ChatRoomMessageDeliveredEvent)
+        {
+            ChatRoomMessageDeliveredEvent evt
+                = (ChatRoomMessageDeliveredEvent)o;
 
-                ProtocolProviderService protocolProvider = evt
-                    .getSourceChatRoom().getParentProvider();
+            ProtocolProviderService protocolProvider = evt
+                .getSourceChatRoom().getParentProvider();
 
-                historyString = processHistoryMessage(
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountAddress(protocolProvider),
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountDisplayName(protocolProvider),
-                            evt.getTimestamp(),
-                            Chat.HISTORY_OUTGOING_MESSAGE,
-                            evt.getMessage().getContent(),
-                            evt.getMessage().getContentType(),
-                            evt.getMessage().getMessageUID());
-            }
-            else if(o instanceof ChatRoomMessageReceivedEvent)
-            {
-                ChatRoomMessageReceivedEvent evt
-                    = (ChatRoomMessageReceivedEvent) o;
+            return processHistoryMessage(
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountAddress(protocolProvider),
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountDisplayName(protocolProvider),
+                        evt.getTimestamp(),
+                        Chat.HISTORY_OUTGOING_MESSAGE,
+                        evt.getMessage().getContent(),
+                        evt.getMessage().getContentType(),
+                        evt.getMessage().getMessageUID());
+        }
+        else if(o instanceof ChatRoomMessageReceivedEvent)
+        {
+            ChatRoomMessageReceivedEvent evt
+                = (ChatRoomMessageReceivedEvent) o;
 
-                if(!evt.getMessage().getMessageUID()
-                        .equals(escapedMessageID))
-                {
-                    historyString = processHistoryMessage(
-                            evt.getSourceChatRoomMember().getContactAddress(),
-                            evt.getSourceChatRoomMember().getName(),
-                            evt.getTimestamp(),
-                            Chat.HISTORY_INCOMING_MESSAGE,
-                            evt.getMessage().getContent(),
-                            evt.getMessage().getContentType(),
-                            evt.getMessage().getMessageUID());
-                }
-            }
-            else if (o instanceof FileRecord)
+            if(!evt.getMessage().getMessageUID()
+                    .equals(escapedMessageID))
             {
-                FileRecord fileRecord = (FileRecord) o;
-
-                if (!fileRecord.getID().equals(escapedMessageID))
-                {
-                    FileHistoryConversationComponent component
-                        = new FileHistoryConversationComponent(fileRecord);
-
-                    conversationPanel.addComponent(component);
-                }
+                return processHistoryMessage(
+                        evt.getSourceChatRoomMember().getContactAddress(),
+                        evt.getSourceChatRoomMember().getName(),
+                        evt.getTimestamp(),
+                        Chat.HISTORY_INCOMING_MESSAGE,
+                        evt.getMessage().getContent(),
+                        evt.getMessage().getContentType(),
+                        evt.getMessage().getMessageUID());
             }
-
-            if (historyString != null)
-                conversationPanel.appendMessageToEnd(
-                    historyString, ChatHtmlUtils.HTML_CONTENT_TYPE);
         }
 
-        fireChatHistoryChange();
+        return "";
     }
 
     /**
@@ -1024,7 +1076,10 @@ public void run()
             return;
         }
 
-        if (ConfigurationUtils.isHistoryShown() && !isHistoryLoaded)
+        if (Chat.OUTGOING_MESSAGE.equals(chatMessage.getMessageType()))
+            showConversationEnd();
+
+        if (isIncomingEventBuffered())
         {
             synchronized (incomingEventBuffer)
             {
@@ -1079,6 +1134,36 @@ public void addErrorMessage(String contactName,
                 message, "text");
     }
 
+    /**
+     * Indicates whether the incoming events are kept in the incoming event
+     * buffer rather than shown: while the history is loading, and while the
+     * conversation panel does not show the last messages of the
+     * conversation.
+     *
+     * @return <tt>true</tt> if the incoming events are to be buffered
+     */
+    private boolean isIncomingEventBuffered()
+    {
+        return (ConfigurationUtils.isHistoryShown() && !isHistoryLoaded)
+            || !conversationPanel.isConversationEndShown();
+    }
+
+    /**
+     * Shows the last messages of the conversation again, if older ones took
+     * their place in the conversation panel, so that the messages the user
+     * sends are seen.
+     */
+    private void showConversationEnd()
+    {
+        if (conversationPanel.isConversationEndShown())
+            return;
+
+        isHistoryLoaded = false;
+        conversationPanel.clear();
+        loadHistory();
+        conversationPanel.setDefaultContent();
+    }
+
     /**
      * Displays the given chat message.
      *
@@ -1589,7 +1674,9 @@ public void run()
                 fileTransferTransport.getDisplayName(),
                 file);
 
-        if (ConfigurationUtils.isHistoryShown() && !isHistoryLoaded)
+        showConversationEnd();
+
+        if (isIncomingEventBuffered())
         {
             synchronized (incomingEventBuffer)
             {
@@ -2266,6 +2353,151 @@ public void finished()
         worker.start();
     }
 
+    /**
+     * Loads the page of history before the first message of the conversation
+     * panel and inserts it before it, when it is scrolled to its top.
+     */
+    private void loadOlderPageFromHistory()
+    {
+        if (isHistoryPageLoading
+                || !isHistoryLoaded
+                || !ConfigurationUtils.isHistoryShown()
+                || GuiActivator.getMetaHistoryService() == null)
+            return;
+
+        final Date firstMsgDate = conversationPanel.getPageFirstMsgTimestamp();
+
+        // There is no message to page from, or nothing older than the first
+        // message in history.
+        if (firstMsgDate.getTime() == Long.MAX_VALUE
+                || (firstHistoryMsgTimestamp != null
+                    && !firstMsgDate.after(firstHistoryMsgTimestamp)))
+            return;
+
+        isHistoryPageLoading = true;
+
+        SwingWorker worker = new SwingWorker()
+        {
+            private Collection<Object> historyList;
+
+            @Override
+            public Object construct() throws Exception
+            {
+                historyList = chatSession.getHistoryBeforeDate(
+                    firstMsgDate,
+                    MESSAGES_PER_PAGE);
+
+                return historyList;
+            }
+
+            @Override
+            public void finished()
+            {
+                if (historyList != null && historyList.size() > 0)
+                    processOlderHistory(historyList);
+
+                isHistoryPageLoading = false;
+            }
+        };
+        worker.start();
+    }
+
+    /**
+     * Loads the page of history after the last message of the conversation
+     * panel and appends it, when it is scrolled to its bottom while its last
+     * messages were removed for older ones. Once the last page is appended,
+     * the messages received in the meantime are added.
+     */
+    private void loadNewerPageFromHistory()
+    {
+        if (isHistoryPageLoading || conversationPanel.isConversationEndShown())
+            return;
+
+        final Date lastMsgDate = conversationPanel.getPageLastMsgTimestamp();
+
+        isHistoryPageLoading = true;
+
+        SwingWorker worker = new SwingWorker()
+        {
+            private Collection<Object> historyList;
+
+            @Override
+            public Object construct() throws Exception
+            {
+                // Without a last message to page from, the events received
+                // in the meantime are all there is to add.
+                if (lastMsgDate.getTime() != 0)
+                {
+                    historyList = chatSession.getHistoryAfterDate(
+                        lastMsgDate,
+                        MESSAGES_PER_PAGE);
+                }
+
+                return historyList;
+            }
+
+            @Override
+            public void finished()
+            {
+                if (historyList != null && historyList.size() > 0)
+                    processHistory(historyList, "");
+
+                if (historyList == null
+                        || historyList.size() < MESSAGES_PER_PAGE)
+                {
+                    conversationPanel.setConversationEndShown(true);
+                    if (!isIncomingEventBuffered())
+                        addIncomingEvents();
+                }
+
+                isHistoryPageLoading = false;
+            }
+        };
+        worker.start();
+    }
+
+    /**
+     * Loads the pages of history before and after the messages of the
+     * conversation panel when it is scrolled to its top and to its bottom,
+     * so that it only holds a window of the conversation.
+     */
+    private class HistoryPagingListener
+        implements AdjustmentListener
+    {
+        /**
+         * The previous value of the vertical scroll bar.
+         */
+        private int lastValue;
+
+        public void adjustmentValueChanged(AdjustmentEvent e)
+        {
+            JScrollBar verticalScrollBar
+                = conversationPanel.getVerticalScrollBar();
+            int value = e.getValue();
+            int previousValue = lastValue;
+
+            lastValue = value;
+
+            // Only the scrolls reaching one of the ends load a page.
+            if (verticalScrollBar.getMaximum()
+                        - verticalScrollBar.getVisibleAmount()
+                    <= verticalScrollBar.getMinimum())
+                return;
+
+            if (value <= verticalScrollBar.getMinimum()
+                    && previousValue > value)
+            {
+                loadOlderPageFromHistory();
+            }
+            else if (value + verticalScrollBar.getVisibleAmount()
+                        >= verticalScrollBar.getMaximum()
+                    && previousValue < value)
+            {
+                loadNewerPageFromHistory();
+            }
+        }
+    }
+
     /**
      * From a given collection of messages shows the history in the chat window.
      */
@@ -2285,6 +2517,10 @@ public void run()
 
             chatConversationPanel.clear();
             processHistory(chatHistory, "");
+            // The messages received while older messages were shown are
+            // added to the page, as the ones received from now on.
+            if (!isIncomingEventBuffered())
+                addIncomingEvents();
             chatConversationPanel.setDefaultContent();
         }
     }
@@ -2300,6 +2536,17 @@ public void addChatContact(ChatContact<?> chatContact)
             chatContactListPanel.addContact(chatContact);
     }
 
+    /**
+     * Adds the given <tt>chatContacts</tt> to the list of chat contacts
+     * participating in the corresponding to this chat panel chat at once.
+     * @param chatContacts the contacts to add
+     */
+    public void addChatContacts(Collection<ChatContact<?>> chatContacts)
+    {
+        if (chatContactListPanel != null)
+            chatContactListPanel.addContacts(chatContacts);
+    }
+
     /**
      * Removes the given <tt>chatContact</tt> from the list of chat contacts
      * participating in the corresponding to this chat panel chat.
@@ -2457,7 +2704,7 @@ public void run()
             = new ReceiveFileConversationComponent(
                 this, fileTransferOpSet, request, date);
 
-        if (ConfigurationUtils.isHistoryShown() && !isHistoryLoaded)
+        if (isIncomingEventBuffered())
         {
             synchronized (incomingEventBuffer)
             {
@@ -2830,7 +3077,13 @@ private void addIncomingEvents()
 
                 if (incomingEvent instanceof ChatMessage)
                 {
-                    this.displayChatMessage((ChatMessage) incomingEvent);
+                    ChatMessage chatMessage = (ChatMessage) incomingEvent;
+                    String messageUID = chatMessage.getMessageUID();
+
+                    // The message may have been loaded from history already.
+                    if (messageUID == null
+                            || !conversationPanel.containsMessage(messageUID))
+                        this.displayChatMessage(chatMessage);
                 }
                 else if (incomingEvent instanceof ChatConversationComponent)
                 {
@@ -2838,6 +3091,7 @@ else if (incomingEvent instanceof ChatConversationComponent)
                         .addComponent((ChatConversationComponent)incomingEvent);
                 }
             }
+            incomingEventBuffer.clear();
         }
     }
 
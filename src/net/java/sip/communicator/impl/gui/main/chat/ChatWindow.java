@@ -1066,9 +1066,8 @@ private void setChatContactPhoto(ChatSession chatSession)
         ImageIcon contactPhotoIcon;
         if (chatAvatar != null && chatAvatar.length > 0)
         {
-            contactPhotoIcon = ImageUtils.getScaledRoundedIcon(chatAvatar,
-                                                                128,
-                                                                128);
+            contactPhotoIcon = AvatarCache.getInstance()
+                .getScaledRoundedIcon(chatAvatar, 128, 128);
 
             if (contactPhotoIcon != null)
                 this.setIconImage(contactPhotoIcon.getImage());
@@ -113,7 +113,7 @@ public void setChatSession(ChatSession chatSession)
             this.tooltipIcon = new ImageIcon(chatAvatar);
 
             ImageIcon contactPhotoIcon
-                = ImageUtils.getScaledRoundedIcon(chatAvatar,
+                = AvatarCache.getInstance().getScaledRoundedIcon(chatAvatar,
                     ChatContact.AVATAR_ICON_WIDTH ,
                     ChatContact.AVATAR_ICON_HEIGHT);
 
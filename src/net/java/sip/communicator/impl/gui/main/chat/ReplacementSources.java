@@ -0,0 +1,194 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.impl.gui.*;
+import net.java.sip.communicator.service.replacement.*;
+
+import org.osgi.framework.*;
+
+/**
+ * The <tt>ReplacementService</tt>s the chat messages are processed with,
+ * along with their compiled patterns. The list of services is obtained again
+ * only when a service is registered or unregistered, and the pattern of a
+ * service is compiled again only when it changes, as the one of the smileys
+ * does when they are reloaded.
+ */
+public class ReplacementSources
+    implements ServiceListener
+{
+    /**
+     * A <tt>ReplacementService</tt> and its compiled pattern.
+     */
+    static class Source
+    {
+        /**
+         * The replacement service.
+         */
+        final ReplacementService service;
+
+        /**
+         * The pattern of {@link #service}, as returned by it.
+         */
+        private final String regex;
+
+        /**
+         * The compiled pattern of {@link #service}.
+         */
+        final Pattern pattern;
+
+        /**
+         * Compiles the pattern of a replacement service.
+         *
+         * @param service the replacement service
+         * @param regex the pattern of <tt>service</tt>
+         */
+        private Source(ReplacementService service, String regex)
+        {
+            this.service = service;
+            this.regex = regex;
+            pattern
+                = Pattern.compile(
+                        regex,
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+    }
+
+    /**
+     * The single instance, listening for the replacement services.
+     */
+    private static final ReplacementSources instance
+        = new ReplacementSources();
+
+    /**
+     * The compiled patterns by replacement service.
+     */
+    private final Map<ReplacementService, Source> sources
+        = new LinkedHashMap<ReplacementService, Source>();
+
+    /**
+     * The replacement services, or <tt>null</tt> if they are to be obtained
+     * again.
+     */
+    private List<ReplacementService> services;
+
+    /**
+     * The bundle context this instance listens to for the registration of
+     * services, or <tt>null</tt> if it does not listen.
+     */
+    private BundleContext listeningContext;
+
+    /**
+     * Returns the registered replacement services with their compiled
+     * patterns.
+     *
+     * @return the replacement services with their compiled patterns
+     */
+    static List<Source> getSources()
+    {
+        return instance.get();
+    }
+
+    /**
+     * Stops listening for the registration of replacement services and
+     * forgets them. Called when the GUI bundle stops.
+     */
+    public static void stop()
+    {
+        instance.dispose();
+    }
+
+    /**
+     * Returns the registered replacement services with their compiled
+     * patterns, compiling those which changed.
+     *
+     * @return the replacement services with their compiled patterns
+     */
+    private synchronized List<Source> get()
+    {
+        BundleContext bundleContext = GuiActivator.bundleContext;
+
+        if (listeningContext == null && bundleContext != null)
+        {
+            try
+            {
+                bundleContext.addServiceListener(
+                        this,
+                        '(' + Constants.OBJECTCLASS + '='
+                            + ReplacementService.class.getName() + ')');
+                listeningContext = bundleContext;
+            }
+            catch (InvalidSyntaxException ise)
+            {
+                // The filter is constant, it should not really happen.
+            }
+        }
+
+        if (services == null)
+        {
+            services
+                = new ArrayList<ReplacementService>(
+                        GuiActivator.getReplacementSources().values());
+            sources.keySet().retainAll(services);
+        }
+
+        List<Source> result = new ArrayList<Source>(services.size());
+
+        for (ReplacementService service : services)
+        {
+            String regex = service.getPattern();
+            Source source = sources.get(service);
+
+            if (source == null || !source.regex.equals(regex))
+            {
+                source = new Source(service, regex);
+                sources.put(service, source);
+            }
+            result.add(source);
+        }
+        return result;
+    }
+
+    /**
+     * Stops listening for the registration of services and forgets them.
+     */
+    private synchronized void dispose()
+    {
+        if (listeningContext != null)
+        {
+            listeningContext.removeServiceListener(this);
+            listeningContext = null;
+        }
+        services = null;
+        sources.clear();
+    }
+
+    /**
+     * Obtains the replacement services again when one is registered or
+     * unregistered. Only the events of replacement services are received.
+     *
+     * @param event the <tt>ServiceEvent</tt>
+     */
+    public synchronized void serviceChanged(ServiceEvent event)
+    {
+        services = null;
+    }
+}
@@ -71,13 +71,6 @@
      */
     private static final int AVATAR_WIDTH = 30;
 
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = ChatContactCellRenderer.class.getName() + ".avatar";
-
     /**
      * The icon indicating an open group.
      */
@@ -269,7 +262,7 @@ else if (contactForegroundColor != null)
 
         this.setBorder(BorderFactory.createEmptyBorder(1, 5, 1, 1));
 
-        ImageIcon avatar = chatContact.getAvatar();
+        ImageIcon avatar = chatContact.getAvatarLater();
 
         if (avatar != null)
             this.rightLabel.setIcon(avatar);
@@ -318,8 +311,9 @@ else if (member != null)
 
                                 if(binBytes != null)
                                     this.rightLabel.setIcon(
-                                        ImageUtils.getScaledRoundedIcon(
-                                            binBytes, 25, 25));
+                                        AvatarCache.getInstance()
+                                            .getScaledRoundedIconLater(
+                                                binBytes, 25, 25));
                                 break;
                             }
                         }
@@ -365,8 +359,9 @@ else if (member != null)
 
                         if (cImage != null)
                             this.rightLabel.setIcon(
-                                ImageUtils.getScaledRoundedIcon(
-                                    cImage, 25, 25));
+                                AvatarCache.getInstance()
+                                    .getScaledRoundedIconLater(
+                                        cImage, 25, 25));
                     }
                 }
             }
@@ -396,38 +391,8 @@ else if (member != null)
      */
     private ImageIcon getAvatar(MetaContact metaContact)
     {
-        byte[] avatarBytes = metaContact.getAvatar(true);
-        ImageIcon avatar = null;
-
-        // Try to get the avatar from the cache.
-        Object[] avatarCache = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
-
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if ((avatar == null)
-                && (avatarBytes != null) && (avatarBytes.length > 0))
-            avatar
-                = ImageUtils.getScaledRoundedIcon(
-                        avatarBytes,
-                        AVATAR_WIDTH,
-                        AVATAR_HEIGHT);
-
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
-
-        return avatar;
+        return AvatarCache.getInstance().getScaledRoundedIconLater(
+            metaContact.getAvatar(true), AVATAR_WIDTH, AVATAR_HEIGHT);
     }
 
     /**
@@ -45,6 +45,13 @@
     private final List<ChatContact<?>> chatContacts
         = new ArrayList<ChatContact<?>>();
 
+    /**
+     * The <tt>ChatContact</tt>s of {@link #chatContacts}, used to prevent
+     * duplicates without looking through the list.
+     */
+    private final Set<ChatContact<?>> chatContactSet
+        = new HashSet<ChatContact<?>>();
+
     /**
      * Current chat session.
      */
@@ -152,32 +159,119 @@ public void addElement(ChatContact<?> chatContact)
         if (chatContact == null)
             throw new IllegalArgumentException("chatContact");
 
-        int index = -1;
+        int index;
 
         synchronized(chatContacts)
         {
-            int chatContactCount = chatContacts.size();
+            // We don't want duplicates.
+            if (!chatContactSet.add(chatContact))
+                return;
 
-            for (int i = 0; i < chatContactCount; i++)
-            {
-                ChatContact<?> containedChatContact = chatContacts.get(i);
+            index = getInsertionIndex(chatContact);
+            chatContacts.add(index, chatContact);
+        }
+        fireIntervalAdded(this, index, index);
+    }
+
+    /**
+     * Adds <tt>ChatContact</tt>s to this <tt>AbstractListModel</tt>
+     * implementation at once and preserves the sorting it applies. The
+     * contacts are sorted and merged with the ones already in the list, and
+     * an interval is reported as added for each run of contacts inserted
+     * next to each other, so that the list is laid out once rather than for
+     * each contact.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to be added to this
+     * <tt>AbstractListModel</tt>
+     */
+    public void addElements(Collection<? extends ChatContact<?>> chatContacts)
+    {
+        List<ChatContact<?>> added = new ArrayList<ChatContact<?>>();
+        List<int[]> intervals = new ArrayList<int[]>();
 
+        synchronized(this.chatContacts)
+        {
+            for (ChatContact<?> chatContact : chatContacts)
+            {
                 // We don't want duplicates.
-                if (chatContact.equals(containedChatContact))
-                    return;
-                if ((index == -1)
-                        && (sorter.compare(containedChatContact, chatContact) > 0))
+                if ((chatContact != null) && chatContactSet.add(chatContact))
+                    added.add(chatContact);
+            }
+            if (added.isEmpty())
+                return;
+
+            Collections.sort(added, sorter);
+
+            List<ChatContact<?>> merged
+                = new ArrayList<ChatContact<?>>(
+                        this.chatContacts.size() + added.size());
+            Iterator<ChatContact<?>> contained = this.chatContacts.iterator();
+            ChatContact<?> containedChatContact
+                = contained.hasNext() ? contained.next() : null;
+            int[] interval = null;
+
+            for (ChatContact<?> chatContact : added)
+            {
+                // Keep the contained ChatContacts before the equal ones as
+                // addElement does.
+                while ((containedChatContact != null)
+                        && (sorter.compare(containedChatContact, chatContact)
+                                <= 0))
                 {
-                    index = i;
-                    // Continue in order to prevent duplicates.
+                    merged.add(containedChatContact);
+                    containedChatContact
+                        = contained.hasNext() ? contained.next() : null;
+                    interval = null;
                 }
+
+                if (interval == null)
+                {
+                    interval = new int[] { merged.size(), merged.size() };
+                    intervals.add(interval);
+                }
+                else
+                    interval[1] = merged.size();
+                merged.add(chatContact);
+            }
+            while (containedChatContact != null)
+            {
+                merged.add(containedChatContact);
+                containedChatContact
+                    = contained.hasNext() ? contained.next() : null;
             }
-            if (index == -1)
-                index = chatContactCount;
 
-            chatContacts.add(index, chatContact);
+            this.chatContacts.clear();
+            this.chatContacts.addAll(merged);
         }
-        fireIntervalAdded(this, index, index);
+
+        for (int[] interval : intervals)
+            fireIntervalAdded(this, interval[0], interval[1]);
+    }
+
+    /**
+     * Returns the index at which a <tt>ChatContact</tt> is to be inserted in
+     * {@link #chatContacts}: the index of the first contained
+     * <tt>ChatContact</tt> which sorts after it. (It is assumed that
+     * <tt>chatContacts</tt> is locked.)
+     *
+     * @param chatContact the <tt>ChatContact</tt> to be inserted
+     * @return the index at which <tt>chatContact</tt> is to be inserted
+     */
+    private int getInsertionIndex(ChatContact<?> chatContact)
+    {
+        int low = 0;
+        int high = chatContacts.size();
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (sorter.compare(chatContacts.get(middle), chatContact) > 0)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
     }
 
     /* Implements ListModel#getElementAt(int). */
@@ -209,6 +303,9 @@ public void removeElement(ChatContact<?> chatContact)
     {
         synchronized(chatContacts)
         {
+            if (!chatContactSet.remove(chatContact))
+                return;
+
             int index = chatContacts.indexOf(chatContact);
 
             if ((index >= 0) && chatContacts.remove(chatContact))
@@ -228,6 +325,7 @@ public void removeAllElements()
         {
             int contactsSize = chatContacts.size();
             chatContacts.clear();
+            chatContactSet.clear();
 
             fireIntervalRemoved(this, 0, contactsSize - 1);
         }
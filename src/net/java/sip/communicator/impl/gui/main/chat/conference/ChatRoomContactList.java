@@ -26,6 +26,7 @@
 
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -62,6 +63,9 @@ public ChatRoomContactList()
         this.setDragEnabled(true);
         this.setTransferHandler(new ChatRoomContactListTransferHandler(this));
         this.setCellRenderer(renderer);
+
+        // repaint the avatars decoded in the background
+        AvatarCache.getInstance().addRepaintComponent(this);
     }
 
     /**
@@ -19,12 +19,14 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
 
 import javax.swing.*;
 
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.chat.*;
 import net.java.sip.communicator.impl.gui.main.contactlist.*;
+import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.muc.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -82,6 +84,7 @@ public ChatRoomMemberListPanel(ChatPanel chatPanel)
         this.memberList.setModel(memberListModel);
         this.memberList.addKeyListener(new CListKeySearchListener(memberList));
         this.memberList.setCellRenderer(new ChatContactCellRenderer());
+        AvatarCache.getInstance().addRepaintComponent(memberList);
 
         // It's pertinent to add the ChatContactRightButtonMenu only we aren't
         // in an ad-hoc multi user chat (which support roles)
@@ -163,6 +166,17 @@ public void addContact(ChatContact<?> chatContact)
         memberListModel.addElement(chatContact);
     }
 
+    /**
+     * Adds the given <tt>ChatContact</tt>s to the list of chat contacts at
+     * once.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to add
+     */
+    public void addContacts(Collection<ChatContact<?>> chatContacts)
+    {
+        memberListModel.addElements(chatContacts);
+    }
+
     /**
      * Removes the given <tt>ChatContact</tt> from the list of chat contacts.
      *
@@ -59,6 +59,15 @@
      */
     private final ChatSessionRenderer sessionRenderer;
 
+    /**
+     * The <tt>ChatRoomMemberPresenceChangeEvent</tt>s which are yet to be
+     * shown, in the order in which they were received. They are shown
+     * together on the event dispatch thread, so that a room reporting
+     * thousands of members doesn't queue a task for each of them.
+     */
+    private final List<ChatRoomMemberPresenceChangeEvent> pendingPresenceEvents
+        = new ArrayList<ChatRoomMemberPresenceChangeEvent>();
+
     /**
      * Creates an instance of <tt>ConferenceChatSession</tt>, by specifying the
      * sessionRenderer to be used for communication with the UI and the chatRoom
@@ -398,22 +407,103 @@ public ChatSessionRenderer getChatSessionRenderer()
      * @param evt the <tt>ChatRoomMemberPresenceChangeEvent</tt> that notified
      * us
      */
-    public void memberPresenceChanged(
-        final ChatRoomMemberPresenceChangeEvent evt)
+    public void memberPresenceChanged(ChatRoomMemberPresenceChangeEvent evt)
     {
-        if(!SwingUtilities.isEventDispatchThread())
+        synchronized (pendingPresenceEvents)
+        {
+            pendingPresenceEvents.add(evt);
+
+            // The events already pending are to be shown first.
+            if (pendingPresenceEvents.size() > 1)
+                return;
+        }
+
+        if(SwingUtilities.isEventDispatchThread())
+            processPendingPresenceEvents();
+        else
         {
             SwingUtilities.invokeLater(new Runnable()
             {
                 @Override
                 public void run()
                 {
-                    memberPresenceChanged(evt);
+                    processPendingPresenceEvents();
                 }
             });
-            return;
         }
+    }
+
+    /**
+     * Shows the pending <tt>ChatRoomMemberPresenceChangeEvent</tt>s. The
+     * members reported as part of the list of members of the chat room are
+     * added to the chat window at once, rather than one after the other.
+     */
+    private void processPendingPresenceEvents()
+    {
+        List<ChatRoomMemberPresenceChangeEvent> events;
+
+        synchronized (pendingPresenceEvents)
+        {
+            events
+                = new ArrayList<ChatRoomMemberPresenceChangeEvent>(
+                        pendingPresenceEvents);
+            pendingPresenceEvents.clear();
+        }
+
+        ChatRoom room = chatRoomWrapper.getChatRoom();
+        List<ChatContact<?>> userList = new ArrayList<ChatContact<?>>();
+        Set<ChatContact<?>> participants = null;
 
+        for (ChatRoomMemberPresenceChangeEvent evt : events)
+        {
+            if (!evt.isReasonUserList()
+                    || !ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED.equals(
+                            evt.getEventType())
+                    || !evt.getSource().equals(room))
+            {
+                if (!userList.isEmpty())
+                {
+                    sessionRenderer.addChatContacts(userList);
+                    userList.clear();
+                }
+                processMemberPresenceChange(evt);
+                // The chat participants may have changed.
+                participants = null;
+                continue;
+            }
+
+            ChatRoomMember chatRoomMember = evt.getChatRoomMember();
+            ConferenceChatContact chatContact
+                = new ConferenceChatContact(chatRoomMember);
+
+            synchronized (chatParticipants)
+            {
+                if (participants == null)
+                {
+                    participants
+                        = new HashSet<ChatContact<?>>(chatParticipants);
+                }
+                if (participants.add(chatContact))
+                    chatParticipants.add(chatContact);
+            }
+            // The renderer doesn't add duplicates.
+            userList.add(chatContact);
+
+            room.updatePrivateContactPresenceStatus(chatRoomMember.getName());
+        }
+
+        if (!userList.isEmpty())
+            sessionRenderer.addChatContacts(userList);
+    }
+
+    /**
+     * Shows a <tt>ChatRoomMemberPresenceChangeEvent</tt> in the chat window.
+     *
+     * @param evt the <tt>ChatRoomMemberPresenceChangeEvent</tt> to show
+     */
+    private void processMemberPresenceChange(
+        ChatRoomMemberPresenceChangeEvent evt)
+    {
         ChatRoom sourceChatRoom = (ChatRoom) evt.getSource();
 
         if(!sourceChatRoom.equals(chatRoomWrapper.getChatRoom()))
@@ -576,8 +666,8 @@ public void loadChatRoom(ChatRoom chatRoom)
                 ConferenceChatContact contact =
                     new ConferenceChatContact(member);
                 chatParticipants.add(contact);
-                sessionRenderer.addChatContact(contact);
             }
+            sessionRenderer.addChatContacts(chatParticipants);
         }
 
         // Add all listeners to the new chat room.
@@ -588,8 +588,9 @@ && isMobile((MetaContact)contact.getDescriptor()))
                 avatarHeight = AVATAR_HEIGHT;
             }
 
+            // the list is repainted when the avatar is loaded
             Icon avatar
-                = contact.getScaledAvatar(
+                = contact.getScaledAvatarLater(
                         isSelected,
                         avatarWidth, avatarHeight);
 
@@ -23,6 +23,7 @@
 
 import javax.swing.*;
 
+import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -409,7 +410,32 @@ public ImageIcon getScaledAvatar(boolean isSelected, int width, int height)
             && (avatarIcon.getIconWidth() > width
                 || avatarIcon.getIconHeight() > height))
         {
-            avatarIcon = ImageUtils.getScaledRoundedIcon(
+            return AvatarCache.getInstance().getScaledRoundedIcon(
+                avatarIcon.getImage(), width, height);
+        }
+        return avatarIcon;
+    }
+
+    /**
+     * Gets the avatar of a specific <tt>UIContact</tt> in the form of an
+     * <tt>ImageIcon</tt> value, or a transparent placeholder if it is being
+     * loaded in the background.
+     *
+     * @param isSelected indicates if the contact is selected
+     * @param width the desired icon width
+     * @param height the desired icon height
+     * @return an <tt>ImageIcon</tt> which represents the avatar of the
+     * specified <tt>MetaContact</tt>
+     */
+    @Override
+    public ImageIcon getScaledAvatarLater(
+        boolean isSelected, int width, int height)
+    {
+        if (avatarIcon != null
+            && (avatarIcon.getIconWidth() > width
+                || avatarIcon.getIconHeight() > height))
+        {
+            return AvatarCache.getInstance().getScaledRoundedIconLater(
                 avatarIcon.getImage(), width, height);
         }
         return avatarIcon;
@@ -152,6 +152,25 @@ public ImageIcon getScaledAvatar(boolean isSelected, int width, int height)
         return null;
     }
 
+    /**
+     * Returns the avatar of this <tt>UIContact</tt>, or a transparent
+     * placeholder if it is being loaded in the background.
+     *
+     * @param isSelected indicates if the avatar is selected
+     * @param width avatar preferred width
+     * @param height avatar preferred height
+     */
+    @Override
+    public ImageIcon getScaledAvatarLater(
+        boolean isSelected, int width, int height)
+    {
+        if (sourceUIContact instanceof UIContactImpl)
+            return ((UIContactImpl) sourceUIContact)
+                .getScaledAvatarLater(isSelected, width, height);
+
+        return null;
+    }
+
     /**
      * Returns the status icon of this contact.
      *
@@ -227,6 +227,9 @@ public TreeContactList(ContactListContainer clContainer)
         this.initKeyActions();
 
         this.initContactSources();
+
+        // repaint the avatars decoded in the background
+        AvatarCache.getInstance().addRepaintComponent(this);
     }
 
     /**
@@ -77,6 +77,24 @@
     public abstract ImageIcon getScaledAvatar(
         boolean isSelected, int width, int height);
 
+    /**
+     * Gets the avatar of a specific <tt>UIContact</tt> in the form of an
+     * <tt>ImageIcon</tt> value, or a transparent placeholder if the avatar
+     * is being loaded in the background. Only the components registered
+     * with the <tt>AvatarCache</tt> are repainted when it is ready.
+     *
+     * @param isSelected indicates if the contact is selected
+     * @param width the desired icon width
+     * @param height the desired icon height
+     * @return an <tt>ImageIcon</tt> which represents the avatar of the
+     * specified <tt>MetaContact</tt>
+     */
+    public ImageIcon getScaledAvatarLater(
+        boolean isSelected, int width, int height)
+    {
+        return getScaledAvatar(isSelected, width, height);
+    }
+
     /**
      * Gets the avatar of a specific <tt>UIContact</tt> in the form of an
      * <tt>ImageIcon</tt> value.
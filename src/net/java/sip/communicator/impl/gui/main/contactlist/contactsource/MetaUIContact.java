@@ -44,13 +44,6 @@
 public class MetaUIContact
     extends UIContactImpl
 {
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = MetaUIContact.class.getName() + ".avatar";
-
     /**
      * A list of all search strings available for the underlying
      * <tt>MetaContact</tt>.
@@ -333,6 +326,41 @@ public byte[] getAvatar()
     public ImageIcon getScaledAvatar(
         boolean isSelected, int width, int height)
     {
+        return getScaledAvatar(width, height, false);
+    }
+
+    /**
+     * Gets the avatar of a specific <tt>MetaContact</tt> in the form of an
+     * <tt>ImageIcon</tt> value, or a transparent placeholder if it is being
+     * loaded in the background.
+     *
+     * @param isSelected indicates if the contact is selected
+     * @param width the desired icon width
+     * @param height the desired icon height
+     * @return an <tt>ImageIcon</tt> which represents the avatar of the
+     * specified <tt>MetaContact</tt>
+     */
+    @Override
+    public ImageIcon getScaledAvatarLater(
+        boolean isSelected, int width, int height)
+    {
+        return getScaledAvatar(width, height, true);
+    }
+
+    /**
+     * Gets the avatar of a specific <tt>MetaContact</tt> in the form of an
+     * <tt>ImageIcon</tt> value.
+     *
+     * @param width the desired icon width
+     * @param height the desired icon height
+     * @param later whether a placeholder is returned if the avatar is being
+     * loaded in the background
+     * @return an <tt>ImageIcon</tt> which represents the avatar of the
+     * specified <tt>MetaContact</tt>
+     */
+    private ImageIcon getScaledAvatar(int width, int height, boolean later)
+    {
+        AvatarCache avatarCache = AvatarCache.getInstance();
         byte[] avatarBytes = metaContact.getAvatar(true);
 
         // If there's no avatar we have nothing more to do here.
@@ -340,48 +368,24 @@ public ImageIcon getScaledAvatar(
         {
             if (!subscribed)
             {
-                return ImageUtils.getScaledRoundedIcon(
-                    ImageLoader.getImage(ImageLoader.UNAUTHORIZED_CONTACT_PHOTO),
-                    width, height);
+                java.awt.Image image
+                    = ImageLoader.getImage(
+                            ImageLoader.UNAUTHORIZED_CONTACT_PHOTO);
+
+                return later
+                    ? avatarCache.getScaledRoundedIconLater(
+                            image, width, height)
+                    : avatarCache.getScaledRoundedIcon(image, width, height);
             }
 
             return null;
         }
 
-        // If the cell is selected we return a zoomed version of the avatar
-        // image.
-        if (isSelected)
-            return ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-
-        // In any other case try to get the avatar from the cache.
-        Object[] avatarCache
-            = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        ImageIcon avatar = null;
-
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
-
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if (avatar == null)
-        {
-            avatar = ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-        }
-
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
-
-        return avatar;
+        // The selected cell shows a zoomed version of the avatar image,
+        // which is cached by size as well.
+        return later
+            ? avatarCache.getScaledRoundedIconLater(avatarBytes, width, height)
+            : avatarCache.getScaledRoundedIcon(avatarBytes, width, height);
     }
 
     /**
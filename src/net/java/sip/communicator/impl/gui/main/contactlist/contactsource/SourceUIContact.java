@@ -182,23 +182,25 @@ public byte[] getAvatar()
     @Override
     public ImageIcon getScaledAvatar(boolean isSelected, int width, int height)
     {
-        byte[] image = sourceContact.getImage();
-
-        if ((image != null) && (image.length > 0))
-        {
-            ImageIcon icon = new ImageIcon(image);
+        return AvatarCache.getInstance().getScaledRoundedIcon(
+            sourceContact.getImage(), width, height);
+    }
 
-            if (icon.getIconWidth() > width || icon.getIconHeight() > height)
-            {
-                icon
-                    = ImageUtils.getScaledRoundedIcon(
-                            icon.getImage(),
-                            width, height);
-            }
-            return icon;
-        }
-        else
-            return null;
+    /**
+     * Returns the image corresponding to the underlying <tt>SourceContact</tt>,
+     * or a transparent placeholder if it is being loaded in the background.
+     * @param isSelected indicates if the contact is currently selected in the
+     * contact list component
+     * @param width the desired image width
+     * @param height the desired image height
+     * @return the image
+     */
+    @Override
+    public ImageIcon getScaledAvatarLater(
+        boolean isSelected, int width, int height)
+    {
+        return AvatarCache.getInstance().getScaledRoundedIconLater(
+            sourceContact.getImage(), width, height);
     }
 
     /**
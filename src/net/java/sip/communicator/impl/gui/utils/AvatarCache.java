@@ -0,0 +1,567 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.swing.*;
+
+import net.java.sip.communicator.plugin.desktoputil.*;
+import net.java.sip.communicator.util.Logger;
+
+/**
+ * The scaled rounded avatars shown in the contact list, the chat room member
+ * lists and the chat windows, shared by all of them.
+ * <p>
+ * The avatars are cached by the hash of the image bytes (or by image for
+ * the already decoded images) and by size, so that the contacts sharing an
+ * avatar, or which get the same avatar again, share the scaled icon. The
+ * cache holds at most {@link #MAX_CACHE_SIZE} bytes of pixels and forgets
+ * the least recently used avatars first.
+ * <p>
+ * The cell renderers ask for the avatars with the <tt>Later</tt> methods:
+ * the avatars which are not cached are decoded and scaled on a background
+ * thread, a transparent placeholder is returned meanwhile and the
+ * components registered with {@link #addRepaintComponent(Component)} are
+ * repainted when they are ready.
+ */
+public class AvatarCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AvatarCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(AvatarCache.class);
+
+    /**
+     * The maximum number of bytes of pixels of the cached avatars.
+     */
+    static final long MAX_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The number of threads decoding and scaling the avatars.
+     */
+    private static final int LOADER_THREADS = 2;
+
+    /**
+     * The cache shared by the user interface.
+     */
+    private static final AvatarCache instance
+        = new AvatarCache(MAX_CACHE_SIZE);
+
+    /**
+     * Cached in place of the avatars which could not be decoded.
+     */
+    private static final ImageIcon NO_AVATAR = new ImageIcon();
+
+    /**
+     * Decodes and scales an avatar.
+     */
+    private static abstract class Loader
+    {
+        /**
+         * Decodes and scales the avatar.
+         *
+         * @param width the maximum width of the scaled avatar
+         * @param height the maximum height of the scaled avatar
+         * @return the scaled avatar or <tt>null</tt> if it cannot be decoded
+         */
+        abstract ImageIcon load(int width, int height);
+    }
+
+    /**
+     * The maximum number of bytes of pixels of the cached avatars.
+     */
+    private final long maxSize;
+
+    /**
+     * The scaled avatars, in the order of their last use. An avatar which
+     * could not be decoded is remembered as {@link #NO_AVATAR}, so that it
+     * is not decoded again and again.
+     */
+    private final LinkedHashMap<String, ImageIcon> icons
+        = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+
+    /**
+     * The number of bytes of pixels of the cached avatars.
+     */
+    private long size = 0;
+
+    /**
+     * The keys of the avatars being loaded in the background.
+     */
+    private final Set<String> loading = new HashSet<String>();
+
+    /**
+     * The content hashes of the avatar bytes, by byte array, so that an
+     * avatar is only hashed once. Arrays are compared by identity, and are
+     * not kept by this map.
+     */
+    private final Map<byte[], String> contentKeys
+        = new WeakHashMap<byte[], String>();
+
+    /**
+     * The keys of the decoded images, by image.
+     */
+    private final Map<Image, String> imageKeys
+        = new WeakHashMap<Image, String>();
+
+    /**
+     * The number of images given a key.
+     */
+    private long imageCount = 0;
+
+    /**
+     * The transparent placeholders, by size.
+     */
+    private final Map<Dimension, ImageIcon> placeholders
+        = new HashMap<Dimension, ImageIcon>();
+
+    /**
+     * The components repainted when avatars are loaded.
+     */
+    private final Map<Component, Object> repaintComponents
+        = new WeakHashMap<Component, Object>();
+
+    /**
+     * Whether a repaint of the components is scheduled.
+     */
+    private final AtomicBoolean repaintPending = new AtomicBoolean();
+
+    /**
+     * Decodes and scales the avatars in the background.
+     */
+    private final ExecutorService loaderPool;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum number of bytes of pixels of the cached
+     * avatars
+     */
+    AvatarCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        loaderPool = Executors.newFixedThreadPool(
+            LOADER_THREADS,
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(
+                        r, "AvatarCache-" + threadCount.incrementAndGet());
+
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Returns the cache shared by the user interface.
+     *
+     * @return the cache
+     */
+    public static AvatarCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns a rounded avatar scaled within a size, decoding and scaling it
+     * on the calling thread if it is not cached.
+     *
+     * @param imageBytes the bytes of the avatar image
+     * @param width the maximum width of the scaled avatar
+     * @param height the maximum height of the scaled avatar
+     * @return the scaled avatar or <tt>null</tt> if there is none
+     */
+    public ImageIcon getScaledRoundedIcon(
+            byte[] imageBytes, int width, int height)
+    {
+        if (imageBytes == null || imageBytes.length == 0)
+            return null;
+
+        return get(
+            getContentKey(imageBytes), newLoader(imageBytes),
+            width, height, false);
+    }
+
+    /**
+     * Returns a rounded avatar scaled within a size, or a transparent
+     * placeholder of that size if it is not cached and is being loaded in
+     * the background. The avatar is loaded on the calling thread if it is
+     * not the event dispatch thread.
+     *
+     * @param imageBytes the bytes of the avatar image
+     * @param width the maximum width of the scaled avatar
+     * @param height the maximum height of the scaled avatar
+     * @return the scaled avatar, a placeholder or <tt>null</tt> if there is
+     * none
+     */
+    public ImageIcon getScaledRoundedIconLater(
+            byte[] imageBytes, int width, int height)
+    {
+        if (imageBytes == null || imageBytes.length == 0)
+            return null;
+
+        return get(
+            getContentKey(imageBytes), newLoader(imageBytes),
+            width, height, SwingUtilities.isEventDispatchThread());
+    }
+
+    /**
+     * Returns a rounded image scaled within a size, scaling it on the
+     * calling thread if it is not cached.
+     *
+     * @param image the image
+     * @param width the maximum width of the scaled image
+     * @param height the maximum height of the scaled image
+     * @return the scaled image or <tt>null</tt> if there is none
+     */
+    public ImageIcon getScaledRoundedIcon(Image image, int width, int height)
+    {
+        if (image == null)
+            return null;
+
+        return get(getImageKey(image), newLoader(image), width, height, false);
+    }
+
+    /**
+     * Returns a rounded image scaled within a size, or a transparent
+     * placeholder of that size if it is not cached and is being scaled in
+     * the background. The image is scaled on the calling thread if it is
+     * not the event dispatch thread.
+     *
+     * @param image the image
+     * @param width the maximum width of the scaled image
+     * @param height the maximum height of the scaled image
+     * @return the scaled image, a placeholder or <tt>null</tt> if there is
+     * none
+     */
+    public ImageIcon getScaledRoundedIconLater(
+            Image image, int width, int height)
+    {
+        if (image == null)
+            return null;
+
+        return get(
+            getImageKey(image), newLoader(image),
+            width, height, SwingUtilities.isEventDispatchThread());
+    }
+
+    /**
+     * Registers a component to be repainted when the avatars loaded in the
+     * background are ready. The component is not kept from being garbage
+     * collected.
+     *
+     * @param component the component
+     */
+    public synchronized void addRepaintComponent(Component component)
+    {
+        repaintComponents.put(component, null);
+    }
+
+    /**
+     * Returns a loader decoding avatar bytes.
+     *
+     * @param imageBytes the bytes of the avatar image
+     * @return the loader
+     */
+    private static Loader newLoader(final byte[] imageBytes)
+    {
+        return new Loader()
+        {
+            @Override
+            ImageIcon load(int width, int height)
+            {
+                return ImageUtils.getScaledRoundedIcon(
+                    imageBytes, width, height);
+            }
+        };
+    }
+
+    /**
+     * Returns a loader scaling an image.
+     *
+     * @param image the image
+     * @return the loader
+     */
+    private static Loader newLoader(final Image image)
+    {
+        return new Loader()
+        {
+            @Override
+            ImageIcon load(int width, int height)
+            {
+                return ImageUtils.getScaledRoundedIcon(image, width, height);
+            }
+        };
+    }
+
+    /**
+     * Returns the key of an image, which is its identity as its content is
+     * not known.
+     *
+     * @param image the image
+     * @return the key
+     */
+    private synchronized String getImageKey(Image image)
+    {
+        String key = imageKeys.get(image);
+        if (key == null)
+        {
+            key = "image:" + (++imageCount);
+            imageKeys.put(image, key);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the content of avatar bytes, which is their hash.
+     *
+     * @param imageBytes the bytes of the avatar image
+     * @return the key
+     */
+    String getContentKey(byte[] imageBytes)
+    {
+        synchronized (this)
+        {
+            String key = contentKeys.get(imageBytes);
+            if (key != null)
+                return key;
+        }
+
+        String key;
+        try
+        {
+            byte[] digest
+                = MessageDigest.getInstance("SHA-1").digest(imageBytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            key = hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform has SHA-1
+            key = Integer.toHexString(Arrays.hashCode(imageBytes))
+                + ":" + imageBytes.length;
+        }
+
+        synchronized (this)
+        {
+            contentKeys.put(imageBytes, key);
+        }
+        return key;
+    }
+
+    /**
+     * Returns a cached avatar or loads it.
+     *
+     * @param contentKey the key of the avatar content
+     * @param loader decodes and scales the avatar
+     * @param width the maximum width of the scaled avatar
+     * @param height the maximum height of the scaled avatar
+     * @param later whether the avatar is loaded in the background if it is
+     * not cached
+     * @return the scaled avatar, a placeholder or <tt>null</tt>
+     */
+    private ImageIcon get(
+            String contentKey, final Loader loader,
+            final int width, final int height,
+            boolean later)
+    {
+        final String key = contentKey + ' ' + width + 'x' + height;
+
+        synchronized (this)
+        {
+            ImageIcon icon = icons.get(key);
+
+            if (icon != null)
+                return (icon == NO_AVATAR) ? null : icon;
+
+            if (later)
+            {
+                if (loading.add(key))
+                {
+                    loaderPool.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                ImageIcon icon = load(loader, width, height);
+
+                                put(key, (icon == null) ? NO_AVATAR : icon);
+                            }
+                            finally
+                            {
+                                synchronized (AvatarCache.this)
+                                {
+                                    loading.remove(key);
+                                }
+                            }
+                            scheduleRepaint();
+                        }
+                    });
+                }
+                return getPlaceholder(width, height);
+            }
+        }
+
+        ImageIcon icon = load(loader, width, height);
+
+        put(key, (icon == null) ? NO_AVATAR : icon);
+        return icon;
+    }
+
+    /**
+     * Decodes and scales an avatar.
+     *
+     * @param loader decodes and scales the avatar
+     * @param width the maximum width of the scaled avatar
+     * @param height the maximum height of the scaled avatar
+     * @return the scaled avatar or <tt>null</tt> if it cannot be decoded
+     */
+    private static ImageIcon load(Loader loader, int width, int height)
+    {
+        try
+        {
+            return loader.load(width, height);
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Failed to load avatar", e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches a scaled avatar and forgets the least recently used avatars
+     * until the cache is within its size.
+     *
+     * @param key the key of the avatar
+     * @param icon the scaled avatar or {@link #NO_AVATAR} if it could not
+     * be decoded
+     */
+    private synchronized void put(String key, ImageIcon icon)
+    {
+        ImageIcon previous = icons.put(key, icon);
+
+        if (previous != null)
+            size -= getSize(previous);
+        size += getSize(icon);
+
+        Iterator<ImageIcon> iter = icons.values().iterator();
+        while (size > maxSize && iter.hasNext())
+        {
+            ImageIcon eldest = iter.next();
+
+            // keep the one just added
+            if (eldest == icon)
+                break;
+            iter.remove();
+            size -= getSize(eldest);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the pixels of an avatar.
+     *
+     * @param icon the avatar
+     * @return the number of bytes
+     */
+    private static long getSize(ImageIcon icon)
+    {
+        return 4L * Math.max(icon.getIconWidth(), 1)
+            * Math.max(icon.getIconHeight(), 1);
+    }
+
+    /**
+     * Returns the number of bytes of the pixels of the cached avatars.
+     *
+     * @return the number of bytes
+     */
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns a transparent icon of a size.
+     *
+     * @param width the width of the icon
+     * @param height the height of the icon
+     * @return the icon
+     */
+    private synchronized ImageIcon getPlaceholder(int width, int height)
+    {
+        Dimension dimension = new Dimension(width, height);
+        ImageIcon placeholder = placeholders.get(dimension);
+
+        if (placeholder == null)
+        {
+            placeholder = new ImageIcon(
+                new BufferedImage(
+                    Math.max(width, 1), Math.max(height, 1),
+                    BufferedImage.TYPE_INT_ARGB));
+            placeholders.put(dimension, placeholder);
+        }
+        return placeholder;
+    }
+
+    /**
+     * Repaints the registered components on the event dispatch thread, once
+     * for all the avatars loaded meanwhile.
+     */
+    private void scheduleRepaint()
+    {
+        if (!repaintPending.compareAndSet(false, true))
+            return;
+
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                repaintPending.set(false);
+
+                java.util.List<Component> components;
+                synchronized (AvatarCache.this)
+                {
+                    components = new ArrayList<Component>(
+                        repaintComponents.keySet());
+                }
+                for (Component component : components)
+                    component.repaint();
+            }
+        });
+    }
+}
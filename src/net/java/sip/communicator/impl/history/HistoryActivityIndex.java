@@ -0,0 +1,529 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the time of the last record written to every history, so the
+ * histories can be listed from the most recently written one without
+ * walking the directories of the histories.
+ * <p>
+ * The times are kept in a file in the history directory, to which a line is
+ * appended for every change: the time followed by the IDs of the history,
+ * or a minus sign followed by the IDs of the removed histories. The last
+ * line of a history wins, and the file is written again without the
+ * replaced lines when they outnumber the histories. A history which was
+ * created but has no records yet is kept with the time 0, so it is listed
+ * after the others. When the file is missing or does not start with
+ * {@link #HEADER}, the times are taken once from the modification times of
+ * the history files.
+ */
+class HistoryActivityIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryActivityIndex.class);
+
+    /**
+     * The name of the file keeping the times, in the history directory.
+     */
+    static final String FILE_NAME = "activity.idx";
+
+    /**
+     * The first line of the file, which marks its format.
+     */
+    private static final String HEADER = "#history-activity 1";
+
+    /**
+     * The encoding of the file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The first token of the lines removing histories.
+     */
+    private static final String REMOVED = "-";
+
+    /**
+     * The number of lines the file may have besides one for every history
+     * before it is written again.
+     */
+    private static final int COMPACT_MIN_LINES = 256;
+
+    /**
+     * The directory of the histories.
+     */
+    private final File directory;
+
+    /**
+     * The file keeping the times.
+     */
+    private final File file;
+
+    /**
+     * The time of the last record written to every history.
+     */
+    private final Map<HistoryID, Long> lastActivity
+        = new HashMap<HistoryID, Long>();
+
+    /**
+     * The number of lines of the file.
+     */
+    private int lineCount = 0;
+
+    /**
+     * Whether the times have been loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Creates the index of the histories in a directory. Nothing is read
+     * before the index is used.
+     *
+     * @param directory the directory of the histories
+     */
+    HistoryActivityIndex(File directory)
+    {
+        this.directory = directory;
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Deletes the file of the index of the histories in a directory, so that
+     * it is built again the next time it is used.
+     *
+     * @param directory the directory of the histories
+     */
+    static void delete(File directory)
+    {
+        File file = new File(directory, FILE_NAME);
+
+        if (file.exists() && !file.delete())
+            logger.error("Failed to delete " + file);
+    }
+
+    /**
+     * Records that a history was created, so that it is listed even before
+     * a record is written to it.
+     *
+     * @param id the history
+     */
+    synchronized void recordCreated(HistoryID id)
+    {
+        recordWritten(id, 0);
+    }
+
+    /**
+     * Records that a record was written to a history.
+     *
+     * @param id the history
+     * @param time the time of the record
+     */
+    synchronized void recordWritten(HistoryID id, long time)
+    {
+        load();
+
+        // the ID array of a history may be escaped in place later
+        id = HistoryID.createFromRawStrings(id.getID());
+
+        Long lastTime = lastActivity.get(id);
+        if (lastTime != null && lastTime >= time)
+            return;
+
+        lastActivity.put(id, time);
+        append(formatLine(Long.toString(time), id.getID()));
+    }
+
+    /**
+     * Forgets a history and the histories which IDs start with its ID.
+     *
+     * @param ids the ID of the removed history
+     */
+    synchronized void remove(String[] ids)
+    {
+        load();
+
+        if (removeFromMemory(ids).isEmpty())
+            return;
+
+        append(formatLine(REMOVED, ids));
+    }
+
+    /**
+     * Moves the times of a history and of the histories which IDs start with
+     * its ID to the histories with the new ID.
+     *
+     * @param oldIDs the old ID of the history
+     * @param newIDs the new ID of the history
+     */
+    synchronized void move(String[] oldIDs, String[] newIDs)
+    {
+        load();
+
+        Map<HistoryID, Long> moved = removeFromMemory(oldIDs);
+        if (moved.isEmpty())
+            return;
+
+        StringBuilder lines = new StringBuilder();
+        lines.append(formatLine(REMOVED, oldIDs));
+
+        for (Map.Entry<HistoryID, Long> e : moved.entrySet())
+        {
+            String[] ids = e.getKey().getID();
+            String[] movedIDs
+                = new String[newIDs.length + ids.length - oldIDs.length];
+
+            System.arraycopy(newIDs, 0, movedIDs, 0, newIDs.length);
+            System.arraycopy(ids, oldIDs.length, movedIDs, newIDs.length,
+                ids.length - oldIDs.length);
+
+            HistoryID movedID = HistoryID.createFromRawStrings(movedIDs);
+            Long time = e.getValue();
+            Long lastTime = lastActivity.get(movedID);
+
+            if (lastTime != null && lastTime >= time)
+                continue;
+
+            lastActivity.put(movedID, time);
+            lines.append(formatLine(time.toString(), movedIDs));
+        }
+
+        append(lines.toString());
+    }
+
+    /**
+     * Returns the histories which IDs start with <tt>ids</tt>, from the most
+     * recently written one.
+     *
+     * @param ids the start of the IDs of the histories
+     * @return the histories
+     */
+    synchronized List<HistoryID> getHistories(String[] ids)
+    {
+        load();
+
+        List<Map.Entry<HistoryID, Long>> entries
+            = new ArrayList<Map.Entry<HistoryID, Long>>();
+        for (Map.Entry<HistoryID, Long> e : lastActivity.entrySet())
+        {
+            if (isSubHistory(ids, e.getKey().getID()))
+                entries.add(e);
+        }
+
+        Collections.sort(entries, new Comparator<Map.Entry<HistoryID, Long>>()
+        {
+            public int compare(Map.Entry<HistoryID, Long> e1,
+                               Map.Entry<HistoryID, Long> e2)
+            {
+                int c = e2.getValue().compareTo(e1.getValue());
+
+                return (c != 0)
+                    ? c
+                    : e1.getKey().toString().compareTo(e2.getKey().toString());
+            }
+        });
+
+        List<HistoryID> result = new ArrayList<HistoryID>(entries.size());
+        for (Map.Entry<HistoryID, Long> e : entries)
+            result.add(e.getKey());
+        return result;
+    }
+
+    /**
+     * Reads the file, or takes the times from the history files when it is
+     * missing or can't be read.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        if (file.exists())
+        {
+            try
+            {
+                if (readFile())
+                {
+                    if (lineCount > lastActivity.size() + COMPACT_MIN_LINES)
+                        store();
+                    return;
+                }
+                logger.info("Building " + file + " again");
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to read " + file, e);
+            }
+            lastActivity.clear();
+            lineCount = 0;
+        }
+
+        if (directory.isDirectory())
+            scan(directory, new ArrayList<String>());
+        store();
+    }
+
+    /**
+     * Reads the lines of the file.
+     *
+     * @return <tt>false</tt> if the file is not in the format of the index
+     * and must be built again
+     * @throws IOException if the file can't be read
+     */
+    private boolean readFile()
+        throws IOException
+    {
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), ENCODING));
+        try
+        {
+            String line = in.readLine();
+            if (!HEADER.equals(line))
+                return false;
+            lineCount++;
+
+            while ((line = in.readLine()) != null)
+            {
+                lineCount++;
+
+                String[] tokens = line.split("\t");
+                if (tokens.length < 2)
+                    continue;
+
+                String[] ids = new String[tokens.length - 1];
+                System.arraycopy(tokens, 1, ids, 0, ids.length);
+
+                if (REMOVED.equals(tokens[0]))
+                {
+                    removeFromMemory(ids);
+                    continue;
+                }
+
+                try
+                {
+                    lastActivity.put(
+                        HistoryID.createFromRawStrings(ids),
+                        Long.parseLong(tokens[0]));
+                }
+                catch (NumberFormatException e)
+                {
+                    // a line cut while being written
+                    logger.warn("Ignoring a bad line in " + file);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Takes the times of the histories under a directory from the
+     * modification times of their files.
+     *
+     * @param dir the directory
+     * @param ids the IDs of the directory
+     */
+    private void scan(File dir, List<String> ids)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        long lastModified = -1;
+        for (File f : files)
+        {
+            if (f.isDirectory())
+            {
+                List<String> subIDs = new ArrayList<String>(ids);
+                subIDs.add(f.getName());
+
+                scan(f, subIDs);
+            }
+            else if (f.getName().endsWith(HistoryImpl.SUPPORTED_FILETYPE))
+            {
+                lastModified = Math.max(lastModified, f.lastModified());
+            }
+            else if (f.getName().equals(HistoryServiceImpl.DATA_FILE))
+            {
+                // a created history, which may have no records yet
+                lastModified = Math.max(lastModified, 0);
+            }
+        }
+
+        if (lastModified != -1 && !ids.isEmpty())
+        {
+            lastActivity.put(
+                HistoryID.createFromRawStrings(
+                    ids.toArray(new String[ids.size()])),
+                lastModified);
+        }
+    }
+
+    /**
+     * Writes the file with a line for every history.
+     */
+    private void store()
+    {
+        StringBuilder lines = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<HistoryID, Long> e : lastActivity.entrySet())
+        {
+            lines.append(
+                formatLine(e.getValue().toString(), e.getKey().getID()));
+        }
+
+        File tmpFile = new File(directory, FILE_NAME + ".tmp");
+        try
+        {
+            if (!directory.exists() && !directory.mkdirs())
+                throw new IOException("Failed to create " + directory);
+
+            write(tmpFile, lines.toString(), false);
+            if (!tmpFile.renameTo(file))
+            {
+                file.delete();
+                if (!tmpFile.renameTo(file))
+                    throw new IOException("Failed to rename " + tmpFile);
+            }
+            lineCount = lastActivity.size() + 1;
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write " + file, e);
+        }
+    }
+
+    /**
+     * Appends lines to the file.
+     *
+     * @param lines the lines
+     */
+    private void append(String lines)
+    {
+        try
+        {
+            write(file, lines, true);
+            for (int i = 0; i < lines.length(); i++)
+            {
+                if (lines.charAt(i) == '\n')
+                    lineCount++;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write " + file, e);
+        }
+
+        if (lineCount > 2 * lastActivity.size() + COMPACT_MIN_LINES)
+            store();
+    }
+
+    /**
+     * Removes a history and the histories which IDs start with its ID from
+     * memory.
+     *
+     * @param ids the ID of the history
+     * @return the times of the removed histories
+     */
+    private Map<HistoryID, Long> removeFromMemory(String[] ids)
+    {
+        Map<HistoryID, Long> removed = new HashMap<HistoryID, Long>();
+
+        Iterator<Map.Entry<HistoryID, Long>> iter
+            = lastActivity.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry<HistoryID, Long> e = iter.next();
+
+            if (isSubHistory(ids, e.getKey().getID()))
+            {
+                removed.put(e.getKey(), e.getValue());
+                iter.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether the ID of a history starts with <tt>parentIDs</tt>.
+     *
+     * @param parentIDs the start of the ID
+     * @param ids the ID of the history
+     * @return <tt>true</tt> if <tt>ids</tt> starts with <tt>parentIDs</tt>
+     */
+    private static boolean isSubHistory(String[] parentIDs, String[] ids)
+    {
+        if (ids.length < parentIDs.length)
+            return false;
+
+        for (int i = 0; i < parentIDs.length; i++)
+        {
+            if (!parentIDs[i].equals(ids[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Formats a line of the file.
+     *
+     * @param first the time or the removal mark
+     * @param ids the ID of the history
+     * @return the line with its terminator
+     */
+    private static String formatLine(String first, String[] ids)
+    {
+        StringBuilder line = new StringBuilder(first);
+        for (String id : ids)
+            line.append('\t').append(id);
+        return line.append('\n').toString();
+    }
+
+    /**
+     * Writes a string to a file.
+     *
+     * @param f the file
+     * @param s the string
+     * @param append whether to append to the file
+     * @throws IOException if writing fails
+     */
+    private static void write(File f, String s, boolean append)
+        throws IOException
+    {
+        Writer out
+            = new OutputStreamWriter(new FileOutputStream(f, append), ENCODING);
+        try
+        {
+            out.write(s);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Keeps the parsed documents of recently read history files of all the
+ * histories. The size of a document is measured by the size of its file and
+ * when the total size exceeds the limit the least recently used documents are
+ * dropped.
+ */
+class HistoryDocumentCache
+{
+    /**
+     * The maximum total size of the files of the cached documents.
+     */
+    private final long maxSize;
+
+    /**
+     * The total size of the files of the cached documents.
+     */
+    private long size = 0;
+
+    /**
+     * The cached documents by their files, in access order.
+     */
+    private final LinkedHashMap<File, Entry> documents
+        = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum total size in bytes of the files of the
+     * cached documents
+     */
+    HistoryDocumentCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached document of <tt>file</tt>.
+     *
+     * @param file the history file
+     * @return the document or <tt>null</tt> if it is not cached
+     */
+    synchronized Document get(File file)
+    {
+        Entry entry = documents.get(file);
+
+        return (entry == null) ? null : entry.document;
+    }
+
+    /**
+     * Caches the document of <tt>file</tt>, which must be the same as the
+     * content of the file.
+     *
+     * @param file the history file
+     * @param document its document
+     */
+    synchronized void put(File file, Document document)
+    {
+        Entry entry = new Entry(document, file.length());
+        Entry previous = documents.put(file, entry);
+
+        if (previous != null)
+            size -= previous.size;
+        size += entry.size;
+
+        Iterator<Entry> iter = documents.values().iterator();
+        while (size > maxSize && iter.hasNext())
+        {
+            Entry eldest = iter.next();
+
+            // the document just added stays even if it is too big alone
+            if (eldest == entry)
+                break;
+
+            size -= eldest.size;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Called when <tt>document</tt> was written to <tt>file</tt>. If another
+     * document of the file is cached it is replaced, as it may not be the
+     * same as the content of the file anymore.
+     *
+     * @param file the history file
+     * @param document the written document
+     */
+    synchronized void written(File file, Document document)
+    {
+        if (documents.containsKey(file))
+            put(file, document);
+    }
+
+    /**
+     * Drops the documents of the files in <tt>directory</tt> and its
+     * subdirectories.
+     *
+     * @param directory the directory of one or more histories
+     */
+    synchronized void removeAll(File directory)
+    {
+        String path = directory.getAbsolutePath() + File.separator;
+        Iterator<Map.Entry<File, Entry>> iter
+            = documents.entrySet().iterator();
+
+        while (iter.hasNext())
+        {
+            Map.Entry<File, Entry> entry = iter.next();
+
+            if (entry.getKey().getAbsolutePath().startsWith(path))
+            {
+                size -= entry.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all cached documents.
+     */
+    synchronized void clear()
+    {
+        documents.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the total size of the files of the cached documents.
+     *
+     * @return the size in bytes
+     */
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * A cached document and the size of its file when it was cached.
+     */
+    private static class Entry
+    {
+        /**
+         * The document.
+         */
+        private final Document document;
+
+        /**
+         * The size of the file.
+         */
+        private final long size;
+
+        /**
+         * Creates an entry.
+         *
+         * @param document the document
+         * @param size the size of its file
+         */
+        private Entry(Document document, long size)
+        {
+            this.document = document;
+            this.size = size;
+        }
+    }
+}
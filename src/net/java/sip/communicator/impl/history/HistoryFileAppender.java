@@ -0,0 +1,217 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Appends serialized <tt>record</tt> elements to the end of an existing
+ * history file. The history files keep their XML format, the new records are
+ * written in place of the closing <tt>history</tt> tag which is then written
+ * again after them. This way storing a record costs the same no matter how
+ * many records the file already holds and the file stays readable by the
+ * DOM based readers and by older versions.
+ */
+class HistoryFileAppender
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryFileAppender.class);
+
+    /**
+     * The encoding of the history files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The closing tag of the root element of the history files.
+     */
+    private static final byte[] ROOT_END_TAG;
+
+    /**
+     * The maximum number of bytes at the end of a file we check for the
+     * closing tag of the root element.
+     */
+    private static final int TAIL_SCAN_LENGTH = 256;
+
+    static
+    {
+        try
+        {
+            ROOT_END_TAG = "</history>".getBytes(ENCODING);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The transformer used to serialize the record elements. Not thread safe,
+     * access is synchronized.
+     */
+    private final Transformer transformer;
+
+    /**
+     * Creates a <tt>HistoryFileAppender</tt>.
+     *
+     * @throws TransformerConfigurationException if no transformer can be
+     * created
+     */
+    HistoryFileAppender()
+        throws TransformerConfigurationException
+    {
+        transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, ENCODING);
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    }
+
+    /**
+     * Appends the given records at the end of <tt>file</tt>.
+     *
+     * @param file the history file to append to
+     * @param records the record elements to append
+     * @return the positions in the file where each of the records starts
+     * followed by the position where the last one ends, or <tt>null</tt> if
+     * the file does not exist or does not end with the closing tag of the
+     * history element, in which case the caller should write the whole
+     * document instead
+     * @throws IOException if writing to the file fails
+     */
+    synchronized long[] append(File file, List<Element> records)
+        throws IOException
+    {
+        if (!file.isFile())
+            return null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            long rootEndPos = findRootEndTag(raf);
+
+            if (rootEndPos < 0)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Cannot append to " + file
+                        + ", closing tag not found");
+                return null;
+            }
+
+            long[] offsets = new long[records.size() + 1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < records.size(); i++)
+            {
+                offsets[i] = rootEndPos + out.size();
+                serialize(records.get(i), out);
+            }
+            offsets[records.size()] = rootEndPos + out.size();
+            out.write(ROOT_END_TAG);
+            out.write('\n');
+
+            raf.seek(rootEndPos);
+            raf.write(out.toByteArray());
+            raf.setLength(raf.getFilePointer());
+
+            return offsets;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Serializes a single record element, making sure it ends with a new
+     * line.
+     *
+     * @param record the element to serialize
+     * @param out the stream to write to
+     * @throws IOException if the element cannot be serialized
+     */
+    private void serialize(Element record, OutputStream out)
+        throws IOException
+    {
+        ByteArrayOutputStream recordOut = new ByteArrayOutputStream();
+
+        try
+        {
+            transformer.transform(
+                new DOMSource(record), new StreamResult(recordOut));
+        }
+        catch (TransformerException e)
+        {
+            IOException ioe = new IOException("Cannot serialize record");
+
+            ioe.initCause(e);
+            throw ioe;
+        }
+
+        byte[] bytes = recordOut.toByteArray();
+
+        out.write(bytes);
+        if (bytes.length == 0 || bytes[bytes.length - 1] != '\n')
+            out.write('\n');
+    }
+
+    /**
+     * Finds the position of the closing tag of the history element, which
+     * must be followed only by white space.
+     *
+     * @param raf the file to search
+     * @return the position of the closing tag or -1 if not found
+     * @throws IOException if reading the file fails
+     */
+    private static long findRootEndTag(RandomAccessFile raf)
+        throws IOException
+    {
+        long length = raf.length();
+        int tailLength = (int) Math.min(length, TAIL_SCAN_LENGTH);
+        byte[] tail = new byte[tailLength];
+
+        raf.seek(length - tailLength);
+        raf.readFully(tail);
+
+        int end = tailLength;
+        while (end > 0 && Character.isWhitespace(tail[end - 1]))
+            end--;
+
+        int start = end - ROOT_END_TAG.length;
+        if (start < 0)
+            return -1;
+
+        for (int i = 0; i < ROOT_END_TAG.length; i++)
+        {
+            if (tail[start + i] != ROOT_END_TAG[i])
+                return -1;
+        }
+
+        return length - tailLength + start;
+    }
+}
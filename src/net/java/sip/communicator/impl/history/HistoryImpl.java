@@ -62,6 +62,18 @@
     private SortedMap<String, Object> historyDocuments
         = new TreeMap<String, Object>();
 
+    /**
+     * The keyword indexes of this history by the name of the indexed field.
+     */
+    private final Map<String, HistoryKeywordIndex> keywordIndexes
+        = new HashMap<String, HistoryKeywordIndex>();
+
+    /**
+     * The timestamps and positions of the records in the files of this
+     * history.
+     */
+    private final HistoryTimestampIndex timestampIndex;
+
     /**
      * Creates an instance of <tt>HistoryImpl</tt> by specifying the history
      * identifier, the directory, the <tt>HistoryRecordStructure</tt> to use
@@ -89,6 +101,7 @@ protected HistoryImpl(HistoryID id, File directory,
             this.directory = directory;
             this.historyServiceImpl = historyServiceImpl;
             this.historyRecordStructure = historyRecordStructure;
+            this.timestampIndex = new HistoryTimestampIndex(directory);
             this.reader = null;
             this.writer = null;
 
@@ -161,7 +174,7 @@ public InteractiveHistoryReader getInteractiveReader()
         return interactiveReader;
     }
 
-    public HistoryWriter getWriter()
+    public synchronized HistoryWriter getWriter()
     {
         if (writer == null)
             writer = new HistoryWriterImpl(this);
@@ -173,6 +186,31 @@ protected HistoryServiceImpl getHistoryServiceImpl()
         return this.historyServiceImpl;
     }
 
+    /**
+     * Writes the records which were added to this history but are not written
+     * yet. Called before reading the files of the history from the disk.
+     */
+    protected void flushWriter()
+    {
+        HistoryWriter writer;
+        synchronized (this)
+        {
+            writer = this.writer;
+        }
+
+        if (writer == null)
+            return;
+
+        try
+        {
+            writer.flush();
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to write the pending records of " + id, e);
+        }
+    }
+
     void reloadDocumentList()
     {
         synchronized (this.historyDocuments)
@@ -193,8 +231,271 @@ void reloadDocumentList()
                     {
                         this.historyDocuments.put(filename, files[i]);
                     }
+                    else
+                    {
+                        String field
+                            = HistoryKeywordIndex.getIndexedField(filename);
+
+                        if (field != null)
+                            getKeywordIndex(field, true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keyword index for the field <tt>field</tt>.
+     *
+     * @param field the name of the indexed field
+     * @param create whether to create the index if it does not exist
+     * @return the index or <tt>null</tt> if it does not exist and
+     * <tt>create</tt> is <tt>false</tt>
+     */
+    private HistoryKeywordIndex getKeywordIndex(String field, boolean create)
+    {
+        synchronized (this.keywordIndexes)
+        {
+            HistoryKeywordIndex index = this.keywordIndexes.get(field);
+
+            if (index == null && create)
+            {
+                index = new HistoryKeywordIndex(this.directory, field);
+                this.keywordIndexes.put(field, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Returns all the keyword indexes of this history.
+     * @return the keyword indexes
+     */
+    private List<HistoryKeywordIndex> getKeywordIndexes()
+    {
+        synchronized (this.keywordIndexes)
+        {
+            return new ArrayList<HistoryKeywordIndex>(
+                this.keywordIndexes.values());
+        }
+    }
+
+    /**
+     * Drops a keyword index which can no longer be kept up to date.
+     *
+     * @param index the index to drop
+     * @param e the cause
+     */
+    private void dropKeywordIndex(HistoryKeywordIndex index, IOException e)
+    {
+        log.error("Failed to update keyword index of " + this.directory
+            + " dropping it", e);
+
+        synchronized (this.keywordIndexes)
+        {
+            this.keywordIndexes.remove(index.getField());
+        }
+        index.delete();
+    }
+
+    /**
+     * Finds the records which may contain all the <tt>keywords</tt> in the
+     * field <tt>field</tt> using the keyword index for the field.
+     *
+     * @param keywords the keywords we search for
+     * @param field the field to search in
+     * @return the positions of the records which may match for every file
+     * which is known to the index, the other files must be searched as a
+     * whole, or <tt>null</tt> if the index can't be used
+     */
+    protected Map<String, BitSet> findKeywordCandidates(
+        String[] keywords, String field)
+    {
+        if (keywords == null || keywords.length == 0 || field == null)
+            return null;
+
+        HistoryKeywordIndex index = getKeywordIndex(field, false);
+        if (index == null)
+            return null;
+
+        Map<String, BitSet> candidates = index.findCandidates(keywords);
+
+        // the last file is still being appended to and is never indexed
+        if (candidates != null)
+        {
+            synchronized (this.historyDocuments)
+            {
+                if (!this.historyDocuments.isEmpty())
+                    candidates.remove(this.historyDocuments.lastKey());
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Adds the records of a file which was searched as a whole to the keyword
+     * index for <tt>field</tt>, creating the index if needed. The last file
+     * is skipped as it still gets new records, as well as the files the
+     * index already knows.
+     *
+     * @param filename the name of the searched file
+     * @param doc the content of the file
+     * @param field the searched field
+     */
+    protected void indexSearchedFile(
+        String filename, Document doc, String field)
+    {
+        if (!isIndexable(filename, field))
+            return;
+
+        HistoryKeywordIndex index = getKeywordIndex(field, true);
+        try
+        {
+            synchronized (doc)
+            {
+                index.reindex(filename, doc);
+            }
+        }
+        catch (IOException e)
+        {
+            dropKeywordIndex(index, e);
+        }
+    }
+
+    /**
+     * Adds the records of a file which was searched as a whole to the keyword
+     * index for <tt>field</tt>, like
+     * {@link #indexSearchedFile(String, Document, String)} does, when the
+     * file was read without building its document.
+     *
+     * @param filename the name of the searched file
+     * @param fieldValues the values of the field of all the records in the
+     * file, <tt>null</tt> for the records without it
+     * @param field the searched field
+     */
+    protected void indexSearchedFile(
+        String filename, List<String> fieldValues, String field)
+    {
+        if (!isIndexable(filename, field))
+            return;
+
+        HistoryKeywordIndex index = getKeywordIndex(field, true);
+        try
+        {
+            index.reindex(filename, fieldValues);
+        }
+        catch (IOException e)
+        {
+            dropKeywordIndex(index, e);
+        }
+    }
+
+    /**
+     * Checks whether a searched file should be added to the keyword index
+     * for <tt>field</tt>. The last file is skipped as it still gets new
+     * records, as well as the files the index already knows.
+     *
+     * @param filename the name of the searched file
+     * @param field the searched field
+     * @return <tt>true</tt> if the file should be indexed
+     */
+    private boolean isIndexable(String filename, String field)
+    {
+        synchronized (this.historyDocuments)
+        {
+            if (this.historyDocuments.isEmpty()
+                || filename.equals(this.historyDocuments.lastKey()))
+                return false;
+        }
+
+        HistoryKeywordIndex index = getKeywordIndex(field, false);
+
+        return index == null || !index.isComplete(filename);
+    }
+
+    /**
+     * Marks the file as not indexed in all keyword indexes. Must be called
+     * before the file is rewritten with changes in existing records.
+     *
+     * @param filename the name of the file which will change
+     */
+    protected void invalidateKeywordIndexes(String filename)
+    {
+        for (HistoryKeywordIndex index : getKeywordIndexes())
+        {
+            try
+            {
+                index.invalidate(filename);
+            }
+            catch (IOException e)
+            {
+                dropKeywordIndex(index, e);
+            }
+        }
+    }
+
+    /**
+     * Indexes again all the records of the file in all keyword indexes.
+     *
+     * @param filename the name of the file
+     * @param doc the current content of the file
+     */
+    protected void reindexKeywordIndexes(String filename, Document doc)
+    {
+        for (HistoryKeywordIndex index : getKeywordIndexes())
+        {
+            try
+            {
+                synchronized (doc)
+                {
+                    index.reindex(filename, doc);
+                }
+            }
+            catch (IOException e)
+            {
+                dropKeywordIndex(index, e);
+            }
+        }
+    }
+
+    /**
+     * Builds the keyword index for the field <tt>field</tt> from scratch
+     * out of all the files of this history.
+     *
+     * @param field the field to index
+     */
+    protected void rebuildKeywordIndex(String field)
+    {
+        HistoryKeywordIndex index = getKeywordIndex(field, true);
+        index.delete();
+
+        List<String> files;
+        synchronized (this.historyDocuments)
+        {
+            files = new ArrayList<String>(this.historyDocuments.keySet());
+        }
+
+        for (String filename : files)
+        {
+            Document doc = getDocumentForFile(filename);
+
+            if (doc == null)
+                continue;
+
+            try
+            {
+                synchronized (doc)
+                {
+                    index.reindex(filename, doc);
                 }
             }
+            catch (IOException e)
+            {
+                dropKeywordIndex(index, e);
+                return;
+            }
         }
     }
 
@@ -219,8 +520,9 @@ protected Document createDocument(String filename)
         return retVal;
     }
 
-    protected void writeFile(String filename) throws InvalidParameterException,
-            IOException {
+    protected void writeFile(String filename, Document doc)
+        throws InvalidParameterException, IOException
+    {
         File file = new File(this.directory, filename);
 
         synchronized (this.historyDocuments)
@@ -231,21 +533,30 @@ protected void writeFile(String filename) throws InvalidParameterException,
                         + "filename does not exist in the document list.");
             }
 
-            Object obj = this.historyDocuments.get(filename);
-
-            if (obj instanceof Document)
+            synchronized (doc)
             {
-                Document doc = (Document) obj;
-
-                synchronized (doc)
-                {
-                    XMLUtils.writeXML(doc, file);
-                }
+                timestampIndex.invalidate(filename);
+                XMLUtils.writeXML(doc, file);
+                documentWritten(file, doc);
             }
         }
     }
 
-    protected void writeFile(String filename, Document doc)
+    /**
+     * Appends the given records, which are already added to <tt>doc</tt>, at
+     * the end of the file corresponding to <tt>filename</tt>. Only the new
+     * records are written, if the file cannot be appended to, the whole
+     * document is written.
+     *
+     * @param filename the name of the file to append to
+     * @param doc the document the records belong to
+     * @param records the new records
+     * @throws InvalidParameterException if the file is not in the document
+     * list
+     * @throws IOException if writing fails
+     */
+    protected void appendRecords(String filename, Document doc,
+                                 List<Element> records)
         throws InvalidParameterException, IOException
     {
         File file = new File(this.directory, filename);
@@ -260,11 +571,317 @@ protected void writeFile(String filename, Document doc)
 
             synchronized (doc)
             {
-                XMLUtils.writeXML(doc, file);
+                long previousLength = file.length();
+                long previousLastModified = file.lastModified();
+                long[] offsets
+                    = historyServiceImpl.getFileAppender().append(file, records);
+
+                documentWritten(file, doc);
+
+                if (offsets == null)
+                {
+                    timestampIndex.invalidate(filename);
+                    XMLUtils.writeXML(doc, file);
+                    return;
+                }
+
+                long[] timestamps = new long[records.size()];
+                try
+                {
+                    for (int i = 0; i < timestamps.length; i++)
+                    {
+                        timestamps[i] = timestampIndex.parseTimestamp(
+                            records.get(i).getAttribute("timestamp"));
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    timestampIndex.invalidate(filename);
+                    return;
+                }
+
+                timestampIndex.recordsAppended(filename, previousLength,
+                    previousLastModified, timestamps, offsets);
+            }
+        }
+    }
+
+    /**
+     * Keeps the document cache in sync with a written document.
+     *
+     * @param file the written file
+     * @param doc the document written to it
+     */
+    private void documentWritten(File file, Document doc)
+    {
+        HistoryDocumentCache cache = historyServiceImpl.getDocumentCache();
+
+        if (cache != null)
+            cache.written(file, doc);
+    }
+
+    /**
+     * Returns the document of <tt>filename</tt> if it is in memory, either
+     * because it was created and is being written or because it is cached.
+     * Must be called with the <tt>historyDocuments</tt> lock held.
+     *
+     * @param filename the name of the history file
+     * @return the document or <tt>null</tt>
+     */
+    private Document getLoadedDocument(String filename)
+    {
+        Object obj = this.historyDocuments.get(filename);
+
+        if (obj instanceof Document)
+            return (Document) obj;
+
+        HistoryDocumentCache cache = historyServiceImpl.getDocumentCache();
+
+        return (cache == null)
+            ? null
+            : cache.get(new File(this.directory, filename));
+    }
+
+    /**
+     * Stops keeping in memory the document of the file <tt>filename</tt>
+     * which was created by {@link #createDocument(String)}. Called when no
+     * more records are added to the file, the document may stay in the
+     * cache of recently read documents.
+     *
+     * @param filename the name of the history file
+     */
+    protected void releaseDocument(String filename)
+    {
+        synchronized (this.historyDocuments)
+        {
+            Object obj = this.historyDocuments.get(filename);
+
+            if (!(obj instanceof Document))
+                return;
+
+            File file = new File(this.directory, filename);
+
+            // the document is not released until its file exists
+            if (!file.isFile())
+                return;
+
+            this.historyDocuments.put(filename, file);
+
+            HistoryDocumentCache cache
+                = historyServiceImpl.getDocumentCache();
+            if (cache != null)
+            {
+                synchronized (obj)
+                {
+                    cache.put(file, (Document) obj);
+                }
             }
         }
     }
 
+    /**
+     * Reads the records of the file <tt>filename</tt> which match the
+     * criteria of <tt>recordReader</tt>. If the document of the file is in
+     * memory it is used, otherwise the file is read with a pull parser
+     * without building its document.
+     *
+     * @param filename the name of the history file
+     * @param recordReader the criteria of the records
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are considered
+     * @param field if not <tt>null</tt> and the file is not known to the
+     * keyword index for this field, it is added to the index
+     * @return the matching records in the order they are in the file or
+     * <tt>null</tt> if the file can't be read
+     */
+    protected List<HistoryRecord> readRecords(String filename,
+                                              HistoryRecordReader recordReader,
+                                              BitSet candidates,
+                                              String field)
+    {
+        Document doc;
+        byte[] content = null;
+
+        synchronized (this.historyDocuments)
+        {
+            if (!this.historyDocuments.containsKey(filename))
+                return null;
+
+            doc = getLoadedDocument(filename);
+
+            if (doc == null)
+            {
+                // read under the lock so no record is appended meanwhile
+                File file = new File(this.directory, filename);
+                try
+                {
+                    content = new byte[(int) file.length()];
+
+                    DataInputStream in
+                        = new DataInputStream(new FileInputStream(file));
+                    try
+                    {
+                        in.readFully(content);
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.error("Failed to read " + file, e);
+                    content = null;
+                }
+            }
+        }
+
+        if (content != null)
+        {
+            List<String> fieldValues = null;
+
+            if (field != null && isIndexable(filename, field))
+                fieldValues = new ArrayList<String>();
+
+            try
+            {
+                List<HistoryRecord> records = recordReader.read(
+                    new ByteArrayInputStream(content), candidates,
+                    fieldValues);
+
+                if (fieldValues != null)
+                    indexSearchedFile(filename, fieldValues, field);
+
+                return records;
+            }
+            catch (Exception e)
+            {
+                // the document of a broken file may still be fixed
+                log.error("Failed to read " + filename
+                    + ", will load its document", e);
+            }
+
+            doc = getDocumentForFile(filename);
+            if (doc == null)
+                return null;
+        }
+
+        if (field != null)
+            indexSearchedFile(filename, doc, field);
+
+        synchronized (doc)
+        {
+            return recordReader.read(doc, candidates);
+        }
+    }
+
+    /**
+     * Returns the timestamps and positions of the records in the file
+     * <tt>filename</tt>. The records of files with cached documents may not
+     * be written yet, for them and in case of an error <tt>null</tt> is
+     * returned and the caller should use the document instead.
+     *
+     * @param filename the name of the history file
+     * @return the timestamps and positions of the records or <tt>null</tt>
+     */
+    protected HistoryTimestampIndex.Segment getTimestampSegment(
+        String filename)
+    {
+        synchronized (this.historyDocuments)
+        {
+            if (!(this.historyDocuments.get(filename) instanceof File)
+                || getLoadedDocument(filename) != null)
+                return null;
+
+            try
+            {
+                return timestampIndex.getSegment(filename);
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to index file " + filename, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads and parses only the records at <tt>positions</tt> of the file
+     * <tt>filename</tt>, using the positions of their bytes in the file from
+     * <tt>segment</tt>.
+     *
+     * @param filename the name of the history file
+     * @param segment the timestamps and positions of the records in the file
+     * @param positions the positions of the records to load, in ascending
+     * order
+     * @return the record elements in the order of <tt>positions</tt> or
+     * <tt>null</tt> if they can't be read, in which case the caller should
+     * use the document instead
+     */
+    protected List<Element> loadRecords(String filename,
+                                        HistoryTimestampIndex.Segment segment,
+                                        List<Integer> positions)
+    {
+        List<Element> result = new ArrayList<Element>(positions.size());
+
+        if (positions.isEmpty())
+            return result;
+
+        int first = positions.get(0);
+        int last = positions.get(positions.size() - 1);
+        int start = segment.getOffset(first);
+        int length
+            = segment.getOffset(last) + segment.getLength(last) - start;
+        byte[] bytes = new byte[length];
+
+        synchronized (this.historyDocuments)
+        {
+            try
+            {
+                RandomAccessFile raf = new RandomAccessFile(
+                    new File(this.directory, filename), "r");
+                try
+                {
+                    raf.seek(start);
+                    raf.readFully(bytes);
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to read records from " + filename, e);
+                return null;
+            }
+        }
+
+        try
+        {
+            for (int position : positions)
+            {
+                Element record = this.historyServiceImpl.parse(
+                    new ByteArrayInputStream(bytes,
+                        segment.getOffset(position) - start,
+                        segment.getLength(position)))
+                    .getDocumentElement();
+
+                if (!"record".equals(record.getTagName()))
+                    return null;
+
+                result.add(record);
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Failed to parse records from " + filename, e);
+            return null;
+        }
+
+        return result;
+    }
+
     protected Iterator<String> getFileList()
     {
         return this.historyDocuments.keySet().iterator();
@@ -283,10 +900,11 @@ protected Document getDocumentForFile(String filename)
             }
 
             Object obj = this.historyDocuments.get(filename);
-            if (obj instanceof Document)
+            Document loaded = getLoadedDocument(filename);
+            if (loaded != null)
             {
                 // Document already loaded. Use it directly
-                retVal = (Document) obj;
+                retVal = loaded;
             } else if (obj instanceof File)
             {
                 File file = (File) obj;
@@ -309,8 +927,10 @@ protected Document getDocumentForFile(String filename)
                 }
 
                 // Cache the loaded document for reuse if configured
-                if(historyServiceImpl.isCacheEnabled())
-                    this.historyDocuments.put(filename, retVal);
+                HistoryDocumentCache cache
+                    = historyServiceImpl.getDocumentCache();
+                if(cache != null)
+                    cache.put(file, retVal);
             } else {
                 // TODO: Assert: Assert.fail("Internal error - the data type " +
                 // "should be either Document or File.");
@@ -371,6 +991,7 @@ public Document getFixedDocument(File file)
 
             // parsing is ok . lets overwrite with correct values
             log.trace("File fixed will write to disk!");
+            timestampIndex.invalidate(file.getName());
             XMLUtils.writeXML(result, file);
 
             return result;
@@ -0,0 +1,807 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.apache.commons.lang3.*;
+import org.w3c.dom.*;
+
+/**
+ * An inverted index of the words found in one field of the records of a
+ * history. For every word it keeps the history files and the positions of
+ * the records in them containing the word, so keyword searches only need to
+ * parse the files and check the records which can possibly match.
+ * <p>
+ * The index is stored next to the history files as a journal which is only
+ * appended to:
+ * <ul>
+ * <li><tt>- file</tt> drops everything known about a file;</li>
+ * <li><tt>+ file position word word ...</tt> adds the words of a record;</li>
+ * <li><tt>= file</tt> marks that all records of a file were added.</li>
+ * </ul>
+ * Only files marked as complete are trusted when searching, all the others
+ * must be searched record by record. The journal is compacted when it is
+ * loaded and most of its entries are obsolete.
+ */
+class HistoryKeywordIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryKeywordIndex.class);
+
+    /**
+     * The suffix of the index files, the name of the indexed field is
+     * prepended to it.
+     */
+    static final String FILE_SUFFIX = ".kwidx";
+
+    /**
+     * The encoding of the index files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Starts a journal entry dropping a file from the index.
+     */
+    private static final char FILE_INVALIDATED = '-';
+
+    /**
+     * Starts a journal entry with the words of a record.
+     */
+    private static final char RECORD_ADDED = '+';
+
+    /**
+     * Starts a journal entry marking a file as completely indexed.
+     */
+    private static final char FILE_COMPLETED = '=';
+
+    /**
+     * The number of obsolete journal entries we tolerate before compacting.
+     */
+    private static final int MIN_OBSOLETE_ENTRIES_TO_COMPACT = 1000;
+
+    /**
+     * The journal file of this index.
+     */
+    private final File file;
+
+    /**
+     * The name of the indexed field.
+     */
+    private final String field;
+
+    /**
+     * The loaded index, the memory is given back if needed and the index is
+     * loaded again on the next search.
+     */
+    private SoftReference<IndexData> data = null;
+
+    /**
+     * Creates the index for the field <tt>field</tt> of the history in
+     * <tt>directory</tt>.
+     *
+     * @param directory the directory of the history
+     * @param field the name of the indexed field
+     */
+    HistoryKeywordIndex(File directory, String field)
+    {
+        this.file = new File(directory, field + FILE_SUFFIX);
+        this.field = field;
+    }
+
+    /**
+     * Returns the name of the indexed field.
+     * @return the name of the indexed field
+     */
+    String getField()
+    {
+        return field;
+    }
+
+    /**
+     * Returns the name of the field indexed in the file with name
+     * <tt>filename</tt> or <tt>null</tt> if it is not an index file.
+     *
+     * @param filename the name of the file
+     * @return the name of the indexed field or <tt>null</tt>
+     */
+    static String getIndexedField(String filename)
+    {
+        if (filename.endsWith(FILE_SUFFIX)
+            && filename.length() > FILE_SUFFIX.length())
+        {
+            return filename.substring(
+                0, filename.length() - FILE_SUFFIX.length());
+        }
+
+        return null;
+    }
+
+    /**
+     * Drops everything known about the history file <tt>filename</tt>. Called
+     * before the file is rewritten so a failure in between leaves the file
+     * not trusted by the index.
+     *
+     * @param filename the name of the history file
+     * @throws IOException if writing the journal fails
+     */
+    synchronized void invalidate(String filename)
+        throws IOException
+    {
+        Writer out = openJournal();
+        try
+        {
+            out.write(FILE_INVALIDATED + " " + filename + "\n");
+        }
+        finally
+        {
+            out.close();
+        }
+
+        IndexData indexData = getLoadedData();
+        if (indexData != null)
+            indexData.invalidate(filename);
+    }
+
+    /**
+     * Indexes all the records of the history file <tt>filename</tt> replacing
+     * anything known about the file before.
+     *
+     * @param filename the name of the history file
+     * @param doc the parsed content of the file
+     * @throws IOException if writing the journal fails
+     */
+    synchronized void reindex(String filename, Document doc)
+        throws IOException
+    {
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<Set<String>> recordWords
+            = new ArrayList<Set<String>>(nodes.getLength());
+
+        for (int i = 0; i < nodes.getLength(); i++)
+            recordWords.add(getWords((Element) nodes.item(i)));
+
+        writeRecords(filename, recordWords);
+    }
+
+    /**
+     * Indexes all the records of the history file <tt>filename</tt> replacing
+     * anything known about the file before.
+     *
+     * @param filename the name of the history file
+     * @param fieldValues the unescaped values of the indexed field of all the
+     * records in the file, <tt>null</tt> for the records without it
+     * @throws IOException if writing the journal fails
+     */
+    synchronized void reindex(String filename, List<String> fieldValues)
+        throws IOException
+    {
+        List<Set<String>> recordWords
+            = new ArrayList<Set<String>>(fieldValues.size());
+
+        for (String fieldValue : fieldValues)
+        {
+            Set<String> words = new LinkedHashSet<String>();
+
+            if (fieldValue != null)
+                words.addAll(tokenize(fieldValue));
+            recordWords.add(words);
+        }
+
+        writeRecords(filename, recordWords);
+    }
+
+    /**
+     * Writes the words of all the records of the history file
+     * <tt>filename</tt> to the journal and to the loaded index.
+     *
+     * @param filename the name of the history file
+     * @param recordWords the words of every record in the file
+     * @throws IOException if writing the journal fails
+     */
+    private void writeRecords(String filename,
+                              List<Set<String>> recordWords)
+        throws IOException
+    {
+        IndexData indexData = getLoadedData();
+
+        Writer out = openJournal();
+        try
+        {
+            out.write(FILE_INVALIDATED + " " + filename + "\n");
+            if (indexData != null)
+                indexData.invalidate(filename);
+
+            for (int i = 0; i < recordWords.size(); i++)
+            {
+                Set<String> words = recordWords.get(i);
+
+                if (words.isEmpty())
+                    continue;
+
+                StringBuilder entry = new StringBuilder();
+                entry.append(RECORD_ADDED).append(' ').append(filename)
+                    .append(' ').append(i);
+                for (String word : words)
+                    entry.append(' ').append(word);
+                entry.append('\n');
+                out.write(entry.toString());
+
+                if (indexData != null)
+                    indexData.add(filename, i, words);
+            }
+
+            out.write(FILE_COMPLETED + " " + filename + "\n");
+            if (indexData != null)
+                indexData.complete(filename);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks whether all the records of the history file <tt>filename</tt>
+     * are in the index.
+     *
+     * @param filename the name of the history file
+     * @return <tt>true</tt> if the file is completely indexed
+     */
+    synchronized boolean isComplete(String filename)
+    {
+        return load().completeFiles.contains(filename);
+    }
+
+    /**
+     * Finds the records which may contain all the <tt>keywords</tt>.
+     *
+     * @param keywords the keywords we search for
+     * @return the positions of the records which may match for every history
+     * file which is completely indexed (an empty set for the files which
+     * can't match), the files missing in the result are not known to the
+     * index and must be searched as a whole. Returns <tt>null</tt> if the
+     * keywords contain no words and the index can't be used.
+     */
+    synchronized Map<String, BitSet> findCandidates(String[] keywords)
+    {
+        List<String> keywordWords = new ArrayList<String>();
+        for (String keyword : keywords)
+        {
+            keywordWords.addAll(tokenize(keyword));
+        }
+
+        if (keywordWords.isEmpty())
+            return null;
+
+        IndexData indexData = load();
+        Map<String, BitSet> result = new HashMap<String, BitSet>();
+        for (String completeFile : indexData.completeFiles)
+            result.put(completeFile, new BitSet());
+
+        Map<Integer, BitSet> candidates = null;
+        for (String keywordWord : keywordWords)
+        {
+            Map<Integer, BitSet> matches = indexData.find(keywordWord);
+
+            if (candidates == null)
+            {
+                candidates = matches;
+                continue;
+            }
+
+            Iterator<Map.Entry<Integer, BitSet>> iter
+                = candidates.entrySet().iterator();
+            while (iter.hasNext())
+            {
+                Map.Entry<Integer, BitSet> entry = iter.next();
+                BitSet fileMatches = matches.get(entry.getKey());
+
+                if (fileMatches == null)
+                    iter.remove();
+                else
+                    entry.getValue().and(fileMatches);
+            }
+        }
+
+        for (Map.Entry<Integer, BitSet> entry : candidates.entrySet())
+        {
+            String filename = indexData.getLiveFile(entry.getKey());
+
+            if (filename != null && result.containsKey(filename))
+                result.put(filename, entry.getValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes the index from the disk and from memory.
+     */
+    synchronized void delete()
+    {
+        data = null;
+        if (file.exists() && !file.delete())
+            logger.warn("Failed to delete keyword index " + file);
+    }
+
+    /**
+     * Returns the distinct words in the value of the indexed field of
+     * <tt>record</tt>.
+     *
+     * @param record the record element
+     * @return the words in the indexed field, can be empty
+     */
+    private Set<String> getWords(Element record)
+    {
+        Set<String> words = new LinkedHashSet<String>();
+        NodeList propertyNodes = record.getChildNodes();
+
+        for (int i = 0; i < propertyNodes.getLength(); i++)
+        {
+            Node propertyNode = propertyNodes.item(i);
+
+            if (propertyNode.getNodeType() != Node.ELEMENT_NODE
+                || !field.equals(propertyNode.getNodeName()))
+                continue;
+
+            Node nestedNode = propertyNode.getFirstChild();
+            if (nestedNode == null)
+                continue;
+
+            // the same value as the one checked by the readers
+            words.addAll(tokenize(
+                StringEscapeUtils.unescapeXml(nestedNode.getNodeValue())));
+        }
+
+        return words;
+    }
+
+    /**
+     * Splits <tt>text</tt> into words, the sequences of letters and digits,
+     * in lower case. The case is changed char by char, so a keyword found
+     * in a text, no matter of its case, has all its words contained in words
+     * of the text.
+     *
+     * @param text the text to split
+     * @return the words in <tt>text</tt>
+     */
+    static List<String> tokenize(String text)
+    {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= text.length(); i++)
+        {
+            char c = (i < text.length()) ? text.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c))
+            {
+                word.append(Character.toLowerCase(c));
+            }
+            else if (word.length() > 0)
+            {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Returns the index if it is currently loaded in memory.
+     * @return the loaded index or <tt>null</tt>
+     */
+    private IndexData getLoadedData()
+    {
+        return (data == null) ? null : data.get();
+    }
+
+    /**
+     * Opens the journal for appending.
+     * @return the writer to use
+     * @throws IOException if the journal can't be opened
+     */
+    private Writer openJournal()
+        throws IOException
+    {
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file, true), ENCODING));
+    }
+
+    /**
+     * Returns the index loading it from the journal if needed.
+     * @return the index
+     */
+    private IndexData load()
+    {
+        IndexData indexData = getLoadedData();
+        if (indexData != null)
+            return indexData;
+
+        indexData = new IndexData();
+        int entries = 0;
+
+        if (file.exists())
+        {
+            try
+            {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), ENCODING));
+                try
+                {
+                    String line;
+                    while ((line = in.readLine()) != null)
+                    {
+                        if (indexData.apply(line))
+                            entries++;
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to load keyword index " + file, e);
+                indexData = new IndexData();
+            }
+        }
+
+        int obsolete = entries - indexData.getLiveEntryCount();
+        if (obsolete > MIN_OBSOLETE_ENTRIES_TO_COMPACT && obsolete > entries / 2)
+            indexData = compact(indexData);
+
+        data = new SoftReference<IndexData>(indexData);
+        return indexData;
+    }
+
+    /**
+     * Writes the journal again with only the live entries of
+     * <tt>indexData</tt>.
+     *
+     * @param indexData the loaded index
+     * @return the index as loaded from the compacted journal
+     */
+    private IndexData compact(IndexData indexData)
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        IndexData compacted = new IndexData();
+
+        try
+        {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmpFile), ENCODING));
+            try
+            {
+                for (String line : indexData.getLiveEntries())
+                {
+                    out.write(line);
+                    out.write('\n');
+                    compacted.apply(line);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!file.delete() || !tmpFile.renameTo(file))
+                throw new IOException("Cannot replace " + file);
+
+            return compacted;
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to compact keyword index " + file, e);
+            tmpFile.delete();
+            return indexData;
+        }
+    }
+
+    /**
+     * The in memory form of the index.
+     */
+    private static class IndexData
+    {
+        /**
+         * The history file each id was assigned to. A file gets a new id
+         * every time it is invalidated and the postings of the old id are
+         * ignored from then on.
+         */
+        private final List<String> idFiles = new ArrayList<String>();
+
+        /**
+         * The current id of every file.
+         */
+        private final Map<String, Integer> fileIds
+            = new HashMap<String, Integer>();
+
+        /**
+         * The files which are completely indexed.
+         */
+        private final Set<String> completeFiles = new HashSet<String>();
+
+        /**
+         * The postings of every word: the id of a file in the upper and the
+         * position of the record in the lower 32 bits.
+         */
+        private final Map<String, Postings> postings
+            = new HashMap<String, Postings>();
+
+        /**
+         * The words of <tt>postings</tt> by every suffix they end with, in
+         * the order of the suffixes. The words containing a keyword are
+         * those with a suffix starting with it, so they are found in a
+         * range of the map instead of going through all the words.
+         */
+        private final TreeMap<String, List<String>> suffixes
+            = new TreeMap<String, List<String>>();
+
+        /**
+         * The number of records added under the current id of every file.
+         */
+        private final Map<String, Integer> liveRecords
+            = new HashMap<String, Integer>();
+
+        /**
+         * Applies a line of the journal.
+         *
+         * @param line the journal entry
+         * @return <tt>true</tt> if the line was a valid entry
+         */
+        boolean apply(String line)
+        {
+            String[] parts = line.split(" ");
+
+            if (parts.length < 2 || parts[0].length() != 1)
+                return false;
+
+            switch (parts[0].charAt(0))
+            {
+            case FILE_INVALIDATED:
+                invalidate(parts[1]);
+                return true;
+            case FILE_COMPLETED:
+                complete(parts[1]);
+                return true;
+            case RECORD_ADDED:
+                if (parts.length < 4)
+                    return false;
+
+                int position;
+                try
+                {
+                    position = Integer.parseInt(parts[2]);
+                }
+                catch (NumberFormatException e)
+                {
+                    return false;
+                }
+
+                add(parts[1],
+                    position,
+                    Arrays.asList(parts).subList(3, parts.length));
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        void invalidate(String filename)
+        {
+            completeFiles.remove(filename);
+            if (fileIds.remove(filename) != null)
+                liveRecords.remove(filename);
+        }
+
+        void complete(String filename)
+        {
+            completeFiles.add(filename);
+        }
+
+        void add(String filename, int position, Collection<String> words)
+        {
+            Integer id = fileIds.get(filename);
+            if (id == null)
+            {
+                id = idFiles.size();
+                idFiles.add(filename);
+                fileIds.put(filename, id);
+            }
+
+            Integer count = liveRecords.get(filename);
+            liveRecords.put(filename, (count == null) ? 1 : count + 1);
+
+            long ref = ((long) id << 32) | (position & 0xFFFFFFFFL);
+            for (String word : words)
+            {
+                Postings wordPostings = postings.get(word);
+                if (wordPostings == null)
+                {
+                    wordPostings = new Postings();
+                    postings.put(word, wordPostings);
+                    addSuffixes(word);
+                }
+                wordPostings.add(ref);
+            }
+        }
+
+        /**
+         * Adds a new word under all its suffixes.
+         *
+         * @param word the word
+         */
+        private void addSuffixes(String word)
+        {
+            for (int i = 0; i < word.length(); i++)
+            {
+                String suffix = word.substring(i);
+                List<String> words = suffixes.get(suffix);
+
+                if (words == null)
+                {
+                    words = new ArrayList<String>(1);
+                    suffixes.put(suffix, words);
+                }
+                words.add(word);
+            }
+        }
+
+        /**
+         * Returns the name of the file with id <tt>id</tt> if it is the
+         * current id of the file.
+         *
+         * @param id the id of a file
+         * @return the file name or <tt>null</tt> if the id is obsolete
+         */
+        String getLiveFile(int id)
+        {
+            String filename = idFiles.get(id);
+            Integer currentId = fileIds.get(filename);
+
+            return (currentId != null && currentId == id) ? filename : null;
+        }
+
+        /**
+         * Finds the records with a word containing <tt>keywordWord</tt>.
+         *
+         * @param keywordWord a word of the searched keywords
+         * @return the positions of the matching records for every file id
+         */
+        Map<Integer, BitSet> find(String keywordWord)
+        {
+            Map<Integer, BitSet> result = new HashMap<Integer, BitSet>();
+
+            // keywords match parts of the words as well, the suffixes
+            // starting with the keyword sort before it followed by the
+            // greatest char, which is not a letter or a digit
+            Set<String> words = new HashSet<String>();
+            for (List<String> suffixWords
+                    : suffixes.subMap(
+                            keywordWord, true,
+                            keywordWord + Character.MAX_VALUE, false)
+                        .values())
+            {
+                words.addAll(suffixWords);
+            }
+
+            for (String word : words)
+            {
+                Postings wordPostings = postings.get(word);
+                for (int i = 0; i < wordPostings.size; i++)
+                {
+                    long ref = wordPostings.refs[i];
+                    Integer id = (int) (ref >>> 32);
+                    BitSet positions = result.get(id);
+
+                    if (positions == null)
+                    {
+                        positions = new BitSet();
+                        result.put(id, positions);
+                    }
+                    positions.set((int) ref);
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the number of record entries which are not obsolete.
+         * @return the number of live record entries
+         */
+        int getLiveEntryCount()
+        {
+            int count = 0;
+            for (Integer c : liveRecords.values())
+                count += c;
+            return count;
+        }
+
+        /**
+         * Returns the journal entries describing the live state of the index.
+         * @return the live journal entries
+         */
+        List<String> getLiveEntries()
+        {
+            SortedMap<Long, StringBuilder> records
+                = new TreeMap<Long, StringBuilder>();
+
+            for (Map.Entry<String, Postings> entry : postings.entrySet())
+            {
+                Postings wordPostings = entry.getValue();
+
+                for (int i = 0; i < wordPostings.size; i++)
+                {
+                    long ref = wordPostings.refs[i];
+                    String filename = getLiveFile((int) (ref >>> 32));
+
+                    if (filename == null)
+                        continue;
+
+                    StringBuilder record = records.get(ref);
+                    if (record == null)
+                    {
+                        record = new StringBuilder();
+                        record.append(RECORD_ADDED).append(' ')
+                            .append(filename).append(' ').append((int) ref);
+                        records.put(ref, record);
+                    }
+                    record.append(' ').append(entry.getKey());
+                }
+            }
+
+            List<String> lines = new ArrayList<String>();
+            for (String filename : fileIds.keySet())
+                lines.add(FILE_INVALIDATED + " " + filename);
+            for (StringBuilder record : records.values())
+                lines.add(record.toString());
+            for (String filename : completeFiles)
+                lines.add(FILE_COMPLETED + " " + filename);
+
+            return lines;
+        }
+    }
+
+    /**
+     * A growable list of record references.
+     */
+    private static class Postings
+    {
+        long[] refs = new long[4];
+
+        int size = 0;
+
+        void add(long ref)
+        {
+            if (size == refs.length)
+                refs = Arrays.copyOf(refs, size * 2);
+            refs[size++] = ref;
+        }
+    }
+}
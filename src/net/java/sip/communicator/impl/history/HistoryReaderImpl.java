@@ -198,6 +198,9 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         boolean caseSensitive)
         throws RuntimeException
     {
+        // the records still waiting to be written are read from the disk
+        this.historyImpl.flushWriter();
+
         // the files are supposed to be ordered from oldest to newest
         Vector<String> filelist =
             filterFilesByDate(this.historyImpl.getFileList(), null, null);
@@ -210,36 +213,16 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            List<Node> lNodes = getRecordNodes(filelist.get(currentFile),
+                null, null, null, true, leftCount);
 
-            if(doc == null)
+            if(lNodes == null)
             {
                 currentFile--;
                 continue;
             }
 
-            // will get nodes and construct a List of nodes
-            // so we can easily get sublist of it
-            List<Node> nodes = new ArrayList<Node>();
-            NodeList nodesList = doc.getElementsByTagName("record");
-            for (int i = 0; i < nodesList.getLength(); i++)
-            {
-                nodes.add(nodesList.item(i));
-            }
-
-            List<Node> lNodes = null;
-
-            if (nodes.size() > leftCount)
-            {
-                lNodes = nodes.subList(nodes.size() - leftCount , nodes.size());
-                leftCount = 0;
-            }
-            else
-            {
-                lNodes = nodes;
-                leftCount -= nodes.size();
-            }
+            leftCount -= lNodes.size();
 
             Iterator<Node> i = lNodes.iterator();
             while (i.hasNext())
@@ -349,6 +332,9 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         findFirstRecordsAfter(Date date, int count)
             throws RuntimeException
     {
+        // the records still waiting to be written are read from the disk
+        this.historyImpl.flushWriter();
+
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
@@ -357,26 +343,30 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
 
         int leftCount = count;
         int currentFile = 0;
+        RecordCursor records = null;
 
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile < filelist.size())
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            if(records == null)
+            {
+                records = new RecordCursor(
+                    filelist.get(currentFile), date, null, false);
+            }
+
+            // broken records are skipped, if there are any we continue
+            // with the following records of the same file
+            List<Node> nodes = records.next(leftCount);
 
-            if(doc == null)
+            if(nodes == null || nodes.isEmpty())
             {
                 currentFile++;
+                records = null;
                 continue;
             }
 
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = 0; i < nodes.getLength() && leftCount > 0; i++)
+            for (Node node : nodes)
             {
-                node = nodes.item(i);
-
                 NodeList propertyNodes = node.getChildNodes();
 
                 Date timestamp;
@@ -391,9 +381,6 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
                     timestamp = new Date(Long.parseLong(ts));
                 }
 
-                if(!isInPeriod(timestamp, date, null))
-                    continue;
-
                 ArrayList<String> nameVals = new ArrayList<String>();
 
                 boolean isRecordOK = true;
@@ -434,8 +421,6 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
                 result.add(record);
                 leftCount--;
             }
-
-            currentFile++;
         }
 
         return new OrderedQueryResultSet<HistoryRecord>(result);
@@ -453,6 +438,9 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         findLastRecordsBefore(Date date, int count)
             throws RuntimeException
     {
+        // the records still waiting to be written are read from the disk
+        this.historyImpl.flushWriter();
+
         // the files are supposed to be ordered from oldest to newest
         Vector<String> filelist =
             filterFilesByDate(this.historyImpl.getFileList(), null, date);
@@ -460,27 +448,33 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
         int leftCount = count;
+        RecordCursor records = null;
 
         int currentFile = filelist.size() - 1;
 
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            if(records == null)
+            {
+                records = new RecordCursor(
+                    filelist.get(currentFile), null, date, true);
+            }
 
-            if(doc == null)
+            // broken records are skipped, if there are any we continue
+            // with the preceding records of the same file
+            List<Node> nodes = records.next(leftCount);
+
+            if(nodes == null || nodes.isEmpty())
             {
                 currentFile--;
+                records = null;
                 continue;
             }
 
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = nodes.getLength() - 1; i >= 0 && leftCount > 0; i--)
+            for (int i = nodes.size() - 1; i >= 0; i--)
             {
-                node = nodes.item(i);
+                Node node = nodes.get(i);
                 NodeList propertyNodes = node.getChildNodes();
 
                 Date timestamp;
@@ -495,9 +489,6 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
                     timestamp = new Date(Long.parseLong(ts));
                 }
 
-                if(!isInPeriod(timestamp, null, date))
-                    continue;
-
                 ArrayList<String> nameVals = new ArrayList<String>();
 
                 boolean isRecordOK = true;
@@ -538,8 +529,6 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
                 result.add(record);
                 leftCount--;
             }
-
-            currentFile--;
         }
 
         return new OrderedQueryResultSet<HistoryRecord>(result);
@@ -549,6 +538,28 @@ private QueryResultSet<HistoryRecord> find(
         Date startDate, Date endDate,
         String[] keywords, String field, boolean caseSensitive)
     {
+        // the records still waiting to be written are read from the disk
+        this.historyImpl.flushWriter();
+
+        if(this.historyImpl.getHistoryServiceImpl().isStreamingReaderEnabled())
+        {
+            // the files are read as the result is iterated, the progress of
+            // the query is reported as they are read
+            fireProgressStateChanged(startDate, endDate, keywords,
+                HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
+
+            StreamingFind streamingFind = new StreamingFind(
+                startDate, endDate, keywords, field, caseSensitive);
+
+            if(!streamingFind.hasNext())
+            {
+                fireProgressStateChanged(startDate, endDate, keywords,
+                    HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+            }
+
+            return new LazyQueryResultSet<HistoryRecord>(streamingFind);
+        }
+
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
@@ -570,29 +581,62 @@ private QueryResultSet<HistoryRecord> find(
         fireProgressStateChanged(startDate, endDate,
             keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
 
+        // the records which may contain the keywords in the files known to
+        // the keyword index
+        Map<String, BitSet> candidates
+            = this.historyImpl.findKeywordCandidates(keywords, field);
+
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         Iterator<String> fileIterator = filelist.iterator();
         while (fileIterator.hasNext())
         {
             String filename = fileIterator.next();
+            BitSet fileCandidates
+                = (candidates == null) ? null : candidates.get(filename);
 
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-
-            if(doc == null)
+            if(fileCandidates != null && fileCandidates.isEmpty())
+            {
+                // nothing in this file can match
+                currentProgress += fileProgressStep;
+                fireProgressStateChanged(
+                    startDate, endDate, keywords, (int)currentProgress);
                 continue;
+            }
 
-            NodeList nodes = doc.getElementsByTagName("record");
+            List<Node> nodes;
 
-            double nodesProgressStep = fileProgressStep;
+            if(fileCandidates == null
+                && keywords != null && keywords.length > 0 && field != null)
+            {
+                // the whole file is searched, so add it to the keyword index
+                Document doc = this.historyImpl.getDocumentForFile(filename);
+
+                if(doc == null)
+                    continue;
 
-            if(nodes.getLength() != 0)
-                nodesProgressStep = fileProgressStep / nodes.getLength();
+                this.historyImpl.indexSearchedFile(filename, doc, field);
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+                nodes = getRecordNodes(
+                    doc, startDate, endDate, null, false, 0);
+            }
+            else
             {
-                node = nodes.item(i);
+                nodes = getRecordNodes(
+                    filename, startDate, endDate, fileCandidates, false, 0);
+
+                if(nodes == null)
+                    continue;
+            }
+
+            double nodesProgressStep = fileProgressStep;
 
+            if(nodes.size() != 0)
+                nodesProgressStep = fileProgressStep / nodes.size();
+            else
+                currentProgress += fileProgressStep;
+
+            for (Node node : nodes)
+            {
                 Date timestamp;
                 String ts = node.getAttributes().getNamedItem("timestamp")
                         .getNodeValue();
@@ -605,18 +649,15 @@ private QueryResultSet<HistoryRecord> find(
                     timestamp = new Date(Long.parseLong(ts));
                 }
 
-                if(isInPeriod(timestamp, startDate, endDate))
-                {
-                    NodeList propertyNodes = node.getChildNodes();
+                NodeList propertyNodes = node.getChildNodes();
 
-                    HistoryRecord record =
-                        filterByKeyword(propertyNodes, timestamp,
-                                        keywords, field, caseSensitive);
+                HistoryRecord record =
+                    filterByKeyword(propertyNodes, timestamp,
+                                    keywords, field, caseSensitive);
 
-                    if(record != null)
-                    {
-                        result.add(record);
-                    }
+                if(record != null)
+                {
+                    result.add(record);
                 }
 
                 currentProgress += nodesProgressStep;
@@ -637,6 +678,212 @@ private QueryResultSet<HistoryRecord> find(
         return new OrderedQueryResultSet<HistoryRecord>(result);
     }
 
+    /**
+     * Returns the records of the file <tt>filename</tt> with timestamps in
+     * the given period. When the timestamps of the records in the file are
+     * indexed and only some of the records are needed, only they are read
+     * and parsed, otherwise the document of the file is used.
+     *
+     * @param filename the name of the history file
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are returned
+     * @param fromEnd whether to select the records from the end of the file
+     * @param count the maximum number of records to return, all if zero
+     * @return the record nodes in the order they are in the file or
+     * <tt>null</tt> if the file can't be read
+     */
+    private List<Node> getRecordNodes(String filename,
+                                      Date startDate,
+                                      Date endDate,
+                                      BitSet candidates,
+                                      boolean fromEnd,
+                                      int count)
+    {
+        List<Node> nodes = getIndexedRecordNodes(
+            filename, startDate, endDate, candidates, fromEnd, count);
+
+        if(nodes != null)
+            return nodes;
+
+        Document doc = this.historyImpl.getDocumentForFile(filename);
+
+        if(doc == null)
+            return null;
+
+        return getRecordNodes(
+            doc, startDate, endDate, candidates, fromEnd, count);
+    }
+
+    /**
+     * Returns the records of the file <tt>filename</tt> with timestamps in
+     * the given period, reading only them, if the timestamps of the records
+     * in the file are indexed and only some of the records are needed.
+     *
+     * @param filename the name of the history file
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are returned
+     * @param fromEnd whether to select the records from the end of the file
+     * @param count the maximum number of records to return, all if zero
+     * @return the record nodes in the order they are in the file or
+     * <tt>null</tt> if the whole file has to be read
+     */
+    private List<Node> getIndexedRecordNodes(String filename,
+                                             Date startDate,
+                                             Date endDate,
+                                             BitSet candidates,
+                                             boolean fromEnd,
+                                             int count)
+    {
+        HistoryTimestampIndex.Segment segment
+            = this.historyImpl.getTimestampSegment(filename);
+
+        if(segment == null)
+            return null;
+
+        Date[] timestamps = getTimestamps(segment);
+        List<Integer> positions = selectPositions(timestamps,
+            startDate, endDate, candidates, fromEnd, count);
+
+        if(positions.size() == timestamps.length)
+            return null;
+
+        List<Element> records
+            = this.historyImpl.loadRecords(filename, segment, positions);
+
+        return (records == null) ? null : new ArrayList<Node>(records);
+    }
+
+    /**
+     * Returns the records of the document <tt>doc</tt> with timestamps in
+     * the given period.
+     *
+     * @param doc the document of a history file
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are returned
+     * @param fromEnd whether to select the records from the end of the file
+     * @param count the maximum number of records to return, all if zero
+     * @return the record nodes in the order they are in the document
+     */
+    private static List<Node> getRecordNodes(Document doc,
+                                             Date startDate,
+                                             Date endDate,
+                                             BitSet candidates,
+                                             boolean fromEnd,
+                                             int count)
+    {
+        NodeList nodes = doc.getElementsByTagName("record");
+        Date[] timestamps = getTimestamps(
+            nodes, startDate != null || endDate != null);
+
+        List<Integer> positions = selectPositions(timestamps,
+            startDate, endDate, candidates, fromEnd, count);
+        List<Node> result = new ArrayList<Node>(positions.size());
+        for (int position : positions)
+            result.add(nodes.item(position));
+
+        return result;
+    }
+
+    /**
+     * Returns the timestamps of the records of a file from the index of its
+     * timestamps.
+     *
+     * @param segment the timestamps and positions of the records in the file
+     * @return the timestamps of the records in the order of the file
+     */
+    private static Date[] getTimestamps(HistoryTimestampIndex.Segment segment)
+    {
+        Date[] timestamps = new Date[segment.size()];
+        for (int i = 0; i < timestamps.length; i++)
+            timestamps[i] = segment.getTimestamp(i);
+        return timestamps;
+    }
+
+    /**
+     * Returns the timestamps of the records of a document.
+     *
+     * @param nodes the record nodes of the document
+     * @param parse whether to parse the timestamps, <tt>null</tt>s are
+     * returned otherwise
+     * @return the timestamps of the records in the order of the document
+     */
+    private static Date[] getTimestamps(NodeList nodes, boolean parse)
+    {
+        Date[] timestamps = new Date[nodes.getLength()];
+
+        if(parse)
+        {
+            SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+            for (int i = 0; i < timestamps.length; i++)
+            {
+                String ts = nodes.item(i).getAttributes()
+                    .getNamedItem("timestamp").getNodeValue();
+                try
+                {
+                    timestamps[i] = sdf.parse(ts);
+                }
+                catch (ParseException e)
+                {
+                    timestamps[i] = new Date(Long.parseLong(ts));
+                }
+            }
+        }
+        return timestamps;
+    }
+
+    /**
+     * Selects the positions of the records with timestamps in the given
+     * period.
+     *
+     * @param timestamps the timestamps of the records of a file, may contain
+     * <tt>null</tt>s if no period is given
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param candidates if not <tt>null</tt> only the positions set are
+     * selected
+     * @param fromEnd whether to select from the end of the file
+     * @param count the maximum number of positions to select, all if zero
+     * @return the selected positions in ascending order
+     */
+    private static List<Integer> selectPositions(Date[] timestamps,
+                                                 Date startDate,
+                                                 Date endDate,
+                                                 BitSet candidates,
+                                                 boolean fromEnd,
+                                                 int count)
+    {
+        boolean checkPeriod = (startDate != null || endDate != null);
+        LinkedList<Integer> result = new LinkedList<Integer>();
+
+        for (int i = 0; i < timestamps.length; i++)
+        {
+            int position = fromEnd ? timestamps.length - 1 - i : i;
+
+            if(candidates != null && !candidates.get(position))
+                continue;
+
+            if(checkPeriod
+                && !isInPeriod(timestamps[position], startDate, endDate))
+                continue;
+
+            if(fromEnd)
+                result.addFirst(position);
+            else
+                result.addLast(position);
+
+            if(count > 0 && result.size() == count)
+                break;
+        }
+
+        return result;
+    }
+
     /**
      * Evaluetes does <tt>timestamp</tt> is in the given time period.
      *
@@ -957,6 +1204,9 @@ public void removeSearchProgressListener(HistorySearchProgressListener
     public int countRecords()
         throws UnsupportedOperationException
     {
+        // the records still waiting to be written are read from the disk
+        this.historyImpl.flushWriter();
+
         int result = 0;
         String lastFile = null;
         Iterator<String> filelistIter = this.historyImpl.getFileList();
@@ -981,6 +1231,342 @@ public int countRecords()
         return result;
     }
 
+    /**
+     * The records of a history file with timestamps in a period, returned a
+     * few at a time from the start or the end of the file. The records are
+     * selected once and the document of the file is parsed at most once, so
+     * taking the next records does not search the file again.
+     */
+    private class RecordCursor
+    {
+        private final String filename;
+
+        /**
+         * The timestamps and positions of the records in the file, used to
+         * read only the records returned, or <tt>null</tt> if the document
+         * of the file is used.
+         */
+        private HistoryTimestampIndex.Segment segment;
+
+        /**
+         * The records of the document of the file or <tt>null</tt> if it has
+         * not been parsed.
+         */
+        private NodeList nodes;
+
+        /**
+         * The positions of the selected records in the order they are
+         * returned.
+         */
+        private final List<Integer> positions;
+
+        /**
+         * The index in <tt>positions</tt> of the next record to return.
+         */
+        private int next = 0;
+
+        /**
+         * Selects the records of a file.
+         *
+         * @param filename the name of the history file
+         * @param startDate the start of the period or <tt>null</tt>
+         * @param endDate the end of the period or <tt>null</tt>
+         * @param fromEnd whether to return the records from the end of the
+         * file
+         */
+        RecordCursor(String filename,
+                     Date startDate,
+                     Date endDate,
+                     boolean fromEnd)
+        {
+            this.filename = filename;
+
+            Date[] timestamps;
+            segment = historyImpl.getTimestampSegment(filename);
+            if(segment != null)
+                timestamps = getTimestamps(segment);
+            else if(loadNodes())
+            {
+                timestamps = getTimestamps(
+                    nodes, startDate != null || endDate != null);
+            }
+            else
+                timestamps = new Date[0];
+
+            positions = selectPositions(
+                timestamps, startDate, endDate, null, fromEnd, 0);
+            if(fromEnd)
+                Collections.reverse(positions);
+        }
+
+        /**
+         * Parses the document of the file.
+         *
+         * @return <tt>true</tt> if the document is parsed, <tt>false</tt> if
+         * the file can't be read
+         */
+        private boolean loadNodes()
+        {
+            if(nodes == null)
+            {
+                Document doc = historyImpl.getDocumentForFile(filename);
+
+                if(doc != null)
+                    nodes = doc.getElementsByTagName("record");
+            }
+            return nodes != null;
+        }
+
+        /**
+         * Returns the next records.
+         *
+         * @param count the maximum number of records to return
+         * @return the record nodes in the order they are in the file, empty
+         * if all the records have been returned, or <tt>null</tt> if the
+         * file can't be read
+         */
+        List<Node> next(int count)
+        {
+            int end = Math.min(positions.size(), next + count);
+            List<Integer> selected
+                = new ArrayList<Integer>(positions.subList(next, end));
+            next = end;
+            Collections.sort(selected);
+
+            // the whole file is read when all of its records are needed
+            if(segment != null && selected.size() < segment.size())
+            {
+                List<Element> records
+                    = historyImpl.loadRecords(filename, segment, selected);
+
+                if(records != null)
+                    return new ArrayList<Node>(records);
+            }
+
+            if(!selected.isEmpty() && !loadNodes())
+                return null;
+
+            List<Node> result = new ArrayList<Node>(selected.size());
+            for (int position : selected)
+                result.add(nodes.item(position));
+            return result;
+        }
+    }
+
+    /**
+     * Searches the files of the history one after the other, when the
+     * results of the previous files are iterated. The files are read with a
+     * pull parser, so neither their documents nor the records of the files
+     * which are not reached are kept in memory.
+     * <p>
+     * The records of the files are merged in the order of their timestamps
+     * and the records with the same timestamp are returned once, as when all
+     * files are searched at once. The oldest record of each file is known
+     * from the index of its timestamps, so a file is read only when the
+     * records older than it have been returned. A file which timestamps are
+     * not indexed is read before any record is returned.
+     * <p>
+     * The progress of the search is reported for each file read, and is at
+     * its maximum once all the records are returned.
+     */
+    private class StreamingFind
+        implements Iterator<Collection<HistoryRecord>>
+    {
+        private final Date startDate;
+
+        private final Date endDate;
+
+        private final String[] keywords;
+
+        private final String field;
+
+        /**
+         * The files to search, ordered from oldest to newest.
+         */
+        private final Vector<String> filelist;
+
+        /**
+         * The oldest timestamp of the records of each file and the files
+         * after it, <tt>Long.MIN_VALUE</tt> if it is not known.
+         */
+        private final long[] oldestTimestamps;
+
+        /**
+         * The records which may contain the keywords in the files known to
+         * the keyword index.
+         */
+        private final Map<String, BitSet> candidates;
+
+        /**
+         * Reads the matching records from the files.
+         */
+        private final HistoryRecordReader recordReader;
+
+        /**
+         * The records found in the files read and not returned yet.
+         */
+        private final TreeSet<HistoryRecord> found
+            = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
+
+        private int currentFile = 0;
+
+        /**
+         * Starts a search.
+         *
+         * @param startDate start of the interval in which we search
+         * @param endDate end of the interval in which we search
+         * @param keywords array of keywords we search for
+         * @param field the field where to look for the keyword
+         * @param caseSensitive is keywords search case sensitive
+         */
+        StreamingFind(Date startDate,
+                      Date endDate,
+                      String[] keywords,
+                      String field,
+                      boolean caseSensitive)
+        {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.keywords = keywords;
+            this.field = field;
+
+            filelist = filterFilesByDate(historyImpl.getFileList(),
+                                         startDate, endDate);
+            candidates = historyImpl.findKeywordCandidates(keywords, field);
+            recordReader = new HistoryRecordReader(
+                startDate, endDate, keywords, field, caseSensitive);
+
+            oldestTimestamps = new long[filelist.size() + 1];
+            oldestTimestamps[filelist.size()] = Long.MAX_VALUE;
+            for (int i = filelist.size() - 1; i >= 0; i--)
+            {
+                oldestTimestamps[i] = Math.min(
+                    getOldestTimestamp(filelist.get(i)),
+                    oldestTimestamps[i + 1]);
+            }
+        }
+
+        /**
+         * Returns the oldest timestamp of the records of a file.
+         *
+         * @param filename the name of the file
+         * @return the oldest timestamp, <tt>Long.MAX_VALUE</tt> if the file
+         * has no records or <tt>Long.MIN_VALUE</tt> if it is not known
+         */
+        private long getOldestTimestamp(String filename)
+        {
+            HistoryTimestampIndex.Segment segment
+                = historyImpl.getTimestampSegment(filename);
+
+            if(segment == null)
+                return Long.MIN_VALUE;
+
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < segment.size(); i++)
+                oldest = Math.min(oldest, segment.getTimestamp(i).getTime());
+            return oldest;
+        }
+
+        public boolean hasNext()
+        {
+            return currentFile < filelist.size() || !found.isEmpty();
+        }
+
+        public Collection<HistoryRecord> next()
+        {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            // read the files until the oldest record found is older than
+            // all the records of the files left, so that the records with
+            // its timestamp in the next files are dropped as in the DOM
+            // search
+            while (currentFile < filelist.size()
+                    && (found.isEmpty()
+                        || found.first().getTimestamp().getTime()
+                            >= oldestTimestamps[currentFile]))
+            {
+                String filename = filelist.get(currentFile++);
+                BitSet fileCandidates
+                    = (candidates == null) ? null : candidates.get(filename);
+
+                // nothing in this file can match when the set is empty
+                if(fileCandidates == null || !fileCandidates.isEmpty())
+                    addRecords(filename, fileCandidates, found);
+
+                // the maximum is reached once the records are returned
+                if(currentFile < filelist.size())
+                {
+                    fireProgressStateChanged(startDate, endDate, keywords,
+                        HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                            * currentFile / filelist.size());
+                }
+            }
+
+            List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+            long oldestLeft = oldestTimestamps[currentFile];
+            while (!found.isEmpty()
+                    && found.first().getTimestamp().getTime() < oldestLeft)
+            {
+                result.add(found.pollFirst());
+            }
+
+            if(!hasNext())
+            {
+                fireProgressStateChanged(startDate, endDate, keywords,
+                    HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+            }
+            return result;
+        }
+
+        /**
+         * Adds the matching records of a file to <tt>result</tt>.
+         *
+         * @param filename the name of the file
+         * @param fileCandidates the positions of the records which may
+         * contain the keywords or <tt>null</tt>
+         * @param result the records found
+         */
+        private void addRecords(String filename,
+                                BitSet fileCandidates,
+                                Set<HistoryRecord> result)
+        {
+            // the whole file is searched, so add it to the keyword index
+            boolean index = fileCandidates == null
+                && keywords != null && keywords.length > 0 && field != null;
+
+            if(!index && (startDate != null || endDate != null))
+            {
+                List<Node> nodes = getIndexedRecordNodes(filename,
+                    startDate, endDate, fileCandidates, false, 0);
+
+                if(nodes != null)
+                {
+                    // the records are read from the file and parsed one by
+                    // one, the document of each of them holds only it
+                    for (Node node : nodes)
+                    {
+                        result.addAll(recordReader.read(
+                            node.getOwnerDocument(), null));
+                    }
+                    return;
+                }
+            }
+
+            List<HistoryRecord> records = historyImpl.readRecords(
+                filename, recordReader, fileCandidates,
+                index ? field : null);
+
+            if(records != null)
+                result.addAll(records);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * Used to compare HistoryRecords
      * ant to be ordered in TreeSet
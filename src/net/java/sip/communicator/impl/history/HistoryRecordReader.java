@@ -0,0 +1,314 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+import net.java.sip.communicator.service.history.records.*;
+
+import org.apache.commons.lang3.*;
+import org.w3c.dom.*;
+
+/**
+ * Reads the records of a history file which are in a period and contain
+ * keywords. The file is read with a pull parser one record after the other,
+ * so only the matching records are kept in memory and no document is built.
+ * Documents already in memory can be read the same way.
+ * <p>
+ * Instances are not thread safe.
+ */
+class HistoryRecordReader
+{
+    /**
+     * The factory of the pull parsers.
+     */
+    private static final XMLInputFactory inputFactory;
+
+    static
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * The start of the period or <tt>null</tt>.
+     */
+    private final Date startDate;
+
+    /**
+     * The end of the period or <tt>null</tt>.
+     */
+    private final Date endDate;
+
+    /**
+     * The keywords the records must contain or <tt>null</tt>.
+     */
+    private final String[] keywords;
+
+    /**
+     * The field which must contain the keywords.
+     */
+    private final String field;
+
+    /**
+     * Whether the keywords are case sensitive.
+     */
+    private final boolean caseSensitive;
+
+    /**
+     * Used to parse the timestamps of the records.
+     */
+    private final SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+
+    /**
+     * Creates a reader of the records matching the given criteria.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param keywords the keywords the records must contain or
+     * <tt>null</tt>
+     * @param field the field which must contain the keywords
+     * @param caseSensitive whether the keywords are case sensitive
+     */
+    HistoryRecordReader(Date startDate,
+                        Date endDate,
+                        String[] keywords,
+                        String field,
+                        boolean caseSensitive)
+    {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.keywords = keywords;
+        this.field = field;
+        this.caseSensitive = caseSensitive;
+    }
+
+    /**
+     * Reads the matching records of a history file.
+     *
+     * @param in the content of the file
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are considered
+     * @param fieldValues if not <tt>null</tt> receives the value of the
+     * keywords field of every record in the file, <tt>null</tt> for the
+     * records without it
+     * @return the matching records in the order they are in the file
+     * @throws XMLStreamException if the file is not well formed
+     */
+    List<HistoryRecord> read(InputStream in,
+                             BitSet candidates,
+                             List<String> fieldValues)
+        throws XMLStreamException
+    {
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+        XMLStreamReader reader;
+
+        synchronized (inputFactory)
+        {
+            reader = inputFactory.createXMLStreamReader(in, "UTF-8");
+        }
+
+        try
+        {
+            int position = -1;
+
+            while (reader.hasNext())
+            {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT
+                    || !"record".equals(reader.getLocalName()))
+                    continue;
+
+                position++;
+
+                if ((candidates != null && !candidates.get(position))
+                    && fieldValues == null)
+                {
+                    skipElement(reader);
+                    continue;
+                }
+
+                HistoryRecord record = readRecord(reader, fieldValues);
+
+                if (record != null
+                    && (candidates == null || candidates.get(position)))
+                {
+                    result.add(record);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the matching records of a document already in memory.
+     *
+     * @param doc the document of a history file
+     * @param candidates if not <tt>null</tt> only the records at the
+     * positions set are considered
+     * @return the matching records in the order they are in the document
+     */
+    List<HistoryRecord> read(Document doc, BitSet candidates)
+    {
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+        NodeList nodes = doc.getElementsByTagName("record");
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            if (candidates != null && !candidates.get(i))
+                continue;
+
+            Node node = nodes.item(i);
+            Date timestamp = parseTimestamp(
+                node.getAttributes().getNamedItem("timestamp").getNodeValue());
+
+            if (!HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate))
+                continue;
+
+            HistoryRecord record = HistoryReaderImpl.filterByKeyword(
+                node.getChildNodes(), timestamp, keywords, field,
+                caseSensitive);
+
+            if (record != null)
+                result.add(record);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the record the reader is at the start of, with the same rules
+     * as {@link HistoryReaderImpl#filterByKeyword(NodeList, Date, String[],
+     * String, boolean)}.
+     *
+     * @param reader the parser at the start of a record element
+     * @param fieldValues if not <tt>null</tt> receives the value of the
+     * keywords field of the record
+     * @return the record or <tt>null</tt> if it does not match
+     * @throws XMLStreamException if the record is not well formed
+     */
+    private HistoryRecord readRecord(XMLStreamReader reader,
+                                     List<String> fieldValues)
+        throws XMLStreamException
+    {
+        String ts = reader.getAttributeValue(null, "timestamp");
+        List<String> nameVals = new ArrayList<String>();
+        String fieldValue = null;
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            String name = reader.getLocalName();
+            String value = reader.getElementText();
+
+            if (value.length() == 0)
+                continue;
+
+            // unescape xml chars, we have escaped when writing values
+            value = StringEscapeUtils.unescapeXml(value);
+
+            if (name.equals(field) && fieldValue == null)
+                fieldValue = value;
+
+            nameVals.add(name);
+            nameVals.add(value);
+        }
+
+        if (fieldValues != null)
+            fieldValues.add(fieldValue);
+
+        if (ts == null)
+            return null;
+
+        Date timestamp = parseTimestamp(ts);
+
+        if (!HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate))
+            return null;
+
+        if (keywords != null && keywords.length > 0)
+        {
+            if (fieldValue == null
+                || !HistoryReaderImpl.matchKeyword(
+                        fieldValue, keywords, caseSensitive))
+                return null;
+        }
+
+        String[] propertyNames = new String[nameVals.size() / 2];
+        String[] propertyValues = new String[propertyNames.length];
+        for (int j = 0; j < propertyNames.length; j++)
+        {
+            propertyNames[j] = nameVals.get(j * 2);
+            propertyValues[j] = nameVals.get(j * 2 + 1);
+        }
+
+        return new HistoryRecord(propertyNames, propertyValues, timestamp);
+    }
+
+    /**
+     * Moves the reader from the start of an element to its end.
+     *
+     * @param reader the parser at the start of an element
+     * @throws XMLStreamException if the element is not well formed
+     */
+    private static void skipElement(XMLStreamReader reader)
+        throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    /**
+     * Parses the value of the timestamp attribute of a record.
+     *
+     * @param ts the value of the attribute
+     * @return the timestamp
+     */
+    private Date parseTimestamp(String ts)
+    {
+        try
+        {
+            return sdf.parse(ts);
+        }
+        catch (ParseException e)
+        {
+            return new Date(Long.parseLong(ts));
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.parsers.*;
 
@@ -64,7 +65,69 @@
 
     private final DocumentBuilder builder;
 
-    private final boolean cacheEnabled;
+    /**
+     * Whether new records are appended to the end of the history files
+     * instead of rewriting the whole files.
+     */
+    private final boolean appendOnlyEnabled;
+
+    /**
+     * Used to append records to the history files.
+     */
+    private final HistoryFileAppender fileAppender;
+
+    /**
+     * The default maximum size in bytes of the history files which documents
+     * are cached. The parsed documents take several times more memory.
+     */
+    private static final long DEFAULT_CACHE_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The recently read documents of all the histories, <tt>null</tt> when
+     * caching is disabled.
+     */
+    private final HistoryDocumentCache documentCache;
+
+    /**
+     * Whether searches read the history files with a pull parser instead of
+     * loading their documents.
+     */
+    private final boolean streamingReaderEnabled;
+
+    /**
+     * The default time in milliseconds new records wait to be written
+     * together with the records added after them.
+     */
+    private static final long DEFAULT_WRITE_DELAY = 500;
+
+    /**
+     * The default maximum number of records of a history waiting to be
+     * written.
+     */
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
+    /**
+     * The time in milliseconds new records wait to be written, zero if they
+     * are written when added.
+     */
+    private final long writeDelay;
+
+    /**
+     * The maximum number of records of a history waiting to be written.
+     */
+    private final int writeBatchSize;
+
+    /**
+     * Writes the pending records of the histories when their time comes,
+     * <tt>null</tt> if the records are written when added.
+     */
+    private final ScheduledExecutorService writeExecutor;
+
+    /**
+     * The time of the last record written to every history, <tt>null</tt>
+     * if the history directories are walked to list the histories.
+     */
+    private final HistoryActivityIndex activityIndex;
 
     /**
      *  Characters and their replacement in created folder names
@@ -92,12 +155,62 @@
     public HistoryServiceImpl(BundleContext bundleContext)
         throws Exception
     {
+        ConfigurationService configService
+            = getConfigurationService(bundleContext);
+
         this.builder =
             DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        this.cacheEnabled =
-            getConfigurationService(bundleContext).getBoolean(
-                CACHE_ENABLED_PROPERTY, false);
+        this.appendOnlyEnabled =
+            configService.getBoolean(APPEND_ONLY_ENABLED_PROPERTY, true);
+        this.fileAppender = new HistoryFileAppender();
+        this.documentCache
+            = configService.getBoolean(CACHE_ENABLED_PROPERTY, false)
+            ? new HistoryDocumentCache(configService.getLong(
+                CACHE_MAX_SIZE_PROPERTY, DEFAULT_CACHE_MAX_SIZE))
+            : null;
+        this.streamingReaderEnabled =
+            configService.getBoolean(STREAMING_READER_ENABLED_PROPERTY, true);
+        this.writeDelay =
+            configService.getLong(WRITE_DELAY_PROPERTY, DEFAULT_WRITE_DELAY);
+        this.writeBatchSize =
+            configService.getInt(
+                WRITE_BATCH_SIZE_PROPERTY, DEFAULT_WRITE_BATCH_SIZE);
+        this.writeExecutor = (writeDelay > 0)
+            ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "HistoryWriter");
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                })
+            : null;
         this.fileAccessService = getFileAccessService(bundleContext);
+
+        File histDir = null;
+        try
+        {
+            histDir = getFileAccessService()
+                .getPrivatePersistentDirectory(
+                    DATA_DIRECTORY, FileCategory.PROFILE);
+        }
+        catch (Exception e)
+        {
+            logger.error("Error opening directory", e);
+        }
+        if (histDir != null
+            && !configService.getBoolean(
+                    ACTIVITY_INDEX_ENABLED_PROPERTY, true))
+        {
+            // the histories written meanwhile would be missing from the
+            // index when it is enabled again, so it is built again then
+            HistoryActivityIndex.delete(histDir);
+            histDir = null;
+        }
+        this.activityIndex
+            = (histDir == null) ? null : new HistoryActivityIndex(histDir);
     }
 
     public Iterator<HistoryID> getExistingIDs()
@@ -198,6 +311,9 @@ public History createHistory(
 
                 this.histories.put(id, history);
                 retVal = history;
+
+                if (activityIndex != null)
+                    activityIndex.recordCreated(id);
             }
         }
 
@@ -310,12 +426,145 @@ private File createHistoryDirectories(HistoryID id)
     }
 
     /**
-     * Returns whether caching of readed documents is enabled or desibled.
+     * Returns the cache of the recently read documents.
+     * @return the cache or <tt>null</tt> if caching is disabled
+     */
+    HistoryDocumentCache getDocumentCache()
+    {
+        return documentCache;
+    }
+
+    /**
+     * Returns whether searches read the history files with a pull parser
+     * as their results are iterated, instead of loading the documents of
+     * the files.
+     * @return boolean
+     */
+    protected boolean isStreamingReaderEnabled()
+    {
+        return streamingReaderEnabled;
+    }
+
+    /**
+     * Returns the time in milliseconds new records wait to be written.
+     * @return the delay or zero if records are written when added
+     */
+    long getWriteDelay()
+    {
+        return writeDelay;
+    }
+
+    /**
+     * Returns the maximum number of records of a history waiting to be
+     * written.
+     * @return the maximum number of pending records
+     */
+    int getWriteBatchSize()
+    {
+        return writeBatchSize;
+    }
+
+    /**
+     * Schedules writing the pending records of <tt>writer</tt> after the
+     * write delay. If the service is stopped they are written right away.
+     *
+     * @param writer the writer with pending records
+     */
+    void scheduleFlush(final HistoryWriterImpl writer)
+    {
+        Runnable flush = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    writer.flush();
+                }
+                catch (IOException e)
+                {
+                    logger.error("Failed to write history records", e);
+                }
+            }
+        };
+
+        try
+        {
+            writeExecutor.schedule(flush, writeDelay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            flush.run();
+        }
+    }
+
+    /**
+     * Records that a record was added to a history, so the history is listed
+     * among the most recently written ones.
+     *
+     * @param id the history
+     * @param timestamp the timestamp of the record
+     */
+    void recordWritten(HistoryID id, Date timestamp)
+    {
+        if (activityIndex != null)
+            activityIndex.recordWritten(id, timestamp.getTime());
+    }
+
+    /**
+     * Writes the pending records of the loaded histories which HistoryID
+     * starts with <tt>ids</tt>.
+     *
+     * @param ids the start of the HistoryID of the histories to flush,
+     * <tt>null</tt> for all histories
+     */
+    private void flushHistories(String[] ids)
+    {
+        List<HistoryImpl> toFlush = new ArrayList<HistoryImpl>();
+        synchronized (this.histories)
+        {
+            for (Map.Entry<HistoryID, History> entry : histories.entrySet())
+            {
+                if ((ids == null || isSubHistory(ids, entry.getKey()))
+                    && entry.getValue() instanceof HistoryImpl)
+                {
+                    toFlush.add((HistoryImpl) entry.getValue());
+                }
+            }
+        }
+
+        for (HistoryImpl history : toFlush)
+            history.flushWriter();
+    }
+
+    /**
+     * Stops the service, writing all the pending records.
+     */
+    void stop()
+    {
+        if (writeExecutor != null)
+            writeExecutor.shutdown();
+
+        flushHistories(null);
+    }
+
+    /**
+     * Returns whether new records are appended to the history files instead
+     * of rewriting the whole files on every change.
      * @return boolean
      */
-    protected boolean isCacheEnabled()
+    protected boolean isAppendOnlyEnabled()
     {
-        return cacheEnabled;
+        return appendOnlyEnabled;
+    }
+
+    /**
+     * Returns the <tt>HistoryFileAppender</tt> used to append records to the
+     * history files.
+     * @return the <tt>HistoryFileAppender</tt>
+     */
+    HistoryFileAppender getFileAppender()
+    {
+        return fileAppender;
     }
 
     /**
@@ -331,7 +580,14 @@ public void purgeLocallyStoredHistory(HistoryID id)
         File dir = this.createHistoryDirectories(id);
         if (logger.isTraceEnabled())
             logger.trace("Removing history directory " + dir);
+
+        // otherwise the pending records would be written after the delete
+        flushHistories(id.getID());
         deleteDirAndContent(dir);
+        if (documentCache != null)
+            documentCache.removeAll(dir);
+        if (activityIndex != null)
+            activityIndex.remove(id.getID());
 
         History history = histories.remove(id);
         if(history == null)
@@ -358,7 +614,42 @@ public void purgeLocallyStoredHistory(HistoryID id)
      */
     public void purgeLocallyCachedHistories()
     {
+        flushHistories(null);
         histories.clear();
+        if (documentCache != null)
+            documentCache.clear();
+    }
+
+    /**
+     * Builds again the indexes used to search by keyword in the field
+     * <tt>field</tt> for all the stored histories which HistoryID starts
+     * with <tt>rawid</tt>.
+     *
+     * @param rawid the start of the HistoryID of the histories to index
+     * @param field the name of the field to index
+     */
+    public void rebuildKeywordIndexes(String[] rawid, String field)
+    {
+        String[] ids = HistoryID.createFromRawID(rawid).getID();
+
+        // loads all the stored histories
+        getExistingIDs();
+
+        List<History> toIndex = new ArrayList<History>();
+        synchronized (this.histories)
+        {
+            for (Map.Entry<HistoryID, History> entry : histories.entrySet())
+            {
+                if (isSubHistory(ids, entry.getKey()))
+                    toIndex.add(entry.getValue());
+            }
+        }
+
+        for (History history : toIndex)
+        {
+            if (history instanceof HistoryImpl)
+                ((HistoryImpl) history).rebuildKeywordIndex(field);
+        }
     }
 
     /**
@@ -466,6 +757,8 @@ public void moveHistory(HistoryID oldId, HistoryID newId)
         File oldDir = this.createHistoryDirectories(oldId);
         File newDir = getDirForHistory(newId);
 
+        flushHistories(oldId.getID());
+
         // make sure parent path is existing
         newDir.getParentFile().mkdirs();
 
@@ -476,6 +769,10 @@ public void moveHistory(HistoryID oldId, HistoryID newId)
             throw new IOException("Cannot move history!");
         }
 
+        if (documentCache != null)
+            documentCache.removeAll(oldDir);
+        if (activityIndex != null)
+            activityIndex.move(oldId.getID(), newId.getID());
         histories.remove(oldId);
     }
 
@@ -530,7 +827,9 @@ public boolean isHistoryCreated(HistoryID id)
     }
 
     /**
-     * Enumerates existing histories.
+     * Enumerates existing histories. They are listed from the most recently
+     * written one, unless the index of the times of the last records is
+     * disabled.
      * @param rawid the start of the HistoryID of all the histories that will be
      * returned.
      * @return list of histories which HistoryID starts with <tt>rawid</tt>.
@@ -541,6 +840,9 @@ public List<HistoryID> getExistingHistories(
                             String[] rawid)
         throws IllegalArgumentException
     {
+        if (activityIndex != null)
+            return activityIndex.getHistories(rawid);
+
         File histDir = null;
         try
         {
@@ -613,7 +915,8 @@ private void getExistingFiles(
             }
             else
             {
-                if(f.getName().equals(DATA_FILE))
+                // only the history files, not the structure or the indexes
+                if(!f.getName().endsWith(HistoryImpl.SUPPORTED_FILETYPE))
                     continue;
 
                 res.put(f, HistoryID.createFromRawStrings(
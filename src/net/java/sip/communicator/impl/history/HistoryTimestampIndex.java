@@ -0,0 +1,559 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps for every file of a history a small sidecar file with the timestamp
+ * of each record in the file and the position and length of its bytes. The
+ * readers use it to find the records they need and to read and parse only
+ * them instead of the whole file.
+ * <p>
+ * A sidecar starts with the length and the modification time of the history
+ * file it describes, followed by one entry for every record in the order of
+ * the records in the file. When records are appended to the history file the
+ * entries are appended to the sidecar. If the history file changed in any
+ * other way, the sidecar no longer matches it and is created again by
+ * scanning the bytes of the history file, without parsing it.
+ */
+class HistoryTimestampIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryTimestampIndex.class);
+
+    /**
+     * The suffix of the sidecar files, it replaces the extension of the
+     * history file.
+     */
+    static final String FILE_SUFFIX = ".tsidx";
+
+    /**
+     * The version of the sidecar format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The length of the sidecar header: version, history file length and
+     * modification time.
+     */
+    private static final int HEADER_LENGTH = 4 + 8 + 8;
+
+    /**
+     * The length of a sidecar entry: timestamp, offset and length.
+     */
+    private static final int ENTRY_LENGTH = 8 + 4 + 4;
+
+    /**
+     * The start tag of a record in the history files.
+     */
+    private static final byte[] RECORD_START_TAG = toBytes("<record");
+
+    /**
+     * The end tag of a record in the history files.
+     */
+    private static final byte[] RECORD_END_TAG = toBytes("</record>");
+
+    /**
+     * The start of the timestamp attribute of a record.
+     */
+    private static final String TIMESTAMP_ATTRIBUTE = "timestamp=\"";
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * Used to parse the timestamps of the records.
+     */
+    private final SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+
+    /**
+     * Creates the index of the history in <tt>directory</tt>.
+     *
+     * @param directory the directory of the history
+     */
+    HistoryTimestampIndex(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the entries for the history file <tt>filename</tt>, creating
+     * its sidecar if it is missing or does not match the file.
+     *
+     * @param filename the name of the history file
+     * @return the entries of the file
+     * @throws IOException if the history file can't be read
+     */
+    synchronized Segment getSegment(String filename)
+        throws IOException
+    {
+        File file = new File(directory, filename);
+        File sidecar = getSidecar(filename);
+
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        if (sidecar.exists())
+        {
+            try
+            {
+                Segment segment = read(sidecar, length, lastModified);
+
+                if (segment != null)
+                    return segment;
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to read " + sidecar, e);
+            }
+        }
+
+        Segment segment = scan(file);
+        try
+        {
+            write(sidecar, segment, length, lastModified);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to write " + sidecar, e);
+            sidecar.delete();
+        }
+
+        return segment;
+    }
+
+    /**
+     * Adds the entries of records just appended to the history file
+     * <tt>filename</tt>. If the sidecar did not match the file before the
+     * records were appended, it is removed and created again when needed.
+     *
+     * @param filename the name of the history file
+     * @param previousLength the length of the history file before the append
+     * @param previousLastModified the modification time of the history file
+     * before the append
+     * @param timestamps the timestamps of the appended records
+     * @param offsets the positions where each appended record starts,
+     * followed by the position where the last one ends
+     */
+    synchronized void recordsAppended(String filename,
+                                      long previousLength,
+                                      long previousLastModified,
+                                      long[] timestamps,
+                                      long[] offsets)
+    {
+        File file = new File(directory, filename);
+        File sidecar = getSidecar(filename);
+
+        if (!sidecar.exists())
+            return;
+
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+            try
+            {
+                if (raf.length() < HEADER_LENGTH
+                    || raf.readInt() != VERSION
+                    || raf.readLong() != previousLength
+                    || raf.readLong() != previousLastModified)
+                {
+                    raf.close();
+                    invalidate(filename);
+                    return;
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                for (int i = 0; i < timestamps.length; i++)
+                {
+                    out.writeLong(timestamps[i]);
+                    out.writeInt((int) offsets[i]);
+                    out.writeInt((int) (offsets[i + 1] - offsets[i]));
+                }
+                out.flush();
+
+                raf.seek(raf.length());
+                raf.write(bytes.toByteArray());
+
+                // the header goes last, if we fail before it the sidecar
+                // does not match the history file and will be created again
+                raf.seek(4);
+                raf.writeLong(file.length());
+                raf.writeLong(file.lastModified());
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to update " + sidecar, e);
+            invalidate(filename);
+        }
+    }
+
+    /**
+     * Removes the sidecar of the history file <tt>filename</tt>, called when
+     * the history file is written as a whole.
+     *
+     * @param filename the name of the history file
+     */
+    synchronized void invalidate(String filename)
+    {
+        File sidecar = getSidecar(filename);
+
+        if (sidecar.exists() && !sidecar.delete())
+            logger.warn("Failed to delete " + sidecar);
+    }
+
+    /**
+     * Parses the value of the timestamp attribute of a record.
+     *
+     * @param timestamp the value of the attribute
+     * @return the time in milliseconds
+     */
+    synchronized long parseTimestamp(String timestamp)
+    {
+        try
+        {
+            return sdf.parse(timestamp).getTime();
+        }
+        catch (ParseException e)
+        {
+            return Long.parseLong(timestamp);
+        }
+    }
+
+    /**
+     * Returns the sidecar file of the history file <tt>filename</tt>.
+     *
+     * @param filename the name of the history file
+     * @return the sidecar file
+     */
+    private File getSidecar(String filename)
+    {
+        int extensionIx = filename.lastIndexOf('.');
+        String name
+            = (extensionIx > 0) ? filename.substring(0, extensionIx) : filename;
+
+        return new File(directory, name + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads a sidecar if it matches the history file.
+     *
+     * @param sidecar the sidecar file
+     * @param length the length of the history file
+     * @param lastModified the modification time of the history file
+     * @return the entries or <tt>null</tt> if the sidecar does not match
+     * @throws IOException if reading fails
+     */
+    private static Segment read(File sidecar, long length, long lastModified)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(sidecar)));
+        try
+        {
+            long sidecarLength = sidecar.length();
+
+            if (sidecarLength < HEADER_LENGTH
+                || (sidecarLength - HEADER_LENGTH) % ENTRY_LENGTH != 0
+                || in.readInt() != VERSION
+                || in.readLong() != length
+                || in.readLong() != lastModified)
+                return null;
+
+            Segment segment = new Segment(
+                (int) ((sidecarLength - HEADER_LENGTH) / ENTRY_LENGTH));
+            for (int i = 0; i < segment.timestamps.length; i++)
+            {
+                segment.timestamps[i] = in.readLong();
+                segment.offsets[i] = in.readInt();
+                segment.lengths[i] = in.readInt();
+            }
+
+            return segment;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a sidecar.
+     *
+     * @param sidecar the sidecar file
+     * @param segment the entries to write
+     * @param length the length of the history file
+     * @param lastModified the modification time of the history file
+     * @throws IOException if writing fails
+     */
+    private static void write(File sidecar,
+                              Segment segment,
+                              long length,
+                              long lastModified)
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(sidecar)));
+        try
+        {
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            for (int i = 0; i < segment.size(); i++)
+            {
+                out.writeLong(segment.timestamps[i]);
+                out.writeInt(segment.offsets[i]);
+                out.writeInt(segment.lengths[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the records in a history file by looking for their tags. The
+     * values in the records are escaped so the tags can't appear in them.
+     *
+     * @param file the history file
+     * @return the entries of the records in the file
+     * @throws IOException if reading the file fails
+     */
+    private Segment scan(File file)
+        throws IOException
+    {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readFully(content);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        List<long[]> entries = new ArrayList<long[]>();
+        int pos = 0;
+        int start;
+        while ((start = indexOf(content, RECORD_START_TAG, pos)) >= 0)
+        {
+            int afterName = start + RECORD_START_TAG.length;
+            if (afterName >= content.length)
+                break;
+
+            byte c = content[afterName];
+            if (c != '>' && c != '/' && !Character.isWhitespace(c))
+            {
+                // another element which name starts with record
+                pos = afterName;
+                continue;
+            }
+
+            int tagEnd = indexOf(content, new byte[] { '>' }, afterName);
+            if (tagEnd < 0)
+                break;
+
+            int end;
+            if (content[tagEnd - 1] == '/')
+            {
+                end = tagEnd + 1;
+            }
+            else
+            {
+                int endTag = indexOf(content, RECORD_END_TAG, tagEnd);
+                if (endTag < 0)
+                    break;
+                end = endTag + RECORD_END_TAG.length;
+            }
+
+            String tag = new String(content, start, tagEnd - start, "UTF-8");
+            int tsStart = tag.indexOf(TIMESTAMP_ATTRIBUTE);
+            int tsEnd = (tsStart < 0)
+                ? -1
+                : tag.indexOf('"', tsStart + TIMESTAMP_ATTRIBUTE.length());
+
+            // the readers skip records they can't get a timestamp for
+            if (tsEnd > 0)
+            {
+                try
+                {
+                    long timestamp = parseTimestamp(tag.substring(
+                        tsStart + TIMESTAMP_ATTRIBUTE.length(), tsEnd));
+
+                    entries.add(new long[] { timestamp, start, end - start });
+                }
+                catch (NumberFormatException e)
+                {
+                    logger.warn("Wrong timestamp in " + file + ": " + tag);
+                }
+            }
+
+            pos = end;
+        }
+
+        Segment segment = new Segment(entries.size());
+        for (int i = 0; i < entries.size(); i++)
+        {
+            long[] entry = entries.get(i);
+
+            segment.timestamps[i] = entry[0];
+            segment.offsets[i] = (int) entry[1];
+            segment.lengths[i] = (int) entry[2];
+        }
+
+        return segment;
+    }
+
+    /**
+     * Finds the first occurrence of <tt>pattern</tt> in <tt>content</tt>
+     * starting from <tt>from</tt>.
+     *
+     * @param content the bytes to search in
+     * @param pattern the bytes to search for
+     * @param from the position to start from
+     * @return the position of the occurrence or -1
+     */
+    private static int indexOf(byte[] content, byte[] pattern, int from)
+    {
+        int last = content.length - pattern.length;
+
+        outer:
+        for (int i = from; i <= last; i++)
+        {
+            for (int j = 0; j < pattern.length; j++)
+            {
+                if (content[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the bytes of an ASCII string.
+     *
+     * @param s the string
+     * @return its bytes
+     */
+    private static byte[] toBytes(String s)
+    {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) s.charAt(i);
+        return bytes;
+    }
+
+    /**
+     * The entries of the records of a history file, in the order of the
+     * records in the file.
+     */
+    static class Segment
+    {
+        /**
+         * The timestamps of the records.
+         */
+        private final long[] timestamps;
+
+        /**
+         * The positions of the records in the file.
+         */
+        private final int[] offsets;
+
+        /**
+         * The lengths of the records in bytes.
+         */
+        private final int[] lengths;
+
+        /**
+         * Creates a segment with <tt>size</tt> entries.
+         *
+         * @param size the number of entries
+         */
+        private Segment(int size)
+        {
+            timestamps = new long[size];
+            offsets = new int[size];
+            lengths = new int[size];
+        }
+
+        /**
+         * Returns the number of records in the file.
+         * @return the number of records in the file
+         */
+        int size()
+        {
+            return timestamps.length;
+        }
+
+        /**
+         * Returns the timestamp of the record at <tt>position</tt>.
+         *
+         * @param position the position of the record in the file
+         * @return the timestamp of the record
+         */
+        Date getTimestamp(int position)
+        {
+            return new Date(timestamps[position]);
+        }
+
+        /**
+         * Returns the position of the first byte of the record at
+         * <tt>position</tt>.
+         *
+         * @param position the position of the record in the file
+         * @return the offset of the record
+         */
+        int getOffset(int position)
+        {
+            return offsets[position];
+        }
+
+        /**
+         * Returns the length in bytes of the record at <tt>position</tt>.
+         *
+         * @param position the position of the record in the file
+         * @return the length of the record
+         */
+        int getLength(int position)
+        {
+            return lengths[position];
+        }
+    }
+}
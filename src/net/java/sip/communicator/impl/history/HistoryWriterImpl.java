@@ -27,6 +27,7 @@
 
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
 
 import org.jitsi.util.xml.XMLUtils;
 import org.w3c.dom.*;
@@ -39,6 +40,12 @@
 public class HistoryWriterImpl
     implements HistoryWriter
 {
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryWriterImpl.class);
+
     /**
      * Maximum records per file.
      */
@@ -60,6 +67,32 @@
 
     private int currentDocElements = -1;
 
+    /**
+     * The records added to the current document which are not written yet.
+     */
+    private final List<Element> pendingRecords = new ArrayList<Element>();
+
+    /**
+     * The file of the records which are not written yet.
+     */
+    private String pendingFile = null;
+
+    /**
+     * The document of the records which are not written yet.
+     */
+    private Document pendingDoc = null;
+
+    /**
+     * Whether the whole pending document has to be written because records
+     * were removed from it or a previous write failed.
+     */
+    private boolean pendingRewrite = false;
+
+    /**
+     * Whether a write of the pending records is scheduled.
+     */
+    private boolean flushScheduled = false;
+
     protected HistoryWriterImpl(HistoryImpl historyImpl)
     {
         this.historyImpl = historyImpl;
@@ -131,6 +164,11 @@ private void addRecord(String[] propertyNames,
                            int maxNumberOfRecords)
         throws InvalidParameterException, IOException
     {
+        Document doc;
+        String file;
+        Element elem;
+        boolean recordRemoved = false;
+
         // Synchronized to assure that two concurrent threads can insert records
         // safely.
         synchronized (this.docCreateLock)
@@ -138,38 +176,201 @@ private void addRecord(String[] propertyNames,
             if (this.currentDoc == null
                     || this.currentDocElements > MAX_RECORDS_PER_FILE)
             {
+                if (this.currentDoc != null)
+                {
+                    this.flushBeforeNewDoc();
+                    this.compactCurrentDoc();
+                    this.historyImpl.releaseDocument(this.currentFile);
+                }
+
                 this.createNewDoc(date, this.currentDoc == null);
             }
+
+            doc = this.currentDoc;
+            file = this.currentFile;
         }
 
-        synchronized (this.currentDoc)
+        // the record is added to the document and to the pending records at
+        // once, so a write of the whole document can't meanwhile include it
+        // and leave it pending
+        synchronized (this.docWriteLock)
         {
-            Node root = this.currentDoc.getFirstChild();
-            synchronized (root)
+            // the pending records always belong to a single document
+            if(this.pendingDoc != null && this.pendingDoc != doc)
+                flush();
+
+            synchronized (doc)
             {
-                // if we have setting for max number of records,
-                // check the number and when exceed them, remove the first one
-                if( maxNumberOfRecords > -1
-                    && this.currentDocElements >= maxNumberOfRecords)
+                Node root = doc.getFirstChild();
+                synchronized (root)
                 {
-                    // lets remove the first one
-                    removeFirstRecord(root);
+                    // if we have setting for max number of records,
+                    // check the number and when exceed them, remove the
+                    // first one
+                    if( maxNumberOfRecords > -1
+                        && this.currentDocElements >= maxNumberOfRecords)
+                    {
+                        // lets remove the first one
+                        removeFirstRecord(root);
+                        recordRemoved = true;
+                    }
+
+                    elem = createRecord(
+                        doc, propertyNames, propertyValues, date);
+                    root.appendChild(elem);
+                    this.currentDocElements++;
                 }
+            }
+
+            this.pendingFile = file;
+            this.pendingDoc = doc;
+            this.pendingRecords.add(elem);
 
-                Element elem = createRecord(
-                    this.currentDoc, propertyNames, propertyValues, date);
-                root.appendChild(elem);
-                this.currentDocElements++;
+            // removing a record changes the beginning of the file, so it
+            // can't be just appended
+            if(recordRemoved)
+                this.pendingRewrite = true;
+
+            // write changes
+            HistoryServiceImpl historyService
+                = historyImpl.getHistoryServiceImpl();
+
+            if(historyService.getWriteDelay() <= 0
+                || this.pendingRecords.size()
+                    >= historyService.getWriteBatchSize())
+            {
+                flush();
+            }
+            else if(!this.flushScheduled)
+            {
+                this.flushScheduled = true;
+                historyService.scheduleFlush(this);
             }
         }
 
-        // write changes
+        historyImpl.getHistoryServiceImpl().recordWritten(
+            historyImpl.getID(), date);
+    }
+
+    /**
+     * Writes the records which were added but are not written yet. All of
+     * them are appended to the file at once, or the whole document is written
+     * when they can't be just appended.
+     *
+     * @throws IOException if writing fails, the records stay pending
+     */
+    public void flush()
+        throws IOException
+    {
         synchronized (this.docWriteLock)
         {
-            if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
-                this.historyImpl.writeFile(this.currentFile);
+            this.flushScheduled = false;
+
+            if(this.pendingFile == null)
+                return;
+
+            try
+            {
+                if(historyImpl.getHistoryServiceImpl().isAppendOnlyEnabled()
+                    && !this.pendingRewrite)
+                {
+                    this.historyImpl.appendRecords(this.pendingFile,
+                        this.pendingDoc,
+                        new ArrayList<Element>(this.pendingRecords));
+                }
+                else
+                {
+                    this.historyImpl.writeFile(
+                        this.pendingFile, this.pendingDoc);
+                }
+            }
+            catch (IOException e)
+            {
+                // we don't know what got written, next time write it all
+                this.pendingRewrite = true;
+                throw e;
+            }
+
+            clearPending();
+        }
+    }
+
+    /**
+     * Forgets the pending records after they were written.
+     */
+    private void clearPending()
+    {
+        this.pendingRecords.clear();
+        this.pendingFile = null;
+        this.pendingDoc = null;
+        this.pendingRewrite = false;
+    }
+
+    /**
+     * Writes the whole current document once more before we start a new
+     * file. When records are appended to the file, this is the point where
+     * it gets compacted into a single clean serialization of the document.
+     * It is also the point where the records of the file are added to the
+     * keyword indexes of the history.
+     */
+    private void compactCurrentDoc()
+    {
+        try
+        {
+            if(historyImpl.getHistoryServiceImpl().isAppendOnlyEnabled())
+            {
+                rewriteFile(this.currentFile, this.currentDoc);
+            }
             else
-                this.historyImpl.writeFile(this.currentFile, this.currentDoc);
+            {
+                this.historyImpl.reindexKeywordIndexes(
+                    this.currentFile, this.currentDoc);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to compact history file "
+                + this.currentFile, e);
+        }
+    }
+
+    /**
+     * Writes the pending records of the current document before we start a
+     * new file, so the pending records always belong to a single file.
+     */
+    private void flushBeforeNewDoc()
+    {
+        try
+        {
+            flush();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write history file "
+                + this.currentFile, e);
+        }
+    }
+
+    /**
+     * Writes the whole document of a file with changes in its existing
+     * records and keeps the keyword indexes of the history in sync.
+     *
+     * @param filename the name of the file
+     * @param doc the changed document
+     * @throws IOException if writing fails
+     */
+    private void rewriteFile(String filename, Document doc)
+        throws IOException
+    {
+        synchronized (this.docWriteLock)
+        {
+            this.historyImpl.invalidateKeywordIndexes(filename);
+            this.historyImpl.writeFile(filename, doc);
+            this.historyImpl.reindexKeywordIndexes(filename, doc);
+
+            // the pending records of the document were written with it
+            if(doc == this.pendingDoc)
+                clearPending();
         }
     }
 
@@ -299,6 +500,9 @@ public void insertRecord(
             String[] propertyValues, Date timestamp, String timestampProperty)
         throws IOException
     {
+        // the documents are read from the disk, so write what is pending
+        flush();
+
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         Iterator<String> fileIterator
             = HistoryReaderImpl.filterFilesByDate(
@@ -360,10 +564,10 @@ public void insertRecord(
             if(changed)
             {
                 // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
+                rewriteFile(filename, doc);
+
+                historyImpl.getHistoryServiceImpl().recordWritten(
+                    historyImpl.getID(), timestamp);
 
                 // this prevents that the current writer, which holds
                 // instance for the last document he is editing will not
@@ -442,6 +646,9 @@ public void updateRecord(String idProperty, String idValue,
             String property, String newValue)
         throws IOException
     {
+        // the documents are read from the disk, so write what is pending
+        flush();
+
         Iterator<String> fileIterator = this.historyImpl.getFileList();
         String filename = null;
         while (fileIterator.hasNext())
@@ -510,10 +717,7 @@ public void updateRecord(String idProperty, String idValue,
             if(changed)
             {
                 // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
+                rewriteFile(filename, doc);
 
                 // this prevents that the current writer, which holds
                 // instance for the last document he is editing will not
@@ -536,6 +740,9 @@ public void updateRecord(String idProperty, String idValue,
      */
     public void updateRecord(HistoryRecordUpdater updater) throws IOException
     {
+        // the documents are read from the disk, so write what is pending
+        flush();
+
         Iterator<String> fileIterator = this.historyImpl.getFileList();
         String filename = null;
         while (fileIterator.hasNext())
@@ -584,10 +791,7 @@ public void updateRecord(HistoryRecordUpdater updater) throws IOException
             if(changed)
             {
                 // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
+                rewriteFile(filename, doc);
 
                 // this prevents that the current writer, which holds
                 // instance for the last document he is editing will not
@@ -150,26 +150,77 @@ private void find(  Date startDate,
                         int resultCount,
                         HistoryQueryImpl query)
     {
+        // the records still waiting to be written are read from the disk
+        history.flushWriter();
+
         Vector<String> filelist
             = HistoryReaderImpl.filterFilesByDate(  history.getFileList(),
                                                     startDate, endDate, true);
         Iterator<String> fileIterator = filelist.iterator();
 
+        // the records which may contain the keywords in the files known to
+        // the keyword index
+        Map<String, BitSet> candidates
+            = history.findKeywordCandidates(keywords, field);
+
+        HistoryRecordReader recordReader = new HistoryRecordReader(
+            startDate, endDate, keywords, field, caseSensitive);
+
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         while (fileIterator.hasNext() && resultCount > 0 && !query.isCanceled())
         {
             String filename = fileIterator.next();
+            BitSet fileCandidates
+                = (candidates == null) ? null : candidates.get(filename);
+
+            // nothing in this file can match
+            if(fileCandidates != null && fileCandidates.isEmpty())
+                continue;
+
+            if(history.getHistoryServiceImpl().isStreamingReaderEnabled())
+            {
+                // the whole file is searched, so add it to the keyword index
+                boolean index = fileCandidates == null
+                    && keywords != null && keywords.length > 0
+                    && field != null;
+
+                List<HistoryRecord> records = history.readRecords(
+                    filename, recordReader, fileCandidates,
+                    index ? field : null);
+
+                if(records == null)
+                    continue;
+
+                for ( int i = records.size() - 1;
+                      i >= 0 && !query.isCanceled();
+                      i--)
+                {
+                    query.addHistoryRecord(records.get(i));
+                    resultCount--;
+                }
+                continue;
+            }
+
             Document doc = history.getDocumentForFile(filename);
 
             if(doc == null)
                 continue;
 
+            if(fileCandidates == null
+                && keywords != null && keywords.length > 0 && field != null)
+            {
+                history.indexSearchedFile(filename, doc, field);
+            }
+
             NodeList nodes = doc.getElementsByTagName("record");
 
             for ( int i = nodes.getLength() - 1;
                   i >= 0 && !query.isCanceled();
                   i--)
             {
+                if(fileCandidates != null && !fileCandidates.get(i))
+                    continue;
+
                 Node node = nodes.item(i);
                 Date timestamp;
                 String ts = node.getAttributes().getNamedItem("timestamp")
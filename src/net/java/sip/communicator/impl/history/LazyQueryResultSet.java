@@ -0,0 +1,160 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * A <tt>QueryResultSet</tt> which gets its records in chunks only when the
+ * iteration reaches them, so the records which are not iterated are never
+ * loaded. The records already iterated are kept so the iteration can go
+ * back.
+ *
+ * @param <T> element type of query
+ */
+public class LazyQueryResultSet<T>
+    implements QueryResultSet<T>
+{
+    /**
+     * The chunks of records, in order.
+     */
+    private final Iterator<? extends Collection<T>> chunks;
+
+    /**
+     * The records loaded so far.
+     */
+    private final List<T> records = new ArrayList<T>();
+
+    private int currentPos = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param chunks the chunks of records, loaded when iterated
+     */
+    public LazyQueryResultSet(Iterator<? extends Collection<T>> chunks)
+    {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Loads chunks until there is a record at <tt>pos</tt> or there are no
+     * more chunks.
+     *
+     * @param pos the position of the needed record
+     * @return <tt>true</tt> if there is a record at <tt>pos</tt>
+     */
+    private boolean load(int pos)
+    {
+        while (pos >= this.records.size() && this.chunks.hasNext())
+        {
+            this.records.addAll(this.chunks.next());
+        }
+
+        return pos < this.records.size();
+    }
+
+    /**
+     * Returns <tt>true</tt> if the iteration has more elements.
+     *
+     * @return <tt>true</tt> if the iterator has more elements.
+     */
+    public boolean hasNext()
+    {
+        return load(this.currentPos + 1);
+    }
+
+    /**
+     * Returns true if the iteration has elements preceeding the current one.
+     *
+     * @return true if the iterator has preceeding elements.
+     */
+    public boolean hasPrev()
+    {
+        return this.currentPos - 1 >= 0;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     *
+     * @return the next element in the iteration.
+     */
+    public T next()
+    {
+        this.currentPos++;
+
+        if (!load(this.currentPos))
+        {
+            throw new NoSuchElementException();
+        }
+
+        return records.get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>next()</tt>.
+     *
+     * @return the next history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T nextRecord() throws NoSuchElementException
+    {
+        return this.next();
+    }
+
+    /**
+     * Returns the previous element in the iteration.
+     *
+     * @return the previous element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prev() throws NoSuchElementException
+    {
+        this.currentPos--;
+
+        if (this.currentPos < 0)
+        {
+            throw new NoSuchElementException();
+        }
+
+        return records.get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>prev()</tt>.
+     *
+     * @return the previous history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prevRecord() throws NoSuchElementException
+    {
+        return this.prev();
+    }
+
+    /**
+     * Removes from the underlying collection the last element returned by
+     * the iterator (optional operation).
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Cannot remove elements "
+                + "from underlaying collection.");
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.metahistory;
+
+import java.util.*;
+
+/**
+ * Iterates over the elements of several sorted lists in their common order,
+ * taking the next element from the head of the list which has the smallest
+ * one. Only as many elements as are iterated are compared, so taking the
+ * first records of a search costs the same whatever the number of records
+ * of every list.
+ * <p>
+ * Equal elements of different lists are returned in the order of the
+ * lists, and can be skipped so that only the first of them is returned.
+ * The lists can also be iterated from their ends, the greatest element
+ * first, which returns the elements in the reverse order except for the
+ * equal elements, which are still taken from the first list first.
+ *
+ * @param <T> the type of the elements
+ */
+class MergingIterator<T>
+    implements Iterator<T>
+{
+    /**
+     * The position reached in one of the lists.
+     */
+    private static class Cursor<T>
+    {
+        /**
+         * The index of the list among the merged lists.
+         */
+        final int index;
+
+        /**
+         * The iterator of the list.
+         */
+        final ListIterator<T> iterator;
+
+        /**
+         * The element of the list to be returned next.
+         */
+        T head;
+
+        Cursor(int index, ListIterator<T> iterator)
+        {
+            this.index = index;
+            this.iterator = iterator;
+        }
+    }
+
+    /**
+     * The cursors of the lists which still have elements, the one with the
+     * next element first.
+     */
+    private final PriorityQueue<Cursor<T>> cursors;
+
+    /**
+     * The order of the elements.
+     */
+    private final Comparator<? super T> comparator;
+
+    /**
+     * Whether the lists are iterated from their ends.
+     */
+    private final boolean fromEnd;
+
+    /**
+     * Whether the elements equal to the element returned before are skipped.
+     */
+    private final boolean distinct;
+
+    /**
+     * The element returned last, <tt>null</tt> before the first one.
+     */
+    private T last = null;
+
+    /**
+     * The element to be returned next, found by <tt>hasNext</tt>.
+     */
+    private T next = null;
+
+    /**
+     * Creates an iterator merging sorted lists.
+     *
+     * @param lists the lists, sorted according to <tt>comparator</tt>
+     * @param comparator the order of the elements
+     * @param fromEnd whether to start with the greatest elements
+     * @param distinct whether to return only the first of equal elements in
+     * the order they are iterated
+     */
+    MergingIterator(List<? extends List<T>> lists,
+                    final Comparator<? super T> comparator,
+                    final boolean fromEnd,
+                    boolean distinct)
+    {
+        this.comparator = comparator;
+        this.fromEnd = fromEnd;
+        this.distinct = distinct;
+        this.cursors = new PriorityQueue<Cursor<T>>(
+            Math.max(lists.size(), 1),
+            new Comparator<Cursor<T>>()
+            {
+                public int compare(Cursor<T> c1, Cursor<T> c2)
+                {
+                    int c = comparator.compare(c1.head, c2.head);
+
+                    if (fromEnd)
+                        c = -c;
+                    // equal elements are taken from the first list either way
+                    return (c == 0) ? (c1.index - c2.index) : c;
+                }
+            });
+
+        for (int i = 0; i < lists.size(); i++)
+        {
+            List<T> list = lists.get(i);
+            Cursor<T> cursor = new Cursor<T>(
+                i, list.listIterator(fromEnd ? list.size() : 0));
+
+            if (advance(cursor))
+                cursors.add(cursor);
+        }
+    }
+
+    /**
+     * Moves a cursor to the next element of its list.
+     *
+     * @param cursor the cursor
+     * @return <tt>false</tt> if the list has no more elements
+     */
+    private boolean advance(Cursor<T> cursor)
+    {
+        if (fromEnd ? !cursor.iterator.hasPrevious()
+                    : !cursor.iterator.hasNext())
+        {
+            return false;
+        }
+
+        cursor.head
+            = fromEnd ? cursor.iterator.previous() : cursor.iterator.next();
+        return true;
+    }
+
+    public boolean hasNext()
+    {
+        while (next == null && !cursors.isEmpty())
+        {
+            Cursor<T> cursor = cursors.poll();
+            T element = cursor.head;
+
+            if (advance(cursor))
+                cursors.add(cursor);
+
+            if (distinct
+                && last != null
+                && comparator.compare(last, element) == 0)
+            {
+                continue;
+            }
+
+            next = element;
+        }
+        return next != null;
+    }
+
+    public T next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        last = next;
+        next = null;
+        return last;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Merges sorted lists and returns their first elements.
+     *
+     * @param lists the lists, sorted according to <tt>comparator</tt>
+     * @param comparator the order of the elements
+     * @param count the maximum number of elements to return, -1 for all
+     * @param fromEnd whether to return the greatest elements instead of the
+     * smallest
+     * @param distinct whether to return only the first of equal elements
+     * @return the elements, sorted according to <tt>comparator</tt>
+     */
+    static <T> List<T> merge(List<? extends List<T>> lists,
+                             Comparator<? super T> comparator,
+                             int count,
+                             boolean fromEnd,
+                             boolean distinct)
+    {
+        LinkedList<T> result = new LinkedList<T>();
+        Iterator<T> iter
+            = new MergingIterator<T>(lists, comparator, fromEnd, distinct);
+
+        while ((count < 0 || result.size() < count) && iter.hasNext())
+        {
+            if (fromEnd)
+                result.addFirst(iter.next());
+            else
+                result.addLast(iter.next());
+        }
+        return result;
+    }
+}
@@ -18,6 +18,7 @@
 package net.java.sip.communicator.impl.metahistory;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.callhistory.*;
 import net.java.sip.communicator.service.callhistory.event.*;
@@ -38,6 +39,10 @@
  * The Meta History Service is wrapper around the other known
  * history services. Query them all at once, sort the result and return all
  * merged records in one collection.
+ * <p>
+ * The services are queried concurrently on a small pool of threads. The
+ * sorted records of every service are then merged, taking only the
+ * requested number of records.
  *
  * @author Damian Minkov
  */
@@ -64,6 +69,23 @@
     private final List<HistorySearchProgressListener> progressListeners
         = new ArrayList<HistorySearchProgressListener>();
 
+    /**
+     * The maximum number of services queried at the same time.
+     */
+    private static final int MAX_QUERY_THREADS = 4;
+
+    /**
+     * The order of the records of all the services.
+     */
+    private static final Comparator<Object> RECORDS_COMPARATOR
+        = new RecordsComparator();
+
+    /**
+     * Queries the services, <tt>null</tt> when the service is stopped and
+     * the services are queried by the calling thread.
+     */
+    private ExecutorService queryExecutor = null;
+
     /**
      * Returns all the records for the descriptor after the given date.
      *
@@ -76,55 +98,42 @@
      * @throws RuntimeException
      */
     public Collection<Object> findByStartDate(String[] services,
-            Object descriptor, Date startDate)
+            final Object descriptor, final Date startDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByStartDate((MetaContact)descriptor, startDate));
-                }
+                    return mhs.findByStartDate(
+                        (MetaContact)descriptor, startDate);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByStartDate((ChatRoom)descriptor, startDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findByStartDate(
+                        (ChatRoom)descriptor, startDate);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByStartDate(
-                        (MetaContact)descriptor, startDate));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findByStartDate(
+                        (MetaContact)descriptor, startDate);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByStartDate(startDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return chs.findByStartDate(startDate);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, null, null);
+        });
+        fireLastProgress(startDate, null, null);
 
-        return result;
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, -1, false, true);
     }
 
     /**
@@ -139,56 +148,39 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findByEndDate(String[] services,
-            Object descriptor, Date endDate)
+            final Object descriptor, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByEndDate((MetaContact)descriptor, endDate));
-                }
+                    return mhs.findByEndDate((MetaContact)descriptor, endDate);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByEndDate((ChatRoom)descriptor, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findByEndDate((ChatRoom)descriptor, endDate);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByEndDate(
-                        (MetaContact)descriptor, endDate));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findByEndDate((MetaContact)descriptor, endDate);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByEndDate(endDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return chs.findByEndDate(endDate);
             }
-        }
-        listenWrapper.fireLastProgress(null, endDate, null);
+        });
+        fireLastProgress(null, endDate, null);
 
-        return result;
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, -1, false, true);
     }
 
     /**
@@ -204,59 +196,42 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findByPeriod(String[] services,
-            Object descriptor, Date startDate, Date endDate)
+            final Object descriptor, final Date startDate, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        LinkedList<Object> result = new LinkedList<Object>();
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (MetaContact)descriptor, startDate, endDate));
-                }
+                    return mhs.findByPeriod(
+                        (MetaContact)descriptor, startDate, endDate);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (ChatRoom)descriptor, startDate, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findByPeriod(
+                        (ChatRoom)descriptor, startDate, endDate);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
-                        (MetaContact)descriptor, startDate, endDate));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findByPeriod(
+                        (MetaContact)descriptor, startDate, endDate);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByPeriod(startDate, endDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return chs.findByPeriod(startDate, endDate);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, null);
+        });
+        fireLastProgress(startDate, endDate, null);
 
-        Collections.sort(result, new RecordsComparator());
-        return result;
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, -1, false, false);
     }
 
     /**
@@ -296,75 +271,51 @@ public Collection<Object> findByPeriod(String[] services,
      * @throws RuntimeException
      */
     public Collection<Object> findByPeriod(String[] services,
-            Object descriptor, Date startDate, Date endDate,
-            String[] keywords, boolean caseSensitive)
+            final Object descriptor, final Date startDate, final Date endDate,
+            final String[] keywords, final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (MetaContact)descriptor,
-                            startDate, endDate,
-                            keywords, caseSensitive));
-                }
+                    return mhs.findByPeriod(
+                        (MetaContact)descriptor,
+                        startDate, endDate,
+                        keywords, caseSensitive);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (ChatRoom)descriptor,
-                            startDate, endDate,
-                            keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findByPeriod(
+                        (ChatRoom)descriptor,
+                        startDate, endDate,
+                        keywords, caseSensitive);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
+                if(descriptor instanceof MetaContact)
+                    return fhs.findByPeriod(
                         (MetaContact)descriptor,
                         startDate, endDate,
-                        keywords, caseSensitive));
+                        keywords, caseSensitive);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                Collection<CallRecord> cs =
-                    chs.findByPeriod(startDate, endDate);
 
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
-                {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
+            {
+                return filterCalls(
+                    chs.findByPeriod(startDate, endDate),
+                    keywords, caseSensitive);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, keywords);
+        });
+        fireLastProgress(startDate, endDate, keywords);
 
-        return result;
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, -1, false, true);
     }
 
     /**
@@ -436,72 +387,45 @@ public Collection<Object> findByKeywords(String[] services,
      * @throws RuntimeException
      */
     public Collection<Object> findByKeywords(String[] services,
-            Object descriptor, String[] keywords, boolean caseSensitive)
+            final Object descriptor, final String[] keywords,
+            final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (MetaContact)descriptor, keywords, caseSensitive));
-                }
+                    return mhs.findByKeywords(
+                        (MetaContact)descriptor, keywords, caseSensitive);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (ChatRoom)descriptor,
-                            keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findByKeywords(
+                        (ChatRoom)descriptor, keywords, caseSensitive);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByKeywords(
-                        (MetaContact)descriptor,
-                        keywords, caseSensitive));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findByKeywords(
+                        (MetaContact)descriptor, keywords, caseSensitive);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
 
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
+            {
                 // this will get all call records
-                Collection<CallRecord> cs =
-                    chs.findByEndDate(new Date());
-
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
-                {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
+                return filterCalls(
+                    chs.findByEndDate(new Date()), keywords, caseSensitive);
             }
-        }
-        listenWrapper.fireLastProgress(null, null, keywords);
+        });
+        fireLastProgress(null, null, keywords);
 
-        return result;
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, -1, false, true);
     }
 
     /**
@@ -516,67 +440,39 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findLast(String[] services,
-            Object descriptor, int count)
+            final Object descriptor, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findLast(
-                            (MetaContact)descriptor,
-                            count));
-                }
+                    return mhs.findLast((MetaContact)descriptor, count);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findLast(
-                            (ChatRoom)descriptor,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findLast((ChatRoom)descriptor, count);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findLast(
-                        (MetaContact)descriptor,
-                        count));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findLast((MetaContact)descriptor, count);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findLast(count));
-                chs.removeSearchProgressListener(listenWrapper);
+                return chs.findLast(count);
             }
-        }
-        listenWrapper.fireLastProgress(null, null, null);
-
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
+        });
+        fireLastProgress(null, null, null);
 
-        if(startIndex < 0)
-            startIndex = 0;
-
-        return resultAsList.subList(startIndex, resultAsList.size());
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, count, true, true);
     }
 
     /**
@@ -592,79 +488,44 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findFirstMessagesAfter(String[] services,
-            Object descriptor, Date date, int count)
+            final Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
-                }
+                    return mhs.findFirstMessagesAfter(
+                        (MetaContact)descriptor, date, count);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findFirstMessagesAfter(
+                        (ChatRoom)descriptor, date, count);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findFirstRecordsAfter(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findFirstRecordsAfter(
+                        (MetaContact)descriptor, date, count);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
 
-                Collection<CallRecord> col = chs.findByStartDate(date);
-                if(col.size() > count)
-                {
-                    // before we make a sublist make sure there are sorted in the
-                    // right order
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    Collections.sort(l, new RecordsComparator());
-                    result.addAll(l.subList(0, count));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
+            {
+                // sorted and cut to count with the records of the other
+                // services
+                return chs.findByStartDate(date);
             }
-        }
-        listenWrapper.fireLastProgress(date, null, null);
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-
-        int toIndex = count;
-        if(toIndex > resultAsList.size())
-            toIndex = resultAsList.size();
+        });
+        fireLastProgress(date, null, null);
 
-        return resultAsList.subList(0, toIndex);
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, count, false, true);
     }
 
     /**
@@ -680,77 +541,148 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findLastMessagesBefore(String[] services,
-            Object descriptor, Date date, int count)
+            final Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        List<List<Object>> records = findRecords(services, new RecordsQuery()
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            Collection<?> findMessages(MessageHistoryService mhs)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
                 if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
-                }
+                    return mhs.findLastMessagesBefore(
+                        (MetaContact)descriptor, date, count);
                 else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                    return mhs.findLastMessagesBefore(
+                        (ChatRoom)descriptor, date, count);
+                return null;
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            Collection<?> findFiles(FileHistoryService fhs)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findLastRecordsBefore(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
+                if(descriptor instanceof MetaContact)
+                    return fhs.findLastRecordsBefore(
+                        (MetaContact)descriptor, date, count);
+                return null;
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
+                // sorted and cut to count with the records of the other
+                // services
+                return chs.findByEndDate(date);
+            }
+        });
+        fireLastProgress(date, null, null);
+
+        return MergingIterator.merge(
+            records, RECORDS_COMPARATOR, count, true, true);
+    }
+
+    /**
+     * Queries the services concurrently on the query executor. The records of
+     * every service are sorted so they can be merged.
+     *
+     * @param services the services classnames we will query
+     * @param query the query to run on every service
+     * @return the sorted records of every service
+     * @throws RuntimeException if querying a service failed
+     */
+    private List<List<Object>> findRecords(String[] services,
+                                           final RecordsQuery query)
+        throws RuntimeException
+    {
+        List<Future<List<Object>>> futures
+            = new ArrayList<Future<List<Object>>>(services.length);
+        double[] progress = new double[services.length];
+        for (int i = 0; i < services.length; i++)
+        {
+            final Object serv = getService(services[i]);
+            final MessageProgressWrapper listenWrapper
+                = new MessageProgressWrapper(services.length, i, progress);
+            Callable<List<Object>> task = new Callable<List<Object>>()
+            {
+                public List<Object> call()
+                {
+                    return query.find(serv, listenWrapper);
+                }
+            };
 
-                Collection<CallRecord> col = chs.findByEndDate(date);
-                if(col.size() > count)
+            ExecutorService executor = queryExecutor;
+            if (executor != null)
+            {
+                try
+                {
+                    futures.add(executor.submit(task));
+                    continue;
+                }
+                catch (RejectedExecutionException e)
                 {
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    result.addAll(l.subList(l.size() - count, l.size()));
+                    // stopped meanwhile, query in this thread
                 }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
             }
+
+            FutureTask<List<Object>> future
+                = new FutureTask<List<Object>>(task);
+            future.run();
+            futures.add(future);
+        }
+
+        List<List<Object>> records
+            = new ArrayList<List<Object>>(futures.size());
+        try
+        {
+            for (Future<List<Object>> future : futures)
+                records.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while searching", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            for (Future<List<Object>> future : futures)
+                future.cancel(true);
         }
-        listenWrapper.fireLastProgress(date, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
+        return records;
+    }
+
+    /**
+     * Returns the call records which peers match the keywords.
+     *
+     * @param callRecords the call records to filter
+     * @param keywords array of keywords
+     * @param caseSensitive is keywords search case sensitive
+     * @return the matching call records
+     */
+    private List<CallRecord> filterCalls(Collection<CallRecord> callRecords,
+                                         String[] keywords,
+                                         boolean caseSensitive)
+    {
+        List<CallRecord> result = new ArrayList<CallRecord>();
 
-        if(startIndex < 0)
-            startIndex = 0;
+        Iterator<CallRecord> iter = callRecords.iterator();
+        while (iter.hasNext())
+        {
+            CallRecord callRecord = iter.next();
 
-        return resultAsList.subList(startIndex, resultAsList.size());
+            if(matchCallPeer(
+                    callRecord.getPeerRecords(), keywords, caseSensitive))
+                result.add(callRecord);
+        }
+        return result;
     }
 
     /**
@@ -880,6 +812,23 @@ public void start(BundleContext bc)
 
         services.clear();
 
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_QUERY_THREADS, MAX_QUERY_THREADS,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "MetaHistoryQuery");
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        queryExecutor = executor;
+
         // start listening for newly register or removed services
         bc.addServiceListener(this);
     }
@@ -893,6 +842,128 @@ public void stop(BundleContext bc)
     {
         bc.removeServiceListener(this);
         services.clear();
+
+        if (queryExecutor != null)
+        {
+            queryExecutor.shutdown();
+            queryExecutor = null;
+        }
+    }
+
+    /**
+     * A search run on every queried service. Each method returns the records
+     * of one kind of service matching the search, <tt>null</tt> if the
+     * search does not apply to the service.
+     */
+    private static abstract class RecordsQuery
+    {
+        Collection<?> findMessages(MessageHistoryService mhs)
+        {
+            return null;
+        }
+
+        Collection<?> findFiles(FileHistoryService fhs)
+        {
+            return null;
+        }
+
+        Collection<?> findCalls(CallHistoryService chs)
+        {
+            return null;
+        }
+
+        /**
+         * Runs the search on a service and sorts the records found.
+         *
+         * @param serv the service
+         * @param listenWrapper forwards the progress of the service
+         * @return the records sorted by date
+         */
+        List<Object> find(Object serv, MessageProgressWrapper listenWrapper)
+        {
+            Collection<?> records = null;
+
+            if(serv instanceof MessageHistoryService)
+            {
+                MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                mhs.addSearchProgressListener(listenWrapper);
+                try
+                {
+                    records = findMessages(mhs);
+                }
+                finally
+                {
+                    mhs.removeSearchProgressListener(listenWrapper);
+                }
+            }
+            else if(serv instanceof FileHistoryService)
+            {
+                records = findFiles((FileHistoryService)serv);
+            }
+            else if(serv instanceof CallHistoryService)
+            {
+                CallHistoryService chs = (CallHistoryService)serv;
+
+                chs.addSearchProgressListener(listenWrapper);
+                try
+                {
+                    records = findCalls(chs);
+                }
+                finally
+                {
+                    chs.removeSearchProgressListener(listenWrapper);
+                }
+            }
+
+            List<Object> result = (records == null)
+                ? new ArrayList<Object>()
+                : new ArrayList<Object>(records);
+
+            // usually sorted already, which makes it cheap
+            Collections.sort(result, RECORDS_COMPARATOR);
+            return result;
+        }
+    }
+
+    /**
+     * Notifies the registered <tt>HistorySearchProgressListener</tt>s of the
+     * progress of a search.
+     *
+     * @param ev the event
+     */
+    private void fireEvent(ProgressEvent ev)
+    {
+        Iterable<HistorySearchProgressListener> listeners;
+        synchronized(progressListeners)
+        {
+            listeners
+                = new ArrayList<HistorySearchProgressListener>(
+                        progressListeners);
+        }
+        for (HistorySearchProgressListener listener : listeners)
+            listener.progressChanged(ev);
+    }
+
+    /**
+     * Notifies the registered <tt>HistorySearchProgressListener</tt>s that a
+     * search is complete.
+     *
+     * @param startDate the start date of the search
+     * @param endDate the end date of the search
+     * @param keywords the keywords of the search
+     */
+    private void fireLastProgress(
+        Date startDate, Date endDate, String[] keywords)
+    {
+        ProgressEvent ev = new ProgressEvent(
+            this,
+            startDate,
+            endDate,
+            keywords);
+        ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+
+        fireEvent(ev);
     }
 
     /**
@@ -935,16 +1006,19 @@ public int compare(Object o1, Object o2)
     {
         private final int count;
 
-        private int ix;
+        private final int ix;
 
-        public MessageProgressWrapper(int count)
-        {
-            this.count = count;
-        }
+        /**
+         * The progress of every service of the search, shared by the
+         * wrappers of the services as they are queried at the same time.
+         */
+        private final double[] progress;
 
-        public void setIx(int ix)
+        public MessageProgressWrapper(int count, int ix, double[] progress)
         {
+            this.count = count;
             this.ix = ix;
+            this.progress = progress;
         }
 
         private void fireProgress(int origProgress, int maxVal,
@@ -956,39 +1030,17 @@ private void fireProgress(int origProgress, int maxVal,
                 endDate,
                 keywords);
 
-            double part1 = origProgress/
-                ((double)maxVal*count);
-            double convProgress =
-                part1*HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE +
-                ix*HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE/count;
-
-            ev.setProgress((int)convProgress);
-
-            fireEvent(ev);
-        }
-
-        private void fireEvent(ProgressEvent ev)
-        {
-            Iterable<HistorySearchProgressListener> listeners;
-            synchronized(progressListeners)
+            double total = 0;
+            synchronized(progress)
             {
-                listeners
-                    = new ArrayList<HistorySearchProgressListener>(
-                            progressListeners);
+                progress[ix] = origProgress/((double)maxVal*count);
+                for (double part : progress)
+                    total += part;
             }
-            for (HistorySearchProgressListener listener : listeners)
-                listener.progressChanged(ev);
-        }
+            double convProgress =
+                total*HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
 
-        public void fireLastProgress(
-            Date startDate, Date endDate, String[] keywords)
-        {
-            ProgressEvent ev = new ProgressEvent(
-                MetaHistoryServiceImpl.this,
-                startDate,
-                endDate,
-                keywords);
-            ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+            ev.setProgress((int)convProgress);
 
             fireEvent(ev);
         }
@@ -402,6 +402,8 @@ Collection<EventObject> findRecentMessagesPerContact(
     {
         HashSet<EventObject> result = new HashSet<EventObject>();
 
+        // the histories come from the most recently written one, so only the
+        // histories of the contacts returned are read
         List<HistoryID> historyIDs=
             this.historyService.getExistingHistories(
                 new String[]{"messages", "default"});
@@ -3028,6 +3030,16 @@ public void eraseLocallyStoredHistory(ChatRoom room)
         if(this.messageSourceService != null)
             this.messageSourceService.eraseLocallyStoredHistory(room);
     }
+
+    /**
+     * Builds again the index used when searching the locally stored message
+     * history by keyword.
+     */
+    public void rebuildKeywordIndex()
+    {
+        historyService.rebuildKeywordIndexes(
+            new String[] { "messages" }, SEARCH_FIELD);
+    }
     
     /**
      * Returns <code>true</code> if the "IS_MESSAGE_HISTORY_ENABLED"
@@ -0,0 +1,173 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * Remembers the local address the system uses to reach the destinations,
+ * by destination prefix, so that the routing table is not asked again for
+ * every SIP message and ICE candidate. The local address for a prefix is
+ * found once, by the first thread asking for it, while the threads asking
+ * for other prefixes go on.
+ * <p>
+ * The addresses must be forgotten with {@link #clear()} when the network
+ * configuration changes.
+ */
+abstract class LocalHostCache
+{
+    /**
+     * The number of leading bits of the IPv4 destinations sharing a local
+     * address.
+     */
+    static final int IPV4_PREFIX_LENGTH = 24;
+
+    /**
+     * The number of leading bits of the IPv6 destinations sharing a local
+     * address.
+     */
+    static final int IPV6_PREFIX_LENGTH = 64;
+
+    /**
+     * The local addresses, found or being found, by destination prefix.
+     */
+    private final ConcurrentMap<InetAddress, FutureTask<InetAddress>> cache
+        = new ConcurrentHashMap<InetAddress, FutureTask<InetAddress>>();
+
+    /**
+     * Asks the system for the local address it uses to reach a destination.
+     *
+     * @param destination the destination
+     * @return the local address or <tt>null</tt> if it could not be found
+     */
+    protected abstract InetAddress findLocalHost(InetAddress destination);
+
+    /**
+     * Returns the local address used to reach a destination, finding it if
+     * it is not known for the prefix of the destination.
+     *
+     * @param destination the destination
+     * @return the local address or <tt>null</tt> if it could not be found
+     */
+    InetAddress getLocalHost(final InetAddress destination)
+    {
+        InetAddress prefix = getDestinationPrefix(destination);
+        if (prefix == null)
+            return findLocalHost(destination);
+
+        FutureTask<InetAddress> task = cache.get(prefix);
+        if (task == null)
+        {
+            FutureTask<InetAddress> newTask
+                = new FutureTask<InetAddress>(new Callable<InetAddress>()
+                {
+                    public InetAddress call()
+                    {
+                        return findLocalHost(destination);
+                    }
+                });
+
+            task = cache.putIfAbsent(prefix, newTask);
+            if (task == null)
+            {
+                task = newTask;
+                newTask.run();
+            }
+        }
+
+        try
+        {
+            InetAddress localHost = task.get();
+
+            if (localHost == null)
+                cache.remove(prefix, task);
+            return localHost;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return findLocalHost(destination);
+        }
+        catch (ExecutionException e)
+        {
+            cache.remove(prefix, task);
+
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Forgets all the local addresses, when the network configuration
+     * changed. The addresses being found are returned to the threads
+     * waiting for them, but not kept.
+     */
+    void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Returns the prefix of a destination, which is the destination with
+     * all the bits after the prefix length cleared.
+     *
+     * @param destination the destination
+     * @return the prefix or <tt>null</tt> if the local address for the
+     * destination must not be shared with other destinations, as with the
+     * link-local ones which depend on their scope
+     */
+    static InetAddress getDestinationPrefix(InetAddress destination)
+    {
+        if (destination == null
+            || destination.isLinkLocalAddress()
+            || destination.isMulticastAddress()
+            || destination.isAnyLocalAddress())
+        {
+            return null;
+        }
+
+        byte[] address = destination.getAddress();
+        int prefixLength
+            = (address.length == 4) ? IPV4_PREFIX_LENGTH : IPV6_PREFIX_LENGTH;
+
+        for (int i = 0; i < address.length; i++)
+        {
+            int bits = prefixLength - i * 8;
+
+            if (bits <= 0)
+                address[i] = 0;
+            else if (bits < 8)
+                address[i] &= (byte) (0xff << (8 - bits));
+        }
+
+        try
+        {
+            return InetAddress.getByAddress(address);
+        }
+        catch (UnknownHostException e)
+        {
+            // can't happen with the length of an existing address
+            return null;
+        }
+    }
+}
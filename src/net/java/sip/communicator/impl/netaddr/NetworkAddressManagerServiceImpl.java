@@ -56,12 +56,6 @@
     private static  Logger logger =
         Logger.getLogger(NetworkAddressManagerServiceImpl.class);
 
-    /**
-     * The socket that we use for dummy connections during selection of a local
-     * address that has to be used when communicating with a specific location.
-     */
-    DatagramSocket localHostFinderSocket = null;
-
     /**
      * A random (unused)local port to use when trying to select a local host
      * address to use when sending messages to a specific destination.
@@ -85,7 +79,40 @@
      * A thread which periodically scans network interfaces and reports
      * changes in network configuration.
      */
-    private NetworkConfigurationWatcher networkConfigurationWatcher = null;
+    private volatile NetworkConfigurationWatcher networkConfigurationWatcher
+        = null;
+
+    /**
+     * The local addresses used to reach the destinations, by destination
+     * prefix. They are only kept while the network configuration is watched,
+     * so that they are forgotten when it changes.
+     */
+    private final LocalHostCache localHostCache = new LocalHostCache()
+    {
+        @Override
+        protected InetAddress findLocalHost(InetAddress destination)
+        {
+            return NetworkAddressManagerServiceImpl.this.findLocalHost(
+                destination);
+        }
+    };
+
+    /**
+     * Forgets the local addresses used to reach the destinations when the
+     * network interfaces or their addresses change.
+     */
+    private final NetworkConfigurationChangeListener localHostCacheInvalidator
+        = new NetworkConfigurationChangeListener()
+        {
+            public void configurationChanged(ChangeEvent event)
+            {
+                if (!event.isInitial()
+                    && event.getType() != ChangeEvent.DNS_CHANGE)
+                {
+                    localHostCache.clear();
+                }
+            }
+        };
 
     /**
      * The service name to use when discovering TURN servers through DNS using
@@ -104,8 +131,6 @@
       */
      public void start()
      {
-         this.localHostFinderSocket = initRandomPortSocket();
-
          // set packet logging to ice4j stack
          StunStack.setPacketLogger(new Ice4jPacketLogger());
      }
@@ -124,6 +149,7 @@ public void stop()
          }
          finally
          {
+             localHostCache.clear();
              logger.logExit();
          }
      }
@@ -138,8 +164,26 @@ public void stop()
      * @return an InetAddress instance representing the local host, and that
      * a socket can bind upon or distribute to peers as a contact address.
      */
-    public synchronized InetAddress getLocalHost(
-            InetAddress intendedDestination)
+    public InetAddress getLocalHost(InetAddress intendedDestination)
+    {
+        //without the watcher we would not know when the routes change
+        if (networkConfigurationWatcher == null)
+            return findLocalHost(intendedDestination);
+
+        return localHostCache.getLocalHost(intendedDestination);
+    }
+
+    /**
+     * Asks the system for the local address it would use to reach a
+     * destination. Concurrent calls don't block each other.
+     *
+     * @param intendedDestination the destination that we'd like to use the
+     * localhost address with.
+     *
+     * @return an InetAddress instance representing the local host, and that
+     * a socket can bind upon or distribute to peers as a contact address.
+     */
+    private InetAddress findLocalHost(InetAddress intendedDestination)
     {
         InetAddress localHost = null;
 
@@ -202,13 +246,25 @@ else if (OSUtils.IS_MAC)
         }
         else
         {
-            //no point in making sure that the localHostFinderSocket is
-            //initialized.
-            //better let it through a NullPointerException.
-            localHostFinderSocket.connect(intendedDestination,
-                                          RANDOM_ADDR_DISC_PORT);
-            localHost = localHostFinderSocket.getLocalAddress();
-            localHostFinderSocket.disconnect();
+            //a socket of our own, so that the lookups for different
+            //destinations don't wait for each other
+            DatagramSocket localHostFinderSocket = null;
+            try
+            {
+                localHostFinderSocket = new DatagramSocket();
+                localHostFinderSocket.connect(intendedDestination,
+                                              RANDOM_ADDR_DISC_PORT);
+                localHost = localHostFinderSocket.getLocalAddress();
+            }
+            catch (SocketException e)
+            {
+                logger.warn("Failed to get localhost", e);
+            }
+            finally
+            {
+                if (localHostFinderSocket != null)
+                    localHostFinderSocket.close();
+            }
         }
 
         //windows socket implementations return the any address so we need to
@@ -399,72 +455,6 @@ public void propertyChange(PropertyChangeEvent evt)
         //method is called.
     }
 
-    /**
-     * Initializes and binds a socket that on a random port number. The method
-     * would try to bind on a random port and retry 5 times until a free port
-     * is found.
-     *
-     * @return the socket that we have initialized on a randomport number.
-     */
-    private DatagramSocket initRandomPortSocket()
-    {
-        DatagramSocket resultSocket = null;
-        String bindRetriesStr
-            = NetaddrActivator.getConfigurationService().getString(
-                BIND_RETRIES_PROPERTY_NAME);
-
-        int bindRetries = 5;
-
-        if (bindRetriesStr != null)
-        {
-            try
-            {
-                bindRetries = Integer.parseInt(bindRetriesStr);
-            }
-            catch (NumberFormatException ex)
-            {
-                logger.error(bindRetriesStr
-                             + " does not appear to be an integer. "
-                             + "Defaulting port bind retries to " + bindRetries
-                             , ex);
-            }
-        }
-
-        int currentlyTriedPort = NetworkUtils.getRandomPortNumber();
-
-        //we'll first try to bind to a random port. if this fails we'll try
-        //again (bindRetries times in all) until we find a free local port.
-        for (int i = 0; i < bindRetries; i++)
-        {
-            try
-            {
-                resultSocket = new DatagramSocket(currentlyTriedPort);
-                //we succeeded - break so that we don't try to bind again
-                break;
-            }
-            catch (SocketException exc)
-            {
-                if (exc.getMessage().indexOf("Address already in use") == -1)
-                {
-                    logger.fatal("An exception occurred while trying to create"
-                                 + "a local host discovery socket.", exc);
-                    return null;
-                }
-                //port seems to be taken. try another one.
-                if (logger.isDebugEnabled())
-                    logger.debug("Port " + currentlyTriedPort
-                             + " seems in use.");
-                currentlyTriedPort
-                    = NetworkUtils.getRandomPortNumber();
-                if (logger.isDebugEnabled())
-                    logger.debug("Retrying bind on port "
-                             + currentlyTriedPort);
-            }
-        }
-
-        return resultSocket;
-    }
-
     /**
      * Creates a <tt>DatagramSocket</tt> and binds it to the specified
      * <tt>localAddress</tt> and a port in the range specified by the
@@ -575,7 +565,14 @@ public synchronized void addNetworkConfigurationChangeListener(
          NetworkConfigurationChangeListener listener)
      {
          if(networkConfigurationWatcher == null)
-             networkConfigurationWatcher = new NetworkConfigurationWatcher();
+         {
+             NetworkConfigurationWatcher watcher
+                 = new NetworkConfigurationWatcher();
+
+             watcher.addNetworkConfigurationChangeListener(
+                 localHostCacheInvalidator);
+             networkConfigurationWatcher = watcher;
+         }
 
          networkConfigurationWatcher
              .addNetworkConfigurationChangeListener(listener);
@@ -191,15 +191,24 @@ private void handleNewSystemActivityNotificationsService(
         }
         else
         {
-            if(!isRunning)
-            {
-                isRunning = true;
-                Thread th = new Thread(this);
-                // set to max priority to prevent detecting sleep if the cpu is
-                // overloaded
-                th.setPriority(Thread.MAX_PRIORITY);
-                th.start();
-            }
+            startPolling();
+        }
+    }
+
+    /**
+     * Starts the thread checking the network interfaces periodically, if it
+     * is not running.
+     */
+    private synchronized void startPolling()
+    {
+        if(!isRunning)
+        {
+            isRunning = true;
+            Thread th = new Thread(this);
+            // set to max priority to prevent detecting sleep if the cpu is
+            // overloaded
+            th.setPriority(Thread.MAX_PRIORITY);
+            th.start();
         }
     }
 
@@ -296,6 +305,19 @@ else if(event.getEventID() == SystemActivityEvent.EVENT_NETWORK_CHANGE)
             {
                 logger.error("Error checking network interfaces", e);
             }
+
+            // the source of the events may have stopped (e.g. the netlink
+            // socket failed), in which case we poll the interfaces
+            SystemActivityNotificationsService service
+                = systemActivityNotificationsService;
+
+            if(service != null
+                && !service.isSupported(
+                        SystemActivityEvent.EVENT_NETWORK_CHANGE))
+            {
+                service.removeSystemActivityChangeListener(this);
+                startPolling();
+            }
         }
         else if(event.getEventID() == SystemActivityEvent.EVENT_DNS_CHANGE)
         {
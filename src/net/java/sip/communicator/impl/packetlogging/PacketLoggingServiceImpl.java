@@ -18,9 +18,10 @@
 package net.java.sip.communicator.impl.packetlogging;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
-import com.google.common.collect.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.fileaccess.*;
@@ -42,20 +43,99 @@
             = Logger.getLogger(PacketLoggingServiceImpl.class);
 
     /**
-     * The max size of the <tt>EvictingQueue</tt> that the saver thread
-     * is using.
+     * The number of buffers for the packets up to
+     * {@link #SMALL_BUFFER_SIZE} bytes, which is the number of packets which
+     * can wait to be written.
      *
      * TODO this needs to be configurable eventually.
      */
-    private static final int EVICTING_QUEUE_MAX_SIZE = 1000;
+    private static final int SMALL_BUFFER_COUNT = 1000;
 
     /**
-     * The OutputStream we are currently writing to.
+     * The size of the buffers of the packets which fit in an ethernet
+     * frame, with the headers we add.
      */
-    private FileOutputStream outputStream = null;
+    private static final int SMALL_BUFFER_SIZE = 2048;
 
     /**
-     * The thread that queues packets and saves them to file.
+     * The number of buffers for the larger packets.
+     */
+    private static final int LARGE_BUFFER_COUNT = 16;
+
+    /**
+     * The size of the buffers for the larger packets, which is the largest
+     * IP packet with the headers we add.
+     */
+    private static final int LARGE_BUFFER_SIZE = 0xffff + 128;
+
+    /**
+     * The maximum number of packets written at once.
+     */
+    private static final int MAX_GATHERED_PACKETS = 64;
+
+    /**
+     * The length of the header of each packet in the pcap file.
+     */
+    private static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    /**
+     * The maximum number of milliseconds the saver thread waits for packets
+     * before it checks whether it is stopped.
+     */
+    private static final long POLL_INTERVAL = 500;
+
+    /**
+     * The number of milliseconds between two reports of the dropped
+     * packets.
+     */
+    private static final long DROP_REPORT_INTERVAL = 10 * 1000;
+
+    /**
+     * The number of milliseconds we wait on stop for the packets to be
+     * written.
+     */
+    private static final long STOP_TIMEOUT = 2 * 1000;
+
+    /**
+     * The address of the packets logged without one.
+     */
+    private static final byte[] ANY_ADDRESS = new byte[4];
+
+    /**
+     * The pcap file global header.
+     */
+    private static final byte[] globalHeader =
+        new byte[]{
+                /* magic number(swapped) */
+                (byte)0xd4, (byte)0xc3, (byte)0xb2, (byte)0xa1,
+                /* major version number */
+                (byte)0x02, (byte)0x00,
+                /* minor version number */
+                (byte)0x04, (byte)0x00,
+                /* GMT to local correction */
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                /* accuracy of timestamps */
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                /* max length of captured packets, in octets */
+                (byte)0xff, (byte)0xff, (byte)0x00, (byte)0x00,
+                /* data link type(ethernet) */
+                (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00
+        };
+
+    /**
+     * The channel of the file we are currently writing to.
+     */
+    private FileChannel fileChannel = null;
+
+    /**
+     * The buffers the packets are formatted into and queued to be saved.
+     */
+    private final PacketRing ring
+        = new PacketRing(SMALL_BUFFER_COUNT, SMALL_BUFFER_SIZE,
+                         LARGE_BUFFER_COUNT, LARGE_BUFFER_SIZE);
+
+    /**
+     * The thread that saves the queued packets to file.
      */
     private SaverThread saverThread = new SaverThread();
 
@@ -209,11 +289,8 @@ private void getFileNames()
     private void rotateFiles()
         throws IOException
     {
-        if(outputStream != null)
-        {
-            outputStream.flush();
-            outputStream.close();
-        }
+        if(fileChannel != null)
+            fileChannel.close();
 
         for (int i = getConfiguration().getLogfileCount() - 2; i >= 0; i--)
         {
@@ -228,7 +305,7 @@ private void rotateFiles()
             }
         }
 
-        outputStream = new FileOutputStream(files[0]);
+        fileChannel = new FileOutputStream(files[0]).getChannel();
         written = 0;
         createGlobalHeader();
     }
@@ -240,20 +317,35 @@ public void stop()
     {
         saverThread.stopRunning();
 
-        if(outputStream != null)
+        // the saver thread writes the queued packets and closes the file
+        try
+        {
+            saverThread.join(STOP_TIMEOUT);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the file we are writing to.
+     */
+    private void closeFile()
+    {
+        if(fileChannel != null)
         {
             try
             {
-                outputStream.flush();
-                outputStream.close();
+                fileChannel.close();
             }
             catch(IOException e)
             {
-                e.printStackTrace();
+                logger.error("Error closing packet log file", e);
             }
             finally
             {
-                outputStream = null;
+                fileChannel = null;
             }
         }
     }
@@ -265,43 +357,10 @@ public void stop()
     private void createGlobalHeader()
             throws IOException
     {
-        /* magic number(swapped) */
-        outputStream.write(0xd4);
-        outputStream.write(0xc3);
-        outputStream.write(0xb2);
-        outputStream.write(0xa1);
-
-        /* major version number */
-        outputStream.write(0x02);
-        outputStream.write(0x00);
-
-        /* minor version number */
-        outputStream.write(0x04);
-        outputStream.write(0x00);
-
-        /* GMT to local correction */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* accuracy of timestamps */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* max length of captured packets, in octets */
-        outputStream.write(0xff);
-        outputStream.write(0xff);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* data link type(ethernet) */
-        outputStream.write(0x01);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        ByteBuffer header = ByteBuffer.wrap(globalHeader);
+
+        while(header.hasRemaining())
+            fileChannel.write(header);
     }
 
     /**
@@ -403,17 +462,68 @@ public void logPacket(
             int packetOffset,
             int packetLength)
     {
-        saverThread.queuePacket(
-            new Packet(protocol,
-                       sourceAddress,
-                       sourcePort,
-                       destinationAddress,
-                       destinationPort,
-                       transport,
-                       sender,
-                       packetContent,
-                       packetOffset,
-                       packetLength));
+        // nobody would save it
+        if(saverThread.stopped)
+            return;
+
+        // if one of the addresses is ipv4 we are using ipv4,
+        // local udp addresses come as 0.0.0.0.0....0.0.0 when
+        // ipv6 is enabled in the underlying os
+        if(sourceAddress == null)
+            sourceAddress = ANY_ADDRESS;
+        if(destinationAddress == null)
+            destinationAddress = ANY_ADDRESS;
+        boolean isIPv4 = sourceAddress.length == 4
+                || destinationAddress.length == 4;
+
+        int headersLength = PCAP_RECORD_HEADER_LENGTH
+            + fakeEthernetHeader.length
+            + (isIPv4 ? ipv4EtherType : ipv6EtherType).length
+            + (isIPv4 ? ipHeaderTemplate : ip6HeaderTemplate).length
+            + ((transport == TransportName.UDP)
+                ? udpHeaderTemplate
+                : tcpHeaderTemplate).length;
+
+        PacketRing.Slot slot
+            = ring.acquire(protocol, headersLength + packetLength);
+
+        // dropped, the saver thread is behind
+        if(slot == null)
+            return;
+
+        try
+        {
+            formatPacket(
+                    slot.buffer,
+                    isIPv4,
+                    sourceAddress,
+                    sourcePort,
+                    destinationAddress,
+                    destinationPort,
+                    transport,
+                    sender,
+                    packetContent,
+                    packetOffset,
+                    packetLength);
+        }
+        catch(RuntimeException e)
+        {
+            ring.release(slot);
+            throw e;
+        }
+        ring.publish(slot);
+    }
+
+    /**
+     * Returns the number of packets of a protocol which were not logged
+     * because they were logged faster than they could be saved.
+     *
+     * @param protocol the protocol
+     * @return the number of dropped packets since the service was created
+     */
+    public long getDroppedPacketCount(ProtocolName protocol)
+    {
+        return ring.getDroppedCount(protocol);
     }
 
     /**
@@ -430,242 +540,202 @@ public PacketLoggingConfiguration getConfiguration()
     }
 
     /**
-     * Dump the packet to the output file stream.
+     * Formats a packet as a pcap record, with its pcap header and fake
+     * ethernet, ip and transport headers, into a buffer.
      *
-     * @param packet the packet ot save.
-     * @throws Exception when error occurs saving to file stream or when
-     *  rotating files.
+     * @param buffer the buffer, large enough for the record
+     * @param isIPv4 whether the packet is written as an ipv4 one
+     * @param sourceAddress the source address of the packet.
+     * @param sourcePort the source port of the packet.
+     * @param destinationAddress the destination address.
+     * @param destinationPort the destination port.
+     * @param transport the transport this packet uses.
+     * @param sender are we the sender of the packet or not.
+     * @param packetContent the packet content.
+     * @param packetOffset the packet content offset.
+     * @param packetLength the packet content length.
      */
-    private void savePacket(Packet packet)
-        throws Exception
+    private void formatPacket(
+            ByteBuffer buffer,
+            boolean isIPv4,
+            byte[] sourceAddress,
+            int sourcePort,
+            byte[] destinationAddress,
+            int destinationPort,
+            TransportName transport,
+            boolean sender,
+            byte[] packetContent,
+            int packetOffset,
+            int packetLength)
     {
-        // if one of the addresses is ipv4 we are using ipv4,
-        // local udp addresses come as 0.0.0.0.0....0.0.0 when
-        // ipv6 is enabled in the underlying os
-        boolean isIPv4 = packet.sourceAddress.length == 4
-                || packet.destinationAddress.length == 4;
+        byte[] ipTemplate = isIPv4 ? ipHeaderTemplate : ip6HeaderTemplate;
+        byte[] transportHeaderTemplate
+            = (transport == TransportName.UDP)
+                ? udpHeaderTemplate
+                : tcpHeaderTemplate;
 
-        byte[] ipHeader;
+        int feakHeaderLen = fakeEthernetHeader.length +
+                (isIPv4 ? ipv4EtherType : ipv6EtherType).length +
+                ipTemplate.length + transportHeaderTemplate.length;
+        int inclLen = packetLength + feakHeaderLen;
+        int origLen = inclLen;
 
-        if(isIPv4)
-        {
-            ipHeader = new byte[ipHeaderTemplate.length];
-            System.arraycopy(
-                    ipHeaderTemplate, 0, ipHeader, 0, ipHeader.length);
-            System.arraycopy(packet.sourceAddress,
-                    0,
-                    ipHeader,
-                    12,
-                    4);
-            System.arraycopy(packet.destinationAddress,
-                    0,
-                    ipHeader,
-                    16,
-                    4);
-        }
-        else
-        {
-            ipHeader = new byte[ip6HeaderTemplate.length];
-            System.arraycopy(
-                    ip6HeaderTemplate, 0, ipHeader, 0, ipHeader.length);
-            System.arraycopy(packet.sourceAddress,
-                    0,
-                    ipHeader,
-                    8,
-                    16);
-
-            System.arraycopy(packet.destinationAddress,
-                    0,
-                    ipHeader,
-                    24,
-                    16);
-        }
+        long current = System.currentTimeMillis();
+        int tsSec = (int)(current/1000);
+        int tsUsec = (int)((current%1000) * 1000);
+
+        // the pcap header is in the byte order of the magic number
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(tsSec);
+        buffer.putInt(tsUsec);
+        buffer.putInt(inclLen);
+        buffer.putInt(origLen);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        buffer.put(fakeEthernetHeader);
+        buffer.put(isIPv4 ? ipv4EtherType : ipv6EtherType);
 
-        byte[] transportHeader;
-        short len;
-        if(packet.transport == TransportName.UDP)
+        int ipHeader = buffer.position();
+        buffer.put(ipTemplate);
+
+        int transportHeader = buffer.position();
+        buffer.put(transportHeaderTemplate);
+
+        short len = (short)(packetLength + transportHeaderTemplate.length);
+
+        if(transport == TransportName.UDP)
         {
-            byte[] udpHeader = new byte[udpHeaderTemplate.length];
-            transportHeader = udpHeader;
-            System.arraycopy(udpHeaderTemplate, 0,
-                    udpHeader, 0, udpHeader.length);
-
-            writeShort(packet.sourcePort, udpHeader, 0);
-            writeShort(packet.destinationPort, udpHeader, 2);
-            len = (short)(packet.packetLength + udpHeader.length);
-            writeShort(len, udpHeader, 4);
+            buffer.putShort(transportHeader, (short) sourcePort);
+            buffer.putShort(transportHeader + 2, (short) destinationPort);
+            buffer.putShort(transportHeader + 4, len);
         }
         else
         {
-            transportHeader = new byte[tcpHeaderTemplate.length];
-            System.arraycopy(tcpHeaderTemplate, 0, transportHeader,
-                   0, transportHeader.length);
-
-            writeShort(packet.sourcePort, transportHeader, 0);
-            writeShort(packet.destinationPort, transportHeader, 2);
+            buffer.putShort(transportHeader, (short) sourcePort);
+            buffer.putShort(transportHeader + 2, (short) destinationPort);
 
-            len = (short)(packet.packetLength + transportHeader.length);
-
-            if(packet.sender)
+            long seqnum;
+            long acknum;
+            synchronized(tcpCounterLock)
             {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
+                if(sender)
                 {
                     seqnum = srcCount;
-                    srcCount += packet.packetLength;
+                    srcCount += packetLength;
                     acknum = dstCount;
                 }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
-            }
-            else
-            {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
+                else
                 {
                     seqnum = dstCount;
-                    dstCount += packet.packetLength;
+                    dstCount += packetLength;
                     acknum = srcCount;
                 }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
             }
+
+            buffer.putInt(transportHeader + 4, (int)(seqnum & 0xffffffff));
+            buffer.putInt(transportHeader + 8, (int)(acknum & 0xffffffff));
         }
 
-        // now set ip header total length
+        byte protocolNumber
+            = (transport == TransportName.UDP) ? (byte)0x11 : (byte)0x06;
+
+        // now set ip header addresses and total length
         if(isIPv4)
         {
-            short ipTotalLen = (short)(len + ipHeader.length);
-            writeShort(ipTotalLen, ipHeader, 2);
+            putAddress(buffer, ipHeader + 12, sourceAddress, 4);
+            putAddress(buffer, ipHeader + 16, destinationAddress, 4);
 
-            if(packet.transport == TransportName.UDP)
-                ipHeader[9] = (byte)0x11;
-            else
-                ipHeader[9] = (byte)0x06;
+            short ipTotalLen = (short)(len + ipTemplate.length);
+            buffer.putShort(ipHeader + 2, ipTotalLen);
+            buffer.put(ipHeader + 9, protocolNumber);
 
-           int chk2 = computeChecksum(ipHeader);
-           ipHeader[10] = (byte) (chk2 >> 8);
-           ipHeader[11] = (byte) (chk2 & 0xff);
+            int chk2 = computeChecksum(buffer, ipHeader, ipTemplate.length);
+            buffer.putShort(ipHeader + 10, (short) chk2);
         }
         else
         {
-            writeShort(len, ipHeader, 4);
+            putAddress(buffer, ipHeader + 8, sourceAddress, 16);
+            putAddress(buffer, ipHeader + 24, destinationAddress, 16);
 
-            if(packet.transport == TransportName.UDP)
-                ipHeader[6] = (byte)0x11;
-            else
-                ipHeader[6] = (byte)0x06;
+            buffer.putShort(ipHeader + 4, len);
+            buffer.put(ipHeader + 6, protocolNumber);
         }
 
-        long current = System.currentTimeMillis();
-        int tsSec = (int)(current/1000);
-        int tsUsec = (int)((current%1000) * 1000);
-        int feakHeaderLen = fakeEthernetHeader.length +
-                (isIPv4 ? ipv4EtherType : ipv6EtherType).length +
-                ipHeader.length + transportHeader.length;
-        int inclLen = packet.packetLength + feakHeaderLen;
-        int origLen = inclLen;
-
-        synchronized(this)
-        {
-            // open files only if needed
-            if(outputStream == null)
-            {
-                getFileNames();
-                rotateFiles();// this one opens the file for write
-            }
-
-            long limit = getConfiguration().getLimit();
-
-            if((limit > 0) && (written > limit))
-                rotateFiles();
-
-            addInt(tsSec);
-            addInt(tsUsec);
-            addInt(inclLen);
-            addInt(origLen);
-
-            outputStream.write(fakeEthernetHeader);
-            outputStream.write(isIPv4 ? ipv4EtherType : ipv6EtherType);
-            outputStream.write(ipHeader);
-            outputStream.write(transportHeader);
-            outputStream.write(
-                    packet.packetContent,
-                    packet.packetOffset,
-                    packet.packetLength);
-            outputStream.flush();
-
-            written += inclLen + 16;
-        }
+        buffer.put(packetContent, packetOffset, packetLength);
     }
 
     /**
-     * Writes int to the file. Used for packet headers.
-     * @param d the value to write.
-     * @throws IOException
+     * Puts the first bytes of an address in a buffer.
+     *
+     * @param buffer the buffer
+     * @param index the index in the buffer
+     * @param address the address
+     * @param length the number of bytes to put
      */
-    private void addInt(int d)
-        throws IOException
+    private static void putAddress(
+            ByteBuffer buffer, int index, byte[] address, int length)
     {
-        outputStream.write ((d & 0xff));
-        outputStream.write(((d & 0xff00) >> 8));
-        outputStream.write(((d & 0xff0000) >> 16));
-        outputStream.write(((d & 0xff000000) >> 24));
+        for(int i = 0; i < length; i++)
+            buffer.put(index + i, address[i]);
     }
 
     /**
-     * Converts a 32-bit word representation of an IPv4 address to a
-     * byte array.
+     * Writes packets to the output file, rotating the files when needed.
      *
-     * @param address The 32-bit word representation of the IPv4 address.
-     * @param data The byte array in which to store the IPv4 data.
-     * @param offset The offset into the array where the data start.
+     * @param buffers the formatted packets
+     * @param count the number of packets
+     * @throws Exception when error occurs writing the file or when
+     *  rotating files.
      */
-    private static final void intToBytes(int address, byte[] data,
-                                       int offset)
+    private void savePackets(ByteBuffer[] buffers, int count)
+        throws Exception
     {
-        data[offset] = (byte)(0xff & (address >>> 24));
-        data[offset + 1] = (byte)(0xff & (address >>> 16));
-        data[offset + 2] = (byte)(0xff & (address >>> 8));
-        data[offset + 3] = (byte)(0xff & address);
-    }
+        long length = 0;
+        for(int i = 0; i < count; i++)
+            length += buffers[i].remaining();
 
-    /**
-     * Puts the short value to the array.
-     * @param value value to convert to bytes.
-     * @param data destination data
-     * @param offset offset in the data
-     */
-    private static void writeShort(int value, byte[] data, int offset)
-    {
-        data[offset] = (byte) (value >> 8);
-        data[offset + 1] = (byte) value;
+        // open files only if needed
+        if(fileChannel == null)
+        {
+            getFileNames();
+            rotateFiles();// this one opens the file for write
+        }
+        else
+        {
+            long limit = getConfiguration().getLimit();
+
+            if((limit > 0) && (written > limit))
+                rotateFiles();
+        }
+
+        // a gathering write of all the packets
+        long remaining = length;
+        while(remaining > 0)
+            remaining -= fileChannel.write(buffers, 0, count);
+
+        written += length;
     }
 
     /**
      * Calculates checksums assuming the checksum is a 16-bit header field.
      */
-    private int computeChecksum(byte[] data)
+    private static int computeChecksum(ByteBuffer data, int offset, int length)
     {
         int total = 0;
-        int i = 0;
+        int i = offset;
+        int end = offset + length;
 
         // Don't Skip existing checksum cause its set to 0000
-        int imax = data.length - (data.length % 2);
+        int imax = end - (length % 2);
 
         while(i < imax)
-            total+=(((data[i++] & 0xff) << 8) | (data[i++] & 0xff));
+        {
+            total+=(((data.get(i) & 0xff) << 8) | (data.get(i + 1) & 0xff));
+            i += 2;
+        }
 
-        if(i < data.length)
-            total+=((data[i] & 0xff) << 8);
+        if(i < end)
+            total+=((data.get(i) & 0xff) << 8);
 
         // Fold to 16 bits
         while((total & 0xffff0000) != 0)
@@ -677,118 +747,44 @@ private int computeChecksum(byte[] data)
     }
 
     /**
-     * The data we receive and that we will dump in a file.
+     * Dumps packet in separate thread so we don't block
+     * our calling thread.
      */
-    private static class Packet
+    private class SaverThread
+        extends Thread
     {
         /**
-         * The protocol logging this packet.
-         */
-        ProtocolName protocol;
-
-        /**
-         * The source address of the packet.
-         */
-        byte[] sourceAddress;
-
-        /**
-         * The source port of the packet.
-         */
-        int sourcePort;
-
-        /**
-         * The destination address of the packet.
-         */
-        byte[] destinationAddress;
-
-        /**
-         * The destination port of the packet.
-         */
-        int destinationPort;
-
-        /**
-         * Is the packet a udp one.
-         */
-        TransportName transport;
-
-        /**
-         * Are we sending the packet, or false if we are receiving.
+         * start/stop indicator.
          */
-        boolean sender;
+        private volatile boolean stopped = false;
 
         /**
-         * Array containing packet content.
+         * The packets being written.
          */
-        byte[] packetContent;
+        private final List<PacketRing.Slot> slots
+            = new ArrayList<PacketRing.Slot>(MAX_GATHERED_PACKETS);
 
         /**
-         * The offset in the packetContent where packet content is.
+         * The buffers of the packets being written.
          */
-        int packetOffset;
+        private final ByteBuffer[] buffers
+            = new ByteBuffer[MAX_GATHERED_PACKETS];
 
         /**
-         * The length of the packet content.
+         * The protocols, whose dropped packets are reported.
          */
-        int packetLength;
+        private final ProtocolName[] protocols = ProtocolName.values();
 
         /**
-         * Creates a packet with the needed data.
-         * @param protocol the source protocol that logs this packet.
-         * @param sourceAddress The source address of the packet.
-         * @param sourcePort The source port of the packet.
-         * @param destinationAddress The destination address of the packet.
-         * @param destinationPort The destination port of the packet.
-         * @param transport the transport this packet uses.
-         * @param sender Are we sending the packet,
-         *  or false if we are receiving.
-         * @param packetContent Array containing packet content.
-         * @param packetOffset The offset in the packetContent
-         *  where packet content is.
-         * @param packetLength The length of the packet content.
+         * The number of dropped packets by protocol, when they were last
+         * reported.
          */
-        private Packet(ProtocolName protocol,
-                       byte[] sourceAddress,
-                       int sourcePort,
-                       byte[] destinationAddress,
-                       int destinationPort,
-                       TransportName transport,
-                       boolean sender,
-                       byte[] packetContent,
-                       int packetOffset,
-                       int packetLength)
-        {
-            this.protocol = protocol;
-            this.sourceAddress
-                = sourceAddress != null ? sourceAddress : new byte[4];
-            this.sourcePort = sourcePort;
-            this.destinationAddress
-                = destinationAddress != null ? destinationAddress : new byte[4];
-            this.destinationPort = destinationPort;
-            this.transport = transport;
-            this.sender = sender;
-            this.packetContent = packetContent;
-            this.packetOffset = packetOffset;
-            this.packetLength = packetLength;
-        }
-    }
+        private final long[] reportedDrops = new long[protocols.length];
 
-    /**
-     * Dumps packet in separate thread so we don't block
-     * our calling thread.
-     */
-    private class SaverThread
-        extends Thread
-    {
         /**
-         * start/stop indicator.
+         * The time the dropped packets were last reported.
          */
-        private boolean stopped = true;
-
-        /**
-         * List of packets queued to be written in the file.
-         */
-        private final EvictingQueue<Packet> pktsToSave
-            = EvictingQueue.create(EVICTING_QUEUE_MAX_SIZE);
+        private long lastDropReport = 0;
 
         /**
          * Initializes a new <tt>SaverThread</tt>.
@@ -796,80 +792,121 @@ private Packet(ProtocolName protocol,
         SaverThread()
         {
             setName(PacketLoggingServiceImpl.class.getName() + " SaverThread");
+            setDaemon(true);
         }
 
         /**
-         * Sends instant messages in separate thread so we don't block
+         * Writes the queued packets in separate thread so we don't block
          * our calling thread.
          */
         @Override
         public void run()
         {
-            stopped = false;
-            while(!stopped)
+            try
             {
-                Packet pktToSave;
-
-                synchronized(this)
+                while(!stopped)
                 {
-                    if(pktsToSave.isEmpty())
+                    try
                     {
-                        try
+                        if(ring.drainTo(
+                                slots, MAX_GATHERED_PACKETS, POLL_INTERVAL)
+                            > 0)
                         {
-                            wait();
+                            saveSlots();
                         }
-                        catch (InterruptedException iex)
-                        {
-                        }
-                        continue;
-                    }
-
-                    pktToSave = pktsToSave.poll();
-                }
-
-                if(pktToSave != null)
-                {
-                    try
-                    {
-                        savePacket(pktToSave);
                     }
-                    catch(Throwable t)
+                    catch (InterruptedException iex)
                     {
-                        /*
-                         * XXX ThreadDeath must be rethrown; otherwise, the
-                         * related Thread will not die.
-                         */
-                        if (t instanceof ThreadDeath)
-                            throw (ThreadDeath) t;
-                        else
-                            logger.error("Error writing packet to file", t);
                     }
+
+                    reportDrops(false);
                 }
+
+                // write what was queued before we were stopped
+                while(ring.drainTo(slots, MAX_GATHERED_PACKETS, 0) > 0)
+                    saveSlots();
+                reportDrops(true);
+            }
+            catch (InterruptedException iex)
+            {
+            }
+            finally
+            {
+                closeFile();
             }
         }
 
         /**
-         * Interrupts this sender so that it would no longer send messages.
+         * Writes the drained packets and frees their buffers.
          */
-        public synchronized void stopRunning()
+        private void saveSlots()
         {
-            stopped = true;
-            notifyAll();
+            int count = slots.size();
+
+            try
+            {
+                for(int i = 0; i < count; i++)
+                    buffers[i] = slots.get(i).buffer;
+
+                savePackets(buffers, count);
+            }
+            catch(Throwable t)
+            {
+                /*
+                 * XXX ThreadDeath must be rethrown; otherwise, the
+                 * related Thread will not die.
+                 */
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                else
+                    logger.error("Error writing packet to file", t);
+            }
+            finally
+            {
+                for(int i = 0; i < count; i++)
+                {
+                    buffers[i] = null;
+                    ring.release(slots.get(i));
+                }
+                slots.clear();
+            }
         }
 
         /**
-         * Schedule new packet for save.
-         * @param packet new packet to save.
+         * Logs the number of packets of each protocol dropped since the
+         * last report, at most once per {@link #DROP_REPORT_INTERVAL}.
+         *
+         * @param now whether to report without waiting for the interval
          */
-        public synchronized void queuePacket(Packet packet)
+        private void reportDrops(boolean now)
         {
-            if (EVICTING_QUEUE_MAX_SIZE - pktsToSave.size() == 0)
+            long current = System.currentTimeMillis();
+            if(!now && current - lastDropReport < DROP_REPORT_INTERVAL)
+                return;
+            lastDropReport = current;
+
+            for(ProtocolName protocol : protocols)
             {
-                logger.warn("Queue is full, packets are being evicted.");
+                long dropped = ring.getDroppedCount(protocol);
+                long newDrops = dropped - reportedDrops[protocol.ordinal()];
+
+                if(newDrops > 0)
+                {
+                    reportedDrops[protocol.ordinal()] = dropped;
+                    logger.warn("Packet log is behind, dropped " + newDrops
+                        + " " + protocol + " packets (" + dropped
+                        + " in total).");
+                }
             }
+        }
 
-            pktsToSave.add(packet);
-            notifyAll();
+        /**
+         * Interrupts this saver so that it would write the queued packets
+         * and stop.
+         */
+        public void stopRunning()
+        {
+            stopped = true;
         }
     }
 }
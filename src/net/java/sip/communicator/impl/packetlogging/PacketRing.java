@@ -0,0 +1,277 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.jitsi.service.packetlogging.*;
+
+/**
+ * The buffers the logged packets are formatted into and handed over to the
+ * thread writing them to the file. All the buffers are direct and allocated
+ * upfront: the threads logging packets take a free buffer, fill it and
+ * publish it, and the writing thread returns it to the free buffers once it
+ * is written.
+ * <p>
+ * Media packets (RTP and ICE4J) may only hold a part of the buffers, so that
+ * the signalling packets always find one, and are dropped rather than
+ * waited for when there is none, since they are logged from the media
+ * threads. The signalling packets wait a little for a buffer. The dropped
+ * packets are counted by protocol.
+ */
+class PacketRing
+{
+    /**
+     * A buffer and the protocol of the packet it holds.
+     */
+    static class Slot
+    {
+        /**
+         * The buffer.
+         */
+        final ByteBuffer buffer;
+
+        /**
+         * Whether the buffer is one for the small packets.
+         */
+        private final boolean small;
+
+        /**
+         * The protocol of the packet the buffer holds.
+         */
+        PacketLoggingService.ProtocolName protocol;
+
+        /**
+         * Creates a slot with a direct buffer.
+         *
+         * @param capacity the capacity of the buffer
+         * @param small whether the buffer is one for the small packets
+         */
+        private Slot(int capacity, boolean small)
+        {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            this.small = small;
+        }
+    }
+
+    /**
+     * The number of milliseconds a signalling packet waits for a free
+     * buffer before it is dropped.
+     */
+    static final long SIGNALLING_WAIT = 100;
+
+    /**
+     * The capacity of the buffers of the packets which are not larger than
+     * a datagram on an ethernet link.
+     */
+    private final int smallCapacity;
+
+    /**
+     * The free buffers for the packets up to {@link #smallCapacity} bytes.
+     */
+    private final BlockingQueue<Slot> freeSmall;
+
+    /**
+     * The capacity of the buffers of the larger packets.
+     */
+    private final int largeCapacity;
+
+    /**
+     * The free buffers for the larger packets, like the SIP and XMPP
+     * messages over TCP.
+     */
+    private final BlockingQueue<Slot> freeLarge;
+
+    /**
+     * The filled buffers, in the order they are to be written.
+     */
+    private final BlockingQueue<Slot> ready;
+
+    /**
+     * The number of buffers the media packets may hold.
+     */
+    private final int mediaQuota;
+
+    /**
+     * The number of buffers the media packets hold.
+     */
+    private final AtomicInteger mediaInUse = new AtomicInteger();
+
+    /**
+     * The number of dropped packets, by protocol.
+     */
+    private final AtomicLongArray dropped
+        = new AtomicLongArray(
+                PacketLoggingService.ProtocolName.values().length);
+
+    /**
+     * Creates the buffers.
+     *
+     * @param smallCount the number of buffers for the small packets
+     * @param smallCapacity the capacity of the buffers for the small packets
+     * @param largeCount the number of buffers for the large packets
+     * @param largeCapacity the capacity of the buffers for the large packets
+     */
+    PacketRing(int smallCount, int smallCapacity,
+               int largeCount, int largeCapacity)
+    {
+        this.smallCapacity = smallCapacity;
+        this.largeCapacity = largeCapacity;
+
+        freeSmall = new ArrayBlockingQueue<Slot>(smallCount);
+        for (int i = 0; i < smallCount; i++)
+            freeSmall.add(new Slot(smallCapacity, true));
+
+        freeLarge = new ArrayBlockingQueue<Slot>(largeCount);
+        for (int i = 0; i < largeCount; i++)
+            freeLarge.add(new Slot(largeCapacity, false));
+
+        ready = new ArrayBlockingQueue<Slot>(smallCount + largeCount);
+        mediaQuota = smallCount / 2;
+    }
+
+    /**
+     * Whether the packets of a protocol are media packets.
+     *
+     * @param protocol the protocol
+     * @return <tt>true</tt> for RTP and ICE4J
+     */
+    private static boolean isMedia(PacketLoggingService.ProtocolName protocol)
+    {
+        return protocol == PacketLoggingService.ProtocolName.RTP
+            || protocol == PacketLoggingService.ProtocolName.ICE4J;
+    }
+
+    /**
+     * Takes a free buffer for a packet, or counts the packet as dropped if
+     * there is none or the media packets hold their share of the buffers.
+     *
+     * @param protocol the protocol of the packet
+     * @param size the number of bytes of the packet
+     * @return the slot of the buffer, which is cleared, or <tt>null</tt> if
+     * the packet is dropped
+     */
+    Slot acquire(PacketLoggingService.ProtocolName protocol, int size)
+    {
+        boolean small = size <= smallCapacity;
+        Slot slot = null;
+
+        if (size > largeCapacity)
+        {
+            // too large to be logged
+        }
+        else if (isMedia(protocol))
+        {
+            if (mediaInUse.incrementAndGet() <= mediaQuota)
+            {
+                slot = small ? freeSmall.poll() : freeLarge.poll();
+            }
+            if (slot == null)
+                mediaInUse.decrementAndGet();
+        }
+        else
+        {
+            try
+            {
+                slot = small
+                    ? freeSmall.poll(SIGNALLING_WAIT, TimeUnit.MILLISECONDS)
+                    : freeLarge.poll(SIGNALLING_WAIT, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (slot == null)
+        {
+            dropped.incrementAndGet(protocol.ordinal());
+            return null;
+        }
+
+        slot.protocol = protocol;
+        slot.buffer.clear();
+        return slot;
+    }
+
+    /**
+     * Hands a filled buffer over to the writing thread.
+     *
+     * @param slot the slot of the buffer, which is flipped
+     */
+    void publish(Slot slot)
+    {
+        slot.buffer.flip();
+        // there is room for all the buffers
+        ready.add(slot);
+    }
+
+    /**
+     * Waits for filled buffers and moves them to a list, up to a number of
+     * buffers.
+     *
+     * @param slots the list the buffers are moved to
+     * @param max the maximum number of buffers to move
+     * @param timeout the maximum number of milliseconds to wait
+     * @return the number of buffers moved
+     * @throws InterruptedException if the thread is interrupted while it
+     * waits
+     */
+    int drainTo(List<Slot> slots, int max, long timeout)
+        throws InterruptedException
+    {
+        Slot first = ready.poll(timeout, TimeUnit.MILLISECONDS);
+        if (first == null)
+            return 0;
+
+        slots.add(first);
+        return 1 + ready.drainTo(slots, max - 1);
+    }
+
+    /**
+     * Returns a buffer which is written, or which was not filled, to the
+     * free buffers.
+     *
+     * @param slot the slot of the buffer
+     */
+    void release(Slot slot)
+    {
+        if (isMedia(slot.protocol))
+            mediaInUse.decrementAndGet();
+        slot.protocol = null;
+
+        if (slot.small)
+            freeSmall.add(slot);
+        else
+            freeLarge.add(slot);
+    }
+
+    /**
+     * Returns the number of packets of a protocol which were dropped.
+     *
+     * @param protocol the protocol
+     * @return the number of packets dropped since the buffers were created
+     */
+    long getDroppedCount(PacketLoggingService.ProtocolName protocol)
+    {
+        return dropped.get(protocol.ordinal());
+    }
+}
@@ -206,6 +206,18 @@
      */
     private ChatRoomPresenceListener presenceListener = null;
 
+    /**
+     * The listener for our own presence in the room while we join it.
+     */
+    private OwnPresenceListener ownPresenceListener = null;
+
+    /**
+     * Whether the occupants which were in the room before we joined it have
+     * all been reported. They are reported as members who joined because of
+     * the user list, so that they are not announced one after the other.
+     */
+    private volatile boolean initialOccupantsReceived = true;
+
     /**
      * Creates an instance of a chat room that has been.
      *
@@ -710,10 +722,43 @@ public void joinAs(String nickname, byte[] password)
                     new AndFilter(
                         FromMatchesFilter.create(multiUserChat.getRoom()),
                         new StanzaTypeFilter(Presence.class)));
-                if(password == null)
-                    multiUserChat.join(this.nickname);
-                else
-                    multiUserChat.join(this.nickname, new String(password));
+
+                // The room sends the presences of its occupants before our
+                // own one. Smack reports them to the MemberListener from its
+                // synchronous listeners, in order, so a synchronous listener
+                // of our own presence tells when they have all been reported.
+                removeOwnPresenceListener();
+                initialOccupantsReceived = false;
+                ownPresenceListener = new OwnPresenceListener();
+                this.provider.getConnection().addSyncStanzaListener(
+                    ownPresenceListener,
+                    new AndFilter(
+                        FromMatchesFilter.create(multiUserChat.getRoom()),
+                        new StanzaTypeFilter(Presence.class),
+                        new OrFilter(
+                            MUCUserStatusCodeFilter
+                                .STATUS_110_PRESENCE_TO_SELF,
+                            FromMatchesFilter.createFull(
+                                JidCreate.fullFrom(
+                                    multiUserChat.getRoom(),
+                                    this.nickname)))));
+                boolean joined = false;
+                try
+                {
+                    if(password == null)
+                        multiUserChat.join(this.nickname);
+                    else
+                        multiUserChat.join(this.nickname, new String(password));
+                    joined = true;
+                }
+                finally
+                {
+                    if (!joined)
+                    {
+                        removeOwnPresenceListener();
+                        initialOccupantsReceived = true;
+                    }
+                }
             }
 
             ChatRoomMemberJabberImpl member
@@ -1067,6 +1112,8 @@ private void leave(String reason, EntityBareJid alternateAddress)
                 presenceListener = null;
             }
         }
+        removeOwnPresenceListener();
+        initialOccupantsReceived = true;
 
         opSetMuc.fireLocalUserPresenceEvent(
             this,
@@ -1374,16 +1421,13 @@ public void joined(EntityFullJid participant)
             // We try to get the nickname of the participantName in case it's
             // in the form john@servicename.com, because the nickname we keep
             // in the nickname property is just the user name like "john".
+            // When somebody changes its nickname we first receive the event
+            // for its nickname change and after that the one that it has
+            // joined, so we skip the members we already have.
             if (nickname.equals(participantName)
                 || members.containsKey(participantName))
                 return;
 
-            // when somebody changes its nickname we first receive
-            // event for its nickname changed and after that that has joined
-            // we check is this already joined and if so we skip it
-            if(members.contains(participantName))
-                return;
-
             Occupant occupant = multiUserChat.getOccupant(participant);
 
             //smack returns fully qualified occupant names.
@@ -1397,9 +1441,13 @@ public void joined(EntityFullJid participant)
 
             members.put(participantName, member);
 
-            //we don't specify a reason
+            // the occupants which were in the room before us are reported
+            // as the user list, the others without a reason
             fireMemberPresenceEvent(member,
-                ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED, null);
+                ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                initialOccupantsReceived
+                    ? null
+                    : ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST);
         }
 
         /**
@@ -3540,6 +3588,43 @@ public void processStanza(Stanza packet)
         }
     }
 
+    /**
+     * Stops listening for our own presence in the room, if we still do.
+     */
+    private void removeOwnPresenceListener()
+    {
+        XMPPConnection connection = provider.getConnection();
+
+        if (ownPresenceListener != null && connection != null)
+            connection.removeSyncStanzaListener(ownPresenceListener);
+        ownPresenceListener = null;
+    }
+
+    /**
+     * Listens for our own presence in the room while we join it, which comes
+     * after the presences of the occupants which were already in the room.
+     */
+    private class OwnPresenceListener
+        implements StanzaListener
+    {
+        /**
+         * Marks the occupants which were in the room before us as all
+         * reported and stops listening.
+         *
+         * @param packet our own presence in the room
+         */
+        @Override
+        public void processStanza(Stanza packet)
+        {
+            initialOccupantsReceived = true;
+
+            XMPPConnection connection = provider.getConnection();
+
+            if (connection != null)
+                connection.removeSyncStanzaListener(this);
+        }
+    }
+
     /**
      * The <tt>PacketInterceptor</tt> we use to make sure that our outgoing
      * <tt>Presence</tt> packets contain the correct
@@ -25,6 +25,7 @@
 import java.security.cert.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import javax.net.ssl.*;
 
@@ -891,54 +892,75 @@ private ConnectState connectUsingSRVRecords(
 
         if(srvRecords != null)
         {
+            // look all the targets up at once, so that the lookups overlap
+            // instead of each one waiting for the connect attempts before it
+            List<Future<InetSocketAddress[]>> lookups
+                = new ArrayList<Future<InetSocketAddress[]>>(
+                        srvRecords.length);
+
             for(SRVRecord srv : srvRecords)
             {
-                InetSocketAddress[] addrs = null;
-                try
-                {
-                    addrs =
-                        NetworkUtils.getAandAAAARecords(
-                            srv.getTarget(),
-                            srv.getPort()
-                        );
-                }
-                catch (ParseException e)
-                {
-                    logger.error("Invalid SRV record target", e);
-                }
-                catch (DnssecException e)
-                {
-                    logger.error("DNSSEC failure for A/AAAA lookup of SRV", e);
-                    dnssecState[0] = true;
-                }
-
-                if (addrs == null || addrs.length == 0)
-                {
-                    logger.error("No A/AAAA addresses found for " +
-                        srv.getTarget());
-                    continue;
-                }
+                lookups.add(
+                    NetworkUtils.getAandAAAARecordsAsync(
+                        srv.getTarget(),
+                        srv.getPort()));
+            }
 
-                for (InetSocketAddress isa : addrs)
+            try
+            {
+                for(int i = 0; i < srvRecords.length; i++)
                 {
+                    SRVRecord srv = srvRecords[i];
+                    InetSocketAddress[] addrs = null;
                     try
                     {
-                        return connectAndLogin(
-                            isa, serviceName, loginStrategy);
+                        addrs = NetworkUtils.getLookupResult(lookups.get(i));
+                    }
+                    catch (ParseException e)
+                    {
+                        logger.error("Invalid SRV record target", e);
                     }
-                    catch(XMPPException ex)
+                    catch (DnssecException e)
                     {
-                        logger.error("Error connecting to " + isa
-                            + " for domain:" + domain
-                            + " serviceName:" + serviceName, ex);
+                        logger.error(
+                            "DNSSEC failure for A/AAAA lookup of SRV", e);
+                        dnssecState[0] = true;
+                    }
 
-                        disconnectAndCleanConnection();
+                    if (addrs == null || addrs.length == 0)
+                    {
+                        logger.error("No A/AAAA addresses found for " +
+                            srv.getTarget());
+                        continue;
+                    }
 
-                        if(isAuthenticationFailed(ex))
-                            throw ex;
+                    for (InetSocketAddress isa : addrs)
+                    {
+                        try
+                        {
+                            return connectAndLogin(
+                                isa, serviceName, loginStrategy);
+                        }
+                        catch(XMPPException ex)
+                        {
+                            logger.error("Error connecting to " + isa
+                                + " for domain:" + domain
+                                + " serviceName:" + serviceName, ex);
+
+                            disconnectAndCleanConnection();
+
+                            if(isAuthenticationFailed(ex))
+                                throw ex;
+                        }
                     }
                 }
             }
+            finally
+            {
+                // the targets left are not needed once connected
+                for (Future<InetSocketAddress[]> lookup : lookups)
+                    lookup.cancel(true);
+            }
         }
         else
             logger.error("No SRV addresses found for _xmpp-client._tcp."
@@ -25,6 +25,8 @@
 
 import java.net.*;
 import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import javax.sip.*;
 
@@ -78,6 +80,12 @@ public SRVRecord[] getSRVRecords(String service, String proto,
             return NetworkUtils.getSRVRecords(service, proto, address);
         }
 
+        public Future<SRVRecord[]> getSRVRecordsAsync(String service,
+            String proto, String address)
+        {
+            return NetworkUtils.getSRVRecordsAsync(service, proto, address);
+        }
+
         public InetSocketAddress[] getAandAAAARecords(String target, int port)
             throws ParseException, DnssecException
         {
@@ -117,6 +125,7 @@ public SRVRecord[] getSRVRecords(String domain)
     private SRVRecord[] srvRecords;
     private int srvRecordsIndex;
     private int srvTransportIndex;
+    private List<Future<SRVRecord[]>> srvLookups;
     private InetSocketAddress socketAddresses[];
     private int socketAddressIndex;
 
@@ -241,6 +250,7 @@ private boolean getNextAddressInternal()
                     hadSrvResults = false;
                     state = State.Srv;
                     srvTransportIndex = 0;
+                    startSrvLookups();
                 }
 
                 return getNextAddressFromDns();
@@ -298,14 +308,7 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
             case Srv:
                 for(;srvTransportIndex < transports.length; srvTransportIndex++)
                 {
-                    srvRecords = nu.getSRVRecords(
-                        (TLS.equals(transports[srvTransportIndex])
-                            ? "sips"
-                            : "sip"),
-                        (UDP.equalsIgnoreCase(transports[srvTransportIndex])
-                            ? UDP
-                            : TCP),
-                        address);
+                    srvRecords = getSrvLookupResult(srvTransportIndex);
                     if(srvRecords != null && srvRecords.length > 0)
                     {
                         hadSrvResults = true;
@@ -379,6 +382,63 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
         return false;
     }
 
+    /**
+     * Starts the SRV lookups of all the transports at once, so that they
+     * overlap instead of each one waiting for the previous one.
+     */
+    private void startSrvLookups()
+    {
+        srvLookups = new ArrayList<Future<SRVRecord[]>>(transports.length);
+        for (String transport : transports)
+        {
+            srvLookups.add(nu.getSRVRecordsAsync(
+                (TLS.equals(transport) ? "sips" : "sip"),
+                (UDP.equalsIgnoreCase(transport) ? UDP : TCP),
+                address));
+        }
+    }
+
+    /**
+     * Waits for the SRV lookup of a transport started by
+     * {@link #startSrvLookups()}.
+     *
+     * @param transportIndex the index of the transport in
+     * <tt>transports</tt>
+     * @return the SRV records of the transport or <tt>null</tt> if there
+     * are none or the thread was interrupted
+     * @throws DnssecException When a DNSSEC failure occured during the lookup.
+     * @throws ParseException When the domain name is invalid.
+     */
+    private SRVRecord[] getSrvLookupResult(int transportIndex)
+        throws DnssecException, ParseException
+    {
+        try
+        {
+            return NetworkUtils.getLookupResult(
+                srvLookups.get(transportIndex));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted during SRV lookup for <" + address
+                + ">");
+            return null;
+        }
+    }
+
+    /**
+     * Cancels the SRV lookups which have not completed yet.
+     */
+    private void cancelSrvLookups()
+    {
+        if (srvLookups != null)
+        {
+            for (Future<SRVRecord[]> lookup : srvLookups)
+                lookup.cancel(true);
+            srvLookups = null;
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -389,6 +449,7 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
     public void reset()
     {
         super.reset();
+        cancelSrvLookups();
         state = State.New;
 
         //determine the hostname of the proxy for autodetection:
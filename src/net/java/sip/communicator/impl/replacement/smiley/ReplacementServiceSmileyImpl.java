@@ -57,6 +57,13 @@
      */
     public static String smileyRegex;
 
+    /**
+     * The <tt>Collection</tt> of <tt>Smiley</tt>s {@link #smileyRegex} was
+     * last checked against, so that it is not compared to the smiley strings
+     * of the same pack again.
+     */
+    private static Collection<Smiley> smileyRegexPack;
+
     /**
      * Replaces the smiley strings with their corresponding smiley image.
      *
@@ -96,6 +103,9 @@ private static String getSmileyPattern(Collection<Smiley> smileys)
     {
         synchronized (smileyStrings)
         {
+            if (smileys == smileyRegexPack)
+                return smileyRegex;
+
             boolean smileyStringsIsEqual;
 
             if (smileyRegex == null)
@@ -144,6 +154,7 @@ private static String getSmileyPattern(Collection<Smiley> smileys)
 
                 smileyRegex = regex.toString();
             }
+            smileyRegexPack = smileys;
             return smileyRegex;
         }
     }
@@ -34,6 +34,12 @@
      */
     private static Collection<Smiley> defaultSmileyPack;
 
+    /**
+     * The <tt>Smiley</tt>s of the default pack by smiley string.
+     */
+    private static Map<String, Smiley> smileysByString
+        = Collections.emptyMap();
+
     /**
      * Load default smileys pack.
      *
@@ -112,6 +118,14 @@ public static Collection<Smiley> getDefaultSmileyPack()
         defaultSmileyList.add(new SmileyImpl("service.gui.smileys.SMILEY21",
             new String[] {";-)", ";)"}, "Wink"));
 
+        Map<String, Smiley> smileys = new HashMap<String, Smiley>();
+
+        for (Smiley smiley : defaultSmileyList)
+            for (String smileyString : smiley.getSmileyStrings())
+                if (!smileys.containsKey(smileyString))
+                    smileys.put(smileyString, smiley);
+
+        smileysByString = smileys;
         defaultSmileyPack
             = Collections.unmodifiableCollection(defaultSmileyList);
 
@@ -125,11 +139,8 @@ public static Collection<Smiley> getDefaultSmileyPack()
      */
     public static Smiley getSmiley(String smileyString)
     {
-        for (Smiley smiley : getDefaultSmileyPack())
-            for (String srcString : smiley.getSmileyStrings())
-                if (srcString.equals(smileyString))
-                    return smiley;
-        return null;
+        getDefaultSmileyPack();
+        return smileysByString.get(smileyString);
     }
 
     /**
@@ -0,0 +1,434 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.sysactivity;
+
+import java.nio.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import com.sun.jna.*;
+
+/**
+ * Listens to the Linux kernel for the changes of the network interfaces,
+ * their addresses and the default routes, on a <tt>NETLINK_ROUTE</tt>
+ * socket opened through JNA, and reports them as network change events.
+ * <p>
+ * The kernel sends a burst of messages for a single change (the link, then
+ * each address, then the routes), so the messages received within
+ * {@link #COALESCE_DELAY} of the first one are reported as one event.
+ */
+class NetlinkNetworkMonitor
+    implements SystemActivityManager,
+               Runnable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>NetlinkNetworkMonitor</tt> class
+     * and its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(NetlinkNetworkMonitor.class);
+
+    /**
+     * JNA interface to LibC.
+     */
+    interface LibC
+        extends Library
+    {
+        public static final int AF_NETLINK = 16;
+
+        public static final int SOCK_RAW = 3;
+
+        public static final int NETLINK_ROUTE = 0;
+
+        public static final int SOL_SOCKET = 1;
+
+        public static final int SO_RCVTIMEO = 20;
+
+        public static final int EINTR = 4;
+
+        public static final int EAGAIN = 11;
+
+        public static final int ENOBUFS = 105;
+
+        // see the man pages for the mapped C functions
+        int socket(int domain, int type, int protocol);
+        int bind(int fd, sockaddr_nl addr, int addrlen);
+        int setsockopt(int fd, int level, int name, timeval value, int len);
+        NativeLong recv(int fd, byte[] buf, NativeLong len, int flags);
+        int close(int fd);
+        String strerror(int error);
+    }
+
+    /**
+     * JNA mapping of <tt>sockaddr_nl</tt>.
+     */
+    public static class sockaddr_nl
+        extends Structure
+    {
+        public short nl_family = LibC.AF_NETLINK;
+        public short nl_pad;
+        public int nl_pid;
+        public int nl_groups;
+
+        @Override
+        protected List<String> getFieldOrder()
+        {
+            return Arrays.asList(
+                new String[] { "nl_family", "nl_pad", "nl_pid", "nl_groups" });
+        }
+    }
+
+    /**
+     * JNA mapping of <tt>timeval</tt>.
+     */
+    public static class timeval
+        extends Structure
+    {
+        public NativeLong tv_sec;
+        public NativeLong tv_usec;
+
+        @Override
+        protected List<String> getFieldOrder()
+        {
+            return Arrays.asList(new String[] { "tv_sec", "tv_usec" });
+        }
+    }
+
+    /*
+     * The multicast groups of the NETLINK_ROUTE protocol.
+     */
+    static final int RTMGRP_LINK = 0x1;
+    static final int RTMGRP_IPV4_IFADDR = 0x10;
+    static final int RTMGRP_IPV4_ROUTE = 0x40;
+    static final int RTMGRP_IPV6_IFADDR = 0x100;
+    static final int RTMGRP_IPV6_ROUTE = 0x400;
+
+    /*
+     * The types of the netlink messages.
+     */
+    static final int NLMSG_HDRLEN = 16;
+    static final int NLMSG_OVERRUN = 4;
+    static final int RTM_NEWLINK = 16;
+    static final int RTM_DELLINK = 17;
+    static final int RTM_NEWADDR = 20;
+    static final int RTM_DELADDR = 21;
+    static final int RTM_NEWROUTE = 24;
+    static final int RTM_DELROUTE = 25;
+
+    /*
+     * The interface flags whose changes are network changes.
+     */
+    static final int IFF_UP = 0x1;
+    static final int IFF_RUNNING = 0x40;
+    static final int IFF_LOWER_UP = 0x10000;
+
+    /**
+     * The main routing table.
+     */
+    static final int RT_TABLE_MAIN = 254;
+
+    /**
+     * The number of milliseconds the messages following the first message
+     * of a change are waited for before the change is reported.
+     */
+    static final long COALESCE_DELAY = 50;
+
+    /**
+     * The number of seconds after which a blocked read returns so that the
+     * reading thread notices it was stopped.
+     */
+    private static final int READ_TIMEOUT = 1;
+
+    /**
+     * The service which delivers the network change events.
+     */
+    private final SystemActivityNotificationsServiceImpl service;
+
+    /**
+     * The mapped LibC or <tt>null</tt> if it could not be loaded.
+     */
+    private LibC libc;
+
+    /**
+     * The netlink socket or <tt>-1</tt> if it is not open.
+     */
+    private int fd = -1;
+
+    /**
+     * The thread reading the socket. A thread which is not this one anymore
+     * stops reading.
+     */
+    private volatile Thread readThread;
+
+    /**
+     * Reports the changes, once the burst of messages is received.
+     */
+    private Timer timer;
+
+    /**
+     * Whether a change was received and is to be reported.
+     */
+    private boolean changePending = false;
+
+    /**
+     * Whether the monitor is running.
+     */
+    private boolean running = false;
+
+    /**
+     * Creates a monitor delivering the network changes through a service.
+     *
+     * @param service the service which delivers the events
+     */
+    NetlinkNetworkMonitor(SystemActivityNotificationsServiceImpl service)
+    {
+        this.service = service;
+    }
+
+    /**
+     * Opens the netlink socket and starts reading it. The monitor is not
+     * connected if the socket could not be opened.
+     */
+    public synchronized void start()
+    {
+        if (running)
+            return;
+
+        try
+        {
+            libc = (LibC) Native.loadLibrary("c", LibC.class);
+        }
+        catch (Throwable t)
+        {
+            logger.info("Cannot listen to netlink, libc is not available: "
+                + t);
+            return;
+        }
+
+        int fd = libc.socket(LibC.AF_NETLINK, LibC.SOCK_RAW,
+            LibC.NETLINK_ROUTE);
+        if (fd < 0)
+        {
+            logger.info("Cannot open netlink socket: "
+                + libc.strerror(Native.getLastError()));
+            return;
+        }
+
+        sockaddr_nl addr = new sockaddr_nl();
+        addr.nl_groups = RTMGRP_LINK
+            | RTMGRP_IPV4_IFADDR | RTMGRP_IPV4_ROUTE
+            | RTMGRP_IPV6_IFADDR | RTMGRP_IPV6_ROUTE;
+
+        timeval timeout = new timeval();
+        timeout.tv_sec = new NativeLong(READ_TIMEOUT);
+        timeout.tv_usec = new NativeLong(0);
+
+        if (libc.bind(fd, addr, addr.size()) < 0
+            || libc.setsockopt(fd, LibC.SOL_SOCKET, LibC.SO_RCVTIMEO,
+                    timeout, timeout.size()) < 0)
+        {
+            logger.info("Cannot bind netlink socket: "
+                + libc.strerror(Native.getLastError()));
+            libc.close(fd);
+            return;
+        }
+
+        this.fd = fd;
+        running = true;
+        timer = new Timer("NetlinkNetworkMonitor.Notifier", true);
+        readThread = new Thread(this, "NetlinkNetworkMonitor");
+        readThread.setDaemon(true);
+        readThread.start();
+
+        if (logger.isInfoEnabled())
+            logger.info("Listening to netlink for network changes");
+    }
+
+    /**
+     * Stops reading the socket. The socket is closed by the reading thread
+     * within {@link #READ_TIMEOUT}.
+     */
+    public synchronized void stop()
+    {
+        if (!running)
+            return;
+
+        running = false;
+        timer.cancel();
+        timer = null;
+        readThread = null;
+    }
+
+    /**
+     * Whether the netlink socket is open and read.
+     *
+     * @return <tt>true</tt> if the network changes are reported
+     */
+    public synchronized boolean isConnected()
+    {
+        return running;
+    }
+
+    /**
+     * Reads the socket until the monitor is stopped or the socket fails.
+     */
+    public void run()
+    {
+        byte[] buffer = new byte[16 * 1024];
+        NativeLong length = new NativeLong(buffer.length);
+        int fd = this.fd;
+
+        try
+        {
+            while (readThread == Thread.currentThread())
+            {
+                int read = libc.recv(fd, buffer, length, 0).intValue();
+
+                if (read < 0)
+                {
+                    int error = Native.getLastError();
+
+                    if (error == LibC.EAGAIN || error == LibC.EINTR)
+                        continue;
+                    if (error == LibC.ENOBUFS)
+                    {
+                        // messages were lost, so something changed
+                        changed();
+                        continue;
+                    }
+
+                    logger.error("Failed to read netlink socket: "
+                        + libc.strerror(error));
+                    break;
+                }
+
+                if (isNetworkChange(buffer, read))
+                    changed();
+            }
+        }
+        catch (Throwable t)
+        {
+            logger.error("Netlink monitor ended unexpectedly", t);
+        }
+        finally
+        {
+            libc.close(fd);
+            synchronized (this)
+            {
+                if (readThread == Thread.currentThread())
+                {
+                    stop();
+                    // the changes are not followed anymore, the listeners
+                    // check the network and fall back to polling it
+                    service.fireNetworkChangeEvent();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports a change once the messages of the same burst have been
+     * received.
+     */
+    private synchronized void changed()
+    {
+        if (changePending || timer == null)
+            return;
+
+        changePending = true;
+        timer.schedule(
+            new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (NetlinkNetworkMonitor.this)
+                    {
+                        changePending = false;
+                    }
+                    service.fireNetworkChangeEvent();
+                }
+            },
+            COALESCE_DELAY);
+    }
+
+    /**
+     * Determines whether the messages read from the netlink socket report a
+     * network change: an address added or removed, an interface going up or
+     * down or removed, or a default route of the main table added or
+     * removed. The other messages, such as the statistics or wireless
+     * events the kernel sends for the interfaces, are ignored.
+     *
+     * @param buffer the messages in host byte order
+     * @param length the number of bytes read
+     * @return <tt>true</tt> if one of the messages reports a network change
+     */
+    static boolean isNetworkChange(byte[] buffer, int length)
+    {
+        ByteBuffer messages = ByteBuffer.wrap(buffer, 0, length);
+        messages.order(ByteOrder.nativeOrder());
+
+        int offset = 0;
+        while (offset + NLMSG_HDRLEN <= length)
+        {
+            int messageLength = messages.getInt(offset);
+            int type = messages.getShort(offset + 4) & 0xffff;
+
+            if (messageLength < NLMSG_HDRLEN
+                || offset + messageLength > length)
+            {
+                break;
+            }
+
+            int payload = offset + NLMSG_HDRLEN;
+            int payloadLength = messageLength - NLMSG_HDRLEN;
+            switch (type)
+            {
+            case RTM_NEWADDR:
+            case RTM_DELADDR:
+            case RTM_DELLINK:
+            case NLMSG_OVERRUN:
+                return true;
+            case RTM_NEWLINK:
+                // struct ifinfomsg: family, pad, type, index, flags, change
+                if (payloadLength >= 16
+                    && (messages.getInt(payload + 12)
+                            & (IFF_UP | IFF_RUNNING | IFF_LOWER_UP)) != 0)
+                {
+                    return true;
+                }
+                break;
+            case RTM_NEWROUTE:
+            case RTM_DELROUTE:
+                // struct rtmsg: family, dst_len, src_len, tos, table, ...
+                if (payloadLength >= 12
+                    && messages.get(payload + 1) == 0
+                    && (messages.get(payload + 4) & 0xff) == RT_TABLE_MAIN)
+                {
+                    return true;
+                }
+                break;
+            }
+
+            // NLMSG_ALIGN
+            offset += (messageLength + 3) & ~3;
+        }
+        return false;
+    }
+}
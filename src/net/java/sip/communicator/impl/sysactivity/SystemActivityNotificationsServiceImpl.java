@@ -116,6 +116,14 @@
      */
     private SystemActivityManager currentRunningManager = null;
 
+    /**
+     * The source of the network change events on linux when the network
+     * manager cannot be reached, which reports the changes the kernel
+     * announces on a netlink socket.
+     */
+    private final NetlinkNetworkMonitor netlinkMonitor
+        = OSUtils.IS_LINUX ? new NetlinkNetworkMonitor(this) : null;
+
     /**
      * Init and start notifications.
      */
@@ -153,6 +161,12 @@ public void run()
 
         if (getCurrentRunningManager() != null)
             getCurrentRunningManager().start();
+
+        // the network manager reports the network changes already, otherwise
+        // the netlink socket is opened now, so that the services checking
+        // whether network changes are supported know it when we register
+        if (netlinkMonitor != null && !isCurrentRunningManagerConnected())
+            netlinkMonitor.start();
     }
 
     /**
@@ -162,6 +176,9 @@ public void stop()
     {
         SystemActivityNotifications.stop();
 
+        if (netlinkMonitor != null)
+            netlinkMonitor.stop();
+
         if (getCurrentRunningManager() != null)
             getCurrentRunningManager().stop();
 
@@ -482,6 +499,40 @@ protected void fireSystemActivityEvent(SystemActivityEvent evt)
     {
         int eventID = evt.getEventID();
 
+        // Give time to Java to dispatch same event and populate its network
+        // interfaces.
+        fireSystemActivityEvent(
+            evt,
+            (eventID == SystemActivityEvent.EVENT_NETWORK_CHANGE) ? 500 : 0);
+    }
+
+    /**
+     * Delivers a network change reported by the kernel to all registered
+     * listeners without delay, since the interfaces Java lists are already
+     * up to date when the kernel announces the change.
+     */
+    void fireNetworkChangeEvent()
+    {
+        fireSystemActivityEvent(
+            new SystemActivityEvent(
+                    this,
+                    SystemActivityEvent.EVENT_NETWORK_CHANGE),
+            0);
+    }
+
+    /**
+     * Delivers the specified event to all registered listeners, after a
+     * delay.
+     *
+     * @param evt the <tt>SystemActivityEvent</tt> that we'd like delivered to
+     * all registered message listeners.
+     * @param wait the number of milliseconds to wait before delivering the
+     * event
+     */
+    private void fireSystemActivityEvent(SystemActivityEvent evt, int wait)
+    {
+        int eventID = evt.getEventID();
+
         // Add network activity info to track wake up problems.
         if (logger.isInfoEnabled()
                 && ((eventID == SystemActivityEvent.EVENT_NETWORK_CHANGE)
@@ -490,14 +541,7 @@ protected void fireSystemActivityEvent(SystemActivityEvent evt)
             logger.info("Received system activity event: " + evt);
         }
 
-        if (eventID == SystemActivityEvent.EVENT_NETWORK_CHANGE)
-        {
-            // Give time to Java to dispatch same event and populate its network
-            // interfaces.
-            eventDispatcher.fireSystemActivityEvent(evt, 500);
-        }
-        else
-            eventDispatcher.fireSystemActivityEvent(evt);
+        eventDispatcher.fireSystemActivityEvent(evt, wait);
     }
 
     /**
@@ -590,17 +634,11 @@ else if(OSUtils.IS_LINUX)
         {
             switch(eventID)
             {
-            case SystemActivityEvent.EVENT_SLEEP:
             case SystemActivityEvent.EVENT_NETWORK_CHANGE:
-                {
-                    SystemActivityManager currentRunningManager
-                        = getCurrentRunningManager();
-
-                    return
-                        (currentRunningManager == null)
-                            ? false
-                            : currentRunningManager.isConnected();
-                }
+                return isCurrentRunningManagerConnected()
+                    || (netlinkMonitor != null && netlinkMonitor.isConnected());
+            case SystemActivityEvent.EVENT_SLEEP:
+                return isCurrentRunningManagerConnected();
             case SystemActivityEvent.EVENT_SYSTEM_IDLE:
             case SystemActivityEvent.EVENT_SYSTEM_IDLE_END:
                 return SystemActivityNotifications.isLoaded();
@@ -618,6 +656,23 @@ else if(OSUtils.IS_ANDROID)
         }
     }
 
+    /**
+     * Whether the manager is instantiated and connected, e.g. to the network
+     * manager on linux.
+     *
+     * @return whether the manager reports the system activity
+     */
+    private boolean isCurrentRunningManagerConnected()
+    {
+        SystemActivityManager currentRunningManager
+            = getCurrentRunningManager();
+
+        return
+            (currentRunningManager == null)
+                ? false
+                : currentRunningManager.isConnected();
+    }
+
     /**
      * Returns or instantiate the manager.
      * @return
@@ -41,6 +41,58 @@ public interface HistoryService {
     public static String CACHE_ENABLED_PROPERTY =
         "net.java.sip.communicator.service.history.CACHE_ENABLED";
 
+    /**
+     * Property used to be set in configuration. When enabled (the default)
+     * new records are appended at the end of the current history file instead
+     * of rewriting the whole file every time a record is added.
+     */
+    public static String APPEND_ONLY_ENABLED_PROPERTY =
+        "net.java.sip.communicator.service.history.APPEND_ONLY_ENABLED";
+
+    /**
+     * Property used to be set in configuration. The maximum size in bytes of
+     * the history files which documents are kept in memory when
+     * <tt>CACHE_ENABLED_PROPERTY</tt> is set, the least recently used
+     * documents are dropped when it is exceeded.
+     */
+    public static String CACHE_MAX_SIZE_PROPERTY =
+        "net.java.sip.communicator.service.history.CACHE_MAX_SIZE";
+
+    /**
+     * Property used to be set in configuration. When enabled (the default)
+     * searches read the history files with a pull parser one after the other
+     * as the results are iterated instead of loading the documents of all
+     * the searched files.
+     */
+    public static String STREAMING_READER_ENABLED_PROPERTY =
+        "net.java.sip.communicator.service.history.STREAMING_READER_ENABLED";
+
+    /**
+     * Property used to be set in configuration. The time in milliseconds
+     * new records wait in memory so the records added meanwhile are written
+     * together with them. Zero makes every record be written when it is
+     * added.
+     */
+    public static String WRITE_DELAY_PROPERTY =
+        "net.java.sip.communicator.service.history.WRITE_DELAY";
+
+    /**
+     * Property used to be set in configuration. The maximum number of records
+     * of a history waiting to be written, when it is reached they are written
+     * right away.
+     */
+    public static String WRITE_BATCH_SIZE_PROPERTY =
+        "net.java.sip.communicator.service.history.WRITE_BATCH_SIZE";
+
+    /**
+     * Property used to be set in configuration. When enabled (the default)
+     * the time of the last record written to every history is kept in a
+     * file, so the existing histories are listed without walking the
+     * history directories.
+     */
+    public static String ACTIVITY_INDEX_ENABLED_PROPERTY =
+        "net.java.sip.communicator.service.history.ACTIVITY_INDEX_ENABLED";
+
     /**
      * Date format used in the XML history database.
      */
@@ -68,7 +120,8 @@ public interface HistoryService {
      * Enumerates existing histories.
      * @param rawid the start of the HistoryID of all the histories that will be
      * returned.
-     * @return list of histories which HistoryID starts with <tt>rawid</tt>.
+     * @return list of histories which HistoryID starts with <tt>rawid</tt>,
+     * the most recently written first if the implementation knows it.
      * @throws IllegalArgumentException if the <tt>rawid</tt> contains ids
      * which are missing in current history.
      */
@@ -125,6 +178,17 @@ public History createHistory(HistoryID id, HistoryRecordStructure recordStructur
     public void moveHistory(HistoryID oldId, HistoryID newId)
         throws IOException;
 
+    /**
+     * Builds again the indexes used to search by keyword in the field
+     * <tt>field</tt> for all the stored histories which HistoryID starts
+     * with <tt>rawid</tt>. Histories stored before the indexes were
+     * introduced are otherwise indexed gradually as they get searched.
+     *
+     * @param rawid the start of the HistoryID of the histories to index
+     * @param field the name of the field to index
+     */
+    public void rebuildKeywordIndexes(String[] rawid, String field);
+
     /**
      * Checks whether a history is created and stored.
      * @param id the history to check
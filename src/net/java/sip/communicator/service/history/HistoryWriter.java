@@ -117,6 +117,17 @@ public void updateRecord(
     public void updateRecord(HistoryRecordUpdater updater)
         throws IOException;
 
+    /**
+     * Writes to the disk the records which were added but are not written
+     * yet. Records may be written some time after they are added, so the
+     * bursts of records are written at once, callers which need the records
+     * to be on the disk when they return must flush the writer.
+     *
+     * @throws IOException if writing the records fails
+     */
+    public void flush()
+        throws IOException;
+
     /**
      * This interface is used to find a history record to update and to get the
      * new values for the record.
@@ -434,6 +434,12 @@ public void eraseLocallyStoredHistory(MetaContact contact)
     */
    public void eraseLocallyStoredHistory(ChatRoom room)
        throws IOException;
+
+   /**
+    * Builds again the index used when searching the locally stored message
+    * history by keyword.
+    */
+   public void rebuildKeywordIndex();
    
    /**
     * Returns <code>true</code> if the "IS_MESSAGE_HISTORY_ENABLED"
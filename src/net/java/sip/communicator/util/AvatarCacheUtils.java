@@ -26,6 +26,9 @@
 /**
  * The <tt>AvatarCacheUtils</tt> allows to cache an avatar or to obtain the
  * image of a cached avatar by specifying a contact or an account address.
+ * The avatars are kept in an {@link AvatarStore}, which stores each distinct
+ * image once. The avatars cached in a file per contact by the previous
+ * versions are moved to the store when first asked for.
  *
  * @author Yana Stamcheva
  */
@@ -60,6 +63,11 @@
         {"\\|", "&_pp"}     // the char |
     };
 
+    /**
+     * The store of the avatars, created when first used.
+     */
+    private static AvatarStore store;
+
     /**
      * Returns the bytes of the avatar image stored for the account
      * corresponding to the given protocol provider.
@@ -72,55 +80,80 @@
     public static byte[] getCachedAvatar(
                                     ProtocolProviderService protocolProvider)
     {
-        String avatarPath = getCachedAvatarPath(protocolProvider);
-
-        byte[] cachedAvatar = getLocallyStoredAvatar(avatarPath);
+        return getBytes(getStoredAvatar(getCachedAvatarPath(protocolProvider)));
+    }
 
-        /*
-         * Caching a zero-length avatar happens but such an avatar isn't
-         * very useful.
-         */
-        if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-            return cachedAvatar;
+    /**
+     * Returns the bytes of the avatar image stored for the given contact.
+     *
+     * @param protocolContact the <tt>Contact</tt>, which avatar image we're
+     * looking for
+     * @return the bytes of the avatar image stored for the given contact
+     */
+    public static byte[] getCachedAvatar(Contact protocolContact)
+    {
+        return getBytes(getStoredAvatar(protocolContact));
+    }
 
-        return null;
+    /**
+     * Returns the avatar stored for the given contact, without reading its
+     * image.
+     *
+     * @param protocolContact the <tt>Contact</tt>, which avatar we're looking
+     * for
+     * @return the avatar stored for the given contact or <tt>null</tt> if
+     * there is none
+     */
+    public static AvatarStore.Avatar getStoredAvatar(Contact protocolContact)
+    {
+        return getStoredAvatar(getCachedAvatarPath(protocolContact));
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
+     * Returns the file of the avatar image stored for the account
      * corresponding to the given protocol provider.
      *
      * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
      * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @return the file of the avatar image stored for the account or
+     * <tt>null</tt> if there is none
      */
-    public static byte[] getCachedAvatar(Contact protocolContact)
+    public static File getCachedAvatarFile(
+                                    ProtocolProviderService protocolProvider)
     {
-        String avatarPath = getCachedAvatarPath(protocolContact);
-
-        byte[] cachedAvatar = getLocallyStoredAvatar(avatarPath);
-
-        /*
-         * Caching a zero-length avatar happens but such an avatar isn't
-         * very useful.
-         */
-        if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-            return cachedAvatar;
+        return getFile(getStoredAvatar(getCachedAvatarPath(protocolProvider)));
+    }
 
-        return null;
+    /**
+     * Returns the file of the avatar image stored for a contact of the
+     * account corresponding to the given protocol provider.
+     *
+     * @param protocolProvider the <tt>ProtocolProviderService</tt> of the
+     * contact
+     * @param contactAddress the address of the contact
+     * @return the file of the avatar image stored for the contact or
+     * <tt>null</tt> if there is none
+     */
+    public static File getCachedAvatarFile(
+                                    ProtocolProviderService protocolProvider,
+                                    String contactAddress)
+    {
+        return getFile(
+            getStoredAvatar(
+                getCachedAvatarPath(protocolProvider, contactAddress)));
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path of the avatar image stored for the account
+     * corresponding to the given protocol provider, which is also its key
+     * in the store.
      *
      * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
      * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
+     * @return the path of the avatar image stored for the account
      * corresponding to the given protocol provider
      */
-    public static String getCachedAvatarPath(
+    private static String getCachedAvatarPath(
                                     ProtocolProviderService protocolProvider)
     {
         return AVATAR_DIR
@@ -133,36 +166,31 @@ public static String getCachedAvatarPath(
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path of the avatar image stored for the given contact,
+     * which is also its key in the store.
      *
-     * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
-     * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @param protocolContact the <tt>Contact</tt>, which avatar image we're
+     * looking for
+     * @return the path of the avatar image stored for the given contact
      */
-    public static String getCachedAvatarPath(Contact protocolContact)
+    private static String getCachedAvatarPath(Contact protocolContact)
     {
-        return AVATAR_DIR
-            + File.separator
-            + escapeSpecialCharacters(
-                protocolContact
-                    .getProtocolProvider()
-                        .getAccountID().getAccountUniqueID())
-            + File.separator
-            + escapeSpecialCharacters(protocolContact.getAddress());
+        return getCachedAvatarPath(
+            protocolContact.getProtocolProvider(),
+            protocolContact.getAddress());
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path of the avatar image stored for a contact of the
+     * account corresponding to the given protocol provider, which is also
+     * its key in the store.
      *
-     * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
-     * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @param protocolProvider the <tt>ProtocolProviderService</tt> of the
+     * contact
+     * @param contactAddress the address of the contact
+     * @return the path of the avatar image stored for the contact
      */
-    public static String getCachedAvatarPath(
+    private static String getCachedAvatarPath(
                                     ProtocolProviderService protocolProvider,
                                     String contactAddress)
     {
@@ -175,52 +203,107 @@ public static String getCachedAvatarPath(
     }
 
     /**
-     * Returns the avatar image corresponding to the given avatar path.
+     * Returns the store of the avatars, creating it if it does not exist.
      *
-     * @param avatarPath The path to the lovally stored avatar.
-     * @return the avatar image corresponding to the given avatar path.
+     * @return the store of the avatars or <tt>null</tt> if its directory
+     * could not be obtained
      */
-    private static byte[] getLocallyStoredAvatar(String avatarPath)
+    private static synchronized AvatarStore getStore()
     {
-        try
+        if (store == null)
         {
-            File avatarFile
-                = UtilActivator
-                    .getFileAccessService()
-                        .getPrivatePersistentFile(avatarPath,
-                            FileCategory.CACHE);
-
-            if(avatarFile.exists())
+            try
             {
-                FileInputStream avatarInputStream
-                    = new FileInputStream(avatarFile);
-                byte[] bs = null;
+                store
+                    = new AvatarStore(
+                            UtilActivator
+                                .getFileAccessService()
+                                    .getPrivatePersistentDirectory(
+                                        AVATAR_DIR,
+                                        FileCategory.CACHE));
+            }
+            catch (Exception ex)
+            {
+                logger.error("Could not open the avatar store", ex);
+            }
+        }
+        return store;
+    }
 
-                try
-                {
-                    int available = avatarInputStream.available();
+    /**
+     * Returns the avatar stored under the given path, moving the file
+     * written there by the previous versions to the store if it is not in
+     * it yet.
+     *
+     * @param avatarPath the path of the avatar
+     * @return the stored avatar or <tt>null</tt> if there is none
+     */
+    private static AvatarStore.Avatar getStoredAvatar(String avatarPath)
+    {
+        AvatarStore store = getStore();
 
-                    if (available > 0)
-                    {
-                        bs = new byte[available];
-                        avatarInputStream.read(bs);
-                    }
-                }
-                finally
+        if (store == null)
+            return null;
+
+        AvatarStore.Avatar avatar = store.get(avatarPath);
+
+        if (avatar == null)
+        {
+            try
+            {
+                File avatarFile
+                    = UtilActivator
+                        .getFileAccessService()
+                            .getPrivatePersistentFile(avatarPath,
+                                FileCategory.CACHE);
+
+                if (avatarFile.isFile())
                 {
-                    avatarInputStream.close();
+                    /*
+                     * Caching a zero-length avatar happens but such an avatar
+                     * isn't very useful.
+                     */
+                    avatar
+                        = store.put(avatarPath, AvatarStore.read(avatarFile));
+                    if (!avatarFile.delete())
+                        avatarFile.deleteOnExit();
                 }
-                if (bs != null)
-                    return bs;
+            }
+            catch (Exception ex)
+            {
+                logger.error(
+                        "Could not read avatar image from file " + avatarPath,
+                        ex);
             }
         }
-        catch (Exception ex)
-        {
-            logger.error(
-                    "Could not read avatar image from file " + avatarPath,
-                    ex);
-        }
-        return null;
+        return avatar;
+    }
+
+    /**
+     * Returns the bytes of the image of an avatar.
+     *
+     * @param avatar the avatar or <tt>null</tt>
+     * @return the bytes of the image of <tt>avatar</tt> or <tt>null</tt>
+     */
+    private static byte[] getBytes(AvatarStore.Avatar avatar)
+    {
+        return (avatar == null) ? null : avatar.getBytes();
+    }
+
+    /**
+     * Returns the file of the image of an avatar.
+     *
+     * @param avatar the avatar or <tt>null</tt>
+     * @return the file of the image of <tt>avatar</tt> or <tt>null</tt>
+     */
+    private static File getFile(AvatarStore.Avatar avatar)
+    {
+        if (avatar == null)
+            return null;
+
+        File file = avatar.getFile();
+
+        return file.isFile() ? file : null;
     }
 
     /**
@@ -248,22 +331,15 @@ private static String escapeSpecialCharacters(String id)
      *
      * @param protoContact The contact in which we store the avatar.
      * @param avatarBytes The avatar image bytes.
+     * @return the stored avatar or <tt>null</tt> if <tt>avatarBytes</tt> is
+     * empty or the store is not available
      */
-    public static void cacheAvatar( Contact protoContact,
-                                    byte[] avatarBytes)
+    public static AvatarStore.Avatar cacheAvatar( Contact protoContact,
+                                                  byte[] avatarBytes)
     {
-        String avatarDirPath
-            = AVATAR_DIR
-                + File.separator
-                + escapeSpecialCharacters(
-                        protoContact
-                            .getProtocolProvider()
-                                .getAccountID().getAccountUniqueID());
-        String avatarFileName
-            = escapeSpecialCharacters(protoContact.getAddress());
-
-        cacheAvatar(avatarDirPath, avatarFileName, avatarBytes);
+        return cacheAvatar(getCachedAvatarPath(protoContact), avatarBytes);
     }
+
     /**
      * Stores avatar bytes for the account corresponding to the given
      * <tt>protocolProvider</tt>.
@@ -271,87 +347,29 @@ public static void cacheAvatar( Contact protoContact,
      * @param protocolProvider the protocol provider corresponding to the
      * account, which avatar we're storing
      * @param avatarBytes the avatar image bytes
+     * @return the stored avatar or <tt>null</tt> if <tt>avatarBytes</tt> is
+     * empty or the store is not available
      */
-    public static void cacheAvatar( ProtocolProviderService protocolProvider,
+    public static AvatarStore.Avatar cacheAvatar(
+                                    ProtocolProviderService protocolProvider,
                                     byte[] avatarBytes)
     {
-        String accountUID
-            = protocolProvider.getAccountID().getAccountUniqueID();
-
-        String avatarDirPath
-            = AVATAR_DIR
-                + File.separator
-                + escapeSpecialCharacters(accountUID);
-
-        String avatarFileName = escapeSpecialCharacters(accountUID);
-
-        cacheAvatar(avatarDirPath, avatarFileName, avatarBytes);
+        return cacheAvatar(getCachedAvatarPath(protocolProvider), avatarBytes);
     }
 
     /**
-     * Stores avatar bytes for the account corresponding to the given
-     * <tt>protocolProvider</tt>.
+     * Stores avatar bytes under the given path.
      *
-     * @param avatarDirPath the directory in which the file will be stored
-     * @param avatarFileName the name of the avatar file
+     * @param avatarPath the path of the avatar
      * @param avatarBytes the avatar image bytes
+     * @return the stored avatar or <tt>null</tt> if <tt>avatarBytes</tt> is
+     * empty or the store is not available
      */
-    private static void cacheAvatar(String avatarDirPath,
-                                    String avatarFileName,
-                                    byte[] avatarBytes)
+    private static AvatarStore.Avatar cacheAvatar(String avatarPath,
+                                                  byte[] avatarBytes)
     {
-        File avatarDir = null;
-        File avatarFile = null;
-        try
-        {
-            FileAccessService fileAccessService
-                = UtilActivator.getFileAccessService();
-
-            avatarDir
-                = fileAccessService.getPrivatePersistentDirectory(
-                        avatarDirPath, FileCategory.CACHE);
-            avatarFile
-                = fileAccessService.getPrivatePersistentFile(
-                        new File(avatarDirPath, avatarFileName).toString(),
-                        FileCategory.CACHE);
-
-            if(!avatarFile.exists())
-            {
-                if (!avatarDir.exists() && !avatarDir.mkdirs())
-                {
-                    throw
-                        new IOException(
-                                "Failed to create directory: "
-                                    + avatarDir.getAbsolutePath());
-                }
+        AvatarStore store = getStore();
 
-                if (!avatarFile.createNewFile())
-                {
-                    throw
-                        new IOException(
-                                "Failed to create file"
-                                    + avatarFile.getAbsolutePath());
-                }
-            }
-
-            FileOutputStream fileOutStream = new FileOutputStream(avatarFile);
-
-            try
-            {
-                fileOutStream.write(avatarBytes);
-                fileOutStream.flush();
-            }
-            finally
-            {
-                fileOutStream.close();
-            }
-        }
-        catch (Exception ex)
-        {
-            logger.error(
-                    "Failed to store avatar. dir =" + avatarDir
-                        + " file=" + avatarFile,
-                    ex);
-        }
+        return (store == null) ? null : store.put(avatarPath, avatarBytes);
     }
 }
@@ -0,0 +1,536 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Stores avatar images on disk by their content: each distinct image is
+ * written once, in a file named after its SHA-1, and an index maps the
+ * contacts and accounts to the hashes of their avatars. Contacts sharing an
+ * avatar thus share its file and, once it is read, its bytes.
+ * <p>
+ * The index is kept in memory and appended to on disk on each change. It is
+ * rewritten, and the images no longer referenced deleted, when it has grown
+ * to twice the number of its entries.
+ */
+public class AvatarStore
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = Logger.getLogger(AvatarStore.class);
+
+    /**
+     * The name of the directory of the images in the directory of the store.
+     */
+    static final String IMAGES_DIR = "images";
+
+    /**
+     * The name of the index file in the directory of the store.
+     */
+    static final String INDEX_FILE = "index";
+
+    /**
+     * The hash written in the index for a key which no longer has an avatar.
+     */
+    private static final String REMOVED = "-";
+
+    /**
+     * An avatar in the store. It is the only handle to its image, so keeping
+     * it is cheap: the bytes are read when first asked for and may be
+     * reclaimed when memory is low.
+     */
+    public static class Avatar
+    {
+        /**
+         * The SHA-1 of the image.
+         */
+        private final String hash;
+
+        /**
+         * The file of the image.
+         */
+        private final File file;
+
+        /**
+         * The bytes of the image, once read or stored.
+         */
+        private SoftReference<byte[]> bytes;
+
+        /**
+         * The bytes of the image if it could not be written to its file.
+         */
+        private byte[] unsaved;
+
+        /**
+         * Creates the handle of an image.
+         *
+         * @param hash the SHA-1 of the image
+         * @param file the file of the image
+         */
+        private Avatar(String hash, File file)
+        {
+            this.hash = hash;
+            this.file = file;
+        }
+
+        /**
+         * Returns the SHA-1 of the image, which identifies its content.
+         *
+         * @return the SHA-1 of the image as a hex string
+         */
+        public String getHash()
+        {
+            return hash;
+        }
+
+        /**
+         * Returns the file of the image. Its content never changes.
+         *
+         * @return the file of the image
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * Returns the bytes of the image, reading them from its file if they
+         * are not in memory. The same array is returned to all the callers
+         * and must not be modified.
+         *
+         * @return the bytes of the image or <tt>null</tt> if they could not
+         * be read
+         */
+        public synchronized byte[] getBytes()
+        {
+            if (unsaved != null)
+                return unsaved;
+
+            byte[] result = (bytes == null) ? null : bytes.get();
+
+            if (result == null)
+            {
+                result = read(file);
+                if (result != null)
+                    bytes = new SoftReference<byte[]>(result);
+            }
+            return result;
+        }
+
+        /**
+         * Keeps the bytes of the image in memory.
+         *
+         * @param bytes the bytes of the image
+         * @param saved whether the image is in its file
+         */
+        private synchronized void setBytes(byte[] bytes, boolean saved)
+        {
+            this.bytes = new SoftReference<byte[]>(bytes);
+            unsaved = saved ? null : bytes;
+        }
+    }
+
+    /**
+     * The directory of the images.
+     */
+    private final File imagesDir;
+
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+
+    /**
+     * The hashes of the avatars by key.
+     */
+    private final Map<String, String> index = new HashMap<String, String>();
+
+    /**
+     * The handles of the images by hash.
+     */
+    private final Map<String, Avatar> avatars = new HashMap<String, Avatar>();
+
+    /**
+     * The number of lines in the index file.
+     */
+    private int indexLines;
+
+    /**
+     * Whether the index file has been read.
+     */
+    private boolean indexLoaded = false;
+
+    /**
+     * Creates a store in a directory.
+     *
+     * @param dir the directory of the store
+     */
+    public AvatarStore(File dir)
+    {
+        imagesDir = new File(dir, IMAGES_DIR);
+        indexFile = new File(dir, INDEX_FILE);
+    }
+
+    /**
+     * Returns the avatar stored for a key.
+     *
+     * @param key the key of the avatar, like the address of a contact
+     * @return the avatar stored for <tt>key</tt> or <tt>null</tt> if there is
+     * none
+     */
+    public synchronized Avatar get(String key)
+    {
+        loadIndex();
+
+        String hash = index.get(key);
+
+        if (hash == null)
+            return null;
+
+        Avatar avatar = getAvatar(hash);
+
+        if (avatar.unsaved == null && !avatar.file.isFile())
+        {
+            // the cache directory was cleaned up
+            remove(key);
+            return null;
+        }
+        return avatar;
+    }
+
+    /**
+     * Stores the avatar of a key, writing its image if it is not in the
+     * store yet.
+     *
+     * @param key the key of the avatar, like the address of a contact
+     * @param bytes the bytes of the image, or <tt>null</tt> or an empty array
+     * to remove the avatar of <tt>key</tt>
+     * @return the stored avatar or <tt>null</tt> if <tt>bytes</tt> is
+     * <tt>null</tt> or empty
+     */
+    public synchronized Avatar put(String key, byte[] bytes)
+    {
+        loadIndex();
+
+        if (bytes == null || bytes.length == 0)
+        {
+            remove(key);
+            return null;
+        }
+
+        String hash;
+        try
+        {
+            hash = Sha1Crypto.encode(bytes);
+        }
+        catch (Exception e)
+        {
+            // every Java platform has SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        Avatar avatar = getAvatar(hash);
+
+        if (avatar.file.isFile())
+            avatar.setBytes(bytes, true);
+        else
+            avatar.setBytes(bytes, write(avatar.file, bytes));
+
+        if (!hash.equals(index.put(key, hash)))
+            appendIndex(key, hash);
+        return avatar;
+    }
+
+    /**
+     * Removes the avatar of a key.
+     *
+     * @param key the key of the avatar
+     */
+    public synchronized void remove(String key)
+    {
+        loadIndex();
+
+        if (index.remove(key) != null)
+            appendIndex(key, REMOVED);
+    }
+
+    /**
+     * Returns the handle of an image, creating it if there is none.
+     *
+     * @param hash the SHA-1 of the image
+     * @return the handle of the image
+     */
+    private Avatar getAvatar(String hash)
+    {
+        Avatar avatar = avatars.get(hash);
+
+        if (avatar == null)
+        {
+            avatar = new Avatar(hash, new File(imagesDir, hash));
+            avatars.put(hash, avatar);
+        }
+        return avatar;
+    }
+
+    /**
+     * Reads the index file, if it has not been read yet, and compacts it.
+     */
+    private void loadIndex()
+    {
+        if (indexLoaded)
+            return;
+        indexLoaded = true;
+
+        if (!indexFile.isFile())
+            return;
+
+        try
+        {
+            BufferedReader reader
+                = new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(indexFile), "UTF-8"));
+
+            try
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    int space = line.indexOf(' ');
+
+                    if (space <= 0)
+                        continue;
+
+                    String hash = line.substring(0, space);
+                    String key = line.substring(space + 1);
+
+                    if (REMOVED.equals(hash))
+                        index.remove(key);
+                    else
+                        index.put(key, hash);
+                    indexLines++;
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read avatar index " + indexFile, e);
+        }
+
+        compact();
+    }
+
+    /**
+     * Appends an entry to the index file, or rewrites the file if it has
+     * grown too large.
+     *
+     * @param key the key of the entry
+     * @param hash the hash of the avatar of <tt>key</tt>, or {@link #REMOVED}
+     */
+    private void appendIndex(String key, String hash)
+    {
+        if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0)
+        {
+            // can't be written in the index, only kept for this session
+            return;
+        }
+
+        indexLines++;
+        if (indexLines > 2 * index.size() + 16)
+        {
+            compact();
+            return;
+        }
+
+        try
+        {
+            File dir = indexFile.getParentFile();
+
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create directory: " + dir);
+
+            Writer writer
+                = new OutputStreamWriter(
+                        new FileOutputStream(indexFile, true), "UTF-8");
+
+            try
+            {
+                writer.write(hash + ' ' + key + '\n');
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write avatar index " + indexFile, e);
+        }
+    }
+
+    /**
+     * Rewrites the index file with only its current entries, if it has
+     * grown too large, and deletes the images it no longer references.
+     */
+    private void compact()
+    {
+        if (indexLines <= 2 * index.size() + 16)
+            return;
+
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+
+        try
+        {
+            Writer writer
+                = new BufferedWriter(
+                        new OutputStreamWriter(
+                                new FileOutputStream(tmpFile), "UTF-8"));
+
+            try
+            {
+                for (Map.Entry<String, String> e : index.entrySet())
+                    writer.write(e.getValue() + ' ' + e.getKey() + '\n');
+            }
+            finally
+            {
+                writer.close();
+            }
+
+            if ((indexFile.exists() && !indexFile.delete())
+                    || !tmpFile.renameTo(indexFile))
+                throw new IOException("Failed to replace " + indexFile);
+            indexLines = index.size();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to compact avatar index " + indexFile, e);
+            tmpFile.delete();
+            return;
+        }
+
+        Set<String> referenced = new HashSet<String>(index.values());
+        File[] files = imagesDir.listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                if (!referenced.contains(file.getName()))
+                {
+                    avatars.remove(file.getName());
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an image to its file, through a temporary file so that a file
+     * named after a hash is always complete.
+     *
+     * @param file the file of the image
+     * @param bytes the bytes of the image
+     * @return <tt>true</tt> if the image was written
+     */
+    private static boolean write(File file, byte[] bytes)
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            File dir = file.getParentFile();
+
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create directory: " + dir);
+
+            FileOutputStream out = new FileOutputStream(tmpFile);
+
+            try
+            {
+                out.write(bytes);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(file) && !file.isFile())
+                throw new IOException("Failed to rename " + tmpFile);
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to store avatar " + file, e);
+            tmpFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the whole content of a file.
+     *
+     * @param file the file
+     * @return the content of <tt>file</tt> or <tt>null</tt> if it could not
+     * be read or is empty
+     */
+    static byte[] read(File file)
+    {
+        try
+        {
+            FileInputStream in = new FileInputStream(file);
+
+            try
+            {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+
+                if (size <= 0 || size > Integer.MAX_VALUE)
+                    return null;
+
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+                while (buffer.hasRemaining())
+                {
+                    if (channel.read(buffer) < 0)
+                        throw new EOFException(file.getPath());
+                }
+                return buffer.array();
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not read avatar image from file " + file, e);
+            return null;
+        }
+    }
+}
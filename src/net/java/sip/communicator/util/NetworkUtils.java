@@ -20,6 +20,7 @@
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.dns.*;
 
@@ -110,6 +111,35 @@
      */
     private static final Random random = new Random();
 
+    /**
+     * The maximum number of DNS lookups run at the same time by the methods
+     * returning a <tt>Future</tt>.
+     */
+    private static final int MAX_LOOKUP_THREADS = 8;
+
+    /**
+     * Runs the DNS lookups of the methods returning a <tt>Future</tt>.
+     */
+    private static final ThreadPoolExecutor lookupExecutor
+        = new ThreadPoolExecutor(
+                MAX_LOOKUP_THREADS, MAX_LOOKUP_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "NetworkUtils DNS lookup");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    static
+    {
+        lookupExecutor.allowCoreThreadTimeOut(true);
+    }
+
     static
     {
         String prefer6 = System.getProperty("java.net.preferIPv6Addresses");
@@ -677,6 +707,59 @@ public static SRVRecord[] getSRVRecords(String service,
         return records;
     }
 
+    /**
+     * Looks up the SRV records of the specified domain without blocking the
+     * calling thread, so that the lookups of several domains proceed at the
+     * same time.
+     *
+     * @param domain the name of the domain we'd like to resolve (_proto._tcp
+     * included).
+     *
+     * @return the result of {@link #getSRVRecords(String)}, which
+     * <tt>get</tt> method throws an <tt>ExecutionException</tt> caused by
+     * a <tt>ParseException</tt> or a <tt>DnssecException</tt> if the lookup
+     * fails.
+     */
+    public static Future<SRVRecord[]> getSRVRecordsAsync(final String domain)
+    {
+        return lookupExecutor.submit(new Callable<SRVRecord[]>()
+        {
+            public SRVRecord[] call()
+                throws ParseException, DnssecException
+            {
+                return getSRVRecords(domain);
+            }
+        });
+    }
+
+    /**
+     * Looks up the SRV records of a service of the specified domain without
+     * blocking the calling thread.
+     *
+     * @param service the service that we are trying to get a record for.
+     * @param proto the protocol that we'd like <tt>service</tt> on.
+     * @param domain the name of the domain we'd like to resolve.
+     *
+     * @return the result of {@link #getSRVRecords(String, String, String)},
+     * which <tt>get</tt> method throws an <tt>ExecutionException</tt> caused
+     * by a <tt>ParseException</tt> or a <tt>DnssecException</tt> if the
+     * lookup fails.
+     */
+    public static Future<SRVRecord[]> getSRVRecordsAsync(
+            final String service,
+            final String proto,
+            final String domain)
+    {
+        return lookupExecutor.submit(new Callable<SRVRecord[]>()
+        {
+            public SRVRecord[] call()
+                throws ParseException, DnssecException
+            {
+                return getSRVRecords(service, proto, domain);
+            }
+        });
+    }
+
     /**
      * Makes a NAPTR query and returns the result. The returned records are an
      * array of [Order, Service(Transport) and Replacement
@@ -979,6 +1062,73 @@ public static InetSocketAddress[] getAandAAAARecords(String domain, int port)
         return addresses.toArray(new InetSocketAddress[0]);
     }
 
+    /**
+     * Looks up the A and AAAA records of the specified domain without
+     * blocking the calling thread, so that the lookups of several domains
+     * proceed at the same time.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param port the port number of the returned <tt>InetSocketAddress</tt>
+     * @return the result of {@link #getAandAAAARecords(String, int)}, which
+     * <tt>get</tt> method throws an <tt>ExecutionException</tt> caused by
+     * a <tt>ParseException</tt> or a <tt>DnssecException</tt> if the lookup
+     * fails.
+     */
+    public static Future<InetSocketAddress[]> getAandAAAARecordsAsync(
+            final String domain,
+            final int port)
+    {
+        return lookupExecutor.submit(new Callable<InetSocketAddress[]>()
+        {
+            public InetSocketAddress[] call()
+                throws ParseException, DnssecException
+            {
+                return getAandAAAARecords(domain, port);
+            }
+        });
+    }
+
+    /**
+     * Waits for a lookup started by one of the methods returning a
+     * <tt>Future</tt> and returns its result, throwing the exception the
+     * lookup failed with.
+     *
+     * @param lookup the lookup
+     * @return the result of <tt>lookup</tt>
+     * @throws ParseException if the lookup failed with it
+     * @throws DnssecException if the lookup failed with it
+     * @throws InterruptedException if the calling thread was interrupted
+     * while it waited
+     */
+    public static <T> T getLookupResult(Future<T> lookup)
+        throws ParseException,
+               DnssecException,
+               InterruptedException
+    {
+        try
+        {
+            return lookup.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof ParseException)
+                throw (ParseException) cause;
+            if (cause instanceof DnssecException)
+                throw (DnssecException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        catch (CancellationException e)
+        {
+            return null;
+        }
+    }
+
     /**
      * Returns array of hosts from the A record of the specified domain.
      * The records are ordered against the A record priority
@@ -0,0 +1,215 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+public class CallHistoryPeerIndexTest
+    extends TestCase
+{
+    private static final String[] NAMES
+        = new String[] { "callParticipantIDs", "callParticipantSecondaryIDs" };
+
+    private File file;
+
+    private CallHistoryPeerIndex index;
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("peers", ".idx");
+        index = new CallHistoryPeerIndex(file, NAMES[0], NAMES[1]);
+
+        // nothing is indexed before the index is loaded
+        index.add(record(0, "ignored@example.org", null));
+        index.clear();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static HistoryRecord record(long time,
+                                        String peerIDs,
+                                        String secondaryIDs)
+    {
+        return new HistoryRecord(
+            NAMES, new String[] { peerIDs, secondaryIDs }, new Date(time));
+    }
+
+    /**
+     * Returns a history reader which newest record is <tt>newest</tt>.
+     */
+    private static HistoryReader reader(final HistoryRecord newest)
+    {
+        return (HistoryReader) Proxy.newProxyInstance(
+            HistoryReader.class.getClassLoader(),
+            new Class<?>[] { HistoryReader.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    Assert.assertEquals("findLast", method.getName());
+
+                    Vector<HistoryRecord> records = new Vector<HistoryRecord>();
+                    records.add(newest);
+                    return new DefaultQueryResultSet<HistoryRecord>(records);
+                }
+            });
+    }
+
+    public void testGetNumberKey()
+    {
+        Assert.assertEquals("4412345",
+            CallHistoryPeerIndex.getNumberKey("sip:+44 (12) 345@example.org"));
+        Assert.assertEquals("123", CallHistoryPeerIndex.getNumberKey("tel:1-2.3"));
+        Assert.assertNull(CallHistoryPeerIndex.getNumberKey("alice@example.org"));
+        Assert.assertNull(CallHistoryPeerIndex.getNumberKey("+-"));
+    }
+
+    public void testNormalize()
+    {
+        Assert.assertEquals("alice@example.org",
+            CallHistoryPeerIndex.normalize(" Alice@Example.org "));
+        Assert.assertEquals("alice@example.org",
+            CallHistoryPeerIndex.normalize(
+                "\"Alice\" <sip:alice@example.org;transport=tcp>"));
+        Assert.assertEquals("alice@example.org",
+            CallHistoryPeerIndex.normalize("sips:alice@example.org?subject=x"));
+        Assert.assertEquals("alice@example.org",
+            CallHistoryPeerIndex.normalize("alice@example.org/laptop"));
+        Assert.assertEquals("+44 (12) 345",
+            CallHistoryPeerIndex.normalize("tel:+44 (12) 345"));
+        Assert.assertEquals("555/0100",
+            CallHistoryPeerIndex.normalize("555/0100"));
+    }
+
+    public void testFormatAndParse()
+    {
+        HistoryRecord record
+            = record(42, "a\tb\\c@example.org,d\ne@example.org", null);
+        HistoryRecord parsed
+            = CallHistoryPeerIndex.parse(CallHistoryPeerIndex.format(record));
+
+        Assert.assertEquals(record.getTimestamp(), parsed.getTimestamp());
+        Assert.assertTrue(Arrays.equals(
+            record.getPropertyNames(), parsed.getPropertyNames()));
+        Assert.assertTrue(Arrays.equals(
+            record.getPropertyValues(), parsed.getPropertyValues()));
+    }
+
+    public void testFindByPeer()
+    {
+        HistoryRecord alice = record(1, "alice@example.org", null);
+        HistoryRecord number = record(2, "sip:+441234@example.org", null);
+        HistoryRecord both = record(3,
+            "bob@example.org,carol@example.org", "+44 1234");
+
+        index.add(alice);
+        index.add(number);
+        index.add(both);
+        // records already indexed are not added twice
+        index.add(record(3, "bob@example.org", null));
+
+        Assert.assertEquals(Arrays.asList(alice),
+            index.findByPeer("ALICE@example.org", 10));
+        Assert.assertEquals(Arrays.asList(both, number),
+            index.findByPeer("441234", 10));
+        Assert.assertEquals(Arrays.asList(both),
+            index.findByPeer("+44 1234", 1));
+        Assert.assertEquals(Arrays.asList(both),
+            index.findByPeer("carol", 10));
+        Assert.assertEquals(Arrays.asList(both),
+            index.findByPeer("<sip:Carol@example.org>", 10));
+        Assert.assertTrue(index.findByPeer("example.org", 10).isEmpty());
+        Assert.assertTrue(index.findByPeer("caro", 10).isEmpty());
+        Assert.assertTrue(index.findByPeer("dave", 10).isEmpty());
+
+        HistoryRecord updated = record(1, "alice@example.org", "1234");
+        index.replace(alice, updated);
+        Assert.assertEquals(Arrays.asList(updated),
+            index.getRecords("alice@example.org"));
+        Assert.assertEquals(Arrays.asList(updated),
+            index.findByPeer("alice@example.org", 10));
+    }
+
+    public void testFindByPeerDoesNotMatchContainingAddresses()
+    {
+        HistoryRecord alice = record(1, "alice@example.org", null);
+        HistoryRecord malice = record(2, "malice@example.org", null);
+        HistoryRecord number = record(3, "sip:1234@example.org", null);
+        HistoryRecord longer = record(4, "+44 1234 5", null);
+
+        index.add(alice);
+        index.add(malice);
+        index.add(number);
+        index.add(longer);
+
+        Assert.assertEquals(Arrays.asList(alice),
+            index.findByPeer("alice@example.org", 10));
+        Assert.assertEquals(Arrays.asList(alice),
+            index.findByPeer("sip:alice@example.org", 10));
+        Assert.assertEquals(Arrays.asList(number),
+            index.findByPeer("1234", 10));
+        Assert.assertEquals(Arrays.asList(longer),
+            index.findByPeer("+44 (1234) 5", 10));
+        Assert.assertTrue(index.findByPeer("", 10).isEmpty());
+    }
+
+    public void testReplaceIsStored()
+    {
+        HistoryRecord alice = record(1, "alice@example.org", null);
+        HistoryRecord bob = record(2, "bob@example.org", "+44 1234");
+        HistoryRecord carol = record(3, "carol@example.org", null);
+
+        index.add(alice);
+        index.add(bob);
+        index.add(carol);
+
+        HistoryRecord updatedBob = record(2, "bob@example.org", "dave");
+        HistoryRecord updatedAlice = record(1, "alice@example.org", "dave");
+        index.replace(bob, updatedBob);
+        index.replace(alice, updatedAlice);
+
+        Assert.assertTrue(index.findByPeer("441234", 10).isEmpty());
+        Assert.assertEquals(Arrays.asList(updatedAlice, updatedBob),
+            index.getRecords("dave"));
+
+        CallHistoryPeerIndex loaded
+            = new CallHistoryPeerIndex(file, NAMES[0], NAMES[1]);
+        loaded.load(reader(carol));
+
+        Assert.assertTrue(loaded.findByPeer("441234", 10).isEmpty());
+        List<HistoryRecord> dave = loaded.getRecords("dave");
+        Assert.assertEquals(2, dave.size());
+        Assert.assertEquals(updatedAlice.getTimestamp(),
+            dave.get(0).getTimestamp());
+        Assert.assertEquals(updatedBob.getTimestamp(),
+            dave.get(1).getTimestamp());
+        Assert.assertEquals(1, loaded.findByPeer("carol", 10).size());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.util.*;
+
+import junit.framework.*;
+
+public class PropertyNameIndexTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[]
+        {
+            "net.java.sip.communicator.impl.protocol.jabber",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1.USER_ID",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1.SERVER",
+            "net.java.sip.communicator.impl.protocol.jabber.acc22",
+            "net.java.sip.communicator.impl.protocol.jabber.acc22.USER_ID",
+            "net.java.sip.communicator.impl.protocol.sip.acc3.USER_ID",
+            "USER_ID"
+        };
+
+    private PropertyNameIndex index;
+
+    @Override
+    protected void setUp()
+    {
+        index = new PropertyNameIndex();
+        for (String name : NAMES)
+            index.add(name);
+    }
+
+    /**
+     * Returns the names of <tt>NAMES</tt> matching the way the database
+     * queries used to filter them.
+     */
+    private static Set<String> expectedByPrefix(String prefix, boolean exact)
+    {
+        Set<String> result = new HashSet<String>();
+        for (String key : NAMES)
+        {
+            if (exact)
+            {
+                int ix = key.lastIndexOf('.');
+                if (ix != -1 && prefix.equals(key.substring(0, ix)))
+                    result.add(key);
+            }
+            else if (key.startsWith(prefix))
+            {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    public void testPrefix()
+    {
+        String[] prefixes = new String[]
+            {
+                "net.java.sip.communicator.impl.protocol.jabber",
+                "net.java.sip.communicator.impl.protocol.jabber.",
+                "net.java.sip.communicator.impl.protocol.jabber.acc",
+                "net.java.sip.communicator.impl.protocol.jabber.acc2",
+                "net.java.sip.communicator.impl.protocol",
+                "net.java.sip.communicator.impl.proto",
+                "net.java.sip.communicator.impl.protocol.msn",
+                "USER",
+                ""
+            };
+
+        for (String prefix : prefixes)
+        {
+            Assert.assertEquals(prefix,
+                expectedByPrefix(prefix, true),
+                new HashSet<String>(index.getNamesByPrefix(prefix, true)));
+            Assert.assertEquals(prefix,
+                expectedByPrefix(prefix, false),
+                new HashSet<String>(index.getNamesByPrefix(prefix, false)));
+        }
+    }
+
+    public void testSuffix()
+    {
+        Assert.assertEquals(3, index.getNamesBySuffix("USER_ID").size());
+        Assert.assertEquals(
+            Arrays.asList(
+                "net.java.sip.communicator.impl.protocol.jabber.acc1.SERVER"),
+            index.getNamesBySuffix("SERVER"));
+        Assert.assertTrue(index.getNamesBySuffix("acc1.SERVER").isEmpty());
+    }
+
+    public void testRemove()
+    {
+        index.remove("net.java.sip.communicator.impl.protocol.jabber.acc22");
+        index.remove(
+            "net.java.sip.communicator.impl.protocol.jabber.acc22.USER_ID");
+        index.remove("net.java.sip.communicator.impl.protocol.sip.acc3");
+
+        Assert.assertTrue(index.getNamesByPrefix(
+            "net.java.sip.communicator.impl.protocol.jabber.acc2", false)
+                .isEmpty());
+        Assert.assertEquals(2, index.getNamesBySuffix("USER_ID").size());
+        Assert.assertEquals(1, index.getNamesByPrefix(
+            "net.java.sip.communicator.impl.protocol.sip", false).size());
+
+        index.clear();
+        Assert.assertTrue(index.getNamesByPrefix("", false).isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class MclChangeLogTest
+    extends TestCase
+{
+    private File file;
+
+    private DocumentBuilder builder;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("contactlist", ".xml.log");
+        file.delete();
+        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private Element newChange(String uid, String text)
+    {
+        Document doc = builder.newDocument();
+        Element change = doc.createElement("put-contact");
+        Element contact = doc.createElement("meta-contact");
+        contact.setAttribute("uid", uid);
+        contact.appendChild(doc.createTextNode(text));
+        change.appendChild(contact);
+        return change;
+    }
+
+    public void testAppendAndRead()
+        throws Exception
+    {
+        MclChangeLog log = new MclChangeLog(file);
+        log.append(Arrays.asList(
+            log.toLine(newChange("1", "first\nline & <second>")),
+            log.toLine(newChange("2", "other"))));
+        log.append(Arrays.asList(log.toLine(newChange("3", ""))));
+        Assert.assertEquals(3, log.getEntryCount());
+
+        List<Element> changes = new MclChangeLog(file).read(builder);
+        Assert.assertEquals(3, changes.size());
+
+        Element contact = (Element) changes.get(0).getFirstChild();
+        Assert.assertEquals("1", contact.getAttribute("uid"));
+        Assert.assertEquals("first\nline & <second>", contact.getTextContent());
+        Assert.assertEquals("put-contact", changes.get(2).getNodeName());
+
+        log.clear();
+        Assert.assertFalse(file.exists());
+        Assert.assertTrue(log.read(builder).isEmpty());
+    }
+
+    public void testTruncatedChangeIsIgnored()
+        throws Exception
+    {
+        MclChangeLog log = new MclChangeLog(file);
+        String line = log.toLine(newChange("1", "first"));
+        log.append(Arrays.asList(line, line.substring(0, line.length() / 2)));
+
+        List<Element> changes = log.read(builder);
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals(1, log.getEntryCount());
+    }
+}
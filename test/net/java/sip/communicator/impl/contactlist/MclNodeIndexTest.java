@@ -0,0 +1,170 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class MclNodeIndexTest
+    extends TestCase
+{
+    private static final int GROUP_COUNT = 100;
+
+    private static final int CONTACT_COUNT = 10000;
+
+    private Document document;
+
+    private MclNodeIndex newIndex()
+    {
+        return new MclNodeIndex("meta-contact", "group", "uid");
+    }
+
+    /**
+     * Builds a contact list document shaped like the one of the storage
+     * manager, with <tt>CONTACT_COUNT</tt> meta contacts spread in
+     * <tt>GROUP_COUNT</tt> groups.
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        document = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+
+        Element root = document.createElement("sip-communicator");
+        document.appendChild(root);
+
+        Element rootGroup = newGroup("root");
+        root.appendChild(rootGroup);
+
+        Element subgroups = (Element) rootGroup.getChildNodes().item(1);
+        for (int g = 0; g < GROUP_COUNT; g++)
+        {
+            Element group = newGroup("group" + g);
+            subgroups.appendChild(group);
+
+            Element childContacts = (Element) group.getChildNodes().item(2);
+            for (int c = g; c < CONTACT_COUNT; c += GROUP_COUNT)
+            {
+                Element contact = document.createElement("meta-contact");
+                contact.setAttribute("uid", "contact" + c);
+
+                Element protoContact = document.createElement("contact");
+                protoContact.setAttribute("address", c + "@example.org");
+                contact.appendChild(protoContact);
+
+                childContacts.appendChild(contact);
+            }
+        }
+    }
+
+    private Element newGroup(String uid)
+    {
+        Element group = document.createElement("group");
+        group.setAttribute("uid", uid);
+        group.appendChild(document.createElement("proto-groups"));
+        group.appendChild(document.createElement("subgroups"));
+        group.appendChild(document.createElement("child-contacts"));
+        return group;
+    }
+
+    /**
+     * Finds a node the way the storage manager did before the index.
+     */
+    private static Element walk(Element element, String name, String uid)
+    {
+        if (name.equals(element.getNodeName())
+            && uid.equals(element.getAttribute("uid")))
+            return element;
+
+        for (Node child = element.getFirstChild();
+             child != null;
+             child = child.getNextSibling())
+        {
+            if (child.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+
+            Element found = walk((Element) child, name, uid);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+    public void testLoadLargeContactList()
+    {
+        MclNodeIndex index = newIndex();
+
+        index.addTree(document.getDocumentElement());
+        for (int c = 0; c < CONTACT_COUNT; c++)
+        {
+            Assert.assertEquals("contact" + c,
+                index.findMetaContactNode(document, "contact" + c)
+                    .getAttribute("uid"));
+        }
+
+        // the index finds the nodes the walk of the document finds
+        for (int c = 0; c < CONTACT_COUNT; c += 20)
+        {
+            Assert.assertSame(
+                walk(document.getDocumentElement(),
+                    "meta-contact", "contact" + c),
+                index.findMetaContactNode(document, "contact" + c));
+        }
+
+        for (int g = 0; g < GROUP_COUNT; g++)
+        {
+            Assert.assertNotNull(index.findGroupNode(document, "group" + g));
+        }
+        Assert.assertNull(index.findMetaContactNode(document, "missing"));
+    }
+
+    public void testRemovedAndMovedNodes()
+    {
+        MclNodeIndex index = newIndex();
+        index.addTree(document.getDocumentElement());
+
+        Element contact = index.findMetaContactNode(document, "contact1");
+        Element group = index.findGroupNode(document, "group2");
+        Node oldParent = contact.getParentNode();
+
+        oldParent.removeChild(contact);
+        Assert.assertNull(index.findMetaContactNode(document, "contact1"));
+
+        group.getChildNodes().item(2).appendChild(contact);
+        Assert.assertSame(contact,
+            index.findMetaContactNode(document, "contact1"));
+
+        // removing a group removes the contacts in it
+        group.getParentNode().removeChild(group);
+        Assert.assertNull(index.findGroupNode(document, "group2"));
+        Assert.assertNull(index.findMetaContactNode(document, "contact1"));
+        Assert.assertNull(index.findMetaContactNode(document, "contact2"));
+
+        // a node created again for the same contact replaces the old one
+        Element created = document.createElement("meta-contact");
+        created.setAttribute("uid", "contact2");
+        index.add(created);
+        oldParent.appendChild(created);
+        Assert.assertSame(created,
+            index.findMetaContactNode(document, "contact2"));
+    }
+}
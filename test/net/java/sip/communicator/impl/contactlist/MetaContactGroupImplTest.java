@@ -0,0 +1,122 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.contactlist.*;
+
+public class MetaContactGroupImplTest
+    extends TestCase
+{
+    private static final int CONTACT_COUNT = 200;
+
+    private MetaContactGroupImpl group;
+
+    private List<MockContact> protoContacts;
+
+    @Override
+    protected void setUp()
+    {
+        MockProvider provider = new MockProvider("account");
+
+        group = new MetaContactGroupImpl(null, "group", "group");
+        protoContacts = new ArrayList<MockContact>();
+
+        for (int c = 0; c < CONTACT_COUNT; c++)
+        {
+            MetaContactImpl metaContact = new MetaContactImpl(
+                "contact" + c, new HashMap<String, List<String>>());
+            MockContact contact = new MockContact("contact" + c, provider);
+
+            metaContact.addProtoContact(contact);
+            group.addMetaContact(metaContact);
+            protoContacts.add(contact);
+        }
+    }
+
+    private void assertSorted()
+    {
+        List<MetaContact> children = new ArrayList<MetaContact>();
+        Iterator<MetaContact> childContacts = group.getChildContacts();
+        while (childContacts.hasNext())
+            children.add(childContacts.next());
+
+        Assert.assertEquals(CONTACT_COUNT, children.size());
+        Assert.assertEquals(CONTACT_COUNT, group.countChildContacts());
+
+        for (int i = 0; i < children.size(); i++)
+        {
+            MetaContact child = children.get(i);
+
+            if (i > 0)
+                Assert.assertTrue(children.get(i - 1).compareTo(child) < 0);
+            Assert.assertEquals(i, group.indexOf(child));
+            Assert.assertSame(child, group.getMetaContact(i));
+            Assert.assertTrue(group.contains(child));
+        }
+    }
+
+    public void testReorderOnPresenceChange()
+    {
+        assertSorted();
+
+        Iterator<MetaContact> before = group.getChildContacts();
+
+        // contacts going offline move after the online ones
+        for (int c = 0; c < CONTACT_COUNT; c += 3)
+        {
+            MockContact contact = protoContacts.get(c);
+            MetaContactImpl metaContact
+                = (MetaContactImpl) group.findMetaContactByContact(contact);
+
+            contact.setPresenceStatus(MockStatusEnum.MOCK_STATUS_00);
+            int index = metaContact.reevalContact();
+
+            Assert.assertEquals(index, group.indexOf(metaContact));
+        }
+        assertSorted();
+
+        MetaContact last = group.getMetaContact(CONTACT_COUNT - 1);
+        Assert.assertFalse(
+            last.getDefaultContact().getPresenceStatus().isOnline());
+
+        // the iterators returned earlier are not affected
+        int count = 0;
+        while (before.hasNext())
+        {
+            before.next();
+            count++;
+        }
+        Assert.assertEquals(CONTACT_COUNT, count);
+    }
+
+    public void testRemoveMetaContact()
+    {
+        MetaContactImpl metaContact
+            = (MetaContactImpl) group.getMetaContact(10);
+
+        group.removeMetaContact(metaContact);
+
+        Assert.assertEquals(-1, group.indexOf(metaContact));
+        Assert.assertFalse(group.contains(metaContact));
+        Assert.assertEquals(CONTACT_COUNT - 1, group.countChildContacts());
+    }
+}
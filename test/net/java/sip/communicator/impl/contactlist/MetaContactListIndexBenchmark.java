@@ -0,0 +1,179 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Times the presence fan-in of a large meta contact list, the lookup of the
+ * meta contact of every protocol contact as the presence updates coming in
+ * at login do, through <tt>MetaContactListIndex</tt> and through the scan
+ * of the groups it replaced.
+ * <p>
+ * It is not a unit test, as its timings depend on the machine, and is run
+ * by hand:
+ * <pre>
+ * java net.java.sip.communicator.impl.contactlist.MetaContactListIndexBenchmark
+ *     [contacts [groups [rounds]]]
+ * </pre>
+ */
+public class MetaContactListIndexBenchmark
+{
+    /**
+     * The root group of the list.
+     */
+    private final MetaContactGroupImpl root
+        = new MetaContactGroupImpl(null, "root", "root");
+
+    /**
+     * The index of the list.
+     */
+    private final MetaContactListIndex index = new MetaContactListIndex(root);
+
+    /**
+     * The protocol contacts in the order their presence changes.
+     */
+    private final List<Contact> protoContacts = new ArrayList<Contact>();
+
+    /**
+     * Builds a list of <tt>contactCount</tt> meta contacts spread in
+     * <tt>groupCount</tt> groups, every other one merging contacts of two
+     * accounts.
+     *
+     * @param contactCount the number of meta contacts
+     * @param groupCount the number of groups
+     */
+    private MetaContactListIndexBenchmark(int contactCount, int groupCount)
+    {
+        MockProvider provider1 = new MockProvider("account1");
+        MockProvider provider2 = new MockProvider("account2");
+
+        for (int g = 0; g < groupCount; g++)
+        {
+            MetaContactGroupImpl group
+                = new MetaContactGroupImpl(null, "group" + g, "group" + g);
+
+            for (int c = g; c < contactCount; c += groupCount)
+            {
+                MetaContactImpl metaContact = new MetaContactImpl(
+                    "contact" + c, new HashMap<String, List<String>>());
+
+                addProtoContact(metaContact,
+                    new MockContact(c + "@example.org", provider1));
+                if (c % 2 == 0)
+                {
+                    addProtoContact(metaContact,
+                        new MockContact(c + "@example.com", provider2));
+                }
+                group.addMetaContact(metaContact);
+            }
+
+            root.addSubgroup(group);
+            index.groupAdded(group);
+        }
+
+        Collections.shuffle(protoContacts, new Random(0));
+    }
+
+    /**
+     * Adds a protocol contact to a meta contact.
+     *
+     * @param metaContact the meta contact
+     * @param contact the protocol contact
+     */
+    private void addProtoContact(MetaContactImpl metaContact, Contact contact)
+    {
+        metaContact.addProtoContact(contact);
+        protoContacts.add(contact);
+    }
+
+    /**
+     * Looks up the meta contact of every protocol contact.
+     *
+     * @param useIndex <tt>true</tt> to look them up in the index,
+     * <tt>false</tt> to scan the groups
+     * @return the number of meta contacts found
+     */
+    private int fanIn(boolean useIndex)
+    {
+        int found = 0;
+
+        for (Contact contact : protoContacts)
+        {
+            MetaContact metaContact
+                = useIndex
+                    ? index.findMetaContactByContact(contact)
+                    : root.findMetaContactByContact(contact);
+
+            if (metaContact != null)
+                found++;
+        }
+        return found;
+    }
+
+    /**
+     * Times <tt>rounds</tt> fan-ins, after as many unmeasured ones to warm
+     * up, and prints the mean time of one.
+     *
+     * @param name the name of the lookup
+     * @param useIndex <tt>true</tt> to look up in the index, <tt>false</tt>
+     * to scan the groups
+     * @param rounds the number of fan-ins
+     */
+    private void time(String name, boolean useIndex, int rounds)
+    {
+        for (int i = 0; i < rounds; i++)
+            fanIn(useIndex);
+
+        int found = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < rounds; i++)
+            found += fanIn(useIndex);
+
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(
+            name + ": " + (elapsed / rounds / 1000) + " us for "
+                + protoContacts.size() + " updates ("
+                + (found / rounds) + " found)");
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of meta contacts, groups and rounds, all
+     * optional
+     */
+    public static void main(String[] args)
+    {
+        int contactCount = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int groupCount = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+        MetaContactListIndexBenchmark benchmark
+            = new MetaContactListIndexBenchmark(contactCount, groupCount);
+
+        benchmark.time("scan", false, rounds);
+        benchmark.time("index", true, rounds);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.protocol.*;
+
+public class MetaContactListIndexTest
+    extends TestCase
+{
+    private static final int GROUP_COUNT = 50;
+
+    private static final int CONTACT_COUNT = 5000;
+
+    private MockProvider provider1;
+
+    private MockProvider provider2;
+
+    private MetaContactGroupImpl root;
+
+    private MetaContactListIndex index;
+
+    /**
+     * The protocol contacts in the order their presence changes.
+     */
+    private List<Contact> protoContacts;
+
+    /**
+     * Builds a list of <tt>CONTACT_COUNT</tt> meta contacts spread in
+     * <tt>GROUP_COUNT</tt> groups, every other one merging contacts of two
+     * accounts. The groups have no <tt>MetaContactListService</tt> so the
+     * index is filled by the test.
+     */
+    @Override
+    protected void setUp()
+    {
+        provider1 = new MockProvider("account1");
+        provider2 = new MockProvider("account2");
+
+        root = new MetaContactGroupImpl(null, "root", "root");
+        index = new MetaContactListIndex(root);
+        protoContacts = new ArrayList<Contact>();
+
+        for (int g = 0; g < GROUP_COUNT; g++)
+        {
+            MetaContactGroupImpl group
+                = new MetaContactGroupImpl(null, "group" + g, "group" + g);
+
+            for (int c = g; c < CONTACT_COUNT; c += GROUP_COUNT)
+            {
+                MetaContactImpl metaContact = new MetaContactImpl(
+                    "contact" + c, new HashMap<String, List<String>>());
+
+                addProtoContact(metaContact,
+                    new MockContact(c + "@example.org", provider1));
+                if (c % 2 == 0)
+                {
+                    addProtoContact(metaContact,
+                        new MockContact(c + "@example.com", provider2));
+                }
+                group.addMetaContact(metaContact);
+            }
+
+            root.addSubgroup(group);
+            index.groupAdded(group);
+        }
+
+        Collections.shuffle(protoContacts, new Random(0));
+    }
+
+    private void addProtoContact(MetaContactImpl metaContact, Contact contact)
+    {
+        metaContact.addProtoContact(contact);
+        protoContacts.add(contact);
+    }
+
+    /**
+     * A contact which matches its address in any case and without its
+     * domain, as a jabber contact does.
+     */
+    private static class CaseInsensitiveContact
+        extends MockContact
+    {
+        CaseInsensitiveContact(String address, MockProvider provider)
+        {
+            super(address, provider);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof String)
+            {
+                String address = getAddress();
+
+                return address.equalsIgnoreCase((String) obj)
+                    || address.substring(0, address.indexOf('@'))
+                        .equalsIgnoreCase((String) obj);
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return super.hashCode();
+        }
+    }
+
+    /**
+     * Looks up the meta contact of every protocol contact as the presence
+     * updates of a large list coming in at login do, and checks it is the
+     * one found by the scan of the groups used before the index.
+     */
+    public void testPresenceFanIn()
+    {
+        for (Contact contact : protoContacts)
+        {
+            MetaContactImpl metaContact
+                = index.findMetaContactByContact(contact);
+
+            Assert.assertNotNull(metaContact);
+            Assert.assertTrue(metaContact.containsContact(contact));
+        }
+
+        for (int i = 0; i < protoContacts.size(); i += 20)
+        {
+            Contact contact = protoContacts.get(i);
+
+            Assert.assertSame(root.findMetaContactByContact(contact),
+                index.findMetaContactByContact(contact));
+        }
+
+        Assert.assertNull(index.findMetaContactByContact(
+            new MockContact("missing@example.org", provider1)));
+        Assert.assertNull(index.findMetaContactByContact(
+            "1@example.org", provider2.getAccountID().getAccountUniqueID()));
+        Assert.assertEquals("contact1", index.findMetaContactByContact(
+            "1@example.org", provider1.getAccountID().getAccountUniqueID())
+                .getMetaUID());
+    }
+
+    public void testRemovedAndMovedContacts()
+    {
+        MetaContactGroupImpl group1
+            = index.findMetaContactGroupByMetaUID("group1");
+        MetaContactGroupImpl group2
+            = index.findMetaContactGroupByMetaUID("group2");
+        MetaContactImpl metaContact = index.findMetaContactByMetaUID("contact1");
+        Contact contact = metaContact.getDefaultContact();
+
+        Assert.assertSame(group1, metaContact.getParentGroup());
+
+        // moving a meta contact keeps it in the index
+        group1.removeMetaContact(metaContact);
+        index.metaContactRemoved(metaContact);
+        Assert.assertNull(index.findMetaContactByMetaUID("contact1"));
+        Assert.assertNull(index.findMetaContactByContact(contact));
+
+        group2.addMetaContact(metaContact);
+        index.metaContactAdded(metaContact);
+        Assert.assertSame(metaContact,
+            index.findMetaContactByMetaUID("contact1"));
+        Assert.assertSame(metaContact,
+            index.findMetaContactByContact(contact));
+
+        // moving a protocol contact to another meta contact
+        MetaContactImpl other = index.findMetaContactByMetaUID("contact3");
+        other.addProtoContact(contact);
+        index.contactAdded(contact, other);
+        metaContact.removeProtoContact(contact);
+        index.contactRemoved(contact, metaContact);
+        Assert.assertSame(other, index.findMetaContactByContact(contact));
+
+        // the contacts of a removed group are no longer found
+        root.removeSubgroup(group2);
+        index.groupRemoved(group2);
+        Assert.assertNull(index.findMetaContactGroupByMetaUID("group2"));
+        Assert.assertNull(index.findMetaContactByMetaUID("contact2"));
+        Assert.assertNull(index.findMetaContactByMetaUID("contact1"));
+        Assert.assertNotNull(index.findMetaContactByMetaUID("contact3"));
+    }
+
+    /**
+     * A contact is found by the addresses it matches, as it was by the scan
+     * of the groups.
+     */
+    public void testMatchingAddresses()
+    {
+        MetaContactImpl metaContact = index.findMetaContactByMetaUID("contact1");
+        Contact contact = new CaseInsensitiveContact("John@Example.org", provider1);
+
+        metaContact.addProtoContact(contact);
+        index.contactAdded(contact, metaContact);
+
+        Assert.assertSame(metaContact, index.findMetaContactByContact(
+            new MockContact("john@example.org", provider1)));
+        Assert.assertSame(metaContact, index.findMetaContactByContact(
+            new MockContact("JOHN@example.org/laptop", provider1)));
+        Assert.assertSame(metaContact, index.findMetaContactByContact(
+            new MockContact("john", provider1)));
+        Assert.assertSame(root.findMetaContactByContact(
+                new MockContact("john", provider1)),
+            index.findMetaContactByContact(
+                new MockContact("john", provider1)));
+        Assert.assertNull(index.findMetaContactByContact(
+            new MockContact("john@example.org", provider2)));
+        Assert.assertNull(index.findMetaContactByContact(
+            new MockContact("jane@example.org", provider1)));
+
+        metaContact.removeProtoContact(contact);
+        index.contactRemoved(contact, metaContact);
+        Assert.assertNull(index.findMetaContactByContact(
+            new MockContact("john@example.org", provider1)));
+    }
+}
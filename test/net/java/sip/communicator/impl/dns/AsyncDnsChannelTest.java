@@ -0,0 +1,202 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+import org.xbill.DNS.*;
+
+public class AsyncDnsChannelTest
+    extends TestCase
+{
+    private AsyncDnsChannel channel;
+
+    private DatagramSocket server;
+
+    private InetSocketAddress serverAddress;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        channel = new AsyncDnsChannel();
+        server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(5000);
+        serverAddress = (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        channel.close();
+        server.close();
+    }
+
+    private static Message query(String name)
+        throws TextParseException
+    {
+        return Message.newQuery(
+            org.xbill.DNS.Record.newRecord(
+                Name.fromString(name), Type.A, DClass.IN));
+    }
+
+    /**
+     * Receives a query on the server.
+     */
+    private DatagramPacket receiveQuery()
+        throws Exception
+    {
+        DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+        server.receive(packet);
+        return packet;
+    }
+
+    /**
+     * Answers a query received by the server.
+     */
+    private void answer(DatagramPacket packet, Message query, String address)
+        throws Exception
+    {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(query.getQuestion(), Section.QUESTION);
+        response.addRecord(
+            new ARecord(query.getQuestion().getName(), DClass.IN, 60,
+                InetAddress.getByName(address)),
+            Section.ANSWER);
+
+        byte[] wire = response.toWire();
+        server.send(new DatagramPacket(
+            wire, wire.length, packet.getSocketAddress()));
+    }
+
+    private static class Handler
+        implements AsyncDnsChannel.ResponseHandler
+    {
+        final BlockingQueue<Message> responses
+            = new LinkedBlockingQueue<Message>();
+
+        public void responseReceived(Message response,
+                                     InetSocketAddress server)
+        {
+            responses.add(response);
+        }
+    }
+
+    /**
+     * Two queries in flight at the same time get their own responses, with
+     * the IDs of the original queries.
+     */
+    public void testConcurrentQueries()
+        throws Exception
+    {
+        Message query1 = query("one.example.com.");
+        Message query2 = query("two.example.com.");
+        Handler handler1 = new Handler();
+        Handler handler2 = new Handler();
+
+        channel.send(channel.register(query1, handler1), serverAddress);
+        channel.send(channel.register(query2, handler2), serverAddress);
+
+        Map<Name, DatagramPacket> packets = new HashMap<Name, DatagramPacket>();
+        Map<Name, Message> queries = new HashMap<Name, Message>();
+        for (int i = 0; i < 2; i++)
+        {
+            DatagramPacket packet = receiveQuery();
+            Message query = new Message(packet.getData());
+            packets.put(query.getQuestion().getName(), packet);
+            queries.put(query.getQuestion().getName(), query);
+        }
+
+        // answered in the reverse order
+        Name name2 = query2.getQuestion().getName();
+        Name name1 = query1.getQuestion().getName();
+        answer(packets.get(name2), queries.get(name2), "10.0.0.2");
+        answer(packets.get(name1), queries.get(name1), "10.0.0.1");
+
+        Message response1 = handler1.responses.poll(5, TimeUnit.SECONDS);
+        Message response2 = handler2.responses.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(response1);
+        Assert.assertNotNull(response2);
+        Assert.assertEquals(
+            query1.getHeader().getID(), response1.getHeader().getID());
+        Assert.assertEquals(
+            "10.0.0.1",
+            ((ARecord) response1.getSectionArray(Section.ANSWER)[0])
+                .getAddress().getHostAddress());
+        Assert.assertEquals(
+            "10.0.0.2",
+            ((ARecord) response2.getSectionArray(Section.ANSWER)[0])
+                .getAddress().getHostAddress());
+    }
+
+    /**
+     * The responses to unregistered queries and to questions which were not
+     * asked are ignored.
+     */
+    public void testIgnoresUnexpectedResponses()
+        throws Exception
+    {
+        Message query = query("one.example.com.");
+        Handler handler = new Handler();
+        int id = channel.register(query, handler);
+
+        channel.send(id, serverAddress);
+        DatagramPacket packet = receiveQuery();
+        Message sent = new Message(packet.getData());
+
+        // a response to another question with the same ID
+        Message other = query("other.example.com.");
+        other.getHeader().setID(sent.getHeader().getID());
+        answer(packet, other, "10.0.0.9");
+
+        // a response after the query was forgotten
+        channel.unregister(id);
+        answer(packet, sent, "10.0.0.1");
+
+        Assert.assertNull(handler.responses.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    public void testSchedule()
+        throws Exception
+    {
+        final BlockingQueue<String> ran = new LinkedBlockingQueue<String>();
+
+        channel.schedule(new Runnable()
+        {
+            public void run()
+            {
+                ran.add("second");
+            }
+        }, 200);
+        channel.schedule(new Runnable()
+        {
+            public void run()
+            {
+                ran.add("first");
+            }
+        }, 50);
+
+        Assert.assertEquals("first", ran.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("second", ran.poll(5, TimeUnit.SECONDS));
+    }
+}
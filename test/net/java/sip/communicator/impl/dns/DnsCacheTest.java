@@ -0,0 +1,178 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.xbill.DNS.*;
+
+public class DnsCacheTest
+    extends TestCase
+{
+    /**
+     * The current time, since the expired responses are not read from the
+     * file.
+     */
+    private final long now = System.currentTimeMillis();
+
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("dnscache", ".dat");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static Name name(String name)
+        throws TextParseException
+    {
+        return Name.fromString(name);
+    }
+
+    private static Message query(String name, int type)
+        throws TextParseException
+    {
+        return Message.newQuery(
+            org.xbill.DNS.Record.newRecord(name(name), type, DClass.IN));
+    }
+
+    private static Message response(Message query, int rcode)
+    {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setRcode(rcode);
+        response.addRecord(query.getQuestion(), Section.QUESTION);
+        return response;
+    }
+
+    private static ARecord a(String name, long ttl, String address)
+        throws Exception
+    {
+        return new ARecord(
+            name(name), DClass.IN, ttl, InetAddress.getByName(address));
+    }
+
+    public void testTimeToLive()
+        throws Exception
+    {
+        Message query = query("example.com.", Type.A);
+
+        Message positive = response(query, Rcode.NOERROR);
+        positive.addRecord(a("example.com.", 300, "10.0.0.1"), Section.ANSWER);
+        positive.addRecord(a("example.com.", 60, "10.0.0.2"), Section.ANSWER);
+        Assert.assertEquals(60000, DnsCache.getTimeToLive(positive, now));
+
+        Message negative = response(query, Rcode.NXDOMAIN);
+        negative.addRecord(
+            new SOARecord(name("com."), DClass.IN, 900, name("ns.com."),
+                name("admin.com."), 1, 3600, 600, 86400, 120),
+            Section.AUTHORITY);
+        Assert.assertEquals(120000, DnsCache.getTimeToLive(negative, now));
+
+        // failures, which include the answers failing DNSSEC validation
+        Assert.assertEquals(-1, DnsCache.getTimeToLive(
+            response(query, Rcode.SERVFAIL), now));
+
+        // signatures expiring before the TTL
+        Message signed = response(query, Rcode.NOERROR);
+        signed.addRecord(a("example.com.", 3600, "10.0.0.1"), Section.ANSWER);
+        signed.addRecord(
+            new RRSIGRecord(name("example.com."), DClass.IN, 3600, Type.A,
+                DNSSEC.Algorithm.RSASHA256, 3600, new Date(now + 10000),
+                new Date(now - 10000), 1, name("example.com."),
+                new byte[] { 1 }),
+            Section.ANSWER);
+        Assert.assertEquals(10000, DnsCache.getTimeToLive(signed, now));
+    }
+
+    public void testKeys()
+        throws Exception
+    {
+        Message query = query("Example.COM.", Type.SRV);
+        Assert.assertEquals(
+            DnsCache.getKey(query("example.com.", Type.SRV)),
+            DnsCache.getKey(query));
+
+        Message dnssecQuery = query("example.com.", Type.SRV);
+        dnssecQuery.addRecord(
+            new OPTRecord(1280, 0, 0, ExtendedFlags.DO), Section.ADDITIONAL);
+        Assert.assertFalse(
+            DnsCache.getKey(query).equals(DnsCache.getKey(dnssecQuery)));
+    }
+
+    public void testExpiryAndPersistence()
+        throws Exception
+    {
+        DnsCache cache = new DnsCache(file);
+        Message query = query("example.com.", Type.A);
+        String key = DnsCache.getKey(query);
+        Message response = response(query, Rcode.NOERROR);
+        response.addRecord(a("example.com.", 60, "10.0.0.1"), Section.ANSWER);
+
+        cache.put(key, query, response, now);
+        Assert.assertFalse(cache.get(key, now + 1000).isExpired(now + 1000));
+        Assert.assertTrue(cache.get(key, now + 60000).isExpired(now + 60000));
+        Assert.assertNull(cache.get(key, now + 60000 + DnsCache.STALE_TTL));
+
+        cache.put(key, query, response, now);
+        cache.get(key, now);
+        cache.flush();
+
+        // a response which is used is refreshed before it expires
+        DnsCache loaded = new DnsCache(file);
+        List<DnsCache.Entry> prefetch
+            = loaded.getEntriesToPrefetch(now + 50000, 20000);
+        Assert.assertEquals(1, prefetch.size());
+        Assert.assertTrue(loaded.startRefresh(key));
+        Assert.assertFalse(loaded.startRefresh(key));
+        Assert.assertTrue(
+            loaded.getEntriesToPrefetch(now + 50000, 20000).isEmpty());
+
+        DnsCache.Entry entry = loaded.get(key, now + 1000);
+        Message cached = entry.getResponse(1234, now + 1000);
+        Assert.assertEquals(1234, cached.getHeader().getID());
+        Assert.assertEquals(
+            "10.0.0.1",
+            ((ARecord) cached.getSectionArray(Section.ANSWER)[0])
+                .getAddress().getHostAddress());
+
+        // the records live only as long as the response has left
+        Assert.assertEquals(59,
+            cached.getSectionArray(Section.ANSWER)[0].getTTL());
+        Assert.assertEquals(0,
+            entry.getResponse(1234, now + 70000)
+                .getSectionArray(Section.ANSWER)[0].getTTL());
+        Assert.assertEquals(
+            query.getQuestion(), entry.getQuery().getQuestion());
+
+        loaded.clear();
+        Assert.assertNull(new DnsCache(file).get(key, now + 1000));
+    }
+}
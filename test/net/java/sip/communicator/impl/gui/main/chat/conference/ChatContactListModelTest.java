@@ -0,0 +1,232 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat.conference;
+
+import java.util.*;
+
+import javax.swing.*;
+import javax.swing.event.*;
+
+import net.java.sip.communicator.impl.gui.main.chat.*;
+
+import junit.framework.*;
+
+public class ChatContactListModelTest
+    extends TestCase
+{
+    private static class NamedChatContact
+        extends ChatContact<String>
+    {
+        NamedChatContact(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected byte[] getAvatarBytes()
+        {
+            return null;
+        }
+
+        @Override
+        public String getName()
+        {
+            return descriptor;
+        }
+
+        @Override
+        public String getUID()
+        {
+            return descriptor;
+        }
+    }
+
+    private static class NoChatSession
+        extends ChatSession
+    {
+        public Object getDescriptor()
+        {
+            return null;
+        }
+
+        public boolean isDescriptorPersistent()
+        {
+            return false;
+        }
+
+        public ChatTransport getCurrentChatTransport()
+        {
+            return null;
+        }
+
+        public ChatSessionRenderer getChatSessionRenderer()
+        {
+            return null;
+        }
+
+        public void setCurrentChatTransport(ChatTransport chatTransport)
+        {
+        }
+
+        public String getChatName()
+        {
+            return null;
+        }
+
+        public Collection<Object> getHistory(int count)
+        {
+            return null;
+        }
+
+        public Collection<Object> getHistoryBeforeDate(Date date, int count)
+        {
+            return null;
+        }
+
+        public Collection<Object> getHistoryAfterDate(Date date, int count)
+        {
+            return null;
+        }
+
+        public Date getHistoryStartDate()
+        {
+            return null;
+        }
+
+        public Date getHistoryEndDate()
+        {
+            return null;
+        }
+
+        public String getDefaultSmsNumber()
+        {
+            return null;
+        }
+
+        public void setDefaultSmsNumber(String smsPhoneNumber)
+        {
+        }
+
+        public void dispose()
+        {
+        }
+
+        public ImageIcon getChatStatusIcon()
+        {
+            return null;
+        }
+
+        public byte[] getChatAvatar()
+        {
+            return null;
+        }
+
+        public boolean isContactListSupported()
+        {
+            return true;
+        }
+    }
+
+    private final List<int[]> added = new ArrayList<int[]>();
+
+    private ChatContactListModel createModel()
+    {
+        ChatContactListModel model
+            = new ChatContactListModel(new NoChatSession());
+
+        model.addListDataListener(new ListDataListener()
+        {
+            public void intervalAdded(ListDataEvent e)
+            {
+                added.add(new int[] { e.getIndex0(), e.getIndex1() });
+            }
+
+            public void intervalRemoved(ListDataEvent e)
+            {
+            }
+
+            public void contentsChanged(ListDataEvent e)
+            {
+            }
+        });
+        return model;
+    }
+
+    private static List<ChatContact<?>> contacts(String... names)
+    {
+        List<ChatContact<?>> contacts = new ArrayList<ChatContact<?>>();
+
+        for (String name : names)
+            contacts.add(new NamedChatContact(name));
+        return contacts;
+    }
+
+    private static String names(ChatContactListModel model)
+    {
+        StringBuilder names = new StringBuilder();
+
+        for (int i = 0; i < model.getSize(); i++)
+            names.append(model.getElementAt(i).getName());
+        return names.toString();
+    }
+
+    public void testAddElementSorted()
+    {
+        ChatContactListModel model = createModel();
+
+        for (ChatContact<?> chatContact : contacts("d", "b", "a", "c", "b"))
+            model.addElement(chatContact);
+
+        Assert.assertEquals("abcd", names(model));
+        Assert.assertEquals(4, added.size());
+    }
+
+    public void testAddElementsMerged()
+    {
+        ChatContactListModel model = createModel();
+
+        model.addElements(contacts("c", "f"));
+        added.clear();
+        model.addElements(contacts("g", "a", "b", "c", "d", "e", "a"));
+
+        Assert.assertEquals("abcdefg", names(model));
+        // a and b, d and e, then g
+        Assert.assertEquals(3, added.size());
+        Assert.assertTrue(Arrays.equals(new int[] { 0, 1 }, added.get(0)));
+        Assert.assertTrue(Arrays.equals(new int[] { 3, 4 }, added.get(1)));
+        Assert.assertTrue(Arrays.equals(new int[] { 6, 6 }, added.get(2)));
+
+        added.clear();
+        model.addElements(contacts("a", "g"));
+        Assert.assertTrue(added.isEmpty());
+    }
+
+    public void testRemovedElementAddedAgain()
+    {
+        ChatContactListModel model = createModel();
+
+        model.addElements(contacts("a", "b"));
+        model.removeElement(new NamedChatContact("a"));
+        model.addElement(new NamedChatContact("a"));
+        Assert.assertEquals("ab", names(model));
+
+        model.removeAllElements();
+        model.addElements(contacts("b"));
+        Assert.assertEquals("b", names(model));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+
+import javax.imageio.*;
+import javax.swing.*;
+
+import junit.framework.*;
+
+public class AvatarCacheTest
+    extends TestCase
+{
+    private static byte[] png(Color color)
+        throws IOException
+    {
+        BufferedImage image
+            = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, 64, 64);
+        g.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    public void testSharedByContent()
+        throws Exception
+    {
+        AvatarCache cache = new AvatarCache(AvatarCache.MAX_CACHE_SIZE);
+        byte[] avatar = png(Color.RED);
+
+        ImageIcon icon = cache.getScaledRoundedIcon(avatar, 32, 32);
+        Assert.assertNotNull(icon);
+        Assert.assertEquals(32, icon.getIconWidth());
+
+        // another copy of the same avatar
+        Assert.assertSame(icon,
+            cache.getScaledRoundedIcon(avatar.clone(), 32, 32));
+        Assert.assertNotSame(icon,
+            cache.getScaledRoundedIcon(avatar, 48, 48));
+        Assert.assertNotSame(icon,
+            cache.getScaledRoundedIcon(png(Color.BLUE), 32, 32));
+
+        Assert.assertNull(
+            cache.getScaledRoundedIcon(new byte[] { 1, 2, 3 }, 32, 32));
+        Assert.assertNull(cache.getScaledRoundedIcon((byte[]) null, 32, 32));
+    }
+
+    public void testLeastRecentlyUsedEvicted()
+        throws Exception
+    {
+        // room for two 32x32 avatars
+        AvatarCache cache = new AvatarCache(2 * 32 * 32 * 4);
+        byte[] red = png(Color.RED);
+        byte[] green = png(Color.GREEN);
+
+        ImageIcon redIcon = cache.getScaledRoundedIcon(red, 32, 32);
+        ImageIcon greenIcon = cache.getScaledRoundedIcon(green, 32, 32);
+        cache.getScaledRoundedIcon(red, 32, 32);
+        cache.getScaledRoundedIcon(png(Color.BLUE), 32, 32);
+
+        Assert.assertEquals(2 * 32 * 32 * 4, cache.getSize());
+        Assert.assertSame(redIcon, cache.getScaledRoundedIcon(red, 32, 32));
+        Assert.assertNotSame(greenIcon,
+            cache.getScaledRoundedIcon(green, 32, 32));
+    }
+
+    /**
+     * On the event dispatch thread, an avatar which is not cached is loaded
+     * in the background and a placeholder of its size is returned meanwhile.
+     */
+    public void testLoadedInBackground()
+        throws Exception
+    {
+        final AvatarCache cache = new AvatarCache(AvatarCache.MAX_CACHE_SIZE);
+        final byte[] avatar = png(Color.RED);
+        final ImageIcon[] placeholder = new ImageIcon[1];
+
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+                placeholder[0]
+                    = cache.getScaledRoundedIconLater(avatar, 32, 32);
+            }
+        });
+        Assert.assertNotNull(placeholder[0]);
+        Assert.assertEquals(32, placeholder[0].getIconWidth());
+
+        ImageIcon icon = null;
+        for (int i = 0; i < 100 && cache.getSize() == 0; i++)
+            Thread.sleep(50);
+        icon = cache.getScaledRoundedIconLater(avatar, 32, 32);
+
+        Assert.assertNotSame(placeholder[0], icon);
+        Assert.assertSame(icon, cache.getScaledRoundedIcon(avatar, 32, 32));
+    }
+
+    /**
+     * An image is scaled on the event dispatch thread when it is asked for
+     * synchronously, as the caller is not repainted when it is ready.
+     */
+    public void testImageLoadedOnEventDispatchThread()
+        throws Exception
+    {
+        final AvatarCache cache = new AvatarCache(AvatarCache.MAX_CACHE_SIZE);
+        final Image image = ImageIO.read(
+            new ByteArrayInputStream(png(Color.RED)));
+        final ImageIcon[] icon = new ImageIcon[1];
+
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+                icon[0] = cache.getScaledRoundedIcon(image, 32, 32);
+            }
+        });
+
+        Assert.assertEquals(32 * 32 * 4, cache.getSize());
+        Assert.assertSame(icon[0],
+            cache.getScaledRoundedIconLater(image, 32, 32));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+
+public class HistoryActivityIndexTest
+    extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File f)
+    {
+        File[] files = f.listFiles();
+        if (files != null)
+        {
+            for (File child : files)
+                delete(child);
+        }
+        f.delete();
+    }
+
+    private static HistoryID id(String... ids)
+    {
+        return HistoryID.createFromRawStrings(ids);
+    }
+
+    private void createHistoryFile(long lastModified, String... ids)
+        throws IOException
+    {
+        File dir = directory;
+        for (String id : ids)
+            dir = new File(dir, id);
+        dir.mkdirs();
+
+        File file = new File(dir, lastModified + ".xml");
+        file.createNewFile();
+        file.setLastModified(lastModified);
+    }
+
+    public void testListsMostRecentFirst()
+    {
+        HistoryActivityIndex index = new HistoryActivityIndex(directory);
+
+        index.recordWritten(id("messages", "default", "acc1", "alice"), 1000);
+        index.recordWritten(id("messages", "default", "acc1", "bob"), 3000);
+        index.recordWritten(id("messages", "default", "acc2", "carol"), 2000);
+        index.recordWritten(id("callhistory", "default"), 4000);
+        // an older record doesn't move a history back
+        index.recordWritten(id("messages", "default", "acc1", "bob"), 500);
+
+        Assert.assertEquals(
+            Arrays.asList(
+                id("messages", "default", "acc1", "bob"),
+                id("messages", "default", "acc2", "carol"),
+                id("messages", "default", "acc1", "alice")),
+            index.getHistories(new String[] { "messages", "default" }));
+
+        index.remove(new String[] { "messages", "default", "acc1" });
+        index.move(
+            new String[] { "messages", "default", "acc2", "carol" },
+            new String[] { "messages", "default", "acc2", "dave" });
+
+        List<HistoryID> expected
+            = Arrays.asList(id("messages", "default", "acc2", "dave"));
+        Assert.assertEquals(expected,
+            index.getHistories(new String[] { "messages" }));
+
+        // the changes are found in the file
+        Assert.assertEquals(expected,
+            new HistoryActivityIndex(directory)
+                .getHistories(new String[] { "messages" }));
+    }
+
+    public void testBuildsFromHistoryFiles()
+        throws IOException
+    {
+        createHistoryFile(10000, "messages", "default", "acc1", "alice");
+        createHistoryFile(30000, "messages", "default", "acc1", "alice");
+        createHistoryFile(20000, "messages", "default", "acc1", "bob");
+
+        HistoryActivityIndex index = new HistoryActivityIndex(directory);
+        Assert.assertEquals(
+            Arrays.asList(
+                id("messages", "default", "acc1", "alice"),
+                id("messages", "default", "acc1", "bob")),
+            index.getHistories(new String[] { "messages", "default" }));
+        Assert.assertTrue(
+            new File(directory, HistoryActivityIndex.FILE_NAME).exists());
+
+        // once the file exists the history files are not looked at
+        createHistoryFile(40000, "messages", "default", "acc1", "carol");
+        Assert.assertEquals(2,
+            new HistoryActivityIndex(directory)
+                .getHistories(new String[] { "messages" }).size());
+    }
+
+    public void testCompactsTheFile()
+    {
+        HistoryActivityIndex index = new HistoryActivityIndex(directory);
+        HistoryID id = id("messages", "default", "acc1", "alice");
+
+        for (int i = 1; i <= 1000; i++)
+            index.recordWritten(id, i);
+
+        File file = new File(directory, HistoryActivityIndex.FILE_NAME);
+        Assert.assertTrue(file.length() < 300 * 32);
+
+        index = new HistoryActivityIndex(directory);
+        index.recordWritten(id, 1000);
+        index.recordWritten(id("messages", "default", "acc1", "bob"), 999);
+        Assert.assertEquals(
+            Arrays.asList(id, id("messages", "default", "acc1", "bob")),
+            index.getHistories(new String[] { "messages" }));
+    }
+
+    public void testListsCreatedHistories()
+        throws IOException
+    {
+        HistoryActivityIndex index = new HistoryActivityIndex(directory);
+
+        index.recordCreated(id("messages", "default", "acc1", "alice"));
+        index.recordWritten(id("messages", "default", "acc1", "bob"), 1000);
+        index.recordCreated(id("messages", "default", "acc1", "bob"));
+        Assert.assertEquals(
+            Arrays.asList(
+                id("messages", "default", "acc1", "bob"),
+                id("messages", "default", "acc1", "alice")),
+            index.getHistories(new String[] { "messages" }));
+
+        // a history without records is found in its directory as well
+        File dir = new File(directory, "callhistory");
+        dir.mkdirs();
+        new File(dir, HistoryServiceImpl.DATA_FILE).createNewFile();
+        HistoryActivityIndex.delete(directory);
+        Assert.assertEquals(
+            Arrays.asList(id("callhistory")),
+            new HistoryActivityIndex(directory)
+                .getHistories(new String[] { "callhistory" }));
+    }
+
+    public void testRebuildsFileInAnotherFormat()
+        throws IOException
+    {
+        createHistoryFile(10000, "messages", "default", "acc1", "alice");
+
+        Writer out = new FileWriter(
+            new File(directory, HistoryActivityIndex.FILE_NAME));
+        out.write("5000\tmessages\tdefault\tacc1\tbob\n");
+        out.close();
+
+        Assert.assertEquals(
+            Arrays.asList(id("messages", "default", "acc1", "alice")),
+            new HistoryActivityIndex(directory)
+                .getHistories(new String[] { "messages" }));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class HistoryDocumentCacheTest
+    extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private File createFile(String name, int size)
+        throws IOException
+    {
+        File file = new File(directory, name);
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(new byte[size]);
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    private static Document newDocument()
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+    }
+
+    public void testLeastRecentlyUsedAreDropped()
+        throws Exception
+    {
+        HistoryDocumentCache cache = new HistoryDocumentCache(250);
+        File f1 = createFile("1.xml", 100);
+        File f2 = createFile("2.xml", 100);
+        File f3 = createFile("3.xml", 100);
+        Document d1 = newDocument();
+
+        cache.put(f1, d1);
+        cache.put(f2, newDocument());
+        Assert.assertSame(d1, cache.get(f1));
+
+        cache.put(f3, newDocument());
+        Assert.assertSame(d1, cache.get(f1));
+        Assert.assertNull(cache.get(f2));
+        Assert.assertNotNull(cache.get(f3));
+        Assert.assertEquals(200, cache.getSize());
+    }
+
+    public void testWrittenReplacesOnlyCached()
+        throws Exception
+    {
+        HistoryDocumentCache cache = new HistoryDocumentCache(1000);
+        File f1 = createFile("1.xml", 100);
+        File f2 = createFile("2.xml", 100);
+        Document written = newDocument();
+
+        cache.put(f1, newDocument());
+        cache.written(f1, written);
+        cache.written(f2, newDocument());
+
+        Assert.assertSame(written, cache.get(f1));
+        Assert.assertNull(cache.get(f2));
+
+        cache.removeAll(directory);
+        Assert.assertNull(cache.get(f1));
+        Assert.assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class HistoryKeywordIndexTest
+    extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private static Document createDocument(String... messages)
+        throws Exception
+    {
+        Document doc = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+        Element root = doc.createElement("history");
+        doc.appendChild(root);
+
+        for (String message : messages)
+        {
+            Element record = doc.createElement("record");
+            Element msg = doc.createElement("msg");
+            msg.appendChild(doc.createTextNode(message));
+            record.appendChild(msg);
+            root.appendChild(record);
+        }
+
+        return doc;
+    }
+
+    public void testTokenize()
+    {
+        Assert.assertEquals(Arrays.asList("hello", "world", "42"),
+            HistoryKeywordIndex.tokenize("Hello, WORLD! 42"));
+        Assert.assertTrue(HistoryKeywordIndex.tokenize(" :-) ").isEmpty());
+    }
+
+    public void testFindCandidates()
+        throws Exception
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory, "msg");
+
+        index.reindex("1.xml", createDocument("hello there", "bye"));
+        index.reindex("2.xml", createDocument("nothing", "said hello"));
+        index.reindex("3.xml", createDocument("other"));
+
+        Map<String, BitSet> candidates
+            = index.findCandidates(new String[] { "ELL" });
+
+        Assert.assertEquals(3, candidates.size());
+        Assert.assertEquals(Collections.singleton(0),
+            toSet(candidates.get("1.xml")));
+        Assert.assertEquals(Collections.singleton(1),
+            toSet(candidates.get("2.xml")));
+        Assert.assertTrue(candidates.get("3.xml").isEmpty());
+
+        Assert.assertNull(index.findCandidates(new String[] { ":)" }));
+    }
+
+    public void testFindCandidatesInsideWords()
+        throws Exception
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory, "msg");
+
+        index.reindex("1.xml",
+            createDocument("banana", "cabana", "anagram", "an", "bandana"));
+
+        Map<String, BitSet> candidates
+            = index.findCandidates(new String[] { "ana" });
+
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(0, 1, 2, 4)),
+            toSet(candidates.get("1.xml")));
+
+        candidates = index.findCandidates(new String[] { "an", "nag" });
+        Assert.assertEquals(Collections.singleton(2),
+            toSet(candidates.get("1.xml")));
+    }
+
+    public void testInvalidatedFileIsNotTrusted()
+        throws Exception
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory, "msg");
+
+        index.reindex("1.xml", createDocument("hello"));
+        index.invalidate("1.xml");
+
+        Map<String, BitSet> candidates
+            = index.findCandidates(new String[] { "hello" });
+        Assert.assertFalse(candidates.containsKey("1.xml"));
+        Assert.assertFalse(index.isComplete("1.xml"));
+    }
+
+    public void testLoadFromJournal()
+        throws Exception
+    {
+        HistoryKeywordIndex index = new HistoryKeywordIndex(directory, "msg");
+
+        index.reindex("1.xml", createDocument("first", "second"));
+        index.reindex("1.xml", createDocument("second", "first"));
+
+        HistoryKeywordIndex loaded = new HistoryKeywordIndex(directory, "msg");
+        Map<String, BitSet> candidates
+            = loaded.findCandidates(new String[] { "first" });
+
+        Assert.assertEquals(Collections.singleton(1),
+            toSet(candidates.get("1.xml")));
+        Assert.assertEquals("msg",
+            HistoryKeywordIndex.getIndexedField("msg"
+                + HistoryKeywordIndex.FILE_SUFFIX));
+    }
+
+    private static Set<Integer> toSet(BitSet bits)
+    {
+        Set<Integer> result = new HashSet<Integer>();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+            result.add(i);
+        return result;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import net.java.sip.communicator.service.history.records.*;
+
+import org.w3c.dom.*;
+
+public class HistoryRecordReaderTest
+    extends TestCase
+{
+    private static final String HISTORY
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<history>\n"
+        + "<record timestamp=\"10\">\n"
+        + "<dir>out</dir>\n<msg>Hello &amp;amp; bye</msg>\n"
+        + "</record>\n"
+        + "<record timestamp=\"20\">\n"
+        + "<dir>in</dir>\n<msg><![CDATA[second hello]]></msg>\n"
+        + "</record>\n"
+        + "<record timestamp=\"30\">\n"
+        + "<dir>in</dir>\n<msg></msg>\n"
+        + "</record>\n"
+        + "</history>\n";
+
+    private static List<HistoryRecord> readStream(
+            HistoryRecordReader reader, BitSet candidates,
+            List<String> fieldValues)
+        throws Exception
+    {
+        return reader.read(
+            new ByteArrayInputStream(HISTORY.getBytes("UTF-8")),
+            candidates, fieldValues);
+    }
+
+    private static List<HistoryRecord> readDocument(
+            HistoryRecordReader reader, BitSet candidates)
+        throws Exception
+    {
+        Document doc = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder()
+            .parse(new ByteArrayInputStream(HISTORY.getBytes("UTF-8")));
+
+        return reader.read(doc, candidates);
+    }
+
+    private static void assertSameRecords(
+        List<HistoryRecord> expected, List<HistoryRecord> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertEquals(expected.get(i).getTimestamp(),
+                actual.get(i).getTimestamp());
+            Assert.assertEquals(
+                Arrays.asList(expected.get(i).getPropertyNames()),
+                Arrays.asList(actual.get(i).getPropertyNames()));
+            Assert.assertEquals(
+                Arrays.asList(expected.get(i).getPropertyValues()),
+                Arrays.asList(actual.get(i).getPropertyValues()));
+        }
+    }
+
+    public void testReadAll()
+        throws Exception
+    {
+        HistoryRecordReader reader
+            = new HistoryRecordReader(null, null, null, null, false);
+        List<HistoryRecord> records = readStream(reader, null, null);
+
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals("Hello & bye",
+            records.get(0).getPropertyValues()[1]);
+        Assert.assertEquals("second hello",
+            records.get(1).getPropertyValues()[1]);
+        Assert.assertEquals(1, records.get(2).getPropertyNames().length);
+        assertSameRecords(readDocument(reader, null), records);
+    }
+
+    public void testFilter()
+        throws Exception
+    {
+        HistoryRecordReader reader = new HistoryRecordReader(
+            new Date(10), new Date(30), new String[] { "HELLO" }, "msg",
+            false);
+        List<HistoryRecord> records = readStream(reader, null, null);
+
+        Assert.assertEquals(2, records.size());
+        assertSameRecords(readDocument(reader, null), records);
+
+        reader = new HistoryRecordReader(
+            new Date(15), null, new String[] { "hello" }, "msg", true);
+        records = readStream(reader, null, null);
+
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(new Date(20), records.get(0).getTimestamp());
+        assertSameRecords(readDocument(reader, null), records);
+    }
+
+    public void testCandidatesAndFieldValues()
+        throws Exception
+    {
+        HistoryRecordReader reader = new HistoryRecordReader(
+            null, null, new String[] { "hello" }, "msg", false);
+        BitSet candidates = new BitSet();
+        candidates.set(1);
+        List<String> fieldValues = new ArrayList<String>();
+
+        List<HistoryRecord> records
+            = readStream(reader, candidates, fieldValues);
+
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(new Date(20), records.get(0).getTimestamp());
+        Assert.assertEquals(
+            Arrays.asList("Hello & bye", "second hello", null),
+            fieldValues);
+        assertSameRecords(readDocument(reader, candidates), records);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+
+import org.w3c.dom.*;
+
+public class HistoryTimestampIndexTest
+    extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private File writeHistory(String filename, long... timestamps)
+        throws IOException
+    {
+        File file = new File(directory, filename);
+        Writer out = new OutputStreamWriter(
+            new FileOutputStream(file), "UTF-8");
+        try
+        {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<history>\n");
+            for (long timestamp : timestamps)
+            {
+                out.write("<record timestamp=\"" + timestamp + "\">\n");
+                out.write("<msg>at " + timestamp + " &lt;record&gt;</msg>\n");
+                out.write("</record>\n");
+            }
+            out.write("</history>\n");
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(File file, int offset, int length)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] bytes = new byte[length];
+            raf.seek(offset);
+            raf.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    public void testScan()
+        throws Exception
+    {
+        File file = writeHistory("1.xml", 10, 20, 30);
+        HistoryTimestampIndex index = new HistoryTimestampIndex(directory);
+
+        HistoryTimestampIndex.Segment segment = index.getSegment("1.xml");
+
+        Assert.assertEquals(3, segment.size());
+        for (int i = 0; i < 3; i++)
+        {
+            long timestamp = (i + 1) * 10;
+            String record = read(file,
+                segment.getOffset(i), segment.getLength(i));
+
+            Assert.assertEquals(new Date(timestamp), segment.getTimestamp(i));
+            Assert.assertTrue(record.startsWith(
+                "<record timestamp=\"" + timestamp + "\">"));
+            Assert.assertTrue(record.endsWith("</record>"));
+        }
+        Assert.assertTrue(new File(directory,
+            "1" + HistoryTimestampIndex.FILE_SUFFIX).exists());
+    }
+
+    public void testRecordsAppended()
+        throws Exception
+    {
+        File file = writeHistory("1.xml", 10);
+        HistoryTimestampIndex index = new HistoryTimestampIndex(directory);
+        index.getSegment("1.xml");
+
+        Document doc = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+        Element root = doc.createElement("history");
+        doc.appendChild(root);
+        List<Element> records = new ArrayList<Element>();
+        for (int i = 0; i < 2; i++)
+        {
+            Element record = doc.createElement("record");
+            record.setAttribute("timestamp", String.valueOf(20 + i));
+            Element msg = doc.createElement("msg");
+            msg.appendChild(doc.createTextNode("appended " + i));
+            record.appendChild(msg);
+            root.appendChild(record);
+            records.add(record);
+        }
+
+        long length = file.length();
+        long lastModified = file.lastModified();
+        long[] offsets = new HistoryFileAppender().append(file, records);
+        index.recordsAppended("1.xml", length, lastModified,
+            new long[] { 20, 21 }, offsets);
+
+        HistoryTimestampIndex.Segment segment
+            = new HistoryTimestampIndex(directory).getSegment("1.xml");
+
+        Assert.assertEquals(3, segment.size());
+        Assert.assertEquals(new Date(21), segment.getTimestamp(2));
+        Assert.assertTrue(read(file, segment.getOffset(2),
+            segment.getLength(2)).contains("appended 1"));
+    }
+
+    public void testChangedFileIsScannedAgain()
+        throws Exception
+    {
+        HistoryTimestampIndex index = new HistoryTimestampIndex(directory);
+
+        writeHistory("1.xml", 10, 20);
+        Assert.assertEquals(2, index.getSegment("1.xml").size());
+
+        writeHistory("1.xml", 10, 20, 30, 40);
+        Assert.assertEquals(4, index.getSegment("1.xml").size());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.metahistory;
+
+import java.util.*;
+
+import junit.framework.*;
+
+public class MergingIteratorTest
+    extends TestCase
+{
+    /**
+     * Compares strings by their first character only, so that different
+     * strings can be equal.
+     */
+    private static final Comparator<String> FIRST_CHAR
+        = new Comparator<String>()
+        {
+            public int compare(String s1, String s2)
+            {
+                return s1.charAt(0) - s2.charAt(0);
+            }
+        };
+
+    private List<List<String>> lists;
+
+    @Override
+    protected void setUp()
+    {
+        lists = new ArrayList<List<String>>();
+        lists.add(Arrays.asList("a1", "c1", "e1"));
+        lists.add(new ArrayList<String>());
+        lists.add(Arrays.asList("b2", "c2", "d2", "f2"));
+        lists.add(Arrays.asList("c3"));
+    }
+
+    public void testMergeAll()
+    {
+        Assert.assertEquals(
+            Arrays.asList("a1", "b2", "c1", "c2", "c3", "d2", "e1", "f2"),
+            MergingIterator.merge(lists, FIRST_CHAR, -1, false, false));
+        Assert.assertEquals(
+            Arrays.asList("a1", "b2", "c1", "d2", "e1", "f2"),
+            MergingIterator.merge(lists, FIRST_CHAR, -1, false, true));
+    }
+
+    public void testMergeFirstAndLast()
+    {
+        Assert.assertEquals(
+            Arrays.asList("a1", "b2", "c1"),
+            MergingIterator.merge(lists, FIRST_CHAR, 3, false, true));
+        // from the end equal elements are still taken from the first list
+        Assert.assertEquals(
+            Arrays.asList("c1", "d2", "e1", "f2"),
+            MergingIterator.merge(lists, FIRST_CHAR, 4, true, false));
+        Assert.assertEquals(
+            Arrays.asList("b2", "c1", "d2", "e1", "f2"),
+            MergingIterator.merge(lists, FIRST_CHAR, 5, true, true));
+        Assert.assertTrue(MergingIterator.merge(
+            new ArrayList<List<String>>(), FIRST_CHAR, 4, true, true)
+                .isEmpty());
+    }
+
+    /**
+     * Only the elements which are returned are looked at.
+     */
+    public void testLazy()
+    {
+        final int[] compared = new int[1];
+        Comparator<Integer> comparator = new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                compared[0]++;
+                return i1.compareTo(i2);
+            }
+        };
+
+        List<List<Integer>> sources = new ArrayList<List<Integer>>();
+        for (int s = 0; s < 3; s++)
+        {
+            List<Integer> source = new ArrayList<Integer>();
+            for (int i = 0; i < 100000; i++)
+                source.add(i * 3 + s);
+            sources.add(source);
+        }
+
+        Iterator<Integer> iter
+            = new MergingIterator<Integer>(sources, comparator, false, false);
+        for (int i = 0; i < 10; i++)
+            Assert.assertEquals(Integer.valueOf(i), iter.next());
+        Assert.assertTrue(compared[0] < 100);
+    }
+}
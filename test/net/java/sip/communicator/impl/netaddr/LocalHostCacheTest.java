@@ -0,0 +1,158 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+public class LocalHostCacheTest
+    extends TestCase
+{
+    private static InetAddress address(String address)
+        throws UnknownHostException
+    {
+        return InetAddress.getByName(address);
+    }
+
+    /**
+     * Counts the lookups and answers with the destination's prefix followed
+     * by <tt>.1</tt>.
+     */
+    private static class CountingCache
+        extends LocalHostCache
+    {
+        final List<InetAddress> lookups
+            = Collections.synchronizedList(new ArrayList<InetAddress>());
+
+        @Override
+        protected InetAddress findLocalHost(InetAddress destination)
+        {
+            lookups.add(destination);
+
+            byte[] address = destination.getAddress();
+            address[address.length - 1] = 1;
+            try
+            {
+                return InetAddress.getByAddress(address);
+            }
+            catch (UnknownHostException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public void testPrefixes()
+        throws Exception
+    {
+        Assert.assertEquals(address("192.168.7.0"),
+            LocalHostCache.getDestinationPrefix(address("192.168.7.200")));
+        Assert.assertEquals(address("2001:db8:1:2::"),
+            LocalHostCache.getDestinationPrefix(
+                address("2001:db8:1:2:aaaa:bbbb:cccc:dddd")));
+        Assert.assertNull(
+            LocalHostCache.getDestinationPrefix(address("fe80::1")));
+        Assert.assertNull(
+            LocalHostCache.getDestinationPrefix(address("224.0.0.1")));
+    }
+
+    public void testCachesByPrefix()
+        throws Exception
+    {
+        CountingCache cache = new CountingCache();
+
+        Assert.assertEquals(address("10.1.2.1"),
+            cache.getLocalHost(address("10.1.2.3")));
+        // same prefix: the address found for the first destination
+        Assert.assertEquals(address("10.1.2.1"),
+            cache.getLocalHost(address("10.1.2.99")));
+        Assert.assertEquals(1, cache.lookups.size());
+
+        cache.getLocalHost(address("10.1.3.3"));
+        Assert.assertEquals(2, cache.lookups.size());
+
+        cache.clear();
+        cache.getLocalHost(address("10.1.2.99"));
+        Assert.assertEquals(3, cache.lookups.size());
+    }
+
+    /**
+     * A slow lookup doesn't hold the lookups of other prefixes, and the
+     * threads asking for the same prefix share one lookup.
+     */
+    public void testConcurrentLookups()
+        throws Exception
+    {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final CountingCache cache = new CountingCache()
+        {
+            @Override
+            protected InetAddress findLocalHost(InetAddress destination)
+            {
+                if (destination.getAddress()[2] == 1)
+                {
+                    slowStarted.countDown();
+                    try
+                    {
+                        releaseSlow.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.findLocalHost(destination);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            Callable<InetAddress> slow = new Callable<InetAddress>()
+            {
+                public InetAddress call()
+                    throws Exception
+                {
+                    return cache.getLocalHost(address("10.0.1.5"));
+                }
+            };
+            Future<InetAddress> slow1 = executor.submit(slow);
+            Assert.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+            Future<InetAddress> slow2 = executor.submit(slow);
+
+            Assert.assertEquals(address("10.0.2.1"),
+                cache.getLocalHost(address("10.0.2.5")));
+            Assert.assertFalse(slow1.isDone());
+
+            releaseSlow.countDown();
+            Assert.assertEquals(address("10.0.1.1"),
+                slow1.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(address("10.0.1.1"),
+                slow2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, cache.lookups.size());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.packetlogging.*;
+
+public class PacketRingTest
+    extends TestCase
+{
+    private final PacketRing ring = new PacketRing(4, 100, 1, 1000);
+
+    private final List<PacketRing.Slot> slots
+        = new ArrayList<PacketRing.Slot>();
+
+    public void testPublishedInOrder()
+        throws Exception
+    {
+        PacketRing.Slot first
+            = ring.acquire(PacketLoggingService.ProtocolName.SIP, 50);
+        first.buffer.put((byte) 1);
+        PacketRing.Slot second
+            = ring.acquire(PacketLoggingService.ProtocolName.JABBER, 500);
+        second.buffer.put((byte) 2).put((byte) 2);
+        ring.publish(first);
+        ring.publish(second);
+
+        Assert.assertEquals(2, ring.drainTo(slots, 10, 0));
+        Assert.assertSame(first, slots.get(0));
+        Assert.assertEquals(1, first.buffer.remaining());
+        Assert.assertSame(second, slots.get(1));
+        Assert.assertEquals(2, second.buffer.remaining());
+        Assert.assertEquals(0, ring.drainTo(slots, 10, 0));
+    }
+
+    /**
+     * The media packets only get half of the buffers and are dropped when
+     * they have them, leaving buffers for the signalling.
+     */
+    public void testMediaQuota()
+    {
+        PacketRing.Slot rtp
+            = ring.acquire(PacketLoggingService.ProtocolName.RTP, 50);
+        Assert.assertNotNull(rtp);
+        Assert.assertNotNull(
+            ring.acquire(PacketLoggingService.ProtocolName.ICE4J, 50));
+        Assert.assertNull(
+            ring.acquire(PacketLoggingService.ProtocolName.RTP, 50));
+        Assert.assertEquals(1,
+            ring.getDroppedCount(PacketLoggingService.ProtocolName.RTP));
+
+        Assert.assertNotNull(
+            ring.acquire(PacketLoggingService.ProtocolName.SIP, 50));
+        Assert.assertNotNull(
+            ring.acquire(PacketLoggingService.ProtocolName.SIP, 50));
+
+        ring.release(rtp);
+        Assert.assertNotNull(
+            ring.acquire(PacketLoggingService.ProtocolName.RTP, 50));
+        Assert.assertEquals(0,
+            ring.getDroppedCount(PacketLoggingService.ProtocolName.SIP));
+    }
+
+    /**
+     * The signalling packets wait for a buffer before they are dropped, and
+     * get the one the writing thread releases while they wait.
+     */
+    public void testSignallingWaits()
+        throws Exception
+    {
+        final PacketRing.Slot large
+            = ring.acquire(PacketLoggingService.ProtocolName.SIP, 500);
+
+        Assert.assertNull(
+            ring.acquire(PacketLoggingService.ProtocolName.SIP, 500));
+        Assert.assertEquals(1,
+            ring.getDroppedCount(PacketLoggingService.ProtocolName.SIP));
+
+        final PacketRing.Slot[] acquired = new PacketRing.Slot[1];
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                acquired[0]
+                    = ring.acquire(PacketLoggingService.ProtocolName.SIP, 500);
+            }
+        };
+        producer.start();
+        // release the buffer once the producer waits for it
+        while (producer.getState() != Thread.State.TIMED_WAITING
+                && producer.isAlive())
+        {
+            Thread.yield();
+        }
+        ring.release(large);
+        producer.join();
+
+        Assert.assertSame(large, acquired[0]);
+        Assert.assertEquals(1,
+            ring.getDroppedCount(PacketLoggingService.ProtocolName.SIP));
+
+        // larger than any buffer
+        Assert.assertNull(
+            ring.acquire(PacketLoggingService.ProtocolName.SIP, 5000));
+        Assert.assertEquals(2,
+            ring.getDroppedCount(PacketLoggingService.ProtocolName.SIP));
+    }
+}
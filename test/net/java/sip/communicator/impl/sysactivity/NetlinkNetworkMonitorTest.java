@@ -0,0 +1,103 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.sysactivity;
+
+import java.nio.*;
+
+import junit.framework.*;
+
+public class NetlinkNetworkMonitorTest
+    extends TestCase
+{
+    private final ByteBuffer messages
+        = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+
+    /**
+     * Appends a message with a payload of <tt>payloadLength</tt> bytes,
+     * padded to 4 bytes, and returns the offset of the payload.
+     */
+    private int message(int type, int payloadLength)
+    {
+        int offset = messages.position();
+
+        messages.putInt(NetlinkNetworkMonitor.NLMSG_HDRLEN + payloadLength);
+        messages.putShort((short) type);
+        messages.putShort((short) 0);
+        messages.putInt(0);
+        messages.putInt(0);
+        messages.position(offset + NetlinkNetworkMonitor.NLMSG_HDRLEN
+            + ((payloadLength + 3) & ~3));
+        return offset + NetlinkNetworkMonitor.NLMSG_HDRLEN;
+    }
+
+    private void link(int change)
+    {
+        int payload = message(NetlinkNetworkMonitor.RTM_NEWLINK, 16);
+        messages.putInt(payload + 12, change);
+    }
+
+    private void route(int dstLength, int table)
+    {
+        int payload = message(NetlinkNetworkMonitor.RTM_NEWROUTE, 12);
+        messages.put(payload + 1, (byte) dstLength);
+        messages.put(payload + 4, (byte) table);
+    }
+
+    private boolean isNetworkChange()
+    {
+        return NetlinkNetworkMonitor.isNetworkChange(
+            messages.array(), messages.position());
+    }
+
+    public void testAddressChanges()
+    {
+        message(NetlinkNetworkMonitor.RTM_DELADDR, 9);
+        Assert.assertTrue(isNetworkChange());
+    }
+
+    public void testLinkChanges()
+    {
+        // statistics and wireless events of an interface
+        link(0);
+        Assert.assertFalse(isNetworkChange());
+
+        link(NetlinkNetworkMonitor.IFF_LOWER_UP);
+        Assert.assertTrue(isNetworkChange());
+    }
+
+    public void testRouteChanges()
+    {
+        route(24, NetlinkNetworkMonitor.RT_TABLE_MAIN);
+        route(0, 255);
+        Assert.assertFalse(isNetworkChange());
+
+        // a new default route, after an odd sized message
+        message(NetlinkNetworkMonitor.RTM_NEWLINK, 3);
+        route(0, NetlinkNetworkMonitor.RT_TABLE_MAIN);
+        Assert.assertTrue(isNetworkChange());
+    }
+
+    public void testTruncatedMessages()
+    {
+        message(NetlinkNetworkMonitor.RTM_NEWADDR, 8);
+        Assert.assertFalse(NetlinkNetworkMonitor.isNetworkChange(
+            messages.array(), messages.position() - 1));
+        Assert.assertFalse(NetlinkNetworkMonitor.isNetworkChange(
+            messages.array(), 4));
+    }
+}
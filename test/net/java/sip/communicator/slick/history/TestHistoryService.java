@@ -17,12 +17,15 @@
  */
 package net.java.sip.communicator.slick.history;
 
+import java.io.*;
 import java.util.*;
 
 import junit.framework.*;
 import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.event.*;
 import net.java.sip.communicator.service.history.records.*;
 
+import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 public class TestHistoryService extends TestCase {
@@ -53,6 +56,8 @@ public static Test suite()
         suite.addTest(new TestHistoryService("testCreateDB"));
         suite.addTest(new TestHistoryService("testWriteRecords"));
         suite.addTest(new TestHistoryService("testReadRecords"));
+        suite.addTest(new TestHistoryService("testReadRecordsInOrder"));
+        suite.addTest(new TestHistoryService("testFlushRecords"));
         suite.addTest(new TestHistoryService("testPurgeLocallyStoredHistory"));
         suite.addTest(new TestHistoryService("testCreatingHistoryIDFromFS"));
         suite.addTest(new TestHistoryService("testWriteRecordsWithMaxNumber"));
@@ -189,6 +194,172 @@ public void testReadRecords()
         }
     }
 
+    /**
+     * The records found in all the files of the history are ordered by their
+     * timestamps, and the search is finished once they are all iterated.
+     */
+    public void testReadRecordsInOrder()
+    {
+        HistoryReader reader = this.history.getReader();
+        final List<Integer> progress = new ArrayList<Integer>();
+        HistorySearchProgressListener listener
+            = new HistorySearchProgressListener()
+            {
+                public void progressChanged(ProgressEvent evt)
+                {
+                    progress.add(evt.getProgress());
+                }
+            };
+
+        reader.addSearchProgressListener(listener);
+        try
+        {
+            QueryResultSet<HistoryRecord> result
+                = reader.findByKeyword("name", "name");
+
+            assertFalse("No progress", progress.isEmpty());
+            assertTrue("Search finished before the records are read",
+                progress.get(progress.size() - 1)
+                    < HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+
+            Date last = null;
+            int count = 0;
+            while (result.hasNext())
+            {
+                Date timestamp = result.nextRecord().getTimestamp();
+
+                if (last != null)
+                    assertTrue("Records not in order", timestamp.after(last));
+                last = timestamp;
+                count++;
+            }
+            assertTrue("Nothing found", count > 0);
+        }
+        finally
+        {
+            reader.removeSearchProgressListener(listener);
+        }
+
+        assertEquals("Search not finished",
+            HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE,
+            (int) progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++)
+        {
+            assertTrue("Progress going back",
+                progress.get(i - 1) <= progress.get(i));
+        }
+    }
+
+    /**
+     * Records may be written some time after they are added, after a flush
+     * they must be read by a history loaded again from the disk.
+     */
+    public void testFlushRecords()
+    {
+        HistoryWriter writer = this.history.getWriter();
+
+        try
+        {
+            String[] ages = new String[10];
+            for (int i = 0; i < 10; i++)
+            {
+                ages[i] = "" + random.nextInt();
+                writer.addRecord(new String[] { ages[i],
+                                 "flushed" + i,
+                                 "m" });
+                // records with the same timestamp are merged when read
+                Thread.sleep(5);
+            }
+            writer.flush();
+
+            // the records are in the files before the history is read
+            String files = readHistoryFiles(this.history.getID());
+            for (int i = 0; i < 10; i++)
+            {
+                assertTrue("Record not written: flushed" + i,
+                    files.contains("flushed" + i)
+                        && files.contains(ages[i]));
+            }
+
+            this.historyService.purgeLocallyCachedHistories();
+            History loaded = this.historyService.createHistory(
+                this.history.getID(), recordStructure);
+
+            QueryResultSet<HistoryRecord> result
+                = loaded.getReader().findLast(10);
+            int count = 0;
+            while (result.hasNext())
+            {
+                HistoryRecord record = result.nextRecord();
+
+                assertEquals("flushed" + count,
+                    record.getPropertyValues()[1]);
+                count++;
+            }
+            assertEquals("Wrong count of records", 10, count);
+        }
+        catch (Exception e)
+        {
+            fail("Could not write records. Reason: " + e);
+        }
+    }
+
+    /**
+     * Returns the contents of the files of a history.
+     *
+     * @param id the ID of the history
+     * @return the contents of all the files of the history
+     * @throws Exception if the files can't be read
+     */
+    private String readHistoryFiles(HistoryID id)
+        throws Exception
+    {
+        BundleContext context = HistoryServiceLick.bc;
+        ServiceReference ref = context.getServiceReference(
+            FileAccessService.class.getName());
+        FileAccessService fileAccessService
+            = (FileAccessService) context.getService(ref);
+
+        StringBuilder contents = new StringBuilder();
+        try
+        {
+            String dataDirectory = System.getProperty(
+                "HistoryServiceDirectory", "history_ver1.0");
+            File dir = fileAccessService.getPrivatePersistentDirectory(
+                dataDirectory, FileCategory.PROFILE);
+
+            for (String component : id.getID())
+                dir = new File(dir, component);
+
+            File[] files = dir.listFiles();
+            assertNotNull("No history directory " + dir, files);
+            for (File file : files)
+            {
+                if (!file.getName().endsWith(".xml"))
+                    continue;
+
+                Reader in = new InputStreamReader(
+                    new FileInputStream(file), "UTF-8");
+                try
+                {
+                    char[] buf = new char[4096];
+                    int read;
+                    while ((read = in.read(buf)) != -1)
+                        contents.append(buf, 0, read);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+        }
+        finally
+        {
+            context.ungetService(ref);
+        }
+        return contents.toString();
+    }
+
     public void testPurgeLocallyStoredHistory()
     {
         try
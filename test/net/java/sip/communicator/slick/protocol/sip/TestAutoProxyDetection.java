@@ -25,6 +25,7 @@
 
 import java.net.*;
 import java.text.*;
+import java.util.concurrent.*;
 
 import junit.framework.*;
 import net.java.sip.communicator.impl.protocol.sip.*;
@@ -117,6 +118,28 @@ public void setUp()
         a4 = new InetSocketAddress(ia4, 5063);
     }
 
+    /**
+     * Returns a completed SRV lookup, as returned by
+     * <tt>getSRVRecordsAsync</tt>.
+     *
+     * @param records the records found by the lookup
+     * @return the lookup
+     */
+    private static Future<SRVRecord[]> lookup(SRVRecord[] records)
+    {
+        FutureTask<SRVRecord[]> lookup = new FutureTask<SRVRecord[]>(
+            new Runnable()
+            {
+                public void run()
+                {
+                }
+            },
+            records);
+
+        lookup.run();
+        return lookup;
+    }
+
     private void prepareOneNaptrOneSrv() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{
@@ -278,9 +301,12 @@ public void testThreeNaptrOneSrvEachOneAEach()
     public void testNoSrvOneA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN)).andReturn(null);
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(null));
         expect(nu.getAandAAAARecords(DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1});
 
@@ -297,10 +323,12 @@ public void testNoSrvOneA() throws ParseException, DnssecException
     public void testOneSrvNoA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv1});
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv1}));
         expect(nu.getAandAAAARecords("proxy1." + DOMAIN, 5060))
             .andReturn(null);
 
@@ -313,10 +341,12 @@ public void testOneSrvNoA() throws ParseException, DnssecException
     public void testOneSrvOneA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv1});
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv1}));
         expect(nu.getAandAAAARecords("proxy1." + DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1});
 
@@ -333,10 +363,12 @@ public void testOneSrvOneA() throws ParseException, DnssecException
     public void testOneSrvTwoA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv1});
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv1}));
         expect(nu.getAandAAAARecords("proxy1." + DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1, a2});
 
@@ -357,11 +389,12 @@ public void testOneSrvTwoA() throws ParseException, DnssecException
     public void testTwoSrvOneA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv2});
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv1});
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv2}));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv1}));
         expect(nu.getAandAAAARecords("proxy1." + DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1});
         expect(nu.getAandAAAARecords("proxy2." + DOMAIN, 5061))
@@ -384,10 +417,12 @@ public void testTwoSrvOneA() throws ParseException, DnssecException
     public void testTwoSameSrvOneA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN))
-            .andReturn(new SRVRecord[]{srv1, srv2});
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN)).andReturn(null);
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(new SRVRecord[]{srv1, srv2}));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(null));
         expect(nu.getAandAAAARecords("proxy1." + DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1});
         expect(nu.getAandAAAARecords("proxy2." + DOMAIN, 5061))
@@ -414,9 +449,12 @@ public void testTwoSameSrvOneA() throws ParseException, DnssecException
     public void testNoA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN)).andReturn(null);
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(null));
         expect(nu.getAandAAAARecords(DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{});
 
@@ -429,9 +467,12 @@ public void testNoA() throws ParseException, DnssecException
     public void testOneA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN)).andReturn(null);
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(null));
         expect(nu.getAandAAAARecords(DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1});
 
@@ -448,9 +489,12 @@ public void testOneA() throws ParseException, DnssecException
     public void testTwoA() throws ParseException, DnssecException
     {
         expect(nu.getNAPTRRecords(DOMAIN)).andReturn(new String[][]{});
-        expect(nu.getSRVRecords("sips", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "TCP", DOMAIN)).andReturn(null);
-        expect(nu.getSRVRecords("sip", "UDP", DOMAIN)).andReturn(null);
+        expect(nu.getSRVRecordsAsync("sips", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "TCP", DOMAIN))
+            .andReturn(lookup(null));
+        expect(nu.getSRVRecordsAsync("sip", "UDP", DOMAIN))
+            .andReturn(lookup(null));
         expect(nu.getAandAAAARecords(DOMAIN, 5060))
             .andReturn(new InetSocketAddress[]{a1, a2});
 
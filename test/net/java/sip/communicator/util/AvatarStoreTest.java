@@ -0,0 +1,133 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+public class AvatarStoreTest
+    extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        dir = File.createTempFile("avatarstore", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(dir);
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+
+        if (files != null)
+        {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    private String[] images()
+    {
+        String[] images = new File(dir, AvatarStore.IMAGES_DIR).list();
+
+        return (images == null) ? new String[0] : images;
+    }
+
+    public void testSharedByContent()
+    {
+        AvatarStore store = new AvatarStore(dir);
+        byte[] avatar = new byte[] { 1, 2, 3 };
+
+        AvatarStore.Avatar alice = store.put("alice", avatar);
+        AvatarStore.Avatar bob = store.put("bob", avatar.clone());
+
+        Assert.assertSame(alice, bob);
+        Assert.assertSame(alice, store.get("alice"));
+        Assert.assertEquals(1, images().length);
+        Assert.assertEquals(alice.getHash(), images()[0]);
+
+        store.put("carol", new byte[] { 4 });
+        Assert.assertEquals(2, images().length);
+
+        Assert.assertNull(store.get("dave"));
+        Assert.assertNull(store.put("bob", new byte[0]));
+        Assert.assertNull(store.get("bob"));
+    }
+
+    public void testReadFromDisk()
+    {
+        AvatarStore store = new AvatarStore(dir);
+        byte[] avatar = new byte[] { 1, 2, 3 };
+
+        store.put("alice", avatar);
+        store.put("bob", new byte[] { 4 });
+        store.put("bob", avatar);
+        store.put("carol", new byte[] { 5 });
+        store.remove("carol");
+
+        store = new AvatarStore(dir);
+        Assert.assertTrue(
+            Arrays.equals(avatar, store.get("alice").getBytes()));
+        Assert.assertSame(store.get("alice"), store.get("bob"));
+        Assert.assertNull(store.get("carol"));
+    }
+
+    public void testIndexCompacted()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        for (int i = 0; i < 100; i++)
+            store.put("alice", new byte[] { (byte) i });
+        store.put("bob", new byte[] { 1 });
+
+        File index = new File(dir, AvatarStore.INDEX_FILE);
+        Assert.assertTrue(index.length() < 50 * 20);
+
+        store = new AvatarStore(dir);
+        Assert.assertTrue(
+            Arrays.equals(new byte[] { 99 },
+                store.get("alice").getBytes()));
+        Assert.assertTrue(
+            Arrays.equals(new byte[] { 1 }, store.get("bob").getBytes()));
+
+        // the images of the previous avatars of alice are gone
+        Assert.assertTrue(images().length < 50);
+    }
+
+    public void testImageDeleted()
+    {
+        AvatarStore store = new AvatarStore(dir);
+        AvatarStore.Avatar avatar = store.put("alice", new byte[] { 1 });
+
+        Assert.assertTrue(avatar.getFile().delete());
+        Assert.assertNull(store.get("alice"));
+    }
+}